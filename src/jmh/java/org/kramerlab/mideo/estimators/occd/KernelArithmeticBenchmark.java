@@ -0,0 +1,134 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the scalar and the vectorized kernel evaluation (see {@link
+ * KernelArithmetic}). It is compiled and run by the {@code jdk17}
+ * profile: {@code mvn -Dvector test-compile exec:exec@benchmark}.
+ * Since {@link GaussianMixture#evaluate} always uses the default
+ * implementation, its scalar version is measured by passing {@code
+ * -jvmArgsAppend -Dmideo.vectorization=false} to JMH.
+ *
+ * @author Michael Geilke
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelArithmeticBenchmark {
+
+    /**
+     * scalar: {@link ScalarKernelArithmetic}, default: the
+     * implementation chosen by {@link KernelArithmetic#getInstance}
+     */
+    @Param({"scalar", "default"})
+    public String arithmetic;
+
+    @Param({"1000", "10000"})
+    public int numKernels;
+
+    @Param({"10"})
+    public int numBins;
+
+    private KernelArithmetic impl;
+    private double[] means;
+    private double[] weights;
+    private int[] factors;
+    private double[] w;
+    private double scale;
+    private GaussianMixture mixture;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        impl = "scalar".equals(arithmetic) 
+            ? KernelArithmetic.scalar() : KernelArithmetic.getInstance();
+        Random random = new Random(1);
+        means = new double[numKernels];
+        weights = new double[numKernels];
+        for (int i = 0; i < numKernels; i++) {
+            means[i] = 5 * random.nextGaussian();
+            weights[i] = random.nextDouble();
+        }
+        factors = new int[numKernels * numBins];
+        for (int i = 0; i < factors.length; i++) {
+            factors[i] = random.nextInt(100);
+        }
+        w = new double[numBins];
+        for (int b = 0; b < numBins; b++) {
+            w[b] = 1.0 / numBins;
+        }
+        double sigma = 0.3;
+        scale = 1.0 / (2 * sigma * sigma);
+
+        // GaussianMixture always uses the default implementation
+        mixture = new GaussianMixture(numKernels, sigma, numBins);
+        for (int i = 0; i < numKernels; i++) {
+            mixture.add(means[i], random.nextInt(numBins));
+        }
+    }
+
+    private double nextQuery() {
+        query = (query + 1) % 400;
+        return query / 20.0 - 10;
+    }
+
+    @Benchmark
+    public double sumGaussians() {
+        return impl.sumGaussians(means, 0, weights, numKernels, 
+                                 nextQuery(), scale);
+    }
+
+    @Benchmark
+    public double dot() {
+        double sum = 0.0;
+        for (int offset = 0; offset < factors.length; offset += numBins) {
+            sum += impl.dot(w, factors, offset, numBins);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return mixture.evaluate(nextQuery(), w);
+    }
+}
@@ -131,10 +131,24 @@ public class NaiveBayes extends AbstractClassifier {
     public static double[] doNaiveBayesPrediction(Instance inst,
             DoubleVector observedClassDistribution,
             AutoExpandVector<AttributeClassObserver> attributeObservers) {
-        double[] votes = new double[observedClassDistribution.numValues()];
-        double observedClassSum = observedClassDistribution.sumOfValues();
+        return doNaiveBayesPrediction(inst,
+                observedClassDistribution.getArrayRef(), attributeObservers);
+    }
+
+    /**
+     * Same as above, but the class distribution is given as an array.
+     * EXTENSION
+     */
+    public static double[] doNaiveBayesPrediction(Instance inst,
+            double[] observedClassDistribution,
+            AutoExpandVector<AttributeClassObserver> attributeObservers) {
+        double[] votes = new double[observedClassDistribution.length];
+        double observedClassSum = 0.0;
+        for (double weight : observedClassDistribution) {
+            observedClassSum += weight;
+        }
         for (int classIndex = 0; classIndex < votes.length; classIndex++) {
-            votes[classIndex] = observedClassDistribution.getValue(classIndex)
+            votes[classIndex] = observedClassDistribution[classIndex]
                     / observedClassSum;
             for (int attIndex = 0; attIndex < inst.numAttributes() - 1; attIndex++) {
                 int instAttIndex = modelAttIndexToInstanceAttIndex(attIndex,
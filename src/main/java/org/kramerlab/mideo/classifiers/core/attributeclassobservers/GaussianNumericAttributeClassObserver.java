@@ -58,6 +58,34 @@ public class GaussianNumericAttributeClassObserver extends AbstractOptionHandler
     public IntOption numBinsOption = new IntOption("numBins", 'n',
             "The number of bins.", 10, 1, Integer.MAX_VALUE);
 
+    public GaussianNumericAttributeClassObserver() {
+    }
+
+    /**
+     * Creates a copy of {@code toCopy} without serializing it.
+     *
+     * @param toCopy the observer that is supposed to be copied
+     * EXTENSION
+     */
+    public GaussianNumericAttributeClassObserver(
+            GaussianNumericAttributeClassObserver toCopy) {
+        this.numBinsOption.setValue(toCopy.numBinsOption.getValue());
+        // backwards, so that the vectors are enlarged only once
+        for (int i = toCopy.attValDistPerClass.size() - 1; i >= 0; i--) {
+            GaussianEstimator valDist = toCopy.attValDistPerClass.get(i);
+            if (valDist != null) {
+                // an empty estimator takes over the statistics
+                GaussianEstimator copy = new GaussianEstimator();
+                copy.addObservations(valDist);
+                this.attValDistPerClass.set(i, copy);
+                this.minValueObservedPerClass.setValue(i,
+                        toCopy.minValueObservedPerClass.getValue(i));
+                this.maxValueObservedPerClass.setValue(i,
+                        toCopy.maxValueObservedPerClass.getValue(i));
+            }
+        }
+    }
+
     @Override
     public void observeAttributeClass(double attVal, int classVal, double weight) {
         if (Utils.isMissingValue(attVal)) {
@@ -80,6 +108,38 @@ public class GaussianNumericAttributeClassObserver extends AbstractOptionHandler
         }
     }
 
+    /**
+     * Adds the observations of {@code other}, e.g., the observer of the
+     * same attribute in a tree trained on another part of the stream.
+     *
+     * @param other an observer of the same attribute
+     */
+    public void merge(GaussianNumericAttributeClassObserver other) {
+        for (int i = 0; i < other.attValDistPerClass.size(); i++) {
+            GaussianEstimator otherDist = other.attValDistPerClass.get(i);
+            if (otherDist == null) {
+                continue;
+            }
+            double otherMin = other.minValueObservedPerClass.getValue(i);
+            double otherMax = other.maxValueObservedPerClass.getValue(i);
+            GaussianEstimator valDist = this.attValDistPerClass.get(i);
+            if (valDist == null) {
+                valDist = new GaussianEstimator();
+                this.attValDistPerClass.set(i, valDist);
+                this.minValueObservedPerClass.setValue(i, otherMin);
+                this.maxValueObservedPerClass.setValue(i, otherMax);
+            } else {
+                if (otherMin < this.minValueObservedPerClass.getValue(i)) {
+                    this.minValueObservedPerClass.setValue(i, otherMin);
+                }
+                if (otherMax > this.maxValueObservedPerClass.getValue(i)) {
+                    this.maxValueObservedPerClass.setValue(i, otherMax);
+                }
+            }
+            valDist.addObservations(otherDist);
+        }
+    }
+
     @Override
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal) {
@@ -19,6 +19,8 @@
  */
 package org.kramerlab.mideo.classifiers.core.attributeclassobservers;
 
+import java.util.Arrays;
+
 import moa.classifiers.core.AttributeSplitSuggestion;
 import moa.classifiers.core.attributeclassobservers.DiscreteAttributeClassObserver;
 import moa.classifiers.core.conditionaltests.NominalAttributeBinaryTest;
@@ -27,7 +29,6 @@ import moa.classifiers.core.splitcriteria.SplitCriterion;
 import moa.core.ObjectRepository;
 import moa.tasks.TaskMonitor;
 import moa.core.Utils;
-import moa.core.AutoExpandVector;
 import moa.options.AbstractOptionHandler;
 
 import org.kramerlab.mideo.classifiers.core.DoubleVector;
@@ -38,6 +39,9 @@ import org.kramerlab.mideo.classifiers.core.DoubleVector;
  * attribute. Used in naive Bayes and decision trees to monitor data
  * statistics on leaves.
  *
+ * <p>EXTENSION: The weights are kept in a flat table of primitives,
+ * which can be sized from the header in advance.</p>
+ *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  */
 public class NominalAttributeClassObserver extends AbstractOptionHandler implements
@@ -49,7 +53,91 @@ public class NominalAttributeClassObserver extends AbstractOptionHandler impleme
 
     protected double missingWeightObserved = 0.0;
 
-    public AutoExpandVector<DoubleVector> attValDistPerClass = new AutoExpandVector<DoubleVector>();
+    // EXTENSION: The weights of the attribute values are stored in a
+    // single table, where the weight of value v and class c is
+    // classDistPerAttVal[v * numClasses + c]. For class c, the values
+    // 0, ..., numValuesPerClass[c] - 1 have been observed (or lie
+    // between observed ones), and all other entries contain the laplace
+    // correction. weightPerClass[c] is the sum of the observed entries.
+    protected double[] classDistPerAttVal;
+
+    protected double[] weightPerClass;
+
+    protected int[] numValuesPerClass;
+
+    protected int numAttValues;
+
+    protected int numClasses;
+
+    public NominalAttributeClassObserver() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates an observer whose table already covers the given numbers
+     * of attribute values and classes, so that it does not need to be
+     * enlarged during training.
+     *
+     * @param numAttValues the number of values of the attribute
+     * @param numClasses the number of classes
+     * EXTENSION
+     */
+    public NominalAttributeClassObserver(int numAttValues, int numClasses) {
+        this.classDistPerAttVal = new double[numAttValues * numClasses];
+        Arrays.fill(this.classDistPerAttVal, DoubleVector.getLaplaceCorrection());
+        this.weightPerClass = new double[numClasses];
+        this.numValuesPerClass = new int[numClasses];
+        this.numAttValues = numAttValues;
+        this.numClasses = numClasses;
+    }
+
+    /**
+     * Creates a copy of {@code toCopy} without serializing it.
+     *
+     * @param toCopy the observer that is supposed to be copied
+     * EXTENSION
+     */
+    public NominalAttributeClassObserver(NominalAttributeClassObserver toCopy) {
+        this.totalWeightObserved = toCopy.totalWeightObserved;
+        this.missingWeightObserved = toCopy.missingWeightObserved;
+        this.classDistPerAttVal = toCopy.classDistPerAttVal.clone();
+        this.weightPerClass = toCopy.weightPerClass.clone();
+        this.numValuesPerClass = toCopy.numValuesPerClass.clone();
+        this.numAttValues = toCopy.numAttValues;
+        this.numClasses = toCopy.numClasses;
+    }
+
+    /* Enlarges the table if it does not cover attribute value v and
+     * class c. EXTENSION */
+    private void ensureCapacity(int v, int c) {
+        if (v < numAttValues && c < numClasses) {
+            return;
+        }
+        int newNumAttValues = Math.max(numAttValues, v + 1);
+        int newNumClasses = Math.max(numClasses, c + 1);
+        double[] dist = new double[newNumAttValues * newNumClasses];
+        Arrays.fill(dist, DoubleVector.getLaplaceCorrection());
+        for (int i = 0; i < numAttValues; i++) {
+            System.arraycopy(classDistPerAttVal, i * numClasses, dist,
+                    i * newNumClasses, numClasses);
+        }
+        this.classDistPerAttVal = dist;
+        this.weightPerClass = Arrays.copyOf(weightPerClass, newNumClasses);
+        this.numValuesPerClass = Arrays.copyOf(numValuesPerClass, newNumClasses);
+        this.numAttValues = newNumAttValues;
+        this.numClasses = newNumClasses;
+    }
+
+    /* Marks the values up to v as observed for class c, where the
+     * values that have not been observed before enter with the laplace
+     * correction. EXTENSION */
+    private void extendValues(int v, int c) {
+        int observed = numValuesPerClass[c];
+        if (v >= observed) {
+            weightPerClass[c] += (v + 1 - observed) * DoubleVector.getLaplaceCorrection();
+            numValuesPerClass[c] = v + 1;
+        }
+    }
 
     @Override
     public void observeAttributeClass(double attVal, int classVal, double weight) {
@@ -57,12 +145,10 @@ public class NominalAttributeClassObserver extends AbstractOptionHandler impleme
             this.missingWeightObserved += weight;
         } else {
             int attValInt = (int) attVal;
-            DoubleVector valDist = this.attValDistPerClass.get(classVal);
-            if (valDist == null) {
-                valDist = new DoubleVector();
-                this.attValDistPerClass.set(classVal, valDist);
-            }
-            valDist.addToValue(attValInt, weight);
+            ensureCapacity(attValInt, classVal);
+            extendValues(attValInt, classVal);
+            this.classDistPerAttVal[attValInt * numClasses + classVal] += weight;
+            this.weightPerClass[classVal] += weight;
         }
         this.totalWeightObserved += weight;
     }
@@ -70,9 +156,45 @@ public class NominalAttributeClassObserver extends AbstractOptionHandler impleme
     @Override
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal) {
-        DoubleVector obs = this.attValDistPerClass.get(classVal);
-        return obs != null ? (obs.getValue((int) attVal) + 1.0)
-                / (obs.sumOfValues() + obs.numValues()) : 0.0;
+        if (classVal < 0 || classVal >= numClasses
+                || numValuesPerClass[classVal] == 0) {
+            return 0.0;
+        }
+        int attValInt = (int) attVal;
+        int observed = numValuesPerClass[classVal];
+        double weight = (attValInt >= 0 && attValInt < observed)
+                ? classDistPerAttVal[attValInt * numClasses + classVal]
+                : DoubleVector.getLaplaceCorrection();
+        return (weight + 1.0) / (weightPerClass[classVal] + observed);
+    }
+
+    /**
+     * Adds the observations of {@code other}, e.g., the observer of the
+     * same attribute in a tree trained on another part of the stream.
+     * Only the observed weights are added, so that every entry contains
+     * the laplace correction once, as if this observer had observed the
+     * instances of both.
+     *
+     * @param other an observer of the same attribute
+     */
+    public void merge(NominalAttributeClassObserver other) {
+        double laplaceCorrection = DoubleVector.getLaplaceCorrection();
+        for (int c = 0; c < other.numClasses; c++) {
+            int otherObserved = other.numValuesPerClass[c];
+            if (otherObserved == 0) {
+                continue;
+            }
+            ensureCapacity(otherObserved - 1, c);
+            extendValues(otherObserved - 1, c);
+            for (int v = 0; v < otherObserved; v++) {
+                double weight = other.classDistPerAttVal[v * other.numClasses + c]
+                        - laplaceCorrection;
+                this.classDistPerAttVal[v * numClasses + c] += weight;
+                this.weightPerClass[c] += weight;
+            }
+        }
+        this.totalWeightObserved += other.totalWeightObserved;
+        this.missingWeightObserved += other.missingWeightObserved;
     }
 
     public double totalWeightOfClassObservations() {
@@ -112,53 +234,67 @@ public class NominalAttributeClassObserver extends AbstractOptionHandler impleme
 
     public int getMaxAttValsObserved() {
         int maxAttValsObserved = 0;
-        for (DoubleVector attValDist : this.attValDistPerClass) {
-            if ((attValDist != null)
-                    && (attValDist.numValues() > maxAttValsObserved)) {
-                maxAttValsObserved = attValDist.numValues();
+        for (int c = 0; c < numClasses; c++) {
+            if (numValuesPerClass[c] > maxAttValsObserved) {
+                maxAttValsObserved = numValuesPerClass[c];
             }
         }
         return maxAttValsObserved;
     }
 
+    // EXTENSION: As before, the distribution of a branch covers the
+    // classes up to the largest one that reached it, and every entry
+    // starts with the laplace correction.
     public double[][] getClassDistsResultingFromMultiwaySplit(
             int maxAttValsObserved) {
-        DoubleVector[] resultingDists = new DoubleVector[maxAttValsObserved];
-        for (int i = 0; i < resultingDists.length; i++) {
-            resultingDists[i] = new DoubleVector();
-        }
-       for (int i = 0; i < this.attValDistPerClass.size(); i++) {
-            DoubleVector attValDist = this.attValDistPerClass.get(i);
-            if (attValDist != null) {
-                for (int j = 0; j < attValDist.numValues(); j++) {
-                    resultingDists[j].addToValue(i, attValDist.getValue(j));
+        double laplaceCorrection = DoubleVector.getLaplaceCorrection();
+        double[][] distributions = new double[maxAttValsObserved][];
+        for (int v = 0; v < distributions.length; v++) {
+            int length = 0;
+            for (int c = 0; c < numClasses; c++) {
+                if (numValuesPerClass[c] > v) {
+                    length = c + 1;
                 }
             }
-        }
-        double[][] distributions = new double[maxAttValsObserved][];
-        for (int i = 0; i < distributions.length; i++) {
-            distributions[i] = resultingDists[i].getArrayRef();
+            double[] dist = new double[length];
+            for (int c = 0; c < length; c++) {
+                dist[c] = laplaceCorrection;
+                if (numValuesPerClass[c] > v) {
+                    dist[c] += classDistPerAttVal[v * numClasses + c];
+                }
+            }
+            distributions[v] = dist;
         }
         return distributions;
     }
 
     public double[][] getClassDistsResultingFromBinarySplit(int valIndex) {
-        DoubleVector equalsDist = new DoubleVector();
-        DoubleVector notEqualDist = new DoubleVector();
-        for (int i = 0; i < this.attValDistPerClass.size(); i++) {
-            DoubleVector attValDist = this.attValDistPerClass.get(i);
-            if (attValDist != null) {
-                for (int j = 0; j < attValDist.numValues(); j++) {
-                    if (j == valIndex) {
-                        equalsDist.addToValue(i, attValDist.getValue(j));
-                    } else {
-                        notEqualDist.addToValue(i, attValDist.getValue(j));
-                    }
+        double laplaceCorrection = DoubleVector.getLaplaceCorrection();
+        int equalsLength = 0;
+        int notEqualLength = 0;
+        for (int c = 0; c < numClasses; c++) {
+            int observed = numValuesPerClass[c];
+            if (observed > valIndex) {
+                equalsLength = c + 1;
+            }
+            if (observed > 1 || (observed == 1 && valIndex != 0)) {
+                notEqualLength = c + 1;
+            }
+        }
+        double[] equalsDist = new double[equalsLength];
+        double[] notEqualDist = new double[notEqualLength];
+        Arrays.fill(equalsDist, laplaceCorrection);
+        Arrays.fill(notEqualDist, laplaceCorrection);
+        for (int c = 0; c < numClasses; c++) {
+            for (int v = 0; v < numValuesPerClass[c]; v++) {
+                if (v == valIndex) {
+                    equalsDist[c] += classDistPerAttVal[v * numClasses + c];
+                } else {
+                    notEqualDist[c] += classDistPerAttVal[v * numClasses + c];
                 }
             }
         }
-        return new double[][]{equalsDist.getArrayRef(),
-                    notEqualDist.getArrayRef()};
+        return new double[][]{equalsDist, notEqualDist};
     }
 
     @Override
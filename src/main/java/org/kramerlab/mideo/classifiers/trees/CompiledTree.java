@@ -0,0 +1,227 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.classifiers.trees;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.classifiers.core.conditionaltests.InstanceConditionalTest;
+import moa.classifiers.core.conditionaltests.NominalAttributeMultiwayTest;
+import moa.classifiers.core.conditionaltests.NumericAttributeBinaryTest;
+
+import org.kramerlab.mideo.classifiers.trees.HoeffdingTree.Node;
+import org.kramerlab.mideo.classifiers.trees.HoeffdingTree.SplitNode;
+
+/**
+ * CompiledTree is a read-optimized representation of a {@link
+ * HoeffdingTree} that is used to make predictions. The nodes are
+ * numbered in depth-first order, and the split tests are stored in
+ * flat arrays: the kind of the test, the attribute, the threshold, and
+ * the offset of the children in a common array of node numbers. Hence,
+ * a prediction neither follows the references between the nodes nor
+ * dispatches the split tests.
+ *
+ * <p>The structure of a compiled tree is fixed. After a split (or any
+ * other change of the structure), the Hoeffding tree discards it and
+ * compiles a new one on the next request (see {@link
+ * HoeffdingTree#getCompiledTree}). The votes are taken from the node
+ * that has been reached, whose statistics are published by volatile
+ * writes while the tree is trained: a class distribution is replaced
+ * by a new array on every update, and Naive Bayes leaves publish
+ * snapshots of their observers. Thus, the votes are always those of a
+ * complete update, and the compiled tree itself is never changed.</p>
+ *
+ * <p>Numeric binary tests and nominal multiway tests are evaluated
+ * directly, where numeric tests are expected to pass values that are
+ * equal to the split value (as created by
+ * GaussianNumericAttributeClassObserver). Other tests are delegated to
+ * the original objects.</p>
+ *
+ * @author Michael Geilke
+ */
+public class CompiledTree {
+
+    // kinds of nodes
+    private static final byte LEAF = 0;
+    private static final byte NUMERIC = 1;
+    private static final byte MULTIWAY = 2;
+    private static final byte DELEGATED_TEST = 3;
+
+    private final HoeffdingTree ht;
+
+    // split tests
+    private final byte[] kinds;
+    private final int[] attributes;
+    private final double[] thresholds;
+    private final InstanceConditionalTest[] tests;
+
+    // the children of node i are children[firstChild[i]] to
+    // children[firstChild[i] + numChildren[i] - 1], where -1 denotes a
+    // missing child
+    private final int[] firstChild;
+    private final int[] numChildren;
+    private final int[] children;
+
+    // the original nodes, which provide the votes
+    private final Node[] nodes;
+
+    // used while compiling
+    private int numNodes;
+    private int numEdges;
+
+    /**
+     * Compiles the current structure of {@code ht}. It must not be
+     * trained at the same time.
+     *
+     * @param ht the Hoeffding tree to be compiled
+     */
+    CompiledTree(HoeffdingTree ht) {
+        this.ht = ht;
+        Node root = ht.getRoot();
+        if (root != null) {
+            count(root);
+        }
+        this.kinds = new byte[numNodes];
+        this.attributes = new int[numNodes];
+        this.thresholds = new double[numNodes];
+        this.tests = new InstanceConditionalTest[numNodes];
+        this.firstChild = new int[numNodes];
+        this.numChildren = new int[numNodes];
+        this.children = new int[numEdges];
+        this.nodes = new Node[numNodes];
+
+        numNodes = 0;
+        numEdges = 0;
+        if (root != null) {
+            add(root);
+        }
+    }
+
+    /* Counts the nodes and children of the subtree. */
+    private void count(Node node) {
+        numNodes++;
+        if (node instanceof SplitNode) {
+            SplitNode split = (SplitNode) node;
+            numEdges += split.numChildren();
+            for (int i = 0; i < split.numChildren(); i++) {
+                Node child = split.getChild(i);
+                if (child != null) {
+                    count(child);
+                }
+            }
+        }
+    }
+
+    /* Adds the subtree in depth-first order and returns the number of
+     * its root. */
+    private int add(Node node) {
+        int id = numNodes++;
+        nodes[id] = node;
+        if (node instanceof SplitNode) {
+            SplitNode split = (SplitNode) node;
+            compileTest(id, split.splitTest);
+            int first = numEdges;
+            firstChild[id] = first;
+            numChildren[id] = split.numChildren();
+            numEdges += split.numChildren();
+            for (int i = 0; i < numChildren[id]; i++) {
+                Node child = split.getChild(i);
+                children[first + i] = (child == null) ? -1 : add(child);
+            }
+        } else {
+            kinds[id] = LEAF;
+        }
+        return id;
+    }
+
+    private void compileTest(int id, InstanceConditionalTest test) {
+        Class<?> type = test.getClass();
+        if (type == NumericAttributeBinaryTest.class) {
+            kinds[id] = NUMERIC;
+            thresholds[id] = ((NumericAttributeBinaryTest) test)
+                .getSplitValue();
+        } else if (type == NominalAttributeMultiwayTest.class) {
+            kinds[id] = MULTIWAY;
+        } else {
+            kinds[id] = DELEGATED_TEST;
+            tests[id] = test;
+            return;
+        }
+        attributes[id] = test.getAttsTestDependsOn()[0];
+    }
+
+    /**
+     * @return the number of nodes of the compiled tree
+     */
+    public int getNumberOfNodes() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the same class votes as {@link
+     * HoeffdingTree#getVotesForInstance}, i.e., the votes of the leaf
+     * reached by {@code inst} or of the split node at which it cannot
+     * be passed to a child. The compiled tree is not changed, so that
+     * several threads can make predictions at the same time.
+     *
+     * @param inst the instance to be classified
+     * @return the class votes for {@code inst}
+     */
+    public double[] getClassVotes(Instance inst) {
+        if (nodes.length == 0) {
+            return ht.getVotesForInstance(inst);
+        }
+        int classIndex = inst.classIndex();
+        int node = 0;
+        while (kinds[node] != LEAF) {
+            int branch = branchForInstance(node, inst, classIndex);
+            if (branch < 0 || branch >= numChildren[node]) {
+                break;
+            }
+            int child = children[firstChild[node] + branch];
+            if (child < 0) {
+                break;
+            }
+            node = child;
+        }
+        return nodes[node].getClassVotes(inst, ht);
+    }
+
+    /* Evaluates the split test of the node as the corresponding
+     * InstanceConditionalTest does. */
+    private int branchForInstance(int node, Instance inst, int classIndex) {
+        byte kind = kinds[node];
+        if (kind == DELEGATED_TEST) {
+            return tests[node].branchForInstance(inst);
+        }
+        int att = attributes[node];
+        int instAttIndex = (att < classIndex) ? att : att + 1;
+        if (inst.isMissing(instAttIndex)) {
+            return -1;
+        }
+        double value = inst.value(instAttIndex);
+        if (kind == NUMERIC) {
+            return (value <= thresholds[node]) ? 0 : 1;
+        }
+        return (int) value;
+    }
+}
@@ -19,6 +19,11 @@
  */
 package org.kramerlab.mideo.classifiers.trees;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -49,6 +54,7 @@ import moa.options.ClassOption;
 import com.yahoo.labs.samoa.instances.Instance;
 
 import org.kramerlab.mideo.classifiers.core.DoubleVector;
+import org.kramerlab.mideo.core.Mergeable;
 import org.kramerlab.mideo.classifiers.bayes.NaiveBayes;
 import org.kramerlab.mideo.classifiers.core.attributeclassobservers.NominalAttributeClassObserver;
 import org.kramerlab.mideo.classifiers.core.attributeclassobservers.GaussianNumericAttributeClassObserver;
@@ -102,7 +108,8 @@ import org.kramerlab.mideo.classifiers.core.attributeclassobservers.GaussianNume
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @author Michael Geilke (marked with keyword EXTENSION)
  */
-public class HoeffdingTree extends AbstractClassifier {
+public class HoeffdingTree extends AbstractClassifier implements
+        Mergeable<HoeffdingTree> {  // EXTENSION: Mergeable
 
     private static final long serialVersionUID = 1L;
 
@@ -187,20 +194,126 @@ public class HoeffdingTree extends AbstractClassifier {
         }
     }
 
+    /**
+     * The attribute indices of the parents of a node, starting with the
+     * parent of the node. A path is never changed after it has been
+     * created, so that the children of a split node share the path to
+     * the root instead of copying it.
+     * EXTENSION
+     */
+    public static class ParentPath implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ParentPath parent;
+
+        private final int attIndex;
+
+        /**
+         * @param parent the path of the parent, or null if the parent
+         * is the root
+         * @param attIndex the attribute index of the parent
+         */
+        public ParentPath(ParentPath parent, int attIndex) {
+            this.parent = parent;
+            this.attIndex = attIndex;
+        }
+
+        public ParentPath getParent() {
+            return parent;
+        }
+
+        public int getAttIndex() {
+            return attIndex;
+        }
+    }
+
     public static class Node extends AbstractMOAObject {
 
         private static final long serialVersionUID = 1L;
 
-        protected DoubleVector observedClassDistribution;
-        protected List<Integer> parents;  // EXTENSION
+        // EXTENSION: The class distribution covers the classes up to
+        // the largest observed one. It is copied on write, i.e., every
+        // update publishes a new array by a volatile write, so that
+        // concurrent readers always see a complete distribution.
+        protected volatile double[] observedClassDistribution;
+        protected ParentPath parentPath;  // EXTENSION
         protected long instanceCount;  // EXTENSION
 
+        /**
+         * EXTENSION: Every class of {@code classObservations} starts
+         * with the laplace correction.
+         */
         public Node(double[] classObservations) {
-            observedClassDistribution = new DoubleVector(classObservations);
-            parents = new ArrayList<>();  // EXTENSION
+            double[] dist = new double[classObservations.length];
+            Arrays.fill(dist, DoubleVector.getLaplaceCorrection());
+            observedClassDistribution = dist;
+            parentPath = null;  // EXTENSION
             instanceCount = 0;  // EXTENSION
         }
 
+        /* Returns a copy of the class distribution that covers at
+         * least numClasses classes, where the new classes start with
+         * the laplace correction. EXTENSION */
+        private double[] copyClassDistribution(int numClasses) {
+            double[] dist = this.observedClassDistribution;
+            double[] copy = Arrays.copyOf(dist, Math.max(dist.length, numClasses));
+            Arrays.fill(copy, dist.length, copy.length, DoubleVector.getLaplaceCorrection());
+            return copy;
+        }
+
+        /**
+         * @param classValue the observed class
+         * @param weight the weight of the observation
+         * EXTENSION
+         */
+        public void addToClassWeight(int classValue, double weight) {
+            double[] dist = copyClassDistribution(classValue + 1);
+            dist[classValue] += weight;
+            this.observedClassDistribution = dist;
+        }
+
+        /**
+         * Adds the observed weights of {@code other}, i.e., its class
+         * distribution without the laplace correction, which is
+         * already contained in every entry of this node.
+         * @param other the node whose class distribution is added
+         * EXTENSION
+         */
+        public void addClassWeights(Node other) {
+            double[] otherDist = other.observedClassDistribution;
+            double[] dist = copyClassDistribution(otherDist.length);
+            double laplaceCorrection = DoubleVector.getLaplaceCorrection();
+            for (int i = 0; i < otherDist.length; i++) {
+                dist[i] += otherDist[i] - laplaceCorrection;
+            }
+            this.observedClassDistribution = dist;
+        }
+
+        /**
+         * @return the total weight of the class distribution
+         * EXTENSION
+         */
+        public double getTotalClassWeight() {
+            double sum = 0.0;
+            for (double weight : this.observedClassDistribution) {
+                sum += weight;
+            }
+            return sum;
+        }
+
+        // EXTENSION
+        protected int maxClassIndex() {
+            double[] dist = this.observedClassDistribution;
+            int max = -1;
+            for (int i = 0; i < dist.length; i++) {
+                if ((max < 0) || (dist[i] > dist[max])) {
+                    max = i;
+                }
+            }
+            return max;
+        }
+
         public int calcByteSize() {
             return (int) (SizeOf.sizeOf(this) + SizeOf.fullSizeOf(this.observedClassDistribution));
         }
@@ -210,20 +323,50 @@ public class HoeffdingTree extends AbstractClassifier {
         }
 
         /**
-         * @param parents attribute indices of this node's parents
+         * @param parentPath attribute indices of this node's parents
+         * EXTENSION
+         */
+        public void setParentPath(ParentPath parentPath) {
+            this.parentPath = parentPath;
+        }
+
+        /**
+         * @return attribute indices of this node's parents, or null if
+         * it is the root
          * EXTENSION
          */
-        public void setParents(List<Integer> parents) {
-            this.parents = parents;
+        public ParentPath getParentPath() {
+            return parentPath;
         }
 
         /**
-         * @return attribute indices of this node's parents
+         * @return attribute indices of this node's parents, starting
+         * with the root
          * EXTENSION
          */
         public List<Integer> getParents() {
+            List<Integer> parents = new ArrayList<>();
+            for (ParentPath p = parentPath; p != null; p = p.getParent()) {
+                parents.add(p.getAttIndex());
+            }
+            Collections.reverse(parents);
             return parents;
-        }  
+        }
+
+        /**
+         * @param attIndex an attribute index
+         * @return how often {@code attIndex} occurs among the parents
+         * EXTENSION
+         */
+        public int countParents(int attIndex) {
+            int count = 0;
+            for (ParentPath p = parentPath; p != null; p = p.getParent()) {
+                if (p.getAttIndex() == attIndex) {
+                    count++;
+                }
+            }
+            return count;
+        }
 
         public boolean isLeaf() {
             return true;
@@ -251,16 +394,36 @@ public class HoeffdingTree extends AbstractClassifier {
             return new FoundNode(this, parent, parentBranch);
         }
 
+        /**
+         * Returns the node that provides the class votes for {@code
+         * inst}, i.e., the leaf reached by {@code inst} or the split
+         * node at which it cannot be passed to a child. Unlike {@link
+         * #filterInstanceToLeaf}, the tree is not changed, so that it
+         * can be used for predictions while the tree is trained.
+         * @param inst the instance to be classified
+         * @return the node that provides the class votes
+         * EXTENSION
+         */
+        public Node findLeaf(Instance inst) {
+            return this;
+        }
+
         public double[] getObservedClassDistribution() {
-            return this.observedClassDistribution.getArrayCopy();
+            return this.observedClassDistribution.clone();
         }
 
         public double[] getClassVotes(Instance inst, HoeffdingTree ht) {
-            return this.observedClassDistribution.getArrayCopy();
+            return getObservedClassDistribution();
         }
 
         public boolean observedClassDistributionIsPure() {
-            return this.observedClassDistribution.numNonZeroEntries() < 2;
+            int count = 0;
+            for (double weight : this.observedClassDistribution) {
+                if (weight != DoubleVector.getLaplaceCorrection()) {
+                    count++;
+                }
+            }
+            return count < 2;
         }
 
         public void describeSubtree(HoeffdingTree ht, StringBuilder out,
@@ -268,10 +431,19 @@ public class HoeffdingTree extends AbstractClassifier {
             StringUtils.appendIndented(out, indent, "Leaf ");
             out.append(ht.getClassNameString());
             out.append(" = ");
-            out.append(ht.getClassLabelString(this.observedClassDistribution.maxIndex()));
+            out.append(ht.getClassLabelString(maxClassIndex()));
             out.append(" weights: ");
-            this.observedClassDistribution.getSingleLineDescription(out,
-                    ht.treeRoot.observedClassDistribution.numValues());
+            out.append("{");
+            double[] dist = this.observedClassDistribution;
+            for (int i = 0; i < ht.treeRoot.observedClassDistribution.length; i++) {
+                if (i > 0) {
+                    out.append("|");
+                }
+                double weight = (i < dist.length) ? dist[i]
+                        : DoubleVector.getLaplaceCorrection();
+                out.append(StringUtils.doubleToString(weight, 3));
+            }
+            out.append("}");
             StringUtils.appendNewline(out);
         }
 
@@ -280,8 +452,8 @@ public class HoeffdingTree extends AbstractClassifier {
         }
 
         public double calculatePromise() {
-            double totalSeen = this.observedClassDistribution.sumOfValues();
-            return totalSeen > 0.0 ? (totalSeen - this.observedClassDistribution.getValue(this.observedClassDistribution.maxIndex()))
+            double totalSeen = getTotalClassWeight();
+            return totalSeen > 0.0 ? (totalSeen - this.observedClassDistribution[maxClassIndex()])
                     : 0.0;
         }
 
@@ -297,8 +469,12 @@ public class HoeffdingTree extends AbstractClassifier {
 
         protected InstanceConditionalTest splitTest;
 
-        protected AutoExpandVector<Node> children; // = new AutoExpandVector<Node>();
+        // EXTENSION: copy-on-write, i.e., a new child is published by
+        // replacing the array, so that concurrent readers either see
+        // the old or the new child, which is fully constructed
+        protected volatile Node[] children;
         protected DoubleVector childrenDistribution;  // EXTENSION
+        protected ParentPath childPath;  // EXTENSION: parents of the children
 
         @Override
         public int calcByteSize() {
@@ -321,7 +497,7 @@ public class HoeffdingTree extends AbstractClassifier {
                 double[] classObservations, int size) {
             super(classObservations);
             this.splitTest = splitTest;
-            this.children = new AutoExpandVector<Node>(size);
+            this.children = new Node[size];
             this.childrenDistribution = new DoubleVector();
         }
         
@@ -329,7 +505,7 @@ public class HoeffdingTree extends AbstractClassifier {
                 double[] classObservations) {
             super(classObservations);
             this.splitTest = splitTest;
-            this.children = new AutoExpandVector<Node>();
+            this.children = new Node[0];
             this.childrenDistribution = new DoubleVector();
         }
 
@@ -349,7 +525,7 @@ public class HoeffdingTree extends AbstractClassifier {
         }
         
         public int numChildren() {
-            return this.children.size();
+            return this.children.length;
         }
 
         public void setChild(int index, Node child) {
@@ -357,11 +533,16 @@ public class HoeffdingTree extends AbstractClassifier {
                     && (index >= this.splitTest.maxBranches())) {
                 throw new IndexOutOfBoundsException();
             }
-            this.children.set(index, child);
+            // EXTENSION: copy-on-write
+            Node[] newChildren = Arrays.copyOf(this.children,
+                    Math.max(this.children.length, index + 1));
+            newChildren[index] = child;
+            this.children = newChildren;
         }
 
         public Node getChild(int index) {
-            return this.children.get(index);
+            Node[] children = this.children;  // EXTENSION
+            return (index >= 0 && index < children.length) ? children[index] : null;
         }
 
         public int instanceChildIndex(Instance inst) {
@@ -389,6 +570,19 @@ public class HoeffdingTree extends AbstractClassifier {
             return new FoundNode(this, parent, parentBranch);
         }
 
+        // EXTENSION
+        @Override
+        public Node findLeaf(Instance inst) {
+            int childIndex = instanceChildIndex(inst);
+            if (childIndex >= 0) {
+                Node child = getChild(childIndex);
+                if (child != null) {
+                    return child.findLeaf(inst);
+                }
+            }
+            return this;
+        }
+
         @Override
         public void describeSubtree(HoeffdingTree ht, StringBuilder out,
                 int indent) {
@@ -429,6 +623,18 @@ public class HoeffdingTree extends AbstractClassifier {
         }
 
         public abstract void learnFromInstance(Instance inst, HoeffdingTree ht);
+
+        /**
+         * Adds the statistics of {@code other}, which is the
+         * corresponding leaf of a tree trained on another part of the
+         * stream.
+         * @param other the leaf to be merged into this one
+         * EXTENSION
+         */
+        public void merge(LearningNode other) {
+            addClassWeights(other);
+            this.instanceCount += other.instanceCount;
+        }
     }
 
     public static class InactiveLearningNode extends LearningNode {
@@ -441,8 +647,7 @@ public class HoeffdingTree extends AbstractClassifier {
 
         @Override
         public void learnFromInstance(Instance inst, HoeffdingTree ht) {
-            this.observedClassDistribution.addToValue((int) inst.classValue(),
-                    inst.weight());
+            addToClassWeight((int) inst.classValue(), inst.weight());
         }
     }
 
@@ -452,7 +657,9 @@ public class HoeffdingTree extends AbstractClassifier {
 
         protected double weightSeenAtLastSplitEvaluation;
 
-        protected AutoExpandVector<AttributeClassObserver> attributeObservers = new AutoExpandVector<AttributeClassObserver>();
+        // EXTENSION: Predictions do not read the observers, but the
+        // copies of naive Bayes leaves (see LearningNodeNB.snapshot).
+        protected volatile AutoExpandVector<AttributeClassObserver> attributeObservers = new AutoExpandVector<AttributeClassObserver>();
         
         protected boolean isInitialized;
 
@@ -471,24 +678,31 @@ public class HoeffdingTree extends AbstractClassifier {
         @Override
         public void learnFromInstance(Instance inst, HoeffdingTree ht) {
             if (this.isInitialized == false) {
-                this.attributeObservers = new AutoExpandVector<AttributeClassObserver>(inst.numAttributes());
+                // EXTENSION: the observers are created before they are
+                // published
+                AutoExpandVector<AttributeClassObserver> observers = new AutoExpandVector<AttributeClassObserver>(inst.numAttributes());
+                for (int i = 0; i < inst.numAttributes() - 1; i++) {
+                    int instAttIndex = modelAttIndexToInstanceAttIndex(i, inst);
+                    observers.set(i, inst.attribute(instAttIndex).isNominal() ? ht.newNominalClassObserver(inst.attribute(instAttIndex).numValues(), inst.numClasses()) : ht.newNumericClassObserver());
+                }
+                this.attributeObservers = observers;
                 this.isInitialized = true;
             }
-            this.observedClassDistribution.addToValue((int) inst.classValue(),
-                    inst.weight());
+            addToClassWeight((int) inst.classValue(), inst.weight());
+            AutoExpandVector<AttributeClassObserver> observers = this.attributeObservers;
             for (int i = 0; i < inst.numAttributes() - 1; i++) {
                 int instAttIndex = modelAttIndexToInstanceAttIndex(i, inst);
-                AttributeClassObserver obs = this.attributeObservers.get(i);
+                AttributeClassObserver obs = observers.get(i);
                 if (obs == null) {
-                    obs = inst.attribute(instAttIndex).isNominal() ? ht.newNominalClassObserver() : ht.newNumericClassObserver();
-                    this.attributeObservers.set(i, obs);
+                    obs = inst.attribute(instAttIndex).isNominal() ? ht.newNominalClassObserver(inst.attribute(instAttIndex).numValues(), inst.numClasses()) : ht.newNumericClassObserver();
+                    observers.set(i, obs);
                 }
                 obs.observeAttributeClass(inst.value(instAttIndex), (int) inst.classValue(), inst.weight());
             }
         }
 
         public double getWeightSeen() {
-            return this.observedClassDistribution.sumOfValues();
+            return getTotalClassWeight();
         }
 
         public double getWeightSeenAtLastSplitEvaluation() {
@@ -502,7 +716,7 @@ public class HoeffdingTree extends AbstractClassifier {
         public AttributeSplitSuggestion[] getBestSplitSuggestions(
                 SplitCriterion criterion, HoeffdingTree ht) {
             List<AttributeSplitSuggestion> bestSuggestions = new LinkedList<AttributeSplitSuggestion>();
-            double[] preSplitDist = this.observedClassDistribution.getArrayCopy();
+            double[] preSplitDist = getObservedClassDistribution();
             if (!ht.noPrePruneOption.isSet()) {
                 // add null split as an option
                 bestSuggestions.add(new AttributeSplitSuggestion(null,
@@ -527,9 +741,65 @@ public class HoeffdingTree extends AbstractClassifier {
             this.attributeObservers.set(attIndex,
                     new NullAttributeClassObserver());
         }
+
+        /**
+         * {@inheritDoc} If {@code other} is active as well, the
+         * attribute observers are merged. Attributes that have been
+         * disabled in this leaf stay disabled.
+         * EXTENSION
+         */
+        @Override
+        public void merge(LearningNode other) {
+            super.merge(other);
+            if (!(other instanceof ActiveLearningNode)) {
+                return;
+            }
+            ActiveLearningNode node = (ActiveLearningNode) other;
+            // as the class distribution, the weight seen contains the
+            // laplace correction only once
+            this.weightSeenAtLastSplitEvaluation += node.weightSeenAtLastSplitEvaluation
+                    - node.observedClassDistribution.length * DoubleVector.getLaplaceCorrection();
+            if (!this.isInitialized) {
+                // nothing observed yet: the observers of other are
+                // copied before they are published
+                if (node.isInitialized) {
+                    this.attributeObservers = (AutoExpandVector<AttributeClassObserver>) node.attributeObservers.copy();
+                    this.isInitialized = true;
+                }
+                return;
+            }
+            for (int i = 0; i < node.attributeObservers.size(); i++) {
+                AttributeClassObserver otherObs = node.attributeObservers.get(i);
+                AttributeClassObserver obs = this.attributeObservers.get(i);
+                if (otherObs == null) {
+                    continue;
+                }
+                if (obs == null) {
+                    this.attributeObservers.set(i, (AttributeClassObserver) otherObs.copy());
+                } else if (obs instanceof NominalAttributeClassObserver
+                        && otherObs instanceof NominalAttributeClassObserver) {
+                    ((NominalAttributeClassObserver) obs).merge((NominalAttributeClassObserver) otherObs);
+                } else if (obs instanceof GaussianNumericAttributeClassObserver
+                        && otherObs instanceof GaussianNumericAttributeClassObserver) {
+                    ((GaussianNumericAttributeClassObserver) obs).merge((GaussianNumericAttributeClassObserver) otherObs);
+                }
+            }
+        }
     }
 
-    protected Node treeRoot;
+    // EXTENSION: Predictions only read the tree (see Node.findLeaf),
+    // and new nodes are published by volatile writes (treeRoot and
+    // SplitNode.children) after they have been constructed, so that a
+    // single thread may train the tree while others make predictions.
+    // The statistics used for predictions are published the same way:
+    // class distributions are copied on write, and naive Bayes leaves
+    // publish snapshots of their attribute observers.
+    protected volatile Node treeRoot;
+
+    // EXTENSION: compiled on demand and discarded whenever the structure
+    // of the tree changes. Training and compiling are synchronized, so
+    // that the structure does not change while it is compiled.
+    private transient volatile CompiledTree compiledTree;
 
     protected int decisionNodeCount;
 
@@ -575,9 +845,43 @@ public class HoeffdingTree extends AbstractClassifier {
         return treeRoot;
     }
 
+    /**
+     * Returns a read-optimized representation of the current tree,
+     * which is compiled after the structure of the tree has changed.
+     * Its predictions are the same as the ones of {@link
+     * #getVotesForInstance}.
+     * @return the compiled tree
+     * EXTENSION
+     */
+    public CompiledTree getCompiledTree() {
+        CompiledTree compiled = this.compiledTree;
+        if (compiled == null) {
+            compiled = compile();
+        }
+        return compiled;
+    }
+
+    // EXTENSION
+    private synchronized CompiledTree compile() {
+        if (this.compiledTree == null) {
+            this.compiledTree = new CompiledTree(this);
+        }
+        return this.compiledTree;
+    }
+
+    /**
+     * Discards the compiled tree, which has to be called whenever a
+     * node is added to or replaced in the tree.
+     * EXTENSION
+     */
+    protected void invalidateCompiledTree() {
+        this.compiledTree = null;
+    }
+
     @Override
-    public void resetLearningImpl() {
+    public synchronized void resetLearningImpl() {
         this.treeRoot = null;
+        this.compiledTree = null;
         this.decisionNodeCount = 0;
         this.activeLeafNodeCount = 0;
         this.inactiveLeafNodeCount = 0;
@@ -591,22 +895,20 @@ public class HoeffdingTree extends AbstractClassifier {
     }
 
     @Override
-    public void trainOnInstanceImpl(Instance inst) {
+    public synchronized void trainOnInstanceImpl(Instance inst) {
         if (this.treeRoot == null) {
             this.treeRoot = newLearningNode();
             this.activeLeafNodeCount = 1;
+            invalidateCompiledTree();  // EXTENSION
         }
         FoundNode foundNode = this.treeRoot.filterInstanceToLeaf(inst, null, -1);
         Node leafNode = foundNode.node;
         if (leafNode == null) {
             leafNode = newLearningNode();
-            // EXTENSION START
-            List<Integer> parents = foundNode.parent.getParents();
-            List<Integer> parentsCopy = new ArrayList<>(parents);
-            leafNode.setParents(parentsCopy);
-            // EXTENSION END
+            leafNode.setParentPath(foundNode.parent.childPath);  // EXTENSION
             foundNode.parent.setChild(foundNode.parentBranch, leafNode);
             this.activeLeafNodeCount++;
+            invalidateCompiledTree();  // EXTENSION
         }
         if (leafNode instanceof LearningNode) {
             LearningNode learningNode = (LearningNode) leafNode;
@@ -629,16 +931,18 @@ public class HoeffdingTree extends AbstractClassifier {
         }
     }
 
+    /**
+     * Returns the class votes of the node reached by {@code inst} (see
+     * {@link Node#findLeaf}). The tree is not changed, so that several
+     * threads can make predictions while another thread trains the
+     * tree.
+     * EXTENSION
+     */
     @Override
     public double[] getVotesForInstance(Instance inst) {
-        if (this.treeRoot != null) {
-            FoundNode foundNode = this.treeRoot.filterInstanceToLeaf(inst,
-                    null, -1);
-            Node leafNode = foundNode.node;
-            if (leafNode == null) {
-                leafNode = foundNode.parent;
-            }
-            return leafNode.getClassVotes(inst, this);
+        Node root = this.treeRoot;
+        if (root != null) {
+            return root.findLeaf(inst).getClassVotes(inst, this);
         } else {
             int numClasses = inst.dataset().numClasses();
             // EXTENSION
@@ -711,9 +1015,10 @@ public class HoeffdingTree extends AbstractClassifier {
     }
     
 
-    protected AttributeClassObserver newNominalClassObserver() {
-        AttributeClassObserver nominalClassObserver = (AttributeClassObserver) new NominalAttributeClassObserver();
-        return (AttributeClassObserver) nominalClassObserver.copy();
+    // EXTENSION: the observer is sized from the header
+    protected AttributeClassObserver newNominalClassObserver(int numValues,
+            int numClasses) {
+        return new NominalAttributeClassObserver(numValues, numClasses);
     }
 
     protected AttributeClassObserver newNumericClassObserver() {
@@ -743,7 +1048,7 @@ public class HoeffdingTree extends AbstractClassifier {
             // SPLIT_LIMIT many times already
             List<AttributeSplitSuggestion> filtered = new ArrayList<>();
             for (int i = 0; i < bestSplitSuggestions.length; i++) {
-                if (Collections.frequency(node.getParents(), i) <= SPLIT_LIMIT) {
+                if (node.countParents(i) <= SPLIT_LIMIT) {
                     filtered.add(bestSplitSuggestions[i]);
                 }
             }
@@ -820,16 +1125,16 @@ public class HoeffdingTree extends AbstractClassifier {
                             break;
                         }
                     }
-                    // add parents to new children
-                    List<Integer> parents = node.getParents();
-                    List<Integer> parentsCopy = new ArrayList<>(parents);
+                    // add parents to new children, which share their path
+                    ParentPath childPath = new ParentPath(node.getParentPath(), attIndex);
+                    newSplit.setParentPath(node.getParentPath());
+                    newSplit.childPath = childPath;
                     for (int i = 0; i < splitDecision.numSplits(); i++) {
                         double[] dist = splitDecision.resultingClassDistributionFromSplit(i);
                         Node newChild = newLearningNode(dist);
-                        newChild.setParents(parentsCopy);
-                        newChild.getParents().add(attIndex);
+                        newChild.setParentPath(childPath);
                         newSplit.setChild(i, newChild);
-                    }                    
+                    }
                     // EXTENSION END
 
                     this.activeLeafNodeCount--;
@@ -840,6 +1145,7 @@ public class HoeffdingTree extends AbstractClassifier {
                     } else {
                         parent.setChild(parentIndex, newSplit);
                     }
+                    invalidateCompiledTree();  // EXTENSION
                 }
                 // manage memory
                 enforceTrackerLimit();
@@ -938,11 +1244,13 @@ public class HoeffdingTree extends AbstractClassifier {
     protected void deactivateLearningNode(ActiveLearningNode toDeactivate,
             SplitNode parent, int parentBranch) {
         Node newLeaf = new InactiveLearningNode(toDeactivate.getObservedClassDistribution());
+        newLeaf.setParentPath(toDeactivate.getParentPath());  // EXTENSION
         if (parent == null) {
             this.treeRoot = newLeaf;
         } else {
             parent.setChild(parentBranch, newLeaf);
         }
+        invalidateCompiledTree();  // EXTENSION
         this.activeLeafNodeCount--;
         this.inactiveLeafNodeCount++;
     }
@@ -950,11 +1258,13 @@ public class HoeffdingTree extends AbstractClassifier {
     protected void activateLearningNode(InactiveLearningNode toActivate,
             SplitNode parent, int parentBranch) {
         Node newLeaf = newLearningNode(toActivate.getObservedClassDistribution());
+        newLeaf.setParentPath(toActivate.getParentPath());  // EXTENSION
         if (parent == null) {
             this.treeRoot = newLeaf;
         } else {
             parent.setChild(parentBranch, newLeaf);
         }
+        invalidateCompiledTree();  // EXTENSION
         this.activeLeafNodeCount++;
         this.inactiveLeafNodeCount--;
     }
@@ -981,6 +1291,144 @@ public class HoeffdingTree extends AbstractClassifier {
         }
     }
 
+    /**
+     * Merges the statistics of {@code other}, which has been trained on
+     * another part of the stream, into this tree. Both trees are
+     * traversed in parallel:
+     * <ul>
+     * <li>If both nodes are split nodes with the same split test, their
+     * counts are added and their children are merged. Children that
+     * only exist in {@code other} are copied.</li>
+     * <li>If both nodes are leaves, their statistics are added (see
+     * {@link LearningNode#merge}).</li>
+     * <li>Otherwise, the structures differ, and the subtree that has
+     * observed the larger weight is kept. The statistics of the other
+     * subtree are discarded.</li>
+     * </ul>
+     * {@code other} is not changed.
+     *
+     * @param other a Hoeffding tree for the same model context
+     * @throws IllegalArgumentException if {@code other} is this tree
+     * EXTENSION
+     */
+    @Override
+    public synchronized void merge(HoeffdingTree other)
+            throws IllegalArgumentException {
+        if (other == this) {
+            throw new IllegalArgumentException("Cannot merge a tree with itself.");
+        }
+        if (other.treeRoot != null) {
+            if (this.treeRoot == null) {
+                this.treeRoot = (Node) other.treeRoot.copy();
+            } else {
+                this.treeRoot = mergeNodes(this.treeRoot, other.treeRoot);
+            }
+            this.decisionNodeCount = 0;
+            this.activeLeafNodeCount = 0;
+            this.inactiveLeafNodeCount = 0;
+            countNodes(this.treeRoot);
+            invalidateCompiledTree();
+        }
+        this.trainingWeightSeenByModel += other.trainingWeightSeenByModel;
+    }
+
+    /**
+     * Merges {@code other} into {@code node} (see {@link #merge}).
+     * @return the node replacing {@code node}
+     * EXTENSION
+     */
+    protected Node mergeNodes(Node node, Node other) {
+        if (node instanceof SplitNode && other instanceof SplitNode) {
+            SplitNode split = (SplitNode) node;
+            SplitNode otherSplit = (SplitNode) other;
+            if (haveSameSplitTest(split, otherSplit)) {
+                split.addClassWeights(otherSplit);
+                // the children distributions start with the laplace
+                // correction as well
+                double[] childCounts = otherSplit.childrenDistribution.getArrayCopy();
+                for (int i = 0; i < childCounts.length; i++) {
+                    childCounts[i] -= DoubleVector.getLaplaceCorrection();
+                }
+                split.childrenDistribution.addValues(childCounts);
+                split.addToInstanceCount(otherSplit.getInstanceCount());
+                for (int i = 0; i < otherSplit.numChildren(); i++) {
+                    Node otherChild = otherSplit.getChild(i);
+                    if (otherChild != null) {
+                        Node child = split.getChild(i);
+                        split.setChild(i, (child == null) ? (Node) otherChild.copy()
+                                : mergeNodes(child, otherChild));
+                    }
+                }
+                return split;
+            }
+        } else if (node instanceof LearningNode
+                && other instanceof LearningNode) {
+            ((LearningNode) node).merge((LearningNode) other);
+            return node;
+        }
+        // the structures differ
+        if (calcSubtreeWeight(node) >= calcSubtreeWeight(other)) {
+            return node;
+        }
+        return (Node) other.copy();
+    }
+
+    /* Split tests are compared by their serialized form, since they
+     * do not implement equals.
+     */
+    private static boolean haveSameSplitTest(SplitNode node, SplitNode other) {
+        if (node.splitTest.getClass() != other.splitTest.getClass()) {
+            return false;
+        }
+        try {
+            return Arrays.equals(serialize(node.splitTest),
+                    serialize(other.splitTest));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static byte[] serialize(InstanceConditionalTest test)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(test);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /* Returns the weight observed by the leaves of the subtree, which
+     * includes the weight observed before their parents were split.
+     */
+    private static double calcSubtreeWeight(Node node) {
+        if (node instanceof SplitNode) {
+            SplitNode split = (SplitNode) node;
+            double weight = 0.0;
+            for (int i = 0; i < split.numChildren(); i++) {
+                Node child = split.getChild(i);
+                if (child != null) {
+                    weight += calcSubtreeWeight(child);
+                }
+            }
+            return weight;
+        }
+        return node.getTotalClassWeight();
+    }
+
+    private void countNodes(Node node) {
+        if (node instanceof SplitNode) {
+            SplitNode split = (SplitNode) node;
+            this.decisionNodeCount++;
+            for (int i = 0; i < split.numChildren(); i++) {
+                countNodes(split.getChild(i));
+            }
+        } else if (node instanceof ActiveLearningNode) {
+            this.activeLeafNodeCount++;
+        } else if (node instanceof InactiveLearningNode) {
+            this.inactiveLeafNodeCount++;
+        }
+    }
+
     public MultiChoiceOption leafpredictionOption = new MultiChoiceOption(
             "leafprediction", 'l', "Leaf prediction to use.", new String[]{
                 "MC", "NB", "NBAdaptive"}, new String[]{
@@ -994,28 +1442,137 @@ public class HoeffdingTree extends AbstractClassifier {
             "The number of instances a leaf should observe before permitting Naive Bayes.",
             0, 0, Integer.MAX_VALUE);
 
+    /**
+     * An immutable copy of the statistics of a naive Bayes leaf. The
+     * leaf publishes a new snapshot after every update, so that
+     * predictions never read the attribute observers while they are
+     * changed.
+     * EXTENSION
+     */
+    protected static class NaiveBayesSnapshot {
+
+        protected final double[] classDistribution;
+
+        protected final AutoExpandVector<AttributeClassObserver> attributeObservers;
+
+        protected final boolean majorityClass;
+
+        /**
+         * @param classDistribution the class distribution, which is not
+         * changed afterwards
+         * @param attributeObservers copies of the attribute observers
+         * @param majorityClass whether the majority class predicts
+         * better than naive Bayes
+         */
+        protected NaiveBayesSnapshot(double[] classDistribution,
+                AutoExpandVector<AttributeClassObserver> attributeObservers,
+                boolean majorityClass) {
+            this.classDistribution = classDistribution;
+            this.attributeObservers = attributeObservers;
+            this.majorityClass = majorityClass;
+        }
+
+        protected double getWeightSeen() {
+            double sum = 0.0;
+            for (double weight : this.classDistribution) {
+                sum += weight;
+            }
+            return sum;
+        }
+
+        protected double[] getNaiveBayesVotes(Instance inst) {
+            return NaiveBayes.doNaiveBayesPrediction(inst,
+                    this.classDistribution, this.attributeObservers);
+        }
+    }
+
+    /* Returns a copy of the observer, where the observers of this
+     * package are copied without serialization. EXTENSION */
+    private static AttributeClassObserver copyObserver(AttributeClassObserver obs) {
+        if (obs == null || obs instanceof NullAttributeClassObserver) {
+            return obs;
+        } else if (obs instanceof NominalAttributeClassObserver) {
+            return new NominalAttributeClassObserver((NominalAttributeClassObserver) obs);
+        } else if (obs instanceof GaussianNumericAttributeClassObserver) {
+            return new GaussianNumericAttributeClassObserver((GaussianNumericAttributeClassObserver) obs);
+        }
+        return (AttributeClassObserver) obs.copy();
+    }
+
     public static class LearningNodeNB extends ActiveLearningNode {
 
         private static final long serialVersionUID = 1L;
 
+        // EXTENSION: the statistics used for predictions
+        protected transient volatile NaiveBayesSnapshot snapshot;
+
         public LearningNodeNB(double[] initialClassObservations) {
             super(initialClassObservations);
+            publishSnapshot();  // EXTENSION
         }
 
+        /**
+         * Copies the class distribution and the attribute observers
+         * into a new snapshot, which is used by subsequent predictions.
+         * It has to be called whenever the statistics have changed.
+         * EXTENSION
+         */
+        protected void publishSnapshot() {
+            AutoExpandVector<AttributeClassObserver> observers = this.attributeObservers;
+            AutoExpandVector<AttributeClassObserver> copies = new AutoExpandVector<AttributeClassObserver>(observers.size());
+            for (int i = 0; i < observers.size(); i++) {
+                copies.set(i, copyObserver(observers.get(i)));
+            }
+            this.snapshot = new NaiveBayesSnapshot(this.observedClassDistribution,
+                    copies, prefersMajorityClass());
+        }
+
+        /**
+         * @return whether the votes are the class distribution rather
+         * than the naive Bayes prediction, regardless of the weight seen
+         * EXTENSION
+         */
+        protected boolean prefersMajorityClass() {
+            return false;
+        }
+
+        // EXTENSION
+        @Override
+        public void learnFromInstance(Instance inst, HoeffdingTree ht) {
+            super.learnFromInstance(inst, ht);
+            publishSnapshot();
+        }
+
+        // EXTENSION
+        @Override
+        public void merge(LearningNode other) {
+            super.merge(other);
+            publishSnapshot();
+        }
+
+        /**
+         * EXTENSION: The votes are computed from the current snapshot.
+         */
         @Override
         public double[] getClassVotes(Instance inst, HoeffdingTree ht) {
-            if (getWeightSeen() >= ht.nbThresholdOption.getValue()) {
-                return NaiveBayes.doNaiveBayesPrediction(inst,
-                        this.observedClassDistribution,
-                        this.attributeObservers);
+            NaiveBayesSnapshot snapshot = this.snapshot;
+            if (snapshot.getWeightSeen() >= ht.nbThresholdOption.getValue()) {
+                return snapshot.getNaiveBayesVotes(inst);
             }
-            return super.getClassVotes(inst, ht);
+            return snapshot.classDistribution.clone();
         }
 
         @Override
         public void disableAttribute(int attIndex) {
             // should not disable poor atts - they are used in NB calc
         }
+
+        // EXTENSION: the snapshot is not serialized
+        private void readObject(ObjectInputStream in)
+                throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            publishSnapshot();
+        }
     }
 
     public static class LearningNodeNBAdaptive extends LearningNodeNB {
@@ -1033,7 +1590,7 @@ public class HoeffdingTree extends AbstractClassifier {
         @Override
         public void learnFromInstance(Instance inst, HoeffdingTree ht) {
             int trueClass = (int) inst.classValue();
-            if (this.observedClassDistribution.maxIndex() == trueClass) {
+            if (maxClassIndex() == trueClass) {
                 this.mcCorrectWeight += inst.weight();
             }
             if (Utils.maxIndex(NaiveBayes.doNaiveBayesPrediction(inst,
@@ -1043,13 +1600,33 @@ public class HoeffdingTree extends AbstractClassifier {
             super.learnFromInstance(inst, ht);
         }
 
+        // EXTENSION
+        @Override
+        public void merge(LearningNode other) {
+            if (other instanceof LearningNodeNBAdaptive) {
+                LearningNodeNBAdaptive node = (LearningNodeNBAdaptive) other;
+                this.mcCorrectWeight += node.mcCorrectWeight;
+                this.nbCorrectWeight += node.nbCorrectWeight;
+            }
+            super.merge(other);
+        }
+
+        // EXTENSION
+        @Override
+        protected boolean prefersMajorityClass() {
+            return this.mcCorrectWeight > this.nbCorrectWeight;
+        }
+
+        /**
+         * EXTENSION: The votes are computed from the current snapshot.
+         */
         @Override
         public double[] getClassVotes(Instance inst, HoeffdingTree ht) {
-            if (this.mcCorrectWeight > this.nbCorrectWeight) {
-                return this.observedClassDistribution.getArrayCopy();
+            NaiveBayesSnapshot snapshot = this.snapshot;
+            if (snapshot.majorityClass) {
+                return snapshot.classDistribution.clone();
             }
-            return NaiveBayes.doNaiveBayesPrediction(inst,
-                    this.observedClassDistribution, this.attributeObservers);
+            return snapshot.getNaiveBayesVotes(inst);
         }
     }
 
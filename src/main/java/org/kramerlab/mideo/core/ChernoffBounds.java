@@ -46,8 +46,24 @@ import java.util.function.BiFunction;
 public class ChernoffBounds {
 
     /**
-     * Performs a binary search to find the largest lambda within the
-     * given precision for which the upper Chernoff bound holds.
+     * Finds the largest lambda within the given precision for which the
+     * upper Chernoff bound is at least 1 - delta. The logarithm of the
+     * bound, {@literal mu (lambda - (1 + lambda) ln(1 + lambda))}, is
+     * decreasing and concave in lambda, so Newton's method converges to
+     * the root monotonically. It starts at the root of {@literal -mu
+     * lambda^2 / 2}, which lies below the logarithm, and usually needs
+     * less than five iterations. If mu is not positive, the bound is
+     * trivial and {@code precision} is returned.
+     *
+     * <p>For delta = 0.9, lambda is about 4.34 for mu = 0.5, 0.32 for
+     * mu = 50, and 0.0096 for mu = 50000, i.e., close to the lambda of
+     * the lower bound for large mu. Earlier versions searched only the
+     * interval [0; precision], since they assumed an increasing bound,
+     * and hence always returned {@code precision / 2}. Therefore, the
+     * upper soft borders of a discretization (see {@code
+     * OnlineDiscretization.belongsToSoftBorder}) are now orders of
+     * magnitude wider than before, especially for bins preceded by few
+     * observations.</p>
      *
      * @param mu the expectation of mu
      * @param precision this methods searches for lambda until lambda
@@ -58,23 +74,29 @@ public class ChernoffBounds {
      */
     public static double findLambdaForUpperBound(double mu, double precision,
 						 double delta) {
-	double lower = 0;
-	double upper = precision;
-	
-	// find starting point
-	while (ChernoffBounds.upperBound(upper, mu) < 1 - delta) {
-	    upper *= 2;
-	}
-	
-        // binary search
-        boolean maximize = true;
-        return binarySearch(ChernoffBounds::upperBound, lower, upper, 
-                            maximize, mu, precision, delta);
+        double target = Math.log(1 - delta);
+        if (!(mu > 0) || !(target < 0) || Double.isInfinite(target)) {
+            return precision;
+        }
+        double lambda = Math.sqrt(-2 * target / mu);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double log1p = Math.log1p(lambda);
+            double value = mu * (lambda - (1 + lambda) * log1p) - target;
+            double step = value / (mu * log1p);
+            lambda += step;
+            if (Math.abs(step) < precision) {
+                break;
+            }
+        }
+        return Math.max(lambda, precision);
     }
 
     /**
-     * Performs a binary search to find the smallest lambda within the given
-     * precision for which the lower Chernoff bound holds.
+     * Finds the smallest lambda within the given precision for which
+     * the lower Chernoff bound is below 1 - delta. The bound {@literal
+     * e^{-mu lambda^2 / 2}} equals 1 - delta for {@literal lambda =
+     * \sqrt{-2 ln(1 - delta) / mu}}, which is clamped to [precision;
+     * 1].
      *
      * @param mu the expectation of mu
      * @param precision this methods searches for lambda until lambda
@@ -85,13 +107,11 @@ public class ChernoffBounds {
      */
     public static double findLambdaForLowerBound(double mu, double precision,
 						 double delta) {
-	double lower = precision;
-	double upper = 1;
-
-        // binary search
-        boolean maximize = false;
-        return binarySearch(ChernoffBounds::lowerBound, lower, upper, 
-                            maximize, mu, precision, delta);
+        double lambda = Math.sqrt(-2 * Math.log(1 - delta) / mu);
+        if (Double.isNaN(lambda)) {
+            return 1;
+        }
+        return Math.min(Math.max(lambda, precision), 1);
     }
 
     /**
@@ -0,0 +1,218 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * {@code DependencyScores} provides a cheap measure of the dependency
+ * between pairs of random variables, which is maintained online. For
+ * two discrete variables, it is the normalized mutual information of
+ * the most recent value pairs (see {@link MutualInformation}).
+ * Otherwise, it is the absolute value of the Pearson correlation
+ * coefficient, where the values of discrete variables are treated as
+ * numbers. The moments for the correlation are faded, so that recent
+ * instances weigh about as much as the value pairs kept by {@link
+ * MutualInformation}. In both cases, the score is between 0
+ * (independent) and 1.
+ *
+ * An update costs O(d^2) for d variables, so it is up to the caller to
+ * pass only a subsample of a stream. The scores themselves are only
+ * recomputed when they are requested after an update.
+ *
+ * @author Michael Geilke
+ */
+public class DependencyScores implements Serializable {
+
+    // weight of the past moments when an instance is added
+    private static final double FADING_FACTOR = 1.0 - 1.0 / 75;
+
+    private List<RandomVariable> vars;
+    private Map<String, Integer> varIndices;
+    private long numberOfInstances;
+
+    // the attribute indices of the variables, which are determined from
+    // the first instance
+    private int[] attIndices;
+
+    // statistics of the pairs (i, j) with i < j: mutual information if
+    // both variables are discrete, otherwise faded moments
+    private MutualInformation[][] mutualInformation;
+    private double fadedCount;
+    private double[] mean;
+    private double[][] comoment;
+
+    private double[][] scores;
+    private boolean outdated;
+
+    /**
+     * @param vars the variables whose dependencies are to be scored
+     */
+    public DependencyScores(List<RandomVariable> vars) {
+        this.vars = vars;
+        this.varIndices = new HashMap<>();
+        for (int i = 0; i < vars.size(); i++) {
+            varIndices.put(vars.get(i).getName(), i);
+        }
+        int d = vars.size();
+        this.mutualInformation = new MutualInformation[d][d];
+        for (int i = 0; i < d; i++) {
+            for (int j = i + 1; j < d; j++) {
+                if (isDiscrete(i, j)) {
+                    mutualInformation[i][j] = 
+                        new MutualInformation(vars.get(i), vars.get(j));
+                }
+            }
+        }
+        this.mean = new double[d];
+        this.comoment = new double[d][d];
+        this.scores = new double[d][d];
+        this.outdated = false;
+    }
+
+    /**
+     * @param vars the variables whose dependencies are to be scored
+     * @param sample instances containing the variables (identified by
+     * their names)
+     */
+    public DependencyScores(List<RandomVariable> vars, 
+                            List<Instance> sample) {
+        this(vars);
+        for (Instance inst : sample) {
+            update(inst);
+        }
+    }
+
+    /**
+     * Adds the values of the variables in {@code inst} to the
+     * statistics of all pairs of variables.
+     *
+     * @param inst an instance containing the variables (identified by
+     * their names)
+     */
+    public void update(Instance inst) {
+        int d = vars.size();
+        if (attIndices == null) {
+            attIndices = new int[d];
+            Arrays.fill(attIndices, -1);
+            for (int a = 0; a < inst.numAttributes(); a++) {
+                Integer v = varIndices.get(inst.attribute(a).name());
+                if (v != null) {
+                    attIndices[v] = a;
+                }
+            }
+        }
+        double[] values = new double[d];
+        for (int i = 0; i < d; i++) {
+            values[i] = (attIndices[i] < 0) ? 0.0 : inst.value(attIndices[i]);
+            if (Double.isNaN(values[i])) {
+                // missing values are not taken into account
+                return;
+            }
+        }
+
+        for (int i = 0; i < d; i++) {
+            for (int j = i + 1; j < d; j++) {
+                if (mutualInformation[i][j] != null) {
+                    mutualInformation[i][j].update(values[i], values[j]);
+                }
+            }
+        }
+
+        // faded, weighted version of Welford's algorithm
+        fadedCount = FADING_FACTOR * fadedCount + 1.0;
+        double[] delta = new double[d];
+        for (int i = 0; i < d; i++) {
+            delta[i] = values[i] - mean[i];
+            mean[i] += delta[i] / fadedCount;
+        }
+        for (int i = 0; i < d; i++) {
+            for (int j = i; j < d; j++) {
+                comoment[i][j] = FADING_FACTOR * comoment[i][j] 
+                    + delta[i] * (values[j] - mean[j]);
+            }
+        }
+        numberOfInstances++;
+        outdated = true;
+    }
+
+    /**
+     * @return the number of instances that have been added
+     */
+    public long getNumberOfInstances() {
+        return numberOfInstances;
+    }
+
+    /**
+     * @param rv1 a variable that has been passed to the constructor
+     * @param rv2 a variable that has been passed to the constructor
+     * @return the dependency score of {@code rv1} and {@code rv2} or 0
+     * if one of the variables is unknown
+     */
+    public double getScore(RandomVariable rv1, RandomVariable rv2) {
+        Integer i = varIndices.get(rv1.getName());
+        Integer j = varIndices.get(rv2.getName());
+        if (i == null || j == null) {
+            return 0.0;
+        }
+        if (outdated) {
+            computeScores();
+        }
+        return scores[i][j];
+    }
+
+    /* Recomputes the scores of all pairs from their statistics. */
+    private void computeScores() {
+        for (int i = 0; i < vars.size(); i++) {
+            for (int j = i + 1; j < vars.size(); j++) {
+                double score;
+                if (mutualInformation[i][j] != null) {
+                    score = mutualInformation[i][j]
+                        .getNormalizedMutualInformation();
+                } else {
+                    score = Math.abs(comoment[i][j] 
+                        / Math.sqrt(comoment[i][i] * comoment[j][j]));
+                }
+                // constant variables do not carry any information
+                if (Double.isNaN(score)) {
+                    score = 0.0;
+                }
+                scores[i][j] = score;
+                scores[j][i] = score;
+            }
+        }
+        outdated = false;
+    }
+
+    private boolean isDiscrete(int i, int j) {
+        return vars.get(i) instanceof DiscreteRandomVariable
+            && vars.get(j) instanceof DiscreteRandomVariable;
+    }
+}
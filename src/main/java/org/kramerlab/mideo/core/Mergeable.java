@@ -0,0 +1,49 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.core;
+
+/**
+ * Classes implementing {@code Mergeable} can combine models that have
+ * been trained on different parts (shards) of a stream. This way, the
+ * shards can be processed by several copies of a model in parallel,
+ * e.g., in different threads or JVMs, and the copies are merged
+ * afterwards. Models that cannot be merged do not implement this
+ * interface.
+ *
+ * @author Michael Geilke
+ */
+public interface Mergeable<T> {
+
+    /**
+     * Merges the model of {@code other} into this one, so that it
+     * approximates a model that has been trained on the instances of
+     * both. {@code other} is not changed.
+     *
+     * @param other a model of the same type and configuration
+     * @throws IllegalArgumentException if {@code other} cannot be
+     *     merged into this model (e.g., because it is of a different
+     *     type or has been configured differently)
+     */
+    void merge(T other) throws IllegalArgumentException;
+}
@@ -23,6 +23,7 @@
  */
 package org.kramerlab.mideo.core;
 
+import java.io.Serializable;
 import java.util.LinkedList;
 
 import org.apache.logging.log4j.LogManager;
@@ -35,7 +36,8 @@ import org.kramerlab.mideo.core.RandomVariable;
  *
  * @author Michael Geilke
  */
-public class MutualInformation {
+public class MutualInformation implements Serializable, 
+                                          Mergeable<MutualInformation> {
 
     private static Logger logger = LogManager.getLogger();
     
@@ -76,6 +78,42 @@ public class MutualInformation {
         variable2Buffer.add(val2);
     }
 
+    /**
+     * Adds the value pairs of {@code other}, e.g., if both have been
+     * computed on different parts of a stream. The counts are only
+     * computed from the most recent value pairs. Hence, the value pairs
+     * of {@code other} are treated as if they had been observed after
+     * the ones of this object, and only the most recent ones are kept.
+     *
+     * @param other the normalized mutual information of the same
+     * variables
+     * @throws IllegalArgumentException if {@code other} belongs to
+     * different variables
+     */
+    @Override
+    public void merge(MutualInformation other) 
+        throws IllegalArgumentException {
+        if (!variable1.getName().equals(other.variable1.getName())
+                || !variable2.getName().equals(other.variable2.getName())) {
+            String msg = "The mutual information of %s cannot be merged.";
+            throw new IllegalArgumentException(String.format(msg, other));
+        }
+        // a copy is required if other is this object
+        for (double val : new LinkedList<>(other.variable1Buffer)) {
+            variable1Buffer.add(val);
+        }
+        for (double val : new LinkedList<>(other.variable2Buffer)) {
+            variable2Buffer.add(val);
+        }
+        // update keeps at most maxBufferSize + 1 value pairs
+        while (variable1Buffer.size() > maxBufferSize + 1) {
+            variable1Buffer.remove();
+        }
+        while (variable2Buffer.size() > maxBufferSize + 1) {
+            variable2Buffer.remove();
+        }
+    }
+
     public double getNormalizedMutualInformation() {
         // determine counts of variable values
         double instanceCounter = 0;
@@ -111,6 +111,30 @@ public class Utils {
         return dPrime;
     }
 
+    /**
+     * Computes {@literal log(sum_i exp(d[i]))} without leaving the log
+     * space, i.e., the values are shifted by their maximum before
+     * exponentiating them. Values of {@literal -Infinity} stand for
+     * terms that are 0.
+     * @param d logarithms of non-negative values
+     * @return the logarithm of the sum of the values, which is
+     * {@literal -Infinity} if all values are 0 or {@code d} is empty
+     */
+    public static double logSumExp(double[] d) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < d.length; i++) {
+            max = Math.max(max, d[i]);
+        }
+        if (Double.isInfinite(max)) {
+            return max;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < d.length; i++) {
+            sum += Math.exp(d[i] - max);
+        }
+        return max + Math.log(sum);
+    }
+
     /**
      * Determines the attribute index of attribute {@code att} in {@code
      * header}. In principle, header already provides this
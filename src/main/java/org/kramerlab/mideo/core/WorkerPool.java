@@ -0,0 +1,139 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.core;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Provides long-lived, work-stealing executors that are shared by all
+ * estimators within one JVM. Creating a new thread for every small
+ * unit of work (e.g., updating a single base estimator with a few
+ * instances) is often more expensive than the work itself. Hence,
+ * estimators are supposed to submit their tasks to one of the pools
+ * provided here instead.
+ *
+ * There is at most one pool per level of parallelism. The worker
+ * threads are daemon threads, so the pools do not need to be shut
+ * down explicitly.
+ *
+ * @author Michael Geilke
+ */
+public class WorkerPool {
+
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+    /**
+     * @return the pool that uses all available cores
+     */
+    public static ForkJoinPool getSharedPool() {
+        return getPool(0);
+    }
+
+    /**
+     * Returns the shared pool with the given level of parallelism. If
+     * no such pool exists yet, it is created.
+     *
+     * @param parallelism the number of worker threads, where 0 stands
+     * for the number of available cores
+     * @return the shared pool with the specified level of parallelism
+     * @throws IllegalArgumentException if {@code parallelism} is
+     * negative
+     */
+    public static synchronized ForkJoinPool getPool(int parallelism) 
+            throws IllegalArgumentException {
+        if (parallelism < 0) {
+            String msg = "The parallelism must not be negative.";
+            throw new IllegalArgumentException(msg);
+        }
+        if (parallelism == 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        ForkJoinPool pool = pools.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            pools.put(parallelism, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * A task that processes the elements {@code from, ..., to - 1} of
+     * a range (see {@link #forEachBlock}).
+     */
+    @FunctionalInterface
+    public interface BlockTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits {@code 0, ..., n - 1} into blocks of at most {@code
+     * blockSize} elements and processes them on {@code pool}. If there
+     * is only a single block, it is processed by the calling thread.
+     * The method returns when all blocks have been processed.
+     *
+     * If the calling thread is a worker of {@code pool} (e.g., a task
+     * of an ensemble that queries one of its members), the blocks are
+     * forked as subtasks of the current task. The calling thread then
+     * processes blocks itself instead of waiting for other workers, so
+     * that the nested region neither blocks a worker nor needs more
+     * threads than the pool provides.
+     *
+     * @param pool the pool on which the blocks are processed
+     * @param n the number of elements
+     * @param blockSize the maximal number of elements per task
+     * @param task the task that is run for every block
+     * @throws IllegalArgumentException if {@code blockSize} is not
+     * positive
+     */
+    public static void forEachBlock(ForkJoinPool pool, int n, int blockSize,
+                                    BlockTask task) 
+            throws IllegalArgumentException {
+        if (blockSize <= 0) {
+            String msg = "The block size has to be positive.";
+            throw new IllegalArgumentException(msg);
+        }
+        if (n <= blockSize) {
+            task.run(0, n);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += blockSize) {
+            final int start = from;
+            final int end = Math.min(n, from + blockSize);
+            tasks.add(ForkJoinTask.adapt(() -> task.run(start, end)));
+        }
+        ForkJoinTask<?> all = ForkJoinTask.adapt(
+            () -> ForkJoinTask.invokeAll(tasks));
+        if (ForkJoinTask.getPool() == pool) {
+            all.invoke();
+        } else {
+            pool.invoke(all);
+        }
+    }
+}
@@ -26,9 +26,6 @@ package org.kramerlab.mideo.core.discretization;
 import java.io.Serializable;
 import java.util.List;
 
-import static org.kramerlab.mideo.core.ChernoffBounds.findLambdaForLowerBound;
-import static org.kramerlab.mideo.core.ChernoffBounds.findLambdaForUpperBound;
-
 /**
  * Classes implementing the {@code OnlineDiscretization} interface allow
  * to perform various types of discretization in an online fashion.
@@ -133,79 +130,37 @@ public interface OnlineDiscretization extends Serializable {
     double drawRandomValueFromBin(int index) throws IndexOutOfBoundsException;
 
     /**
-     * Discretizes observation {@code obs}.
+     * Discretizes observation {@code obs}. The bin is found by a binary
+     * search over the borders {@literal b1} to {@literal b{k-1}}.
      *
      * @param obs observation that is supposed to be discretized
      * @return discretized observation (a value from [0;k-1))
      */
     default double apply(double obs) {
-        for (int i = 1; i < getNumberOfBins(); i++) {
-            if (obs <= getBorder(i)) {
-                return i - 1;
+        // smallest i with obs <= bi (or k if there is none)
+        int low = 1;
+        int high = getNumberOfBins();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (obs <= getBorder(mid)) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
         }
-        return getNumberOfBins() - 1;
+        return low - 1;
     }
     
     /**
      * Checks whether observation {@code obs} belongs to a soft border.
+     * The default implementation computes the safe-to-use regions of
+     * all bins for every call. Implementations that know when their
+     * borders or bin counts change should cache them instead.
      *
      * @param obs value to be tested
      * @return true iff {@code obs} belongs to a soft border
      */
     default boolean belongsToSoftBorder(double obs) {
-        // parameters for Chernoff
-        double precision = 0.000001;
-        double delta = 0.90;
-
-        // further parameters
-        long I = 0;
-        int k = getNumberOfBins();
-        for (int i = 0; i < k; i++) {
-            I += getBinCount(i);
-        }
-
-        // This is a simplified version of the approach presented in the
-        // paper. Instead of the smallest and largest element close to
-        // the border, we take the border itself. The smallest and
-        // largest border are ignored, as these are the -infinity and
-        // +infinity.
-        boolean isInSomeBin = false;
-        double attributeRange = getBorder(k-1) - getBorder(1);
-        for (int i = 1; i < k - 1; i++) {
-            if (obs >= getBorder(i) && obs <= getBorder(i+1)) {
-                isInSomeBin = true;
-                // determine lower and upper bound
-                long total = 0;
-                for (int j = 0; j < getNumberOfBins(); j++) {
-                    total += getBinCount(j);
-                }
-                double p = 0.0;
-                for (int j = 0; j <= i; j++) {
-                    p += getBinCount(j);
-                }
-                p /= total;
-                double l = findLambdaForLowerBound(I * p, precision, delta);
-                p = 0.0;
-                for (int j = 0; j <= i - 1; j++) {
-                    p += getBinCount(j);
-                }
-                p /= total;
-                double u = findLambdaForUpperBound(I * p, precision, delta);
-                // check whether obs is outside the soft border
-                double x_iA = getBorder(i + 1);
-                double x_iB = getBorder(i);
-                // The computed soft border need to be scaled to the
-                // actual range, since we assumed a range of [0;1] here.
-                l = (l / I) * attributeRange;
-                u = (u / I) * attributeRange;
-                if (obs > x_iB + u && obs < x_iA - l) {
-                    return false;
-                }
-            }
-        }
-
-        return (isInSomeBin) ? true : false;
+        return new SoftBorders(this).contains(obs);
     }
 }
-
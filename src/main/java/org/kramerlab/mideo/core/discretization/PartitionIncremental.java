@@ -22,16 +22,13 @@
  */
 package org.kramerlab.mideo.core.discretization;
 
+import java.util.Arrays;
 import java.util.Random;
-import java.io.Serializable;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.stream.IntStream;
 
 import weka.core.Utils;
-import weka.core.Instance;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+
+import org.kramerlab.mideo.core.Mergeable;
 
 /**
  * PartitionIncremental uses a more fine-grained discretization to
@@ -53,36 +50,79 @@ import org.apache.logging.log4j.Logger;
  * observed. Hence, by definition, the first and the last bin are for
  * outliers.
  *
+ * <p>The fine-grained discretization (Layer1) is kept in primitive
+ * arrays with spare capacity. The bin of an observation is found by a
+ * binary search, and the number of bins is limited (see {@link
+ * #setMaxNumberOfLayer1Bins}). Hence, the costs of an observation are
+ * bounded by the limit, but they are not logarithmic: a split shifts
+ * the following bins, and at the limit, it is preceded by a scan of
+ * all bins for the sparsest pair of neighbors, which is only skipped
+ * while the bin to be split is not larger than the sparsest pair
+ * found before. Both are linear in the limit. The final
+ * discretization (Layer2) is maintained incrementally: for
+ * equal-width discretization, the counts are
+ * updated whenever a Layer1 count changes and the borders are only
+ * recomputed if the smallest or largest observation has changed; for
+ * equal-frequency discretization, each border remembers its position
+ * in Layer1 and is only moved by the number of positions its quantile
+ * has shifted.</p>
+ *
  * @author Michael Geilke
  */
-public class PartitionIncremental implements OnlineDiscretization {
+public class PartitionIncremental implements OnlineDiscretization, 
+                                             Mergeable<OnlineDiscretization> {
 
     private static final String WRONG_INDEX_b = "For the index, " + 
         "the following has to hold: 0 <= index < getNumberOfBins.";
     private static final String WRONG_k = "the number of bins has to be " +
         "larger than 2.";
+    private static final String WRONG_MAX_BINS = "the maximal number of " +
+        "Layer1 bins has to be larger than 3.";
+    private static final String WRONG_MERGE = "only a PartitionIncremental " +
+        "with the same number of bins and type can be merged.";
+    private static final int DEFAULT_MAX_LAYER1_BINS = 1000;
     
-    private Logger logger;
     private Random random;
 
     // parameters
     private DiscretizationType discretizationType;
-    private List<Double> buffer; // buffer for values
+    private double[] buffer; // buffer for values
+    private int bufferSize; // number of values in the buffer
     private int recomputationThreshold; // maximal buffer size
     private int splitThreshold; // maximal number of values per Layer1 bin
+    private int maxLayer1Bins; // maximal number of Layer1 bins
 
     // the number of bins
     private int k; 
-    // contains the currents borders of Layer1
-    private Double[] b1; 
-    // bin counts for Layer1
-    private Long[] n1;
+    // the number of Layer1 bins
+    private int m;
+    // contains the currents borders of Layer1 (b1[0] to b1[m])
+    private double[] b1; 
+    // bin counts for Layer1 (n1[0] to n1[m-1])
+    private long[] n1;
+    // single precision: the borders of Layer1 as floats and its counts
+    // as ints, which replace b1 and n1 if they are not null
+    private boolean singlePrecision;
+    private float[] b1f;
+    private int[] n1i;
+    // lower bound for the smallest count of two neighboring Layer1
+    // bins, which is valid until the next split or merge
+    private long sparsestPair;
     // contains the current borders b0 to bk (belonging to Layer2)
-    private Double[] b2; 
+    private double[] b2; 
     // bin counts for Layer2
-    private Long[] n2; 
+    private long[] n2; 
+    // equal width: true iff the borders of Layer2 have to be recomputed
+    private boolean layer2Outdated;
+    // equal frequency: index of the Layer1 border that is used as
+    // border bi of Layer2 (m if bin i has not been reached)
+    private int[] p2;
+    // equal frequency: number of observations below border p2[i]
+    private long[] c2;
     // total number of counts
     private long observationCounter;
+    // safe-to-use regions of Layer2 (null if outdated)
+    private transient SoftBorders softBorders;
     
     /**
      * @param k final number of bins for the discretization
@@ -124,7 +164,6 @@ public class PartitionIncremental implements OnlineDiscretization {
     private void init(int k, DiscretizationType type, double min, 
                       double max) throws IllegalArgumentException {
 
-        this.logger = LogManager.getLogger();
         this.random = new Random();
 
         if (k <= 2) {
@@ -132,15 +171,17 @@ public class PartitionIncremental implements OnlineDiscretization {
         }
 
         // initialize parameters
-        this.buffer = new ArrayList<>();
         this.discretizationType = type;
         this.observationCounter = 0;
         this.k = k;
         setRecomputationThreshold(50);
         setSplitThreshold(100);
+        setMaxNumberOfLayer1Bins(Math.max(DEFAULT_MAX_LAYER1_BINS, k * k));
+        this.buffer = new double[Math.max(recomputationThreshold, 1)];
+        this.bufferSize = 0;
 
         // set borders for Layer2
-        this.b2 = new Double[k + 1];
+        this.b2 = new double[k + 1];
         this.b2[0] = Double.NEGATIVE_INFINITY;
         this.b2[1] = min;
         this.b2[k] = Double.POSITIVE_INFINITY;
@@ -150,26 +191,29 @@ public class PartitionIncremental implements OnlineDiscretization {
         }
 
         // initialize counts for Layer2 discretization
-        n2 = new Long[k];
-        for (int i = 0; i < n2.length; i++) {
-            n2[i] = 0L;
-        }
+        this.n2 = new long[k];
 
         // Layer1 is a discretization into many more bins than the final
         // discretization. It is initialized with an equal-width
         // strategy.
-        this.n1 = new Long[k * k];
-        for (int i = 0; i < n1.length; i++) {
-            n1[i] = 0L;
-        }
-        this.b1 = new Double[n1.length + 1];
-        step = (max - min) / n1.length;
+        this.m = k * k;
+        this.n1 = new long[m];
+        this.b1 = new double[m + 1];
+        step = (max - min) / m;
         this.b1[0] = Double.NEGATIVE_INFINITY;
         this.b1[1] = min;
-        this.b1[n1.length] = Double.POSITIVE_INFINITY;
-        for (int i = 2; i < n1.length; i++) {
+        this.b1[m] = Double.POSITIVE_INFINITY;
+        for (int i = 2; i < m; i++) {
             b1[i] = b1[1] + (i * step);
         }
+        this.sparsestPair = 0;
+
+        // Layer2 is computed from Layer1 when the buffer is processed
+        // for the first time. Initially, no bin has been reached.
+        this.layer2Outdated = true;
+        this.p2 = new int[k];
+        this.c2 = new long[k];
+        Arrays.fill(p2, 1, k, m);
     }
 
     @Override
@@ -200,14 +244,97 @@ public class PartitionIncremental implements OnlineDiscretization {
         this.splitThreshold = threshold;
     }
 
+    /**
+     * Specifies the maximal number of bins of the more fine-grained
+     * discretization, including the two bins for outliers. If a bin has
+     * to be split when this number has been reached, the two
+     * neighboring bins with the smallest total count are merged
+     * before, provided that they contain fewer values than the bin to
+     * be split. Otherwise, the bin is not split. Existing bins are not
+     * merged if the number is decreased.
+     *
+     * @param max the maximal number of bins of the more fine-grained
+     *     discretization
+     * @throws IllegalArgumentException if {@code max} is smaller than 4
+     */
+    public void setMaxNumberOfLayer1Bins(int max) 
+            throws IllegalArgumentException {
+        if (max < 4) {
+            throw new IllegalArgumentException(WRONG_MAX_BINS);
+        }
+        this.maxLayer1Bins = max;
+    }
+
+    /**
+     * @return the current number of bins of the more fine-grained
+     *     discretization, including the two bins for outliers
+     */
+    public int getNumberOfLayer1Bins() {
+        return m;
+    }
+
+    /**
+     * Stores the borders of Layer1 as floats and its counts as ints,
+     * which halves the memory of Layer1. A count that exceeds the range
+     * of ints is stored as a long again. The buffer and Layer2 keep
+     * double precision, and the computations are carried out with
+     * doubles. The borders are rounded to the nearest float, so that
+     * a bin is no longer split once its borders are neighboring
+     * floats.
+     *
+     * @param singlePrecision true if single precision is supposed to
+     * be used
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+        int length = (n1i != null) ? n1i.length : n1.length;
+        double[] b = new double[length + 1];
+        long[] n = new long[length];
+        for (int j = 0; j < length; j++) {
+            n[j] = count(j);
+            b[j] = border(j);
+        }
+        b[length] = border(length);
+        storeLayer1(b, n);
+        if (observationCounter > 0) {
+            // Layer2 is based on the rounded borders
+            recomputeLayer2();
+        }
+    }
+
+    /**
+     * @return true if Layer1 is stored in single precision
+     */
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * @return the number of bytes that are saved by storing Layer1 in
+     * the current precision instead of doubles and longs
+     */
+    public long getSavedBytes() {
+        long saved = 0;
+        if (b1f != null) {
+            saved += (long) b1f.length * (Double.BYTES - Float.BYTES);
+        }
+        if (n1i != null) {
+            saved += (long) n1i.length * (Long.BYTES - Integer.BYTES);
+        }
+        return saved;
+    }
+
     /**
      * Adds the observation and updates the discretization.
      *
      * @param obs new observation for the continuous variable
      */
     public void addObservation(double obs) {
-        buffer.add(obs);
-        if (buffer.size() >= recomputationThreshold) {
+        if (bufferSize == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        buffer[bufferSize++] = obs;
+        if (bufferSize >= recomputationThreshold) {
             processBuffer();
         }
     }
@@ -217,11 +344,11 @@ public class PartitionIncremental implements OnlineDiscretization {
      * clears the buffer.
      */
     public void processBuffer() {
-        for (Double o : buffer) {
-            updateLayer1(o);
+        for (int i = 0; i < bufferSize; i++) {
+            updateLayer1(buffer[i]);
         }
         updateLayer2();
-        buffer.clear();
+        bufferSize = 0;
     }
 
     /* Check the pseudo code for more explanations: It is available in
@@ -229,138 +356,469 @@ public class PartitionIncremental implements OnlineDiscretization {
      * Histograms and Data Mining" by Joao Gama and Carlos Pinto.
      */
     private void updateLayer1(double x) {
-        logger.info("updateLayer1 with {}", () -> Double.toString(x));
-
-        // update lower and upper border if necessary and find position
-        // for the bin of x
-        double step = (b1[b1.length - 2] - b1[1]) / n1.length;
-        int bin;
-        if (x < b1[1]) {
+        // update lower and upper border if necessary
+        // (step is as a correction)
+        double step = (border(m - 1) - border(1)) / m;
+        if (x < border(1)) {
             // smallest observation so far 
-            // (step is as a correction)
-            b1[1] = x - step;
-            bin = 1;
-        } else if (x > b1[b1.length - 2]) {
+            setBorder(1, x - step);
+            layer2Outdated = true;
+        } else if (x > border(m - 1)) {
             // largest observation so far
-            // (step is as a correction)
-            b1[b1.length - 2] = x + step;
-            bin = b1.length - 2;
-        } else {
-            // an observation in between
-            bin = 1 + (int) ((x - b1[1]) / step);
-            bin = Math.min(bin, b1.length - 2);
-        }
-        while (x < b1[bin - 1]) {
-            bin--;
-        }
-        while (x > b1[bin]) {
-            bin++;
+            setBorder(m - 1, x + step);
+            layer2Outdated = true;
         }
 
         // update statistics
-        n1[bin - 1]++;
-        logger.info(x);
-        logger.info("Selected bin: " + Integer.toString(bin - 1));
-        logger.info("Bin count: " + Long.toString(n1[bin - 1]));
+        int bin = findLayer1Bin(x);
+        setCount(bin, count(bin) + 1);
         observationCounter++;
+        updateLayer2Counts(bin, 1);
 
         // split the bin if necessary
-        if ((1 + n1[bin - 1]) > splitThreshold) {
-            // perform split on b1 and n1
-            Long[] n1Prime = new Long[n1.length + 1];
-            Double[] b1Prime = new Double[b1.length + 1];
-            long count = n1[bin - 1] / 2;
-            n1[bin - 1] = n1[bin - 1] - count;
-            performSplit(b1, b1Prime, bin);
-            if (bin == 1) {
-                // first bin
-                b1Prime[1] = b1[1] - step;
-                performSplit(n1, n1Prime, 0);
-                n1Prime[0] = count;
-            } else if (bin == n1.length - 1) {
-                // last bin
-                b1Prime[bin] = b1[bin - 1] + step;
-                performSplit(n1, n1Prime, n1Prime.length - 1);
-                n1Prime[n1Prime.length - 1] = count;
+        if ((1 + count(bin)) > splitThreshold) {
+            split(bin);
+        }
+    }
+
+    /**
+     * {@inheritDoc} The borders of the merged Layer1 are the borders of
+     * both Layer1s, where the count of a bin is distributed among the
+     * merged bins it covers in proportion to their widths. Afterwards,
+     * the two neighboring bins with the smallest total count are merged
+     * until the maximal number of Layer1 bins is met, and Layer2 is
+     * recomputed. The values that {@code other} has not processed yet
+     * are added as observations.
+     *
+     * @throws IllegalArgumentException if {@code other} is not a
+     *     PartitionIncremental with the same number of bins and type of
+     *     discretization
+     */
+    @Override
+    public void merge(OnlineDiscretization other) 
+            throws IllegalArgumentException {
+        if (!(other instanceof PartitionIncremental) || other == this
+                || other.getNumberOfBins() != k
+                || other.getDiscretizationType() != discretizationType) {
+            throw new IllegalArgumentException(WRONG_MERGE);
+        }
+        PartitionIncremental o = (PartitionIncremental) other;
+        if (o.observationCounter > 0) {
+            mergeLayer1(o);
+            recomputeLayer2();
+        }
+        for (int i = 0; i < o.bufferSize; i++) {
+            addObservation(o.buffer[i]);
+        }
+    }
+
+    /* Replaces Layer1 by the union of the Layer1s of this and o. */
+    private void mergeLayer1(PartitionIncremental o) {
+        // union of the borders b1[1] to b1[m-1] of both Layer1s
+        double[] borders = new double[m + o.m - 2];
+        int size = 0;
+        int i = 1;
+        int j = 1;
+        while (i < m || j < o.m) {
+            double b = (j >= o.m || (i < m && border(i) <= o.border(j))) 
+                ? border(i++) : o.border(j++);
+            if (size == 0 || b > borders[size - 1]) {
+                borders[size++] = b;
+            }
+        }
+
+        // bin q of the merged Layer1 is [borders[q-1]; borders[q])
+        long[] counts = new long[size + 1];
+        distributeCounts(this, borders, size, counts);
+        distributeCounts(o, borders, size, counts);
+        double[] b = new double[size + 2];
+        b[0] = Double.NEGATIVE_INFINITY;
+        System.arraycopy(borders, 0, b, 1, size);
+        b[size + 1] = Double.POSITIVE_INFINITY;
+        storeLayer1(b, counts);
+        this.m = size + 1;
+        this.observationCounter += o.observationCounter;
+        this.sparsestPair = 0;
+
+        layer2Outdated = true;
+        while (m > maxLayer1Bins) {
+            int r = findSparsestPair();
+            if (r < 0) {
+                break;
+            }
+            merge(r);
+        }
+    }
+
+    /* Adds the counts of the Layer1 bins of src to the bins between the
+     * given borders, which include the borders of src.
+     */
+    private static void distributeCounts(PartitionIncremental src, 
+            double[] borders, int size, long[] counts) {
+        int q = 1;
+        for (int j = 1; j < src.m - 1; j++) {
+            double lo = src.border(j);
+            double hi = src.border(j + 1);
+            while (q < size - 1 && borders[q] <= lo) {
+                q++;
+            }
+            // all bins but the last one covered by [lo; hi) get their
+            // share, the last one gets the remaining count
+            long remaining = src.count(j);
+            int r = q;
+            while (r < size - 1 && borders[r] < hi) {
+                double share = (borders[r] - borders[r - 1]) / (hi - lo);
+                long count = Math.min(Math.round(src.count(j) * share), 
+                                      remaining);
+                counts[r] += count;
+                remaining -= count;
+                r++;
+            }
+            counts[r] += remaining;
+        }
+    }
+
+    /* Returns the bin [b1[j]; b1[j+1]) of Layer1 that contains x, where
+     * the bins for outliers are never used, since b1[1] and b1[m-1] are
+     * always moved beyond the smallest and largest observation.
+     */
+    private int findLayer1Bin(double x) {
+        int low = 1;
+        int high = m - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (border(mid) <= x) {
+                low = mid;
             } else {
-                // bin in between
-                double newB = (b1[bin-1] + b1[bin]) / 2;
-                b1Prime[bin] = newB;
-                performSplit(n1, n1Prime, bin - 1);
-                n1Prime[bin - 1] = count;
+                high = mid - 1;
             }
-            n1 = n1Prime;
-            b1 = b1Prime;
         }
+        return low;
     }
 
-    /* Inserts element at the specified position.
-     *
-     * @param src is the original array
-     * @param dest is an empty array that has src.length + 1 as length
-     * @param position is the position in the array at which the element
-     * will be inserted.
+    /* Splits bin j of Layer1 into two halves. If the maximal number of
+     * bins has been reached, the two neighboring bins with the
+     * smallest total count are merged before.
      */
-    private void performSplit(Object src, Object dest, int position) {
+    private void split(int j) {
+        // a bin that cannot be halved at the precision of the borders
+        // is not split
+        double oldB = border(j + 1);
+        double newB = roundBorder((border(j) + oldB) / 2);
+        if (newB <= border(j) || newB >= oldB) {
+            return;
+        }
 
-        Object[] srcConverted = (Object[]) src;
+        if (m >= maxLayer1Bins) {
+            // Counts only increase between splits and merges, so the
+            // search for the sparsest pair can be skipped as long as
+            // the bin is not larger than the last result.
+            if (count(j) <= sparsestPair) {
+                return;
+            }
+            int r = findSparsestPair();
+            if (r < 0 || count(r - 1) + count(r) >= count(j)) {
+                return;
+            }
+            merge(r);
+            if (r <= j) {
+                j--;
+            }
+        }
 
-        if (position == 0) {
-            System.arraycopy(src, 0, dest, 1, srcConverted.length);
-        } else if (position == srcConverted.length) {
-            System.arraycopy(src, 0, dest, 0, srcConverted.length);
+        long count = count(j) / 2;
+        ensureCapacity(m + 1);
+        copyCounts(j, j + 1, m - j);
+        copyBorders(j + 1, j + 2, m - j);
+        m++;
+        setCount(j, count);
+        setCount(j + 1, count(j + 1) - count);
+        setBorder(j + 1, newB);
+        sparsestPair = 0;
+
+        // the lower half now ends at the new border
+        if (discretizationType == DiscretizationType.EQUAL_FREQUENCY) {
+            for (int i = 1; i < k; i++) {
+                if (p2[i] > j) {
+                    p2[i]++;
+                }
+            }
+        } else if (!layer2Outdated) {
+            moveLayer2Count(oldB, newB, count);
+        }
+    }
+
+    /* Merges the bins r - 1 and r of Layer1 by removing border r. */
+    private void merge(int r) {
+        if (discretizationType == DiscretizationType.EQUAL_FREQUENCY) {
+            for (int i = 1; i < k; i++) {
+                if (p2[i] > r) {
+                    p2[i]--;
+                } else if (p2[i] == r) {
+                    // the border moves to the end of the merged bin
+                    c2[i] += count(r);
+                }
+            }
+        } else if (!layer2Outdated) {
+            moveLayer2Count(border(r), border(r + 1), count(r - 1));
+        }
+
+        setCount(r - 1, count(r - 1) + count(r));
+        copyCounts(r + 1, r, m - r - 1);
+        copyBorders(r + 1, r, m - r);
+        m--;
+        setCount(m, 0);
+        sparsestPair = 0;
+    }
+
+    /* Returns r such that the bins r - 1 and r of Layer1 have the
+     * smallest total count (or -1 if there is no such pair) and
+     * remembers that count.
+     */
+    private int findSparsestPair() {
+        int sparsest = -1;
+        long min = Long.MAX_VALUE;
+        for (int r = 2; r < m - 1; r++) {
+            long sum = count(r - 1) + count(r);
+            if (sum < min) {
+                min = sum;
+                sparsest = r;
+            }
+        }
+        sparsestPair = min;
+        return sparsest;
+    }
+
+    /* Ensures that Layer1 can hold the given number of bins. */
+    private void ensureCapacity(int size) {
+        int length = (n1i != null) ? n1i.length : n1.length;
+        if (length < size) {
+            int capacity = Math.max(size, 2 * length);
+            if (n1i != null) {
+                n1i = Arrays.copyOf(n1i, capacity);
+            } else {
+                n1 = Arrays.copyOf(n1, capacity);
+            }
+            if (b1f != null) {
+                b1f = Arrays.copyOf(b1f, capacity + 1);
+            } else {
+                b1 = Arrays.copyOf(b1, capacity + 1);
+            }
+        }
+    }
+
+    /* Returns border j of Layer1. */
+    private double border(int j) {
+        return (b1f != null) ? b1f[j] : b1[j];
+    }
+
+    /* Sets border j of Layer1, rounded to its precision. */
+    private void setBorder(int j, double b) {
+        if (b1f != null) {
+            b1f[j] = (float) b;
+        } else {
+            b1[j] = b;
+        }
+    }
+
+    /* Rounds the value to the precision of the borders of Layer1. */
+    private double roundBorder(double b) {
+        return (b1f != null) ? (float) b : b;
+    }
+
+    /* Returns the count of bin j of Layer1. */
+    private long count(int j) {
+        return (n1i != null) ? n1i[j] : n1[j];
+    }
+
+    /* Sets the count of bin j of Layer1, where the counts are stored as
+     * longs from now on if it does not fit into an int.
+     */
+    private void setCount(int j, long count) {
+        if (n1i != null) {
+            if (count <= Integer.MAX_VALUE) {
+                n1i[j] = (int) count;
+                return;
+            }
+            n1 = new long[n1i.length];
+            for (int i = 0; i < n1.length; i++) {
+                n1[i] = n1i[i];
+            }
+            n1i = null;
+        }
+        n1[j] = count;
+    }
+
+    /* Copies length counts of Layer1 from position from to to. */
+    private void copyCounts(int from, int to, int length) {
+        if (n1i != null) {
+            System.arraycopy(n1i, from, n1i, to, length);
         } else {
-            System.arraycopy(src, 0, dest, 0, position);
-            System.arraycopy(src, position, dest, position + 1, 
-                             srcConverted.length - position);
+            System.arraycopy(n1, from, n1, to, length);
+        }
+    }
+
+    /* Copies length borders of Layer1 from position from to to. */
+    private void copyBorders(int from, int to, int length) {
+        if (b1f != null) {
+            System.arraycopy(b1f, from, b1f, to, length);
+        } else {
+            System.arraycopy(b1, from, b1, to, length);
+        }
+    }
+
+    /* Replaces the borders and counts of Layer1, which are converted
+     * to single precision if necessary.
+     */
+    private void storeLayer1(double[] b, long[] n) {
+        if (!singlePrecision) {
+            this.b1 = b;
+            this.b1f = null;
+            this.n1 = n;
+            this.n1i = null;
+            return;
+        }
+        this.b1f = new float[b.length];
+        for (int j = 0; j < b.length; j++) {
+            b1f[j] = (float) b[j];
+        }
+        this.b1 = null;
+        this.n1 = n;
+        this.n1i = null;
+        for (long count : n) {
+            if (count > Integer.MAX_VALUE) {
+                return;
+            }
+        }
+        this.n1i = new int[n.length];
+        for (int j = 0; j < n.length; j++) {
+            n1i[j] = (int) n[j];
+        }
+        this.n1 = null;
+    }
+
+    /* Propagates a change of the count of bin j of Layer1 to Layer2. */
+    private void updateLayer2Counts(int j, long delta) {
+        if (discretizationType == DiscretizationType.EQUAL_FREQUENCY) {
+            // the positions are sorted
+            for (int i = k - 1; i > 0 && p2[i] > j; i--) {
+                c2[i] += delta;
+            }
+        } else if (!layer2Outdated) {
+            int i = findLayer2Bin(border(j + 1));
+            if (i >= 0) {
+                n2[i] += delta;
+            }
+        }
+    }
+
+    /* Moves count observations of a Layer1 bin whose upper border
+     * changes from oldB to newB to the corresponding Layer2 bin.
+     */
+    private void moveLayer2Count(double oldB, double newB, long count) {
+        int oldBin = findLayer2Bin(oldB);
+        int newBin = findLayer2Bin(newB);
+        if (oldBin >= 0) {
+            n2[oldBin] -= count;
+        }
+        if (newBin >= 0) {
+            n2[newBin] += count;
+        }
+    }
+
+    /* Returns the equal-width Layer2 bin to which a Layer1 bin with the
+     * given upper border is assigned, i.e., i - 1 for the smallest i
+     * with upper < b2[i] and 1 <= i < k, or -1 if there is no
+     * such i.
+     */
+    private int findLayer2Bin(double upper) {
+        int low = 1;
+        int high = k;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (upper < b2[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
         }
+        return (low < k) ? low - 1 : -1;
+    }
+
+    /* Recomputes Layer2 from scratch, i.e., without the state that is
+     * kept for its incremental update. As in the initial state, no bin
+     * has been reached, and all observations lie below the positions
+     * of the borders.
+     */
+    void recomputeLayer2() {
+        layer2Outdated = true;
+        Arrays.fill(p2, 1, k, m);
+        Arrays.fill(c2, 1, k, observationCounter);
+        updateLayer2();
     }
 
-    /* Updates Layer2 based on Layer1. It traverses Layer1 and merges
-     * the bins to obtain a equal-frequency or equal-width
-     * discretization with the desired number of bins, which is k.
+    /* Updates Layer2 based on Layer1, so that it is an equal-frequency
+     * or equal-width discretization with the desired number of bins,
+     * which is k.
      */
     private void updateLayer2() {
-        logger.info("updateLayer2");
+        softBorders = null;
 
         if (discretizationType == DiscretizationType.EQUAL_FREQUENCY) {
-            // bin 1 to k - 1
-            b2[0] = b1[0];
-            int bin = 1;
-            long currCount = 0;
-            long prevCount = 0;
+            // Border i is the first Layer1 border behind border i - 1
+            // below which at least i * observationsPerBin observations
+            // lie. Starting from its previous position, it only has to
+            // be moved by a few positions.
             double observationsPerBin = observationCounter / (double) k;
-            for (int i = 1; i < b1.length - 1; i++) {
-                currCount += n1[i - 1];
-                if (bin < k && currCount >= bin * observationsPerBin) {
-                    n2[bin - 1] = currCount - prevCount;
-                    b2[bin] = b1[i];
-                    prevCount = currCount;
-                    bin++;
+            for (int i = 1; i < k; i++) {
+                double target = i * observationsPerBin;
+                int pos = Math.min(p2[i], m - 1);
+                long count = c2[i];
+                while (pos <= p2[i - 1] || count < target) {
+                    if (pos >= m - 1) {
+                        // bin i is not reached
+                        pos = m;
+                        break;
+                    }
+                    count += count(pos);
+                    pos++;
+                }
+                while (pos < m && pos - 1 > p2[i - 1]
+                       && count - count(pos - 1) >= target) {
+                    pos--;
+                    count -= count(pos);
                 }
+                p2[i] = pos;
+                c2[i] = count;
+                // Bins that have not been reached contain the remaining
+                // values up to the largest observation, so that the
+                // borders stay sorted.
+                b2[i] = border(Math.min(pos, m - 1));
+                n2[i - 1] = count - c2[i - 1];
             }
             // the remaining values go into bin k
-            b2[k] = b1[b1.length - 1];
-            n2[k - 1] = currCount - prevCount;
+            n2[k - 1] = observationCounter - c2[k - 1];
 
-        } else if (discretizationType == DiscretizationType.EQUAL_WIDTH) {
+        } else if (discretizationType == DiscretizationType.EQUAL_WIDTH
+                   && layer2Outdated) {
             // b2_1 and b2_{k-1}
-            b2[1] = b1[1];
-            b2[b2.length - 2] = b1[b1.length - 2];
+            b2[1] = border(1);
+            b2[k - 1] = border(m - 1);
             // remaining borders and n2
             int bin = 1;
             long currCount = 0;
             long prevCount = 0;
-            double step = (b2[b2.length - 2] - b2[1]) / (k - 1);
-            for (int i = 1; i < b2.length - 1; i++) {
+            double step = (b2[k - 1] - b2[1]) / (k - 1);
+            for (int i = 1; i < k; i++) {
                 b2[i] = b2[1] + (i - 1) * step;
-                while (bin < b1.length - 1 && b1[bin] < b2[i]) {
-                    currCount += n1[bin - 1];
+                while (bin < m && border(bin) < b2[i]) {
+                    currCount += count(bin - 1);
                     bin++;
                 }
                 n2[i - 1] = currCount - prevCount;
                 prevCount = currCount;
             }
+            layer2Outdated = false;
         }
     }
 
@@ -398,6 +856,18 @@ public class PartitionIncremental implements OnlineDiscretization {
         processBuffer();
     }
 
+    /**
+     * {@inheritDoc} The safe-to-use regions are only recomputed after
+     * Layer2 has changed.
+     */
+    @Override
+    public boolean belongsToSoftBorder(double obs) {
+        if (softBorders == null) {
+            softBorders = new SoftBorders(this);
+        }
+        return softBorders.contains(obs);
+    }
+
     @Override
     public double[] getBinDistribution() {
         double[] dist = new double[getNumberOfBins()];
@@ -0,0 +1,459 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.core.discretization;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Utils;
+
+import org.kramerlab.mideo.core.Mergeable;
+
+/**
+ * QuantileSketch performs equal-frequency discretization in an online
+ * fashion, where the borders are the quantiles {@literal i/k} of a
+ * streaming quantile sketch.
+ *
+ * <p>The sketch follows the paper "Optimal Quantile Approximation in
+ * Streams" by Zohar Karnin, Kevin Lang and Edo Liberty (KLL). It
+ * consists of compactors, where compactor {@literal h} holds values
+ * with weight {@literal 2^h}. If the sketch is full, the lowest
+ * compactor that has reached its capacity is sorted and every other
+ * value (starting with a random offset) is promoted to the next
+ * compactor. The capacities decrease geometrically from the highest
+ * compactor, which can hold {@code sketchSize} values, so that the
+ * sketch retains s = O({@code sketchSize} + log n) values for n
+ * observations. Since a compaction sorts a compactor, adding a value
+ * to the compactors costs O(log s) amortized time. With high
+ * probability, the rank of each border deviates by O(n / {@code
+ * sketchSize}) from the exact quantile. Two sketches can be merged
+ * (see {@link #merge}).</p>
+ *
+ * <p>As for {@link PartitionIncremental}, the observations are
+ * processed in batches: the borders and bin counts are recomputed
+ * whenever {@code recomputationThreshold} observations have been
+ * added. A recomputation sorts the L compactors and merges all s
+ * retained values, which costs O(s (log s + L)) time and O(s)
+ * memory, where L = O(log n).
+ * Hence, it dominates the costs of an observation unless {@code
+ * recomputationThreshold} is large compared to s. {@literal b0} is
+ * negative infinity and {@literal bk} is positive infinity.</p>
+ *
+ * @author Michael Geilke
+ */
+public class QuantileSketch implements OnlineDiscretization, 
+                                       Mergeable<OnlineDiscretization> {
+
+    private static final String WRONG_INDEX_b = "For the index, " + 
+        "the following has to hold: 0 <= index < getNumberOfBins.";
+    private static final String WRONG_k = "the number of bins has to be " +
+        "larger than 2.";
+    private static final String WRONG_SIZE = "the size of the sketch has " +
+        "to be at least 8.";
+    private static final String WRONG_MERGE = "only a QuantileSketch " +
+        "with the same number of bins can be merged.";
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+
+    private Random random;
+
+    // parameters
+    private int recomputationThreshold;
+    private int sketchSize;
+
+    // the number of bins
+    private int k;
+    // compactor h contains sizes[h] values of weight 2^h
+    private double[][] levels;
+    private int[] sizes;
+    private int numLevels;
+    private int numItems;
+    // number of values the compactors may hold before compressing
+    private int capacity;
+    // total number of counts
+    private long observationCounter;
+    private double min;
+    private double max;
+    // number of observations since the borders have been recomputed
+    private int pending;
+
+    // contains the current borders b0 to bk
+    private double[] borders;
+    // bin counts
+    private long[] counts;
+    // safe-to-use regions of the bins (null if outdated)
+    private transient SoftBorders softBorders;
+
+    /**
+     * @param k final number of bins for the discretization
+     * @param sketchSize the maximal number of values of a compactor,
+     *     which determines the accuracy of the borders
+     * @param min an initial value for the minimal value of the variable
+     * @param max an initial value for the maximal value of the variable
+     * @throws IllegalArgumentException if {@code k} &lt;= 2 or {@code
+     *     sketchSize} &lt; 8
+     */
+    public QuantileSketch(int k, int sketchSize, double min, double max)
+            throws IllegalArgumentException {
+        init(k, sketchSize, min, max);
+    }
+
+    /**
+     * @param k final number of bins for the discretization
+     * @param sketchSize the maximal number of values of a compactor,
+     *     which determines the accuracy of the borders
+     * @param observations a non-empty list of observations
+     * @throws IllegalArgumentException if {@code k} &lt;= 2, {@code
+     *     sketchSize} &lt; 8, or no observations are given
+     */
+    public QuantileSketch(int k, int sketchSize, List<Double> observations)
+            throws IllegalArgumentException {
+        if (observations == null || observations.isEmpty()) {
+            throw new IllegalArgumentException("Observations required!");
+        }
+        double minValue = observations.stream().min(Double::compare).get();
+        double maxValue = observations.stream().max(Double::compare).get();
+        init(k, sketchSize, minValue, maxValue);
+        observations.forEach(obs -> addObservation(obs));
+        updateBorders();
+    }
+
+    /* Sets default values and initializes the compactors and the
+     * borders. */
+    private void init(int k, int sketchSize, double min, double max)
+            throws IllegalArgumentException {
+        if (k <= 2) {
+            throw new IllegalArgumentException(WRONG_k);
+        }
+        if (sketchSize < 8) {
+            throw new IllegalArgumentException(WRONG_SIZE);
+        }
+        this.random = new Random();
+        this.k = k;
+        this.sketchSize = sketchSize;
+        setRecomputationThreshold(50);
+
+        this.levels = new double[1][sketchSize];
+        this.sizes = new int[1];
+        this.numLevels = 1;
+        this.numItems = 0;
+        this.capacity = capacity(0);
+        this.observationCounter = 0;
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+        this.pending = 0;
+
+        // Until the first recomputation, the borders split [min; max]
+        // into bins of equal width.
+        this.borders = new double[k + 1];
+        this.borders[0] = Double.NEGATIVE_INFINITY;
+        this.borders[k] = Double.POSITIVE_INFINITY;
+        double step = (max - min) / (k - 2);
+        for (int i = 1; i < k; i++) {
+            borders[i] = min + (i - 1) * step;
+        }
+        this.counts = new long[k];
+    }
+
+    @Override
+    public DiscretizationType getDiscretizationType() {
+        return DiscretizationType.EQUAL_FREQUENCY;
+    }
+
+    /**
+     * Specifies the number of observations before the borders are
+     * recomputed.
+     *
+     * @param threshold number of observations until the borders are
+     *     recomputed
+     */
+    public void setRecomputationThreshold(int threshold) {
+        this.recomputationThreshold = threshold;
+    }
+
+    /**
+     * @return the maximal number of values of a compactor
+     */
+    public int getSketchSize() {
+        return sketchSize;
+    }
+
+    /**
+     * @return the number of values that are currently retained by the
+     *     sketch
+     */
+    public int getNumberOfRetainedValues() {
+        return numItems;
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return k;
+    }
+
+    @Override
+    public void addObservation(double obs) {
+        insert(0, obs);
+        observationCounter++;
+        min = Math.min(min, obs);
+        max = Math.max(max, obs);
+        if (numItems >= capacity) {
+            compress();
+        }
+        if (++pending >= recomputationThreshold) {
+            updateBorders();
+        }
+    }
+
+    /**
+     * Adds all observations of {@code other} to this sketch, as if they
+     * had been observed by this sketch.
+     *
+     * @param other the sketch to be merged into this one
+     * @throws IllegalArgumentException if {@code other} has a different
+     *     number of bins or is this sketch
+     */
+    public void merge(QuantileSketch other) throws IllegalArgumentException {
+        if (other.k != k || other == this) {
+            throw new IllegalArgumentException(WRONG_MERGE);
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            while (h >= numLevels) {
+                addLevel();
+            }
+            for (int i = 0; i < other.sizes[h]; i++) {
+                insert(h, other.levels[h][i]);
+            }
+        }
+        observationCounter += other.observationCounter;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        while (numItems >= capacity) {
+            compress();
+        }
+        updateBorders();
+    }
+
+    /**
+     * {@inheritDoc} See {@link #merge(QuantileSketch)}.
+     *
+     * @throws IllegalArgumentException if {@code other} is not a
+     *     QuantileSketch with the same number of bins
+     */
+    @Override
+    public void merge(OnlineDiscretization other) 
+            throws IllegalArgumentException {
+        if (!(other instanceof QuantileSketch)) {
+            throw new IllegalArgumentException(WRONG_MERGE);
+        }
+        merge((QuantileSketch) other);
+    }
+
+    /* Returns the capacity of compactor h. */
+    private int capacity(int h) {
+        double c = sketchSize * Math.pow(CAPACITY_DECAY, numLevels - 1 - h);
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(c));
+    }
+
+    /* Appends value to compactor h. */
+    private void insert(int h, double value) {
+        if (sizes[h] == levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], 2 * levels[h].length);
+        }
+        levels[h][sizes[h]++] = value;
+        numItems++;
+    }
+
+    /* Adds a compactor on top of the existing ones. */
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        sizes = Arrays.copyOf(sizes, numLevels + 1);
+        levels[numLevels] = new double[sketchSize];
+        numLevels++;
+        capacity = 0;
+        for (int h = 0; h < numLevels; h++) {
+            capacity += capacity(h);
+        }
+    }
+
+    /* Compacts the lowest compactor that has reached its capacity. */
+    private void compress() {
+        int h = 0;
+        while (h < numLevels - 1 && sizes[h] < capacity(h)) {
+            h++;
+        }
+        if (h == numLevels - 1) {
+            addLevel();
+        }
+
+        // keep one value if the number of values is odd and promote
+        // every other value of the remaining ones
+        double[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+        int even = size - (size % 2);
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = offset; i < even; i += 2) {
+            insert(h + 1, level[i]);
+        }
+        numItems -= even;
+        if (size > even) {
+            level[0] = level[size - 1];
+        }
+        sizes[h] = size - even;
+    }
+
+    /* Recomputes the borders from the quantiles of the sketch. */
+    private void updateBorders() {
+        pending = 0;
+        softBorders = null;
+        if (observationCounter == 0) {
+            return;
+        }
+
+        // merge the sorted compactors into a single sorted list with
+        // cumulative weights
+        double[] values = new double[numItems];
+        long[] ranks = new long[numItems];
+        int[] next = new int[numLevels];
+        for (int h = 0; h < numLevels; h++) {
+            Arrays.sort(levels[h], 0, sizes[h]);
+        }
+        long rank = 0;
+        for (int j = 0; j < numItems; j++) {
+            int minLevel = -1;
+            double minValue = Double.POSITIVE_INFINITY;
+            for (int h = 0; h < numLevels; h++) {
+                if (next[h] < sizes[h]
+                        && (minLevel < 0 || levels[h][next[h]] < minValue)) {
+                    minLevel = h;
+                    minValue = levels[h][next[h]];
+                }
+            }
+            values[j] = minValue;
+            next[minLevel]++;
+            rank += 1L << minLevel;
+            ranks[j] = rank;
+        }
+
+        // border i is the first value whose rank is at least i * n / k,
+        // and bin i contains the values in (bi; b{i+1}]
+        double observationsPerBin = observationCounter / (double) k;
+        long previous = 0;
+        int j = 0;
+        for (int i = 1; i < k; i++) {
+            while (j < numItems - 1 && ranks[j] < i * observationsPerBin) {
+                j++;
+            }
+            borders[i] = values[j];
+            long below = rankOf(values, ranks, borders[i]);
+            counts[i - 1] = below - previous;
+            previous = below;
+        }
+        counts[k - 1] = observationCounter - previous;
+    }
+
+    /* Returns the total weight of the values that are not larger than
+     * value. */
+    private long rankOf(double[] values, long[] ranks, double value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low == 0) ? 0 : ranks[low - 1];
+    }
+
+    @Override
+    public double getBorder(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index > getNumberOfBins()) {
+            throw new IndexOutOfBoundsException(WRONG_INDEX_b);
+        }
+        return borders[index];
+    }
+
+    @Override
+    public long getBinCount(int index) throws IndexOutOfBoundsException {
+        return counts[index];
+    }
+
+    /**
+     * {@inheritDoc} It simulates observations from the interval
+     * {@literal [bi; b{i+1})} by drawing them uniformly at random, where
+     * the first and the last bin are bounded by the smallest and the
+     * largest observation.
+     */
+    @Override
+    public void addCountToBin(int index, long count)
+            throws IllegalArgumentException {
+        for (int i = 0; i < count; i++) {
+            addObservation(drawRandomValueFromBin(index));
+        }
+        updateBorders();
+    }
+
+    @Override
+    public double[] getBinDistribution() {
+        double[] dist = new double[getNumberOfBins()];
+        for (int i = 0; i < dist.length; i++) {
+            dist[i] = getBinCount(i) + 1;  // + 1 for laplace correction
+        }
+        Utils.normalize(dist);
+        return dist;
+    }
+
+    /**
+     * {@inheritDoc} The first and the last bin are bounded by the
+     * smallest and the largest observation.
+     */
+    @Override
+    public double drawRandomValueFromBin(int index)
+            throws IllegalArgumentException {
+        if (index < 0 || index >= getNumberOfBins()) {
+            throw new IllegalArgumentException(WRONG_INDEX_b);
+        }
+        double l = (index == 0) ? Math.min(min, borders[1]) : borders[index];
+        double u = (index == k - 1) ? Math.max(max, borders[k - 1])
+            : borders[index + 1];
+        return random.nextDouble() * (u - l) + l;
+    }
+
+    /**
+     * {@inheritDoc} The safe-to-use regions are only recomputed after
+     * the borders have changed.
+     */
+    @Override
+    public boolean belongsToSoftBorder(double obs) {
+        if (softBorders == null) {
+            softBorders = new SoftBorders(this);
+        }
+        return softBorders.contains(obs);
+    }
+}
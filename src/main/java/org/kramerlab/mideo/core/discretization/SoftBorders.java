@@ -0,0 +1,140 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.core.discretization;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static org.kramerlab.mideo.core.ChernoffBounds.findLambdaForLowerBound;
+import static org.kramerlab.mideo.core.ChernoffBounds.findLambdaForUpperBound;
+
+/**
+ * SoftBorders holds the safe-to-use regions of the bins of an {@link
+ * OnlineDiscretization} for its current borders and bin counts. The
+ * regions are computed once per bin, so that checking whether an
+ * observation belongs to a soft border only requires a binary search
+ * over the borders. Since the table is a snapshot, it has to be
+ * recreated whenever the borders or bin counts of the discretization
+ * change.
+ *
+ * @author Michael Geilke
+ */
+final class SoftBorders implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // parameters for Chernoff
+    private static final double PRECISION = 0.000001;
+    private static final double DELTA = 0.90;
+
+    // borders b1 to b{k-1}
+    private final double[] borders;
+    // safe-to-use region (safeLower[i]; safeUpper[i]) of bin i + 1
+    private final double[] safeLower;
+    private final double[] safeUpper;
+
+    /**
+     * Computes the safe-to-use regions for the current state of {@code
+     * discretization}. Only the inner bins have soft borders, so a
+     * discretization with less than three bins has none.
+     *
+     * @param discretization the discretization
+     */
+    SoftBorders(OnlineDiscretization discretization) {
+        int k = discretization.getNumberOfBins();
+        if (k < 3) {
+            this.borders = new double[0];
+            this.safeLower = new double[0];
+            this.safeUpper = new double[0];
+            return;
+        }
+        long total = 0;
+        for (int i = 0; i < k; i++) {
+            total += discretization.getBinCount(i);
+        }
+        this.borders = new double[k - 1];
+        for (int i = 1; i < k; i++) {
+            borders[i - 1] = discretization.getBorder(i);
+        }
+        this.safeLower = new double[k - 2];
+        this.safeUpper = new double[k - 2];
+
+        // This is a simplified version of the approach presented in the
+        // paper. Instead of the smallest and largest element close to
+        // the border, we take the border itself. The smallest and
+        // largest border are ignored, as these are the -infinity and
+        // +infinity.
+        double attributeRange = borders[k - 2] - borders[0];
+        long below = discretization.getBinCount(0);
+        for (int i = 1; i < k - 1; i++) {
+            long upTo = below + discretization.getBinCount(i);
+            double l = findLambdaForLowerBound(total * (upTo / (double) total),
+                                               PRECISION, DELTA);
+            double u = findLambdaForUpperBound(total * (below / (double) total),
+                                               PRECISION, DELTA);
+            // The computed soft border need to be scaled to the actual
+            // range, since we assumed a range of [0;1] here.
+            l = (l / total) * attributeRange;
+            u = (u / total) * attributeRange;
+            safeLower[i - 1] = borders[i - 1] + u;
+            safeUpper[i - 1] = borders[i] - l;
+            below = upTo;
+        }
+    }
+
+    /**
+     * Checks whether observation {@code obs} belongs to a soft border,
+     * i.e., whether it lies in one of the bins {@literal [b1; b{k-1}]}
+     * but in none of their safe-to-use regions.
+     *
+     * @param obs value to be tested
+     * @return true iff {@code obs} belongs to a soft border
+     */
+    boolean contains(double obs) {
+        if (safeLower.length == 0) {
+            return false;
+        }
+        if (!(obs >= borders[0] && obs <= borders[borders.length - 1])) {
+            return false;
+        }
+        // last border that is not larger than obs
+        int index = Arrays.binarySearch(borders, obs);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            while (index + 1 < borders.length && borders[index + 1] == obs) {
+                index++;
+            }
+        }
+        // obs lies in every bin from index downwards whose right border
+        // is not smaller than obs
+        for (int i = Math.min(index, safeLower.length - 1);
+             i >= 0 && borders[i + 1] >= obs; i--) {
+            if (obs > safeLower[i] && obs < safeUpper[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
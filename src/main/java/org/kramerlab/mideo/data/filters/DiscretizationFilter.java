@@ -31,12 +31,16 @@ import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.core.SerializeUtils;
 
+import org.kramerlab.mideo.core.Mergeable;
 import org.kramerlab.mideo.core.RandomVariable;
 import org.kramerlab.mideo.core.DiscreteRandomVariable;
 import org.kramerlab.mideo.core.discretization.DiscretizationType;
 import org.kramerlab.mideo.core.discretization.OnlineDiscretization;
 import org.kramerlab.mideo.core.discretization.PartitionIncremental;
+import org.kramerlab.mideo.core.discretization.QuantileSketch;
+import org.kramerlab.mideo.data.instances.DiscretizedInstance;
 
 /**
  * Acts as a wrapper that discretizes streams on the fly. For each
@@ -45,18 +49,91 @@ import org.kramerlab.mideo.core.discretization.PartitionIncremental;
  *
  * @author Michael Geilke
  */
-public class DiscretizationFilter implements Filter {
+public class DiscretizationFilter implements Filter, 
+                                             Mergeable<DiscretizationFilter> {
+
+    /**
+     * Specifies which online discretization is used.
+     */
+    public enum Method {
+        /** equal-width bins of a {@link PartitionIncremental} */
+        WIDTH,
+        /** equal-frequency bins of a {@link PartitionIncremental} */
+        FREQUENCY,
+        /** equal-frequency bins of a {@link QuantileSketch} */
+        SKETCH;
+
+        /**
+         * @param name width, frequency, or sketch (case-insensitive)
+         * @return the method with the given name
+         * @throws IllegalArgumentException if there is no such method
+         */
+        public static Method fromName(String name) 
+                throws IllegalArgumentException {
+            return valueOf(name.toUpperCase());
+        }
+    }
 
     private int INITIAL_SAMPLE_SIZE = 50;
 
+    private Method method = Method.WIDTH;
+    private int sketchSize = 200;
+    private boolean singlePrecision = false;
+
     private OnlineDiscretization discretization;
     private List<Double> valueSample;
     private InstancesHeader origHeader;
     private InstancesHeader discHeader;
     private RandomVariable variable;
+    private int attributeIndex;
+    private DiscretizedInstance view;
     private int numBins;
     private long numberOfInstances;
 
+    /**
+     * Changes the online discretization, which is equal-width by
+     * default. It has to be called before {@link #init}.
+     *
+     * @param method the online discretization
+     * @param sketchSize the maximal number of values of a compactor if
+     * {@code method} is {@code SKETCH} (see {@link QuantileSketch})
+     * @throws IllegalArgumentException if {@code method} is {@code
+     * SKETCH} and {@code sketchSize} is smaller than 8
+     */
+    public void setDiscretization(Method method, int sketchSize)
+            throws IllegalArgumentException {
+        if (method == Method.SKETCH && sketchSize < 8) {
+            String msg = "The size of the sketch has to be at least 8.";
+            throw new IllegalArgumentException(msg);
+        }
+        this.method = method;
+        this.sketchSize = sketchSize;
+    }
+
+    /**
+     * Stores the fine-grained discretization of a {@link
+     * PartitionIncremental} in single precision (see {@link
+     * PartitionIncremental#setSinglePrecision}). It has to be called
+     * before {@link #init}. A {@link QuantileSketch} is not affected.
+     *
+     * @param singlePrecision true if single precision is supposed to
+     * be used
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * @return the number of bytes that are saved by single precision
+     * (see {@link PartitionIncremental#getSavedBytes})
+     */
+    public long getSavedBytes() {
+        if (discretization instanceof PartitionIncremental) {
+            return ((PartitionIncremental) discretization).getSavedBytes();
+        }
+        return 0;
+    }
+
     /**
      * Creates the target header, in which the given variable is
      * discretized into the number of requested bins.
@@ -64,10 +141,14 @@ public class DiscretizationFilter implements Filter {
      * @param var the variable that is supposed to be discretized
      * @param numBins the number of bins in which the variable {@code
      * var} should be discretized
+     * @throws IllegalArgumentException if {@code var} is not an
+     * attribute of {@code header}
      */
-    public void init(InstancesHeader header, RandomVariable var, int numBins) {
+    public void init(InstancesHeader header, RandomVariable var, int numBins)
+            throws IllegalArgumentException {
         this.origHeader = header;
         this.variable = var;
+        this.attributeIndex = -1;
         this.numBins = numBins;
         this.valueSample = new ArrayList<>();
         this.numberOfInstances = 0;
@@ -87,6 +168,7 @@ public class DiscretizationFilter implements Filter {
                 Attribute discAtt = new Attribute(attName, vals);
                 atts.add(discAtt);
                 this.variable = new DiscreteRandomVariable(attName, discAtt);
+                this.attributeIndex = i;
             } else {
                 atts.add(origHeader.attribute(i));
             }
@@ -94,6 +176,12 @@ public class DiscretizationFilter implements Filter {
         Instances ds = new Instances(relationName, atts, 0);
         this.discHeader = new InstancesHeader(ds);
         this.discHeader.setClassIndex(header.classIndex());
+        if (attributeIndex < 0) {
+            String msg = "The header does not contain the attribute %s.";
+            throw new IllegalArgumentException(String.format(msg, 
+                                                             var.getName()));
+        }
+        this.view = new DiscretizedInstance(discHeader, attributeIndex);
     }
 
     @Override
@@ -120,18 +208,15 @@ public class DiscretizationFilter implements Filter {
      * for training
      */
     public void addObservation(Instance inst) {
-        Double obs = null;
-
         // extract the value of the attribute that is supposed to be
         // discretized
-        String attName = variable.getName();
-        for (int i = 0; i < origHeader.numAttributes(); i++) {
-            if (attName.equals(origHeader.attribute(i).name())) {
-                obs = inst.value(i);    
-                break;
-            }
-        }
+        addObservation(inst.value(attributeIndex));
+    }
 
+    /* Forwards the value of the discretized variable to the
+     * discretization object.
+     */
+    private void addObservation(double obs) {
         // If not enough instance have been observed yet, we only
         // collect instances. When enough instances are available, the
         // discretization object is initialized.
@@ -139,38 +224,145 @@ public class DiscretizationFilter implements Filter {
             valueSample.add(obs);
 
         } else if (discretization == null) {
-            int bins = numBins;
-            DiscretizationType type = DiscretizationType.EQUAL_WIDTH;
-            this.discretization = new PartitionIncremental(bins, type,
-                                                           valueSample);
+            this.discretization = createDiscretization();
         } else {
             discretization.addObservation(obs);
         }
         numberOfInstances++;
     }
 
+    /**
+     * Adds the observations of {@code other} to this filter, e.g., if
+     * both filters have been trained on different parts of a stream
+     * (see {@link PartitionIncremental#merge} and {@link
+     * QuantileSketch#merge(OnlineDiscretization)}). If {@code other} is
+     * still collecting its initial sample, the sampled values are added
+     * one by one. If this filter is still collecting its initial
+     * sample, its discretization object starts as a copy of the one of
+     * {@code other}, to which the own sample is added. {@code other} is
+     * not changed.
+     *
+     * @param other a filter that discretizes the same variable into the
+     * same number of bins using the same online discretization
+     * @throws IllegalArgumentException if {@code other} does not match
+     * this filter or the discretization cannot be merged
+     */
+    @Override
+    public void merge(DiscretizationFilter other) 
+            throws IllegalArgumentException {
+        if (other == this || other.method != method 
+                || other.numBins != numBins 
+                || other.attributeIndex != attributeIndex) {
+            String msg = "The filters discretize differently.";
+            throw new IllegalArgumentException(msg);
+        }
+        if (other.discretization == null) {
+            for (double obs : other.valueSample) {
+                addObservation(obs);
+            }
+            return;
+        }
+        if (discretization == null) {
+            try {
+                this.discretization = (OnlineDiscretization) 
+                    SerializeUtils.copyObject(other.discretization);
+            } catch (Exception ex) {
+                throw new RuntimeException("Could not copy " 
+                                           + other.discretization, ex);
+            }
+            for (double obs : valueSample) {
+                discretization.addObservation(obs);
+            }
+        } else if (discretization instanceof Mergeable) {
+            ((Mergeable<OnlineDiscretization>) discretization)
+                .merge(other.discretization);
+        } else {
+            String msg = discretization.getClass().getSimpleName() 
+                + " cannot be merged.";
+            throw new IllegalArgumentException(msg);
+        }
+        numberOfInstances += other.numberOfInstances;
+    }
+
+    /* Creates the discretization object from the initial sample. */
+    private OnlineDiscretization createDiscretization() {
+        if (method == Method.SKETCH) {
+            return new QuantileSketch(numBins, sketchSize, valueSample);
+        }
+        DiscretizationType type = (method == Method.FREQUENCY)
+            ? DiscretizationType.EQUAL_FREQUENCY 
+            : DiscretizationType.EQUAL_WIDTH;
+        PartitionIncremental disc = new PartitionIncremental(numBins, type,
+                                                             valueSample);
+        disc.setSinglePrecision(singlePrecision);
+        return disc;
+    }
+
     /**
      * Discretizes the given instance using the internal discretization
      * object.
      * @param inst the instance to be discretized
+     * @return a new instance of the target header
      */
     public Instance apply(Instance inst) {
         DenseInstance discInst = new DenseInstance(inst);
         discInst.setDataset(discHeader);
-        Attribute discAtt = variable.getAttribute();
-        for (int i = 0; i < discInst.numAttributes(); i++) {
-            if (inst.attribute(i).name().equals(discAtt.name())) {
-                // We have to check the equality of the attributes by
-                // name, since the values are different.
-                double discVal = discretization.apply(inst.value(i));
-                discInst.setValue(i, discVal);
-            } else {
-                discInst.setValue(i, inst.value(i));
-            }
-        }
+        double discVal = discretization.apply(inst.value(attributeIndex));
+        discInst.setValue(attributeIndex, discVal);
 	return discInst;
     }
 
+    /**
+     * Discretizes the given instance and writes the result into {@code
+     * target}, so that no instance has to be created.
+     * @param inst the instance to be discretized
+     * @param target an instance of the target header, whose values are
+     * overwritten
+     * @return {@code target}
+     */
+    public Instance apply(Instance inst, Instance target) {
+        for (int i = 0; i < target.numAttributes(); i++) {
+            target.setValue(i, inst.value(i));
+        }
+        double discVal = discretization.apply(inst.value(attributeIndex));
+        target.setValue(attributeIndex, discVal);
+        target.setWeight(inst.weight());
+        return target;
+    }
+
+    /**
+     * Discretizes the given instance without copying it. The returned
+     * view (see {@link DiscretizedInstance}) reads the values from
+     * {@code inst} and is re-used by the next call, so it must not be
+     * kept.
+     * @param inst the instance to be discretized
+     * @return a view of {@code inst} with respect to the target header
+     */
+    public Instance view(Instance inst) {
+        double discVal = discretization.apply(inst.value(attributeIndex));
+        return view.wrap(inst, discVal);
+    }
+
+    /**
+     * @return a new view for {@link #view(Instance, DiscretizedInstance)}
+     */
+    public DiscretizedInstance createView() {
+        return new DiscretizedInstance(discHeader, attributeIndex);
+    }
+
+    /**
+     * Discretizes the given instance into {@code target} (see {@link
+     * #view(Instance)}). Several threads can discretize instances at
+     * the same time as long as each of them uses its own view.
+     * @param inst the instance to be discretized
+     * @param target a view created by {@link #createView}
+     * @return {@code target}, showing {@code inst}
+     */
+    public Instance view(Instance inst, DiscretizedInstance target) {
+        double discVal = discretization.apply(inst.value(attributeIndex));
+        return target.wrap(inst, discVal);
+    }
+
     /**
      * Tests whether the instance belongs to a soft border.
      *
@@ -178,12 +370,7 @@ public class DiscretizationFilter implements Filter {
      * @param true iff the instance belongs to soft border
      */
     public boolean belongsToSoftBorder(Instance inst) {
-        String attName = variable.getName();
-        for (int i = 0; i < origHeader.numAttributes(); i++) {
-            if (attName.equals(origHeader.attribute(i).name())) {
-                return discretization.belongsToSoftBorder(inst.value(i));
-            }
-        }
-        return true;
+        double obs = inst.value(attributeIndex);
+        return discretization.belongsToSoftBorder(obs);
     }
 }
@@ -0,0 +1,175 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.data.instances;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstanceData;
+import com.yahoo.labs.samoa.instances.InstanceImpl;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.DenseInstanceData;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * {@code DiscretizedInstance} is a read-only view on another instance
+ * (the source) in which the value of a single attribute is replaced,
+ * e.g., by the bin of a discretization. All other attribute values are
+ * read from the source whenever they are requested.
+ *
+ * As {@link ProjectedInstance}, a view can be re-used for arbitrarily
+ * many instances by calling {@link #wrap(Instance, double)}, and
+ * consumers that want to keep an instance have to call {@link
+ * #copy()}.
+ *
+ * @author Michael Geilke
+ */
+public class DiscretizedInstance extends InstanceImpl {
+
+    private DiscretizedInstanceData data;
+
+    /**
+     * @param header the description of the attributes of the view,
+     * which has the same attributes as the source except for the
+     * replaced one
+     * @param attIndex the index of the attribute whose value is
+     * replaced
+     */
+    public DiscretizedInstance(InstancesHeader header, int attIndex) {
+        this(header, new DiscretizedInstanceData(header.numAttributes(),
+                                                 attIndex));
+    }
+
+    private DiscretizedInstance(InstancesHeader header,
+                                DiscretizedInstanceData data) {
+        super(1.0, data);
+        this.data = data;
+        setDataset(header);
+    }
+
+    /**
+     * Lets the view show the values of {@code inst}, where the value of
+     * the replaced attribute is {@code value}.
+     *
+     * @param inst the source instance
+     * @param value the value of the replaced attribute
+     * @return this view
+     */
+    public DiscretizedInstance wrap(Instance inst, double value) {
+        data.source = inst;
+        data.value = value;
+        setWeight(inst.weight());
+        return this;
+    }
+
+    /**
+     * @return the instance that is currently shown by the view
+     */
+    public Instance getSource() {
+        return data.source;
+    }
+
+    /**
+     * @return a materialized copy of the view that does not depend on
+     * the source instance anymore
+     */
+    @Override
+    public Instance copy() {
+        DenseInstance inst = new DenseInstance(weight(), toDoubleArray());
+        inst.setDataset(dataset());
+        return inst;
+    }
+
+    /**
+     * Provides the attribute values of the view by looking them up in
+     * the source instance.
+     */
+    private static class DiscretizedInstanceData implements InstanceData {
+
+        private final int numAttributes;
+        private final int attIndex;
+        private transient Instance source;
+        private double value;
+
+        DiscretizedInstanceData(int numAttributes, int attIndex) {
+            this.numAttributes = numAttributes;
+            this.attIndex = attIndex;
+        }
+
+        public int numAttributes() {
+            return numAttributes;
+        }
+
+        public double value(int instAttIndex) {
+            return (instAttIndex == attIndex) ? value
+                : source.value(instAttIndex);
+        }
+
+        public boolean isMissing(int instAttIndex) {
+            return (instAttIndex == attIndex) ? Double.isNaN(value)
+                : source.isMissing(instAttIndex);
+        }
+
+        public int numValues() {
+            return numAttributes;
+        }
+
+        public int index(int i) {
+            return i;
+        }
+
+        public double valueSparse(int i) {
+            return value(i);
+        }
+
+        public boolean isMissingSparse(int i) {
+            return isMissing(i);
+        }
+
+        public double[] toDoubleArray() {
+            double[] values = new double[numAttributes];
+            for (int i = 0; i < numAttributes; i++) {
+                values[i] = value(i);
+            }
+            return values;
+        }
+
+        public void setValue(int attIndex, double value) {
+            String msg = "A discretized instance cannot be modified.";
+            throw new UnsupportedOperationException(msg);
+        }
+
+        public void deleteAttributeAt(int index) {
+            String msg = "A discretized instance cannot be modified.";
+            throw new UnsupportedOperationException(msg);
+        }
+
+        public void insertAttributeAt(int index) {
+            String msg = "A discretized instance cannot be modified.";
+            throw new UnsupportedOperationException(msg);
+        }
+
+        public InstanceData copy() {
+            return new DenseInstanceData(toDoubleArray());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.data.instances;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstanceData;
+import com.yahoo.labs.samoa.instances.InstanceImpl;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.DenseInstanceData;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * {@code ProjectedInstance} is a read-only view on another instance
+ * (the source) that only shows a subset of its attributes, possibly in
+ * a different order. The attribute {@literal i} of the view is the
+ * attribute {@literal indices[i]} of the source. No attribute values
+ * are copied; they are read from the source whenever they are
+ * requested.
+ *
+ * A view can be re-used for arbitrarily many instances by calling
+ * {@link #wrap(Instance)}. Hence, consumers that want to keep an
+ * instance (e.g., in a buffer) have to call {@link #copy()}, which
+ * returns an independent {@link DenseInstance}.
+ *
+ * @author Michael Geilke
+ */
+public class ProjectedInstance extends InstanceImpl {
+
+    private ProjectedInstanceData data;
+
+    /**
+     * @param header the description of the attributes of the view
+     * @param indices the attribute {@literal i} of the view is the
+     * attribute {@code indices[i]} of the source instance
+     */
+    public ProjectedInstance(InstancesHeader header, int[] indices) {
+        this(header, new ProjectedInstanceData(indices));
+    }
+
+    private ProjectedInstance(InstancesHeader header, 
+                              ProjectedInstanceData data) {
+        super(1.0, data);
+        this.data = data;
+        setDataset(header);
+    }
+
+    /**
+     * Lets the view show the values of {@code inst}.
+     *
+     * @param inst the source instance
+     * @return this view
+     */
+    public ProjectedInstance wrap(Instance inst) {
+        data.source = inst;
+        setWeight(inst.weight());
+        return this;
+    }
+
+    /**
+     * @return the instance that is currently shown by the view
+     */
+    public Instance getSource() {
+        return data.source;
+    }
+
+    /**
+     * @return a materialized copy of the view that does not depend on
+     * the source instance anymore
+     */
+    @Override
+    public Instance copy() {
+        DenseInstance inst = new DenseInstance(weight(), toDoubleArray());
+        inst.setDataset(dataset());
+        return inst;
+    }
+
+    /**
+     * Provides the attribute values of the view by looking them up in
+     * the source instance.
+     */
+    private static class ProjectedInstanceData implements InstanceData {
+
+        private final int[] indices;
+        private transient Instance source;
+
+        ProjectedInstanceData(int[] indices) {
+            this.indices = indices;
+        }
+
+        public int numAttributes() {
+            return indices.length;
+        }
+
+        public double value(int instAttIndex) {
+            return source.value(indices[instAttIndex]);
+        }
+
+        public boolean isMissing(int instAttIndex) {
+            return source.isMissing(indices[instAttIndex]);
+        }
+
+        public int numValues() {
+            return indices.length;
+        }
+
+        public int index(int i) {
+            return i;
+        }
+
+        public double valueSparse(int i) {
+            return value(i);
+        }
+
+        public boolean isMissingSparse(int i) {
+            return isMissing(i);
+        }
+
+        public double[] toDoubleArray() {
+            double[] values = new double[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                values[i] = source.value(indices[i]);
+            }
+            return values;
+        }
+
+        public void setValue(int attIndex, double value) {
+            String msg = "A projected instance cannot be modified.";
+            throw new UnsupportedOperationException(msg);
+        }
+
+        public void deleteAttributeAt(int index) {
+            String msg = "A projected instance cannot be modified.";
+            throw new UnsupportedOperationException(msg);
+        }
+
+        public void insertAttributeAt(int index) {
+            String msg = "A projected instance cannot be modified.";
+            throw new UnsupportedOperationException(msg);
+        }
+
+        public InstanceData copy() {
+            return new DenseInstanceData(toDoubleArray());
+        }
+    }
+}
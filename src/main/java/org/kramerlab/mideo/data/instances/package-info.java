@@ -0,0 +1,6 @@
+/**
+ * Provides lightweight views on instances, which avoid copying
+ * attribute values whenever an instance has to be presented in a
+ * different format.
+ */
+package org.kramerlab.mideo.data.instances;
@@ -28,6 +28,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.io.Serializable;
+import java.util.concurrent.ForkJoinPool;
 import javax.json.Json;
 import javax.json.JsonStructure;
 import javax.json.JsonObject;
@@ -139,6 +140,84 @@ public interface DensityEstimator extends Copyable<DensityEstimator> {
      */
     double getDensityValue(Instance inst);
 
+    /**
+     * Returns the density values of several instances. Density
+     * estimators can override this method to share work among the
+     * instances or to distribute it among several cores. By default,
+     * the instances are processed one by one.
+     *
+     * @param insts the instances of which the density values are
+     * supposed to be computed
+     * @return the density values, where the i-th element is the
+     * density value of the i-th instance of {@code insts}
+     */
+    default double[] getDensityValues(List<Instance> insts) {
+        double[] values = new double[insts.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getDensityValue(insts.get(i));
+        }
+        return values;
+    }
+
+    /**
+     * Returns the logarithm of the density value of {@code inst}. For
+     * estimators that compose many factors (e.g., classifier chains),
+     * the density value itself might underflow, so they should
+     * override this method and compute it in log space. By default,
+     * the logarithm of {@link #getDensityValue} is returned.
+     *
+     * @param inst the instance of which the density value is supposed
+     * to be computed
+     * @return the logarithm of the density value, where {@literal
+     * -Infinity} stands for a density value of 0
+     */
+    default double getLogDensityValue(Instance inst) {
+        return Math.log(getDensityValue(inst));
+    }
+
+    /**
+     * Returns the logarithms of the density values of several
+     * instances (see {@link #getLogDensityValue} and {@link
+     * #getDensityValues}).
+     *
+     * @param insts the instances of which the density values are
+     * supposed to be computed
+     * @return the logarithms of the density values, where the i-th
+     * element belongs to the i-th instance of {@code insts}
+     */
+    default double[] getLogDensityValues(List<Instance> insts) {
+        double[] values = getDensityValues(insts);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.log(values[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Blocks until all instances passed to {@link #update} have been
+     * incorporated into the model. This is only relevant for density
+     * estimators that are trained asynchronously, which should
+     * override this method. Calling it before scoring makes the
+     * results independent of the progress of background training.
+     */
+    default void awaitQuiescence() {
+    }
+
+    /**
+     * Specifies the executor on which the density estimator runs its
+     * parallel computations (e.g., {@link #getDensityValues}). Thus,
+     * an ensemble can pass its own pool to its members, so that they
+     * do not use more threads than configured for the ensemble. By
+     * default, the estimator does not run any parallel computations,
+     * and the executor is ignored.
+     *
+     * @param pool the executor for parallel computations or {@code
+     * null} to use the shared pool (see {@link
+     * org.kramerlab.mideo.core.WorkerPool})
+     */
+    default void setWorkerPool(ForkJoinPool pool) {
+    }
+
     /**
      * Returns a sample of instances.
      * @return instance sample
@@ -0,0 +1,283 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.edo;
+
+import java.io.Serializable;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * {@code BatchSizeController} determines how many instances {@link
+ * ChainBasedEstimator} collects before it updates its base
+ * estimators. The batch size is either fixed or adapted at runtime by
+ * additive increase and multiplicative decrease (AIMD) toward one of
+ * the following targets:
+ *
+ * <ul>
+ * <li>{@link Mode#LATENCY}: an update that flushes the buffer should
+ * not take longer than the target latency.</li>
+ * <li>{@link Mode#STALENESS}: a query should not see a model that
+ * lacks more than the target number of instances, i.e., there should
+ * not be more instances in the buffer.</li>
+ * </ul>
+ *
+ * The duration of a flush is modelled as {@literal a + c * b}, where
+ * {@literal b} is the batch size, {@literal a} the overhead per flush
+ * (e.g., distributing the tasks among the worker threads and
+ * recomputing the chain weights), and {@literal c} the cost per
+ * instance. Both are estimated by an exponentially weighted linear
+ * regression over the recent flushes. The batch size grows as long as
+ * the overhead dominates, i.e., {@literal a >= c * b}, and the target
+ * is not exceeded. If the target is exceeded, the batch size is
+ * halved.
+ *
+ * @author Michael Geilke
+ */
+public class BatchSizeController implements Serializable {
+
+    /**
+     * The target the batch size is adapted to.
+     */
+    public enum Mode {
+        /** the batch size does not change */
+        FIXED,
+        /** the duration of a flush is bounded */
+        LATENCY,
+        /** the number of buffered instances seen by queries is bounded */
+        STALENESS;
+
+        /**
+         * @param name name of the mode (case-insensitive)
+         * @return the mode with the given name
+         * @throws IllegalArgumentException if there is no such mode
+         */
+        public static Mode fromName(String name) 
+                throws IllegalArgumentException {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    // weight of the most recent flush in the regression
+    private static final double ALPHA = 0.2;
+
+    private Mode mode;
+    private int batchSize;
+    private int maxBatchSize;
+    private int increment;
+    private long target;
+
+    // exponentially weighted moments of batch sizes and durations
+    private long numFlushes;
+    private double meanSize;
+    private double meanTime;
+    private double meanSizeSq;
+    private double meanSizeTime;
+    private long lastLatency;
+
+    private long maxQueriedStaleness;
+    private boolean queried;
+
+    /**
+     * Creates a controller that always returns the same batch size.
+     *
+     * @param batchSize the number of instances per batch
+     * @throws IllegalArgumentException if {@code batchSize} is not
+     * positive
+     */
+    public BatchSizeController(int batchSize) 
+            throws IllegalArgumentException {
+        this(Mode.FIXED, batchSize, batchSize, 0);
+    }
+
+    /**
+     * @param mode the target the batch size is adapted to
+     * @param batchSize the initial number of instances per batch
+     * @param maxBatchSize the maximal number of instances per batch
+     * @param target the maximal duration of a flush in milliseconds
+     * (if {@code mode} is {@link Mode#LATENCY}) or the maximal number
+     * of buffered instances seen by a query (if {@code mode} is {@link
+     * Mode#STALENESS})
+     * @throws IllegalArgumentException if {@code batchSize} is not
+     * positive, {@code maxBatchSize} is smaller than {@code batchSize},
+     * or {@code target} is negative
+     */
+    public BatchSizeController(Mode mode, int batchSize, int maxBatchSize,
+                               long target) 
+            throws IllegalArgumentException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size not positive");
+        }
+        if (maxBatchSize < batchSize) {
+            String msg = "maximal batch size smaller than batch size";
+            throw new IllegalArgumentException(msg);
+        }
+        if (target < 0) {
+            throw new IllegalArgumentException("negative target");
+        }
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.increment = Math.max(1, batchSize / 4);
+        if (mode == Mode.LATENCY) {
+            this.target = target * 1000000L;
+        } else {
+            this.target = target;
+        }
+    }
+
+    /**
+     * @return the mode of the controller
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of instances that are supposed to be
+     * collected before the base estimators are updated
+     */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the maximal number of instances per batch
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Informs the controller that the model has been queried.
+     *
+     * @param staleness the number of instances that have been passed to
+     * the estimator but are not incorporated into the model yet
+     */
+    public synchronized void recordQuery(long staleness) {
+        queried = true;
+        maxQueriedStaleness = Math.max(maxQueriedStaleness, staleness);
+    }
+
+    /**
+     * Informs the controller that a batch has been flushed and adapts
+     * the batch size.
+     *
+     * @param size the number of instances in the batch
+     * @param nanos the duration of the flush in nanoseconds
+     */
+    public synchronized void recordFlush(int size, long nanos) {
+        lastLatency = nanos;
+        if (numFlushes == 0) {
+            meanSize = size;
+            meanTime = nanos;
+            meanSizeSq = (double) size * size;
+            meanSizeTime = (double) size * nanos;
+        } else {
+            meanSize += ALPHA * (size - meanSize);
+            meanTime += ALPHA * (nanos - meanTime);
+            meanSizeSq += ALPHA * ((double) size * size - meanSizeSq);
+            meanSizeTime += ALPHA * ((double) size * nanos - meanSizeTime);
+        }
+        numFlushes++;
+
+        switch (mode) {
+        case LATENCY:
+            if (nanos > target) {
+                decrease();
+            } else if (overheadDominates()
+                       && predictLatency(batchSize + increment) <= target) {
+                increase();
+            }
+            break;
+        case STALENESS:
+            if (maxQueriedStaleness > target) {
+                decrease();
+            } else if (overheadDominates()
+                       && (!queried || batchSize + increment <= target)) {
+                increase();
+            }
+            break;
+        default:
+            break;
+        }
+        maxQueriedStaleness = 0;
+        queried = false;
+    }
+
+    /**
+     * @return the estimated overhead per flush in nanoseconds
+     */
+    public synchronized double getOverheadPerFlush() {
+        return Math.max(0.0, meanTime - getCostPerInstance() * meanSize);
+    }
+
+    /**
+     * @return the estimated cost per instance in nanoseconds
+     */
+    public synchronized double getCostPerInstance() {
+        double var = meanSizeSq - meanSize * meanSize;
+        if (var <= 1e-9 * meanSizeSq) {
+            // All recent batches had the same size, so overhead and
+            // cost per instance cannot be separated. In this case, we
+            // attribute everything to the overhead, which makes the
+            // controller probe larger batch sizes.
+            return 0.0;
+        }
+        double cov = meanSizeTime - meanSize * meanTime;
+        return Math.max(0.0, cov / var);
+    }
+
+    private boolean overheadDominates() {
+        return getOverheadPerFlush() >= getCostPerInstance() * batchSize;
+    }
+
+    private double predictLatency(int size) {
+        return getOverheadPerFlush() + getCostPerInstance() * size;
+    }
+
+    private void increase() {
+        batchSize = Math.min(maxBatchSize, batchSize + increment);
+    }
+
+    private void decrease() {
+        batchSize = Math.max(1, batchSize / 2);
+    }
+
+    /**
+     * @return a JSON object describing the current state of the
+     * controller
+     */
+    public synchronized JsonObject getCharacteristics() {
+        JsonObjectBuilder o = Json.createObjectBuilder();
+        o.add("mode", mode.name().toLowerCase());
+        o.add("batchSize", batchSize);
+        o.add("maxBatchSize", maxBatchSize);
+        o.add("flushes", numFlushes);
+        o.add("lastLatencyNanos", lastLatency);
+        o.add("overheadPerFlushNanos", getOverheadPerFlush());
+        o.add("costPerInstanceNanos", getCostPerInstance());
+        return o.build();
+    }
+}
@@ -26,9 +26,19 @@ package org.kramerlab.mideo.estimators.edo;
 import java.util.Random;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.io.Serializable;
 import javax.json.Json;
 import javax.json.JsonStructure;
@@ -39,16 +49,18 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.Instance;
-import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.SerializeUtils;
 
 import org.kramerlab.mideo.core.Utils;
+import org.kramerlab.mideo.core.DependencyScores;
+import org.kramerlab.mideo.core.WorkerPool;
 import org.kramerlab.mideo.core.RandomVariable;
 import org.kramerlab.mideo.core.DiscreteRandomVariable;
 import org.kramerlab.mideo.core.ContinuousRandomVariable;
 import org.kramerlab.mideo.data.streams.Stream;
+import org.kramerlab.mideo.data.instances.ProjectedInstance;
 import org.kramerlab.mideo.estimators.EstimatorType;
 import org.kramerlab.mideo.estimators.DensityEstimator;
 import org.kramerlab.mideo.estimators.occd.OCCDEstimator;
@@ -80,11 +92,11 @@ public class ChainBasedEstimator implements DensityEstimator {
 
     private static Logger logger = LogManager.getLogger();
 
-    // TODO we need to find another way of configuring buffer sizes. I
-    // just had a problem with RED, which had an initial buffer size of
-    // only 100)
-    private final int BUFFER_SIZE = EDO.MIN_NUM_INSTANCES; 
-    
+    // determines how many instances are buffered before the base
+    // estimators are updated
+    private BatchSizeController batching = 
+        new BatchSizeController(EDO.MIN_NUM_INSTANCES);
+
     private Random random;
     private int ensembleSize;
     private double[] chainWeights;
@@ -97,12 +109,100 @@ public class ChainBasedEstimator implements DensityEstimator {
     private BaseEstimator[][] baseEstimators;
     private List<List<InstancesHeader> > headers;
 
+    // If prefix sharing is enabled, classifier chains with the same
+    // prefix share the base estimators for this prefix. Every distinct
+    // base estimator is contained exactly once in uniqueEstimators, and
+    // baseEstimators[i][j] is uniqueEstimators[estimatorIndices[i][j]].
+    private boolean prefixSharing = false;
+    private int sharedPrefixLength = 0;
+    private List<BaseEstimator> uniqueEstimators;
+    private int[][] estimatorIndices;
+
+    // If maxParents is positive, every base estimator is conditioned on
+    // at most maxParents of the preceding variables in its chain,
+    // namely on those with the highest dependency scores with respect
+    // to the estimated variable. The scores start from the dependency
+    // sample. If the training policy is REGENERATE, they are
+    // maintained online, and the parents are re-selected every
+    // trainingStride batches (see reselectParents).
+    private static final double RESELECTION_MARGIN = 0.1;
+    private int maxParents = 0;
+    private List<Instance> dependencySample;
+    private int batchesSinceSelection;
+    private long reselections;
+
+    // Chains whose weight is more than ACTIVITY_THRESHOLD below the
+    // highest weight do not contribute to the density (see
+    // getScoringWeights). The training policy determines how the base
+    // estimators used exclusively by such chains are trained.
+    private static final double ACTIVITY_THRESHOLD = 0.3;
+    private TrainingPolicy trainingPolicy = TrainingPolicy.NONE;
+    private int trainingStride = 10;
+    private int[] inactivity;
+    private int[] grace;
+    private long regenerations;
+
+    private InstancesHeader header;
+    private DependencyScores dependencyScores;
+
     private DensityEstimator templateDiscreteBaseEstimator;
     private DensityEstimator templateContinuousBaseEstimator;
 
-    private double[] previousDensityValues;
     private long N;
 
+    // Log-densities of the chains for the most recently scored
+    // instances, keyed by instance identity. In prequential mode,
+    // every instance is scored right before it is used for training,
+    // so the weight update can reuse these values instead of querying
+    // all base estimators again. The ring determines which instances
+    // are evicted.
+    private transient Instance[] scoredInstances;
+    private transient double[][] scoredChainLogDensities;
+    private transient Map<Instance, double[]> scoredIndex;
+    private transient int scoredPosition;
+
+    // The pool is not part of the model and will not be serialized. If
+    // it is missing (e.g., after copying the estimator), we fall back
+    // to the shared pool.
+    private transient ForkJoinPool workerPool;
+
+    // If the training is asynchronous, update returns immediately and
+    // the base estimators are trained in the background (see
+    // BaseEstimator.enqueue). Scoring waits until a base estimator is
+    // at most maxStaleness instances behind.
+    private boolean asynchronousTraining = false;
+    private int maxStaleness = 0;
+
+    /**
+     * Determines how the base estimators of chains without weight,
+     * i.e., chains that do not contribute to the density, are trained.
+     * A base estimator shared among several chains is trained as usual
+     * if at least one of these chains has weight.
+     */
+    public enum TrainingPolicy {
+        /** all base estimators are trained on all instances */
+        NONE,
+        /** base estimators of inactive chains are only trained on
+         * every stride-th instance */
+        SUBSAMPLE,
+        /** base estimators of inactive chains are not trained */
+        FREEZE,
+        /** chains that have been inactive for stride batches are
+         * replaced by chains with a new random ordering, which are
+         * trained on all instances for the next stride batches */
+        REGENERATE;
+
+        /**
+         * @param name name of the policy (case-insensitive)
+         * @return the policy with the given name
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static TrainingPolicy fromName(String name) 
+                throws IllegalArgumentException {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
     /**
      * @param ensembleSize number of classifier chains
      * @param uniformChainWeights false if the classifier chains are
@@ -148,6 +248,270 @@ public class ChainBasedEstimator implements DensityEstimator {
         this.random = new Random(baseSeed);
     }
 
+    /**
+     * Specifies the executor that is used to update the base
+     * estimators. It is supposed to be shared among all estimators
+     * (see {@link org.kramerlab.mideo.core.WorkerPool}), so that no
+     * threads need to be created during training. The base estimators
+     * use it for their own parallel computations as well.
+     *
+     * @param pool the executor for updating the base estimators or
+     * {@code null} to use the shared pool
+     */
+    @Override
+    public void setWorkerPool(ForkJoinPool pool) {
+        this.workerPool = pool;
+        if (uniqueEstimators != null) {
+            for (BaseEstimator est : uniqueEstimators) {
+                synchronized (est) {
+                    est.getEstimator().setWorkerPool(pool);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the executor that is used to update the base estimators
+     */
+    public ForkJoinPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = WorkerPool.getSharedPool();
+        }
+        return workerPool;
+    }
+
+    /**
+     * Specifies whether the base estimators are trained
+     * asynchronously. If so, every base estimator has its own bounded
+     * queue of instances, which is processed by a single consumer task
+     * on the worker pool. Hence, {@code update} does not need to wait
+     * for the slowest base estimator. Before a base estimator is
+     * queried, we wait until it is at most {@link #setMaxStaleness}
+     * instances behind (not counting the instances in the buffer that
+     * have not been passed to the base estimators yet, which are not
+     * known to the base estimators in either mode).
+     *
+     * @param asynchronousTraining true if the base estimators are
+     * supposed to be trained asynchronously
+     */
+    public void setAsynchronousTraining(boolean asynchronousTraining) {
+        this.asynchronousTraining = asynchronousTraining;
+    }
+
+    /**
+     * Specifies by how many instances the model of a base estimator
+     * may lag behind when it is queried. It is only relevant if the
+     * training is asynchronous.
+     *
+     * @param maxStaleness the maximal number of instances that have
+     * been passed to a base estimator but have not been incorporated
+     * into its model yet
+     * @throws IllegalArgumentException if {@code maxStaleness} is
+     * negative
+     */
+    public void setMaxStaleness(int maxStaleness) 
+            throws IllegalArgumentException {
+        if (maxStaleness < 0) {
+            throw new IllegalArgumentException("negative staleness");
+        }
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * Blocks until all instances that have been passed to the base
+     * estimators are incorporated into their models. Instances that
+     * are still in the buffer are not passed to the base estimators,
+     * so that the resulting model is exactly the same as in case of
+     * synchronous training.
+     */
+    @Override
+    public void awaitQuiescence() {
+        for (BaseEstimator est : uniqueEstimators) {
+            est.awaitLag(0);
+        }
+    }
+
+    /**
+     * Specifies how many instances are buffered before the base
+     * estimators are updated. By default, the batch size is fixed to
+     * {@link EDO#MIN_NUM_INSTANCES}.
+     *
+     * @param batching the controller determining the batch size
+     */
+    public void setBatchSizeController(BatchSizeController batching) {
+        this.batching = batching;
+    }
+
+    /**
+     * @return the controller determining the batch size
+     */
+    public BatchSizeController getBatchSizeController() {
+        return batching;
+    }
+
+    /**
+     * Specifies whether classifier chains with the same prefix share
+     * the base estimators of this prefix. Let o[i] and o[k] be the
+     * orderings of the chains i and k. If o[i][0..j] equals
+     * o[k][0..j], then both chains estimate the same conditional
+     * density at position j, so a single base estimator is trained and
+     * queried for both of them. Conceptually, the chain orderings form
+     * a trie, where every node corresponds to one base estimator.
+     *
+     * @param prefixSharing true if base estimators are supposed to be
+     * shared among classifier chains
+     */
+    public void setPrefixSharing(boolean prefixSharing) {
+        this.prefixSharing = prefixSharing;
+    }
+
+    /**
+     * Biases the generated chain orderings toward shared prefixes:
+     * Every generated ordering (except for the first chain) takes over
+     * the first {@code length} variables of a randomly chosen preceding
+     * chain, while the remaining variables are shuffled. It only
+     * affects orderings that are generated during {@code init}.
+     *
+     * @param length the number of variables taken over from a
+     * preceding chain (0 means that every ordering is shuffled
+     * independently)
+     * @throws IllegalArgumentException if {@code length} is negative
+     */
+    public void setSharedPrefixLength(int length) 
+            throws IllegalArgumentException {
+        if (length < 0) {
+            throw new IllegalArgumentException("negative prefix length");
+        }
+        this.sharedPrefixLength = length;
+    }
+
+    /**
+     * Specifies how chains that do not contribute to the density are
+     * trained (see {@link TrainingPolicy}). Since only weighted chains
+     * can lose their weight, the policy has no effect if the chain
+     * weights are uniform. Chains trained by a cheaper schedule are
+     * still evaluated for the weight update, so they are promoted
+     * again as soon as their weight recovers.
+     *
+     * @param policy the training policy for chains without weight
+     * @param stride the subsampling rate (for {@link
+     * TrainingPolicy#SUBSAMPLE}) or the number of batches (for {@link
+     * TrainingPolicy#REGENERATE})
+     * @throws IllegalArgumentException if {@code stride} is not
+     * positive
+     */
+    public void setTrainingPolicy(TrainingPolicy policy, int stride) 
+            throws IllegalArgumentException {
+        if (stride <= 0) {
+            throw new IllegalArgumentException("stride not positive");
+        }
+        this.trainingPolicy = policy;
+        this.trainingStride = stride;
+    }
+
+    /**
+     * Limits the number of preceding variables in a chain on which a
+     * base estimator is conditioned. Without limit, the j-th base
+     * estimator of a chain observes j-1 variables, so the costs of an
+     * update grow quadratically with the number of variables. With a
+     * limit of k, the base estimator of a variable X is conditioned on
+     * the k preceding variables having the highest dependency scores
+     * with X (see {@link #setDependencySample}), which reduces the
+     * costs to O(d * k) for d variables. The product of the resulting
+     * conditional densities is still a density (the chain becomes a
+     * Bayesian network whose nodes have at most k parents). It only
+     * affects base estimators that are created during {@code init}.
+     *
+     * <p>If the training policy is {@link TrainingPolicy#REGENERATE},
+     * the dependency scores are maintained online on a subsample of
+     * the stream, where the subsampling rate is chosen such that
+     * updating the scores costs at most as much per instance as
+     * updating the base estimators, i.e., O(d * k) pairs are updated
+     * on average. On the schedule of the policy, i.e., every {@code
+     * stride} batches, the parents are selected again. Since a base
+     * estimator is trained on a fixed set of conditioned variables, a
+     * base estimator whose parents have changed is replaced by a new
+     * one that is trained from scratch. Its chains are trained on all
+     * instances for the next {@code stride} batches, like regenerated
+     * chains. To avoid replacing base estimators due to noise, the
+     * new parents have to exceed the summed scores of the current ones
+     * by 10%. For the other policies, the parents are selected once,
+     * in {@code init}.</p>
+     *
+     * @param maxParents the maximal number of preceding variables a
+     * base estimator is conditioned on (0 means no limit)
+     * @throws IllegalArgumentException if {@code maxParents} is
+     * negative
+     */
+    public void setMaxParents(int maxParents) 
+            throws IllegalArgumentException {
+        if (maxParents < 0) {
+            throw new IllegalArgumentException("negative number of parents");
+        }
+        this.maxParents = maxParents;
+    }
+
+    /**
+     * Provides instances on which the dependency scores for choosing
+     * the parents of the variables are computed (see {@link
+     * DependencyScores}). If there is no sample, the parents of a
+     * variable are initially the {@code maxParents} immediately
+     * preceding variables of its chain.
+     *
+     * @param sample instances of the data stream (usually the first
+     * ones)
+     */
+    public void setDependencySample(List<Instance> sample) {
+        this.dependencySample = sample;
+    }
+
+    /**
+     * @param index index of classifier chain
+     * @param position position of a variable in the ordering of the
+     * chain
+     * @return the preceding variables in the chain on which the base
+     * estimator of the variable is conditioned (see {@link
+     * #setMaxParents})
+     * @throws IllegalArgumentException if there is no such chain or
+     * position
+     */
+    public List<RandomVariable> getParents(final int index, 
+                                           final int position) 
+            throws IllegalArgumentException {
+        if (index >= ensembleSize || position >= targetVars.size()) {
+            throw new IllegalArgumentException("index out of range");
+        }
+        return baseEstimators[index][position].getParents();
+    }
+
+    /**
+     * @param index index of classifier chain
+     * @param position position of a variable in the ordering of the
+     * chain
+     * @return the number of instances on which the base estimator of
+     * the variable has been trained, which depends on the training
+     * policy (see {@link #setTrainingPolicy})
+     * @throws IllegalArgumentException if there is no such chain or
+     * position
+     */
+    public long getNumberOfTrainingInstances(final int index, 
+                                             final int position) 
+            throws IllegalArgumentException {
+        if (index >= ensembleSize || position >= targetVars.size()) {
+            throw new IllegalArgumentException("index out of range");
+        }
+        return baseEstimators[index][position].getNumberOfInstances();
+    }
+
+    /**
+     * @return the number of distinct base estimators, which is smaller
+     * than the number of (chain, position) pairs if prefixes are
+     * shared
+     */
+    public int getNumberOfBaseEstimators() {
+        return uniqueEstimators.size();
+    }
+
     /**
      * Specifies the ordering of the random variables for the classifier
      * chain with index {@code index}. It should only contain variables
@@ -182,6 +546,20 @@ public class ChainBasedEstimator implements DensityEstimator {
         }
     }
 
+    /**
+     * @param index of classifier chain
+     * @return the weight of the classifier chain with index {@code
+     * index}, where the weights of all chains sum up to 1
+     */
+    public double getChainWeight(final int index) 
+            throws IllegalArgumentException {
+        if (index >= ensembleSize) {
+            throw new IllegalArgumentException("index out of range");
+        } else {
+            return chainWeights[index];
+        }
+    }
+
     /**
      * Specifies the base estimator that is supposed to be used for
      * estimating the conditional densities. It used as a template and
@@ -233,10 +611,21 @@ public class ChainBasedEstimator implements DensityEstimator {
                 continue;
             }
             List<RandomVariable> o = new ArrayList<>();
+            if (sharedPrefixLength > 0 && i > 0) {
+                // take over the prefix of a preceding chain
+                List<RandomVariable> other = 
+                    chainOrderings.get(random.nextInt(i));
+                int length = Math.min(sharedPrefixLength, other.size());
+                o.addAll(other.subList(0, length));
+            }
+            List<RandomVariable> suffix = new ArrayList<>();
             for (RandomVariable var : getTargetVariables()) {
-                o.add(var);
+                if (!o.contains(var)) {
+                    suffix.add(var);
+                }
             }
-            Collections.shuffle(o, random);
+            Collections.shuffle(suffix, random);
+            o.addAll(suffix);
             setChainOrdering(i, o);
         }
         logger.info("chain orderings generated");
@@ -244,35 +633,131 @@ public class ChainBasedEstimator implements DensityEstimator {
         // prepare base estimators for class probabilities: Let o[i] be
         // the ordering of chain i. The estimator baseEstimator[i][j] is
         // supposed to estimate the variable o[i][j] and is conditioned
-        // on the variables o[i][0], ..., o[i][j-1].
+        // on the variables o[i][0], ..., o[i][j-1]. If prefixes are
+        // shared, we walk along the trie of chain orderings and only
+        // create a base estimator if the prefix has not been seen yet.
+        this.header = header;
+        this.uniqueEstimators = new ArrayList<>();
+        this.estimatorIndices = new int[ensembleSize][numVars];
+        this.dependencyScores = null;
+        if (maxParents > 0) {
+            // Without instances, all scores are 0, so the immediately
+            // preceding variables are chosen.
+            List<Instance> sample = (dependencySample == null) 
+                ? Collections.emptyList() : dependencySample;
+            dependencyScores = new DependencyScores(targetVars, sample);
+        }
+        PrefixNode root = new PrefixNode(-1);
         for (int i = 0; i < chainOrderings.size(); i++) {
             List<RandomVariable> ordering = chainOrderings.get(i);
+            PrefixNode node = root;
             for (int j = 0; j < ordering.size(); j++) {
-                List<RandomVariable> ts = new ArrayList<>();
-                List<RandomVariable> cs = new ArrayList<>();
-                for (int k = 0; k <= j; k++) {
-                    if (k == j) {
-                        ts.add(ordering.get(k)); 
-                    } else {
-                        cs.add(ordering.get(k));
-                    }
+                String varName = ordering.get(j).getName();
+                PrefixNode child = null;
+                if (prefixSharing) {
+                    child = node.children.get(varName);
                 }
-                // add variables on which the density is conditioned on
-                for (RandomVariable rv : conditionedVars) {
-                    cs.add(rv);
+                if (child != null) {
+                    baseEstimators[i][j] = uniqueEstimators.get(child.index);
+                    estimatorIndices[i][j] = child.index;
+                    node = child;
+                    continue;
                 }
+                child = new PrefixNode(uniqueEstimators.size());
+                node.children.put(varName, child);
+                node = child;
 
-                baseEstimators[i][j] = new BaseEstimator();
-                baseEstimators[i][j].init(header, ts, cs);
+                baseEstimators[i][j] = createBaseEstimator(ordering, j);
+                estimatorIndices[i][j] = child.index;
+                uniqueEstimators.add(baseEstimators[i][j]);
             }
         }
-        logger.info("base estimators prepared");
+        logger.info("base estimators prepared: {}", uniqueEstimators.size());
 
+        this.inactivity = new int[ensembleSize];
+        this.grace = new int[ensembleSize];
+        this.regenerations = 0;
+        this.reselections = 0;
+        this.batchesSinceSelection = 0;
         this.N = 0;
-        this.previousDensityValues = new double[targetVars.size()];
-        for (int i = 0; i < previousDensityValues.length; i++) {
-            previousDensityValues[i] = Math.pow(10, -targetVars.size());
+    }
+
+    /**
+     * Creates the base estimator for the j-th variable of a chain.
+     *
+     * @param ordering the ordering of the chain
+     * @param j the position of the estimated variable in {@code
+     * ordering}
+     * @return an initialized base estimator
+     * @throws UnsupportedConfiguration if the base estimator cannot be
+     * initialized
+     */
+    private BaseEstimator createBaseEstimator(List<RandomVariable> ordering,
+                                              int j)
+            throws UnsupportedConfiguration {
+        List<RandomVariable> ts = new ArrayList<>();
+        ts.add(ordering.get(j));
+        List<RandomVariable> parents = selectParents(
+            ordering.subList(0, j), ordering.get(j), dependencyScores);
+        List<RandomVariable> cs = new ArrayList<>(parents);
+        // add variables on which the density is conditioned on
+        for (RandomVariable rv : conditionedVars) {
+            cs.add(rv);
         }
+
+        BaseEstimator est = new BaseEstimator();
+        est.init(header, ts, cs);
+        est.setParents(parents);
+        return est;
+    }
+
+    /**
+     * Determines the preceding variables on which the base estimator
+     * of {@code var} is conditioned. The parents depend only on the
+     * set of preceding variables, so base estimators can still be
+     * shared among chains with the same prefix.
+     *
+     * @param preceding the variables preceding {@code var} in a chain
+     * @param var the variable estimated by the base estimator
+     * @param scores the dependency scores of the variables or null if
+     * there are none
+     * @return the parents of {@code var} in the order of {@code
+     * preceding}
+     */
+    private List<RandomVariable> selectParents(
+            List<RandomVariable> preceding, RandomVariable var,
+            DependencyScores scores) {
+        if (maxParents == 0 || preceding.size() <= maxParents) {
+            return new ArrayList<>(preceding);
+        }
+        boolean[] selected = new boolean[preceding.size()];
+        if (scores == null) {
+            for (int k = preceding.size() - maxParents; 
+                 k < preceding.size(); k++) {
+                selected[k] = true;
+            }
+        } else {
+            // in case of ties, closer variables are preferred
+            for (int p = 0; p < maxParents; p++) {
+                int best = -1;
+                double bestScore = Double.NEGATIVE_INFINITY;
+                for (int k = preceding.size() - 1; k >= 0; k--) {
+                    double score = scores.getScore(preceding.get(k), var);
+                    if (!selected[k] && score > bestScore) {
+                        best = k;
+                        bestScore = score;
+                    }
+                }
+                selected[best] = true;
+            }
+        }
+        List<RandomVariable> parents = new ArrayList<>();
+        for (int k = 0; k < preceding.size(); k++) {
+            if (selected[k]) {
+                parents.add(preceding.get(k));
+            }
+        }
+        return parents;
     }
 
     @Override
@@ -295,8 +780,10 @@ public class ChainBasedEstimator implements DensityEstimator {
         N++;
 
         buffer.add(inst);
-        if (buffer.size() >= BUFFER_SIZE) {
+        if (buffer.size() >= batching.getBatchSize()) {
+            long start = System.nanoTime();
             processInstances();
+            batching.recordFlush(buffer.size(), System.nanoTime() - start);
             buffer.clear();
         }
     }
@@ -311,36 +798,267 @@ public class ChainBasedEstimator implements DensityEstimator {
             //computeChainWeights();
             computeChainWeightsByEG();
         }
+
+        if (dependencyScores != null 
+                && trainingPolicy == TrainingPolicy.REGENERATE) {
+            updateDependencyScores();
+        }
+
+        // determine which instances are used to train which base
+        // estimator
+        List<List<Instance>> schedule = createTrainingSchedule();
+
+        // If the training is asynchronous, we only pass the instances
+        // to the queues of the base estimators.
+        if (asynchronousTraining) {
+            for (int k = 0; k < uniqueEstimators.size(); k++) {
+                if (!schedule.get(k).isEmpty()) {
+                    uniqueEstimators.get(k).enqueue(schedule.get(k));
+                }
+            }
+            return;
+        }
         
-        // prepare update of base estimators by initializing threads: In
-        // the best case, every base estimator is running on a separate
-        // core.
-        List<Thread> tasks = new ArrayList<>();
-        for (int i = 0; i < baseEstimators.length; i++) {
-            for (int j = 0; j < baseEstimators[i].length; j++) {
-                final BaseEstimator est = baseEstimators[i][j];
-                Runnable task = () -> { 
-                    for (int k = 0; k < buffer.size(); k++) {
-                        Instance inst = buffer.get(k);
-                        Instance tInst = est.transformInstance(inst);
-                        est.getEstimator().update(tInst);
-                    }
-                };
-                tasks.add(new Thread(task));
+        // prepare update of base estimators: Every base estimator is
+        // updated by a separate task, which are distributed among the
+        // worker threads of the pool. In the best case, every base
+        // estimator is running on a separate core.
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int k = 0; k < uniqueEstimators.size(); k++) {
+            final BaseEstimator est = uniqueEstimators.get(k);
+            final List<Instance> instances = schedule.get(k);
+            if (instances.isEmpty()) {
+                continue;
             }
+            Callable<Void> task = () -> { 
+                for (Instance inst : instances) {
+                    est.update(inst);
+                }
+                return null;
+            };
+            tasks.add(task);
         }
 
         // perform update
-        for (Thread t : tasks) {
-            t.start();
+        for (Future<Void> f : getWorkerPool().invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                logger.error(ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Applies the training policy to the chains that do not contribute
+     * to the density and determines the instances from the buffer on
+     * which every distinct base estimator is trained.
+     *
+     * @return a list whose k-th element contains the instances for the
+     * k-th distinct base estimator
+     */
+    private List<List<Instance>> createTrainingSchedule() {
+        boolean[] active = getActiveChains();
+        if (trainingPolicy == TrainingPolicy.REGENERATE) {
+            regenerateInactiveChains(active);
+            batchesSinceSelection++;
+            if (dependencyScores != null 
+                    && batchesSinceSelection >= trainingStride) {
+                reselectParents();
+                batchesSinceSelection = 0;
+            }
+        }
+
+        // A base estimator is trained on all instances if one of its
+        // chains is active or has just been regenerated.
+        boolean[] fullyTrained = new boolean[uniqueEstimators.size()];
+        for (int i = 0; i < baseEstimators.length; i++) {
+            if (active[i] || grace[i] > 0 
+                    || trainingPolicy == TrainingPolicy.NONE) {
+                for (int j = 0; j < baseEstimators[i].length; j++) {
+                    fullyTrained[estimatorIndices[i][j]] = true;
+                }
+            }
+            if (grace[i] > 0) {
+                grace[i]--;
+            }
         }
-        for (Thread t : tasks) {
+
+        // the remaining base estimators are trained according to the
+        // policy
+        List<Instance> reduced = Collections.emptyList();
+        if (trainingPolicy == TrainingPolicy.SUBSAMPLE) {
+            reduced = new ArrayList<>();
+            long first = N - buffer.size();
+            for (int k = 0; k < buffer.size(); k++) {
+                if ((first + k) % trainingStride == 0) {
+                    reduced.add(buffer.get(k));
+                }
+            }
+        }
+        List<Instance> all = new ArrayList<>(buffer);
+        List<List<Instance>> schedule = new ArrayList<>();
+        for (int k = 0; k < uniqueEstimators.size(); k++) {
+            schedule.add(fullyTrained[k] ? all : reduced);
+        }
+        return schedule;
+    }
+
+    /**
+     * Replaces every chain that has been inactive for {@code
+     * trainingStride} batches by a chain with a new random ordering
+     * and new base estimators. The new chain receives the average
+     * weight and is trained on all instances for the next {@code
+     * trainingStride} batches, so that it has a chance to gain weight.
+     *
+     * @param active the chains that contribute to the density
+     */
+    private void regenerateInactiveChains(boolean[] active) {
+        boolean regenerated = false;
+        for (int i = 0; i < baseEstimators.length; i++) {
+            if (active[i] || grace[i] > 0) {
+                inactivity[i] = 0;
+                continue;
+            }
+            inactivity[i]++;
+            if (inactivity[i] < trainingStride) {
+                continue;
+            }
+
+            List<RandomVariable> o = new ArrayList<>(targetVars);
+            Collections.shuffle(o, random);
             try {
-                t.join();
-            } catch (InterruptedException ex) {
+                BaseEstimator[] chain = new BaseEstimator[o.size()];
+                for (int j = 0; j < o.size(); j++) {
+                    chain[j] = createBaseEstimator(o, j);
+                }
+                baseEstimators[i] = chain;
+            } catch (UnsupportedConfiguration ex) {
                 logger.error(ex.toString());
+                continue;
+            }
+            setChainOrdering(i, o);
+            chainWeights[i] = 1.0 / chainWeights.length;
+            inactivity[i] = 0;
+            grace[i] = trainingStride;
+            regenerations++;
+            regenerated = true;
+        }
+        if (regenerated) {
+            chainWeights = Utils.normalize(chainWeights);
+            indexBaseEstimators();
+        }
+    }
+
+    /**
+     * Adds a subsample of the buffer to the dependency scores. An
+     * instance costs O(d^2) for d variables, whereas updating the base
+     * estimators costs O(m) for m distinct base estimators with at
+     * most k parents each. Hence, only every s-th instance of the
+     * stream is added, where s is the number of pairs of variables
+     * divided by m.
+     */
+    private void updateDependencyScores() {
+        long d = targetVars.size();
+        long pairs = d * (d - 1) / 2;
+        long m = uniqueEstimators.size();
+        long stride = Math.max(1, (pairs + m - 1) / m);
+        long first = N - buffer.size();
+        for (int k = 0; k < buffer.size(); k++) {
+            if ((first + k) % stride == 0) {
+                dependencyScores.update(buffer.get(k));
+            }
+        }
+    }
+
+    /**
+     * Selects the parents of every base estimator again, based on the
+     * current dependency scores (see {@link #setMaxParents}). A base
+     * estimator whose parents have changed is replaced by a new one if
+     * the scores of the new parents exceed those of the current ones
+     * by more than RESELECTION_MARGIN. The chains using a replaced
+     * base estimator are trained on all instances for the next
+     * trainingStride batches.
+     */
+    private void reselectParents() {
+        Map<BaseEstimator, BaseEstimator> replacements = 
+            new IdentityHashMap<>();
+        boolean replaced = false;
+        for (int i = 0; i < baseEstimators.length; i++) {
+            List<RandomVariable> ordering = chainOrderings.get(i);
+            for (int j = 0; j < baseEstimators[i].length; j++) {
+                BaseEstimator est = baseEstimators[i][j];
+                if (!replacements.containsKey(est)) {
+                    replacements.put(est, reselectParents(ordering, j, 
+                                                          est));
+                }
+                BaseEstimator replacement = replacements.get(est);
+                if (replacement != null) {
+                    baseEstimators[i][j] = replacement;
+                    grace[i] = trainingStride;
+                    replaced = true;
+                }
+            }
+        }
+        if (replaced) {
+            indexBaseEstimators();
+        }
+    }
+
+    /**
+     * @param ordering the ordering of a chain
+     * @param j the position of the estimated variable in {@code
+     * ordering}
+     * @param est the current base estimator of the variable
+     * @return a new base estimator conditioned on the parents selected
+     * by the current scores or null if {@code est} is kept
+     */
+    private BaseEstimator reselectParents(List<RandomVariable> ordering,
+                                          int j, BaseEstimator est) {
+        RandomVariable var = ordering.get(j);
+        List<RandomVariable> parents = selectParents(
+            ordering.subList(0, j), var, dependencyScores);
+        double current = 0.0;
+        for (RandomVariable parent : est.getParents()) {
+            current += dependencyScores.getScore(parent, var);
+        }
+        double candidate = 0.0;
+        for (RandomVariable parent : parents) {
+            candidate += dependencyScores.getScore(parent, var);
+        }
+        if (candidate <= (1 + RESELECTION_MARGIN) * current) {
+            return null;
+        }
+        try {
+            reselections++;
+            return createBaseEstimator(ordering, j);
+        } catch (UnsupportedConfiguration ex) {
+            logger.error(ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Recomputes uniqueEstimators and estimatorIndices from
+     * baseEstimators, so that base estimators that are not used by any
+     * chain anymore are dropped.
+     */
+    private void indexBaseEstimators() {
+        Map<BaseEstimator, Integer> indices = new IdentityHashMap<>();
+        List<BaseEstimator> estimators = new ArrayList<>();
+        for (int i = 0; i < baseEstimators.length; i++) {
+            for (int j = 0; j < baseEstimators[i].length; j++) {
+                BaseEstimator est = baseEstimators[i][j];
+                Integer index = indices.get(est);
+                if (index == null) {
+                    index = estimators.size();
+                    indices.put(est, index);
+                    estimators.add(est);
+                }
+                estimatorIndices[i][j] = index;
             }
         }
+        this.uniqueEstimators = estimators;
     }
 
     /**
@@ -381,80 +1099,352 @@ public class ChainBasedEstimator implements DensityEstimator {
 
     /**
      * Recomputes the chain weights on the most recent instances, as
-     * suggested by one of the reviewers.
+     * suggested by one of the reviewers. The exponentiated gradient
+     * update is carried out in log space, so that it requires O(k)
+     * operations per instance for k chains and does not underflow.
+     * The log-densities of the chains are taken from the scoring step
+     * if the instance has been scored before.
      */
     private void computeChainWeightsByEG() {
-        
+        int k = chainWeights.length;
+        double eta = Math.sqrt(8 * Math.log(k) / N);
+
+        double[] logWeights = new double[k];
+        for (int i = 0; i < k; i++) {
+            logWeights[i] = Math.log(chainWeights[i]);
+        }
+
+        double[] terms = new double[k];
         for (Instance inst : buffer) {
+            double[] chainLogDensities = lookUpChainLogDensities(inst);
+            if (chainLogDensities == null) {
+                chainLogDensities = computeChainLogDensities(inst);
+            }
 
-            double eta = Math.sqrt(8 * Math.log(chainWeights.length) / N);
+            // log(P_{t-1} * x_{t-1})
+            for (int i = 0; i < k; i++) {
+                terms[i] = logWeights[i] + chainLogDensities[i];
+            }
+            double logPtimesX = Utils.logSumExp(terms);
+            if (Double.isInfinite(logPtimesX)) {
+                // none of the chains assigns density to the instance
+                continue;
+            }
 
-            // density values of the classifier chains for each instance
-            double[] chainDensities = new double[chainWeights.length];
-            for (int i = 0; i < chainWeights.length; i++) {
-                chainDensities[i] = getDensityValue(inst, i);
+            // update weights
+            for (int i = 0; i < k; i++) {
+                double x = Math.exp(chainLogDensities[i] - logPtimesX);
+                terms[i] = logWeights[i] + eta * x;
+            }
+            double logNormalizer = Utils.logSumExp(terms);
+            for (int i = 0; i < k; i++) {
+                logWeights[i] = terms[i] - logNormalizer;
             }
+        }
+
+        for (int i = 0; i < k; i++) {
+            chainWeights[i] = Math.exp(logWeights[i]);
+        }
+        chainWeights = Utils.normalize(chainWeights);
+    }
 
+    /**
+     * Computes the log-densities of all chains for the given instance,
+     * where base estimators shared among chains are only queried once.
+     *
+     * @param inst instance whose log-densities are to be computed
+     * @return an array whose i-th element is the log-density of {@code
+     * inst} given by the i-th chain
+     */
+    private double[] computeChainLogDensities(Instance inst) {
+        double[] chainLogDensities = new double[baseEstimators.length];
+        double[] baseLogDensities = createBaseDensityValues();
+        for (int i = 0; i < baseEstimators.length; i++) {
+            chainLogDensities[i] = 
+                getLogDensityValue(inst, i, baseLogDensities);
+        }
+        return chainLogDensities;
+    }
 
-            double[] x = new double[chainDensities.length];
-            for (int i = 0; i < x.length; i++) {
-                // according to Cesa-Bianchi and Lugosi
-                x[i] = chainDensities[i] / previousDensityValues[i];
-                previousDensityValues[i] = chainDensities[i];
-                // according to Reviewer 1
-                x[i] = chainDensities[i];
+    /**
+     * Remembers the log-densities of the chains for a scored instance,
+     * so that they can be reused by the weight update. Only the most
+     * recent instances are kept, older ones are overwritten.
+     *
+     * @param inst instance that has been scored
+     * @param chainLogDensities log-densities of all chains
+     */
+    private synchronized void storeChainLogDensities(
+            Instance inst, double[] chainLogDensities) {
+        if (scoredInstances == null) {
+            int capacity = 2 * batching.getMaxBatchSize();
+            scoredInstances = new Instance[capacity];
+            scoredChainLogDensities = new double[capacity][];
+            scoredIndex = new IdentityHashMap<>();
+            scoredPosition = 0;
+        }
+        // evict the oldest entry unless the instance has been scored
+        // again in the meantime
+        Instance evicted = scoredInstances[scoredPosition];
+        if (evicted != null && scoredIndex.get(evicted) 
+                == scoredChainLogDensities[scoredPosition]) {
+            scoredIndex.remove(evicted);
+        }
+        scoredInstances[scoredPosition] = inst;
+        scoredChainLogDensities[scoredPosition] = chainLogDensities;
+        scoredIndex.put(inst, chainLogDensities);
+        scoredPosition = (scoredPosition + 1) % scoredInstances.length;
+    }
+
+    /**
+     * @param inst instance that is used for training
+     * @return the log-densities of the chains that have been computed
+     * when {@code inst} was scored or null if they are not available
+     */
+    private synchronized double[] lookUpChainLogDensities(Instance inst) {
+        if (scoredIndex == null) {
+            return null;
+        }
+        return scoredIndex.get(inst);
+    }
+
+    @Override
+    public double getDensityValue(Instance inst) {
+        batching.recordQuery(buffer.size());
+        double[] chainWeights = getScoringWeights();
+
+        // If the chain weights are adapted, the densities of all chains
+        // are needed anyway, so we compute them now and keep them for
+        // the weight update.
+        if (!uniformChainWeights) {
+            double[] chainLogDensities = computeChainLogDensities(inst);
+            storeChainLogDensities(inst, chainLogDensities);
+            double density = 0.0;
+            for (int i = 0; i < chainLogDensities.length; i++) {
+                if (chainWeights[i] > 0.0) {
+                    density += 
+                        chainWeights[i] * Math.exp(chainLogDensities[i]);
+                }
             }
+            return density;
+        }
 
-            // P_{t-1} * x_{t-1}
-            double PtimesX = 0.0;
-            for (int i = 0; i < chainWeights.length; i++) {
-                PtimesX += chainWeights[i] * chainDensities[i];
+        // Chains without weight do not contribute to the density, so
+        // their base estimators do not need to be queried.
+        double density = 0.0;
+        double[] baseDensities = createBaseDensityValues();
+        for (int i = 0; i < baseEstimators.length; i++) {
+            if (chainWeights[i] > 0.0) {
+                double chainDensity = getDensityValue(inst, i, baseDensities);
+                density += chainWeights[i] * chainDensity;
             }
-        
-            // update weights
-            double[] newChainWeights = new double[chainWeights.length];
-            for (int i = 0; i < ensembleSize; i++) {
-                double expValue = eta * chainDensities[i] / PtimesX;
-                double numerator = chainWeights[i] * Math.exp(expValue);
-                double denominator = 0.0;
-                for (int j = 0; j < chainWeights.length; j++) {
-                    expValue = eta * chainDensities[j] / PtimesX;
-                    denominator += chainWeights[i] * Math.exp(expValue);
+        }
+        return density;
+    }
+
+    /**
+     * Computes the logarithm of the density value. The log-densities
+     * of the base estimators are summed up for each chain, and the
+     * chains are mixed by log-sum-exp over the logarithms of their
+     * weights. Hence, the density value does not underflow, even if
+     * there are hundreds of variables.
+     */
+    @Override
+    public double getLogDensityValue(Instance inst) {
+        batching.recordQuery(buffer.size());
+        double[] chainWeights = getScoringWeights();
+
+        if (!uniformChainWeights) {
+            double[] chainLogDensities = computeChainLogDensities(inst);
+            storeChainLogDensities(inst, chainLogDensities);
+            double[] terms = new double[chainWeights.length];
+            for (int i = 0; i < terms.length; i++) {
+                if (chainWeights[i] > 0.0) {
+                    terms[i] = 
+                        Math.log(chainWeights[i]) + chainLogDensities[i];
+                } else {
+                    terms[i] = Double.NEGATIVE_INFINITY;
                 }
-                newChainWeights[i] = numerator / denominator;
             }
-            chainWeights = newChainWeights;
+            return Utils.logSumExp(terms);
         }
 
-        chainWeights = Utils.normalize(chainWeights);
+        double[] terms = new double[chainWeights.length];
+        double[] baseLogDensities = createBaseDensityValues();
+        for (int i = 0; i < baseEstimators.length; i++) {
+            if (chainWeights[i] > 0.0) {
+                terms[i] = Math.log(chainWeights[i]);
+                terms[i] += getLogDensityValue(inst, i, baseLogDensities);
+            } else {
+                terms[i] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        return Utils.logSumExp(terms);
     }
 
+    /**
+     * Computes the density values of several instances at once. Every
+     * distinct base estimator that is needed computes the density
+     * values of all instances in a separate task on the worker pool,
+     * so the base estimators are queried in parallel, but no base
+     * estimator is accessed by more than one task.
+     *
+     * @param insts instances whose density values are to be computed
+     * @return the density values, where the i-th element belongs to
+     * the i-th instance of {@code insts}
+     */
     @Override
-    public double getDensityValue(Instance inst) {
-        // As a heuristic, we select only those classifier chains whose
-        // weight does not deviate more than a certain percentage from
-        // the heightest weights. In this case, we allow a deviate of
-        // 30%. In case of single classifier chains or uniform weights,
-        // this would not have any effect.
-        double[] chainWeights = new double[this.chainWeights.length];
-        double maxWeight = 0.0;
-        for (int i = 0; i < chainWeights.length; i++) {
-            maxWeight = Math.max(maxWeight, this.chainWeights[i]);
+    public double[] getDensityValues(List<Instance> insts) {
+        batching.recordQuery(buffer.size());
+        double[] chainWeights = getScoringWeights();
+        double[][] baseDensities = 
+            queryBaseEstimators(insts, chainWeights, false);
+
+        // combine density values of the chains
+        double[] densities = new double[insts.size()];
+        for (int i = 0; i < baseEstimators.length; i++) {
+            if (chainWeights[i] == 0.0) {
+                continue;
+            }
+            for (int n = 0; n < densities.length; n++) {
+                double chainDensity = 1.0;
+                for (int j = 0; j < baseEstimators[i].length; j++) {
+                    chainDensity *= baseDensities[estimatorIndices[i][j]][n];
+                }
+                densities[n] += chainWeights[i] * chainDensity;
+            }
         }
+        return densities;
+    }
+
+    /**
+     * Computes the logarithms of the density values of several
+     * instances at once (see {@link #getDensityValues} and {@link
+     * #getLogDensityValue}).
+     *
+     * @param insts instances whose density values are to be computed
+     * @return the logarithms of the density values, where the i-th
+     * element belongs to the i-th instance of {@code insts}
+     */
+    @Override
+    public double[] getLogDensityValues(List<Instance> insts) {
+        batching.recordQuery(buffer.size());
+        double[] chainWeights = getScoringWeights();
+        double[][] baseLogDensities = 
+            queryBaseEstimators(insts, chainWeights, true);
+
+        // combine log-densities of the chains
+        double[] logDensities = new double[insts.size()];
+        double[] terms = new double[chainWeights.length];
+        for (int n = 0; n < logDensities.length; n++) {
+            for (int i = 0; i < baseEstimators.length; i++) {
+                if (chainWeights[i] == 0.0) {
+                    terms[i] = Double.NEGATIVE_INFINITY;
+                    continue;
+                }
+                terms[i] = Math.log(chainWeights[i]);
+                for (int j = 0; j < baseEstimators[i].length; j++) {
+                    terms[i] += baseLogDensities[estimatorIndices[i][j]][n];
+                }
+            }
+            logDensities[n] = Utils.logSumExp(terms);
+        }
+        return logDensities;
+    }
+
+    /**
+     * Lets every distinct base estimator belonging to a chain with
+     * weight compute the (log-)density values of all instances. The
+     * base estimators are queried in parallel on the worker pool.
+     *
+     * @param insts instances whose density values are to be computed
+     * @param chainWeights weights of the classifier chains
+     * @param logarithmic true if the logarithms of the density values
+     * are supposed to be computed
+     * @return an array whose k-th element contains the (log-)density
+     * values of the k-th distinct base estimator or null if the base
+     * estimator is not needed
+     */
+    private double[][] queryBaseEstimators(List<Instance> insts, 
+                                           double[] chainWeights,
+                                           boolean logarithmic) {
+        // determine base estimators belonging to chains with weight
+        final double[][] baseDensities = 
+            new double[uniqueEstimators.size()][];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < baseEstimators.length; i++) {
+            if (chainWeights[i] == 0.0) {
+                continue;
+            }
+            for (int j = 0; j < baseEstimators[i].length; j++) {
+                final int k = estimatorIndices[i][j];
+                if (baseDensities[k] != null) {
+                    continue;
+                }
+                baseDensities[k] = new double[insts.size()];
+                Arrays.fill(baseDensities[k], Double.NaN);
+                Callable<Void> task = () -> {
+                    BaseEstimator est = uniqueEstimators.get(k);
+                    if (logarithmic) {
+                        baseDensities[k] = est.getLogDensityValues(insts);
+                    } else {
+                        baseDensities[k] = est.getDensityValues(insts);
+                    }
+                    return null;
+                };
+                tasks.add(task);
+            }
+        }
+
+        // query base estimators
+        for (Future<Void> f : getWorkerPool().invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                logger.error(ex.toString());
+            }
+        }
+        return baseDensities;
+    }
+
+    /**
+     * As a heuristic, we select only those classifier chains whose
+     * weight does not deviate more than a certain percentage from the
+     * heightest weights. In this case, we allow a deviate of 30%. In
+     * case of single classifier chains or uniform weights, this would
+     * not have any effect.
+     *
+     * @return the normalized weights of the classifier chains that are
+     * used for scoring
+     */
+    private double[] getScoringWeights() {
+        double[] chainWeights = new double[this.chainWeights.length];
+        boolean[] active = getActiveChains();
         for (int i = 0; i < chainWeights.length; i++) {
-            if (maxWeight - this.chainWeights[i] > 0.3) {
-                chainWeights[i] = 0.0;
-            } else {
+            if (active[i]) {
                 chainWeights[i] = this.chainWeights[i];
+            } else {
+                chainWeights[i] = 0.0;
             }
         }
-        chainWeights = Utils.normalize(chainWeights);
+        return Utils.normalize(chainWeights);
+    }
 
-        double density = 0.0;
-        for (int i = 0; i < baseEstimators.length; i++) {
-            density += chainWeights[i] * getDensityValue(inst, i);
+    /**
+     * @return an array whose i-th element is true if the weight of the
+     * i-th chain does not deviate more than ACTIVITY_THRESHOLD from
+     * the highest weight
+     */
+    private boolean[] getActiveChains() {
+        double maxWeight = 0.0;
+        for (int i = 0; i < chainWeights.length; i++) {
+            maxWeight = Math.max(maxWeight, chainWeights[i]);
         }
-        return density;
+        boolean[] active = new boolean[chainWeights.length];
+        for (int i = 0; i < chainWeights.length; i++) {
+            active[i] = maxWeight - chainWeights[i] <= ACTIVITY_THRESHOLD;
+        }
+        return active;
     }
 
     /**
@@ -462,20 +1452,95 @@ public class ChainBasedEstimator implements DensityEstimator {
      * the recomputation of their weights.
      */
     private double getDensityValue(Instance inst, int chain) {
+        return getDensityValue(inst, chain, createBaseDensityValues());
+    }
+
+    /**
+     * Computes the density value for a single chain, where the density
+     * values of the base estimators are looked up in (and added to)
+     * {@code baseDensities}. Hence, base estimators that are shared
+     * among chains are only queried once per instance.
+     *
+     * @param inst instance whose density value is to be computed
+     * @param chain index of the classifier chain
+     * @param baseDensities density values of the base estimators for
+     * {@code inst}, where NaN stands for a value that has not been
+     * computed yet
+     * @return density value of {@code inst} given by the chain
+     */
+    private double getDensityValue(Instance inst, int chain, 
+                                   double[] baseDensities) {
         double chainDensity = 1.0;
         for (int j = 0; j < baseEstimators[chain].length; j++) {
-            BaseEstimator est = baseEstimators[chain][j];
-            Instance tInst = est.transformInstance(inst);
-            DensityEstimator be = est.getEstimator();
-            chainDensity *= be.getDensityValue(tInst);
+            int k = estimatorIndices[chain][j];
+            if (Double.isNaN(baseDensities[k])) {
+                BaseEstimator est = uniqueEstimators.get(k);
+                baseDensities[k] = est.getDensityValue(inst);
+            }
+            chainDensity *= baseDensities[k];
         }
 
         return chainDensity;
     }
 
+    /**
+     * Computes the logarithm of the density value for a single chain,
+     * where the log-densities of the base estimators are looked up in
+     * (and added to) {@code baseLogDensities}.
+     *
+     * @param inst instance whose density value is to be computed
+     * @param chain index of the classifier chain
+     * @param baseLogDensities log-densities of the base estimators for
+     * {@code inst}, where NaN stands for a value that has not been
+     * computed yet
+     * @return logarithm of the density value of {@code inst} given by
+     * the chain
+     */
+    private double getLogDensityValue(Instance inst, int chain, 
+                                      double[] baseLogDensities) {
+        double chainLogDensity = 0.0;
+        for (int j = 0; j < baseEstimators[chain].length; j++) {
+            int k = estimatorIndices[chain][j];
+            if (Double.isNaN(baseLogDensities[k])) {
+                BaseEstimator est = uniqueEstimators.get(k);
+                baseLogDensities[k] = est.getLogDensityValue(inst);
+            }
+            chainLogDensity += baseLogDensities[k];
+        }
+
+        return chainLogDensity;
+    }
+
+    /**
+     * @return an array for the density values of the distinct base
+     * estimators, where every value is marked as not computed yet
+     */
+    private double[] createBaseDensityValues() {
+        double[] baseDensities = new double[uniqueEstimators.size()];
+        Arrays.fill(baseDensities, Double.NaN);
+        return baseDensities;
+    }
+
     public List<Instance> getSample() {
 	return buffer;
     }
+
+    /**
+     * A node in the trie of chain orderings. The path from the root to
+     * a node is a prefix of one or more chain orderings, and the node
+     * refers to the base estimator for the last variable of this
+     * prefix. It is only needed when setting up the base estimators.
+     */
+    private static class PrefixNode {
+
+        private int index;
+        private Map<String, PrefixNode> children;
+
+        PrefixNode(int index) {
+            this.index = index;
+            this.children = new HashMap<>();
+        }
+    }
     
     /**
      * {@code BaseEstimator} provides a density estimator for a
@@ -489,12 +1554,36 @@ public class ChainBasedEstimator implements DensityEstimator {
         private InstancesHeader originalHeader;
         private RandomVariable targetVariable;
         private List<RandomVariable> variables;
+        private List<RandomVariable> parents;
         private InstancesHeader header;
 
+        // number of instances on which the estimator has been trained
+        private long numInstances;
+
         // The attribute indices in SAMOA are apparently not defined
         // properly. Since we had other problems with attribute indices
-        // in the past, we avoid them as much as possible.
-        private Map<Integer, Integer> attributeIndexMapping;
+        // in the past, we avoid them as much as possible: The i-th
+        // attribute of header is attribute attributeIndices[i] of
+        // originalHeader, which is determined by name.
+        private int[] attributeIndices;
+
+        // view on the original instances, which is re-used for every
+        // instance (see transformInstance)
+        private transient ProjectedInstance projection;
+
+        // State of the asynchronous training: enqueued is the number
+        // of instances passed to the queue, applied is the number of
+        // instances incorporated into the model. Both counters are
+        // guarded by this object, which also guards the estimator.
+        // The instances are taken from the queue by at most one thread
+        // at a time, which holds the flag draining. The flag scheduled
+        // is set while a consumer task waits for a thread of the pool.
+        private transient Queue<List<Instance>> queue;
+        private transient AtomicBoolean draining;
+        private transient AtomicBoolean scheduled;
+        private transient long enqueued;
+        private transient long applied;
+        private transient long maxObservedLag;
 
         /**
          * The random variable that is estimated
@@ -504,6 +1593,22 @@ public class ChainBasedEstimator implements DensityEstimator {
             return targetVariable;
         }
         
+        /**
+         * @return the preceding variables of the chain on which the
+         * estimator is conditioned
+         */
+        public List<RandomVariable> getParents() {
+            return parents;
+        }
+
+        /**
+         * @param parents the preceding variables of the chain on which
+         * the estimator is conditioned
+         */
+        public void setParents(List<RandomVariable> parents) {
+            this.parents = new ArrayList<>(parents);
+        }
+
         /**
          * Provides access to the underlying base estimator, which is a
          * Hoeffding tree.
@@ -565,15 +1670,17 @@ public class ChainBasedEstimator implements DensityEstimator {
             this.header.setClassIndex(header.numAttributes() - 1);
 
             // mapping of attribute indices
-            this.attributeIndexMapping = new HashMap<>();
+            this.attributeIndices = new int[variables.size()];
             for (int i = 0; i < variables.size(); i++) {
                 String attName = variables.get(i).getAttribute().name();
                 for (int j = 0; j < originalHeader.numAttributes(); j++) {
                     if (attName.equals(originalHeader.attribute(j).name())) {
-                        attributeIndexMapping.put(i, j);
+                        attributeIndices[i] = j;
                     }
                 }
             }
+            this.projection = null;
+            this.numInstances = 0;
             
             // create estimator
             DensityEstimator template = null;
@@ -584,6 +1691,7 @@ public class ChainBasedEstimator implements DensityEstimator {
             }
             this.estimator = template.makeCopy();
             estimator.init(header, targetVars, condVars);
+            estimator.setWorkerPool(workerPool);
         }
 
         /**
@@ -592,20 +1700,271 @@ public class ChainBasedEstimator implements DensityEstimator {
          * estimator. This is necessary, since an instance that had
          * intially the form {@literal x1, ..., xn} now needs to be in
          * the format {@literal y1, ..., yk}.
+         *
+         * To avoid copying attribute values, the result is a view on
+         * {@code inst} that is re-used by the next call of this
+         * method. If the transformed instance is supposed to be kept,
+         * one has to call {@code copy()} on it.
          * 
          * @param inst an instance belonging to the original dataset.
          * @return an instance of the form  {@literal y1, ..., yk}
          */
         public Instance transformInstance(Instance inst) {
-            int numAtts = header.numAttributes();
-            Instance transformedInst = new DenseInstance(numAtts);
-            transformedInst.setDataset(header);
-            for (int i = 0; i < variables.size(); i++) {
-                int attIndex = attributeIndexMapping.get(i);
-                double attValue = inst.value(attIndex);
-                transformedInst.setValue(i, attValue);
+            if (projection == null) {
+                projection = new ProjectedInstance(header, attributeIndices);
+            }
+            return projection.wrap(inst);
+        }
+
+        /**
+         * Updates the estimator with an instance belonging to the
+         * original dataset.
+         *
+         * @param inst an instance belonging to the original dataset
+         */
+        public synchronized void update(Instance inst) {
+            estimator.update(transformInstance(inst));
+            numInstances++;
+        }
+
+        /**
+         * @return the number of instances on which the estimator has
+         * been trained
+         */
+        public synchronized long getNumberOfInstances() {
+            return numInstances;
+        }
+
+        /**
+         * Computes the density value of an instance belonging to the
+         * original dataset. If the estimator is trained asynchronously,
+         * it waits until the model is at most {@code maxStaleness}
+         * instances behind.
+         *
+         * @param inst an instance belonging to the original dataset
+         * @return the density value of {@code inst}
+         */
+        public synchronized double getDensityValue(Instance inst) {
+            awaitLag(maxStaleness);
+            maxObservedLag = Math.max(maxObservedLag, enqueued - applied);
+            return estimator.getDensityValue(transformInstance(inst));
+        }
+
+        /**
+         * Computes the logarithm of the density value of an instance
+         * belonging to the original dataset (see {@link
+         * #getDensityValue}).
+         *
+         * @param inst an instance belonging to the original dataset
+         * @return the logarithm of the density value of {@code inst}
+         */
+        public synchronized double getLogDensityValue(Instance inst) {
+            awaitLag(maxStaleness);
+            maxObservedLag = Math.max(maxObservedLag, enqueued - applied);
+            return estimator.getLogDensityValue(transformInstance(inst));
+        }
+
+        /**
+         * Computes the density values of several instances belonging
+         * to the original dataset.
+         *
+         * @param insts instances belonging to the original dataset
+         * @return the density values of the instances
+         */
+        public synchronized double[] getDensityValues(List<Instance> insts) {
+            awaitLag(maxStaleness);
+            maxObservedLag = Math.max(maxObservedLag, enqueued - applied);
+            return estimator.getDensityValues(transformInstances(insts));
+        }
+
+        /**
+         * Computes the logarithms of the density values of several
+         * instances belonging to the original dataset.
+         *
+         * @param insts instances belonging to the original dataset
+         * @return the logarithms of the density values of the instances
+         */
+        public synchronized double[] getLogDensityValues(
+                List<Instance> insts) {
+            awaitLag(maxStaleness);
+            maxObservedLag = Math.max(maxObservedLag, enqueued - applied);
+            return estimator.getLogDensityValues(transformInstances(insts));
+        }
+
+        /**
+         * Unlike {@link #transformInstance}, every instance gets its
+         * own view, since the estimator might access all of them at
+         * once.
+         *
+         * @param insts instances belonging to the original dataset
+         * @return the transformed instances
+         */
+        private List<Instance> transformInstances(List<Instance> insts) {
+            List<Instance> tInsts = new ArrayList<>(insts.size());
+            for (Instance inst : insts) {
+                ProjectedInstance view;
+                view = new ProjectedInstance(header, attributeIndices);
+                tInsts.add(view.wrap(inst));
+            }
+            return tInsts;
+        }
+
+        /**
+         * Takes the lock of the training path, so that the
+         * characteristics are consistent while the model is trained
+         * asynchronously.
+         *
+         * @return the model characteristics of the base estimator
+         */
+        public synchronized JsonStructure getModelCharacteristics() {
+            return estimator.getModelCharacteristics();
+        }
+
+        /**
+         * @return the maximal number of instances the model lagged
+         * behind when it was queried
+         */
+        public synchronized long getMaxObservedLag() {
+            return maxObservedLag;
+        }
+
+        /**
+         * Blocks until at most {@code lag} instances passed to {@link
+         * #enqueue} are not incorporated into the model yet.
+         *
+         * @param lag the number of instances the model may lag behind
+         */
+        public void awaitLag(long lag) {
+            await(() -> enqueued - applied <= lag);
+        }
+
+        /**
+         * Blocks until {@code released} holds, which is evaluated while
+         * holding the lock of this object. The consumer task that is
+         * waited for runs on the worker pool, possibly on the same pool
+         * as the caller (e.g., a task querying the base estimators).
+         * Hence, the caller blocks through {@link
+         * ForkJoinPool#managedBlock}, so that the pool can activate a
+         * spare thread instead of waiting for its own busy workers.
+         * Since the pool does not guarantee a spare thread, the caller
+         * takes the queued instances itself if no other thread is
+         * draining the queue.
+         *
+         * @param released the condition to wait for
+         * @return false if the caller has been interrupted while waiting
+         */
+        private boolean await(BooleanSupplier released) {
+            ForkJoinPool.ManagedBlocker blocker = 
+                new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean isReleasable() {
+                        synchronized (BaseEstimator.this) {
+                            return released.getAsBoolean();
+                        }
+                    }
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        synchronized (BaseEstimator.this) {
+                            while (!released.getAsBoolean()) {
+                                if (queue != null) {
+                                    drain();
+                                }
+                                if (!released.getAsBoolean()) {
+                                    BaseEstimator.this.wait();
+                                }
+                            }
+                        }
+                        return true;
+                    }
+                };
+            try {
+                ForkJoinPool.managedBlock(blocker);
+                return true;
+            } catch (InterruptedException ex) {
+                logger.error(ex.toString());
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Passes instances to the queue of the estimator, from which
+         * they are taken by a consumer task on the worker pool. The
+         * queue holds at most {@code max(1, maxStaleness / b)} lists of
+         * instances, where {@code b} is the current batch size, so the
+         * bound follows the batch size if it is adapted (see {@link
+         * BatchSizeController}). If the queue is full, the caller is
+         * blocked until there is space again. If the caller is
+         * interrupted while waiting, the instances are discarded.
+         *
+         * @param instances instances belonging to the original dataset
+         */
+        public void enqueue(List<Instance> instances) {
+            synchronized (this) {
+                if (queue == null) {
+                    this.queue = new ConcurrentLinkedQueue<>();
+                    this.draining = new AtomicBoolean(false);
+                    this.scheduled = new AtomicBoolean(false);
+                }
+            }
+            int capacity = Math.max(1, maxStaleness / 
+                                    batching.getBatchSize());
+            if (!await(() -> queue.size() < capacity)) {
+                return;
+            }
+            synchronized (this) {
+                enqueued += instances.size();
+                queue.add(instances);
+            }
+            // A running consumer checks the queue again before it stops.
+            if (!draining.get() && scheduled.compareAndSet(false, true)) {
+                getWorkerPool().execute(() -> {
+                        scheduled.set(false);
+                        drain();
+                    });
+            }
+        }
+
+        /**
+         * Incorporates the queued instances into the model unless
+         * another thread is already doing so. Hence, the instances are
+         * incorporated in the order in which they have been enqueued.
+         */
+        private void drain() {
+            while (draining.compareAndSet(false, true)) {
+                List<Instance> instances;
+                while ((instances = queue.poll()) != null) {
+                    apply(instances);
+                }
+                // Instances might have been added after polling but
+                // before resetting the flag. In this case, we continue
+                // unless another thread has taken over. Waiting threads
+                // are notified, so that they can take over as well.
+                draining.set(false);
+                synchronized (this) {
+                    notifyAll();
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+            }
+        }
+
+        /* Incorporates instances taken from the queue into the model. */
+        private void apply(List<Instance> instances) {
+            for (Instance inst : instances) {
+                synchronized (this) {
+                    try {
+                        update(inst);
+                    } catch (RuntimeException ex) {
+                        logger.error(ex.toString());
+                    } finally {
+                        applied++;
+                        notifyAll();
+                    }
+                }
             }
-            return transformedInst;
         }
     }
 
@@ -619,12 +1978,50 @@ public class ChainBasedEstimator implements DensityEstimator {
             for (int cl = 0; cl < estimators[cc].length; cl++) {
                 String estimatorId = "estimator-" + Integer.toString(cl);
                 JsonObjectBuilder clObj = Json.createObjectBuilder();
-                DensityEstimator de = estimators[cc][cl].getEstimator();
-                clObj.add("estimator", de.getModelCharacteristics());
+                clObj.add("estimator", 
+                          estimators[cc][cl].getModelCharacteristics());
                 ccObj.add(estimatorId, clObj);
             }
             o.add(chainId, ccObj);
         }
+        o.add("baseEstimators", uniqueEstimators.size());
+        long observedLag = 0;
+        for (BaseEstimator est : uniqueEstimators) {
+            observedLag = Math.max(observedLag, est.getMaxObservedLag());
+        }
+        JsonObjectBuilder staleness = Json.createObjectBuilder();
+        staleness.add("asynchronousTraining", asynchronousTraining);
+        staleness.add("maxStaleness", maxStaleness);
+        staleness.add("maxObservedStaleness", observedLag);
+        o.add("staleness", staleness);
+        o.add("batching", batching.getCharacteristics());
+        int numActive = 0;
+        for (boolean active : getActiveChains()) {
+            numActive += active ? 1 : 0;
+        }
+        JsonObjectBuilder training = Json.createObjectBuilder();
+        training.add("policy", trainingPolicy.name().toLowerCase());
+        training.add("activeChains", numActive);
+        training.add("regenerations", regenerations);
+        training.add("reselections", reselections);
+        training.add("dependencyInstances", (dependencyScores == null) 
+                     ? 0 : dependencyScores.getNumberOfInstances());
+        o.add("training", training);
+        long kernelBytes = 0;
+        long savedBytes = 0;
+        for (BaseEstimator est : uniqueEstimators) {
+            if (est.getEstimator() instanceof OCCDEstimator) {
+                OCCDEstimator occd = (OCCDEstimator) est.getEstimator();
+                synchronized (est) {
+                    kernelBytes += occd.getKernelBytes();
+                    savedBytes += occd.getSavedKernelBytes();
+                }
+            }
+        }
+        JsonObjectBuilder memory = Json.createObjectBuilder();
+        memory.add("kernelBytes", kernelBytes);
+        memory.add("savedBytes", savedBytes);
+        o.add("memory", memory);
         return o.build();
     }
 }
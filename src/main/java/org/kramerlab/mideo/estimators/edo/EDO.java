@@ -23,10 +23,12 @@
  */
 package org.kramerlab.mideo.estimators.edo;
 
+import java.io.File;
 import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
 import javax.json.Json;
 import javax.json.JsonStructure;
 import javax.json.JsonObject;
@@ -43,6 +45,8 @@ import org.kramerlab.mideo.core.Utils;
 import org.kramerlab.mideo.core.Option;
 import org.kramerlab.mideo.core.Options;
 import org.kramerlab.mideo.core.Configurable;
+import org.kramerlab.mideo.core.WorkerPool;
+import org.kramerlab.mideo.data.filters.DiscretizationFilter;
 import org.kramerlab.mideo.estimators.Module;
 import org.kramerlab.mideo.estimators.ModuleDetection;
 import org.kramerlab.mideo.estimators.MetaInformation;
@@ -50,6 +54,7 @@ import org.kramerlab.mideo.estimators.DensityEstimator;
 import org.kramerlab.mideo.estimators.EstimatorType;
 import org.kramerlab.mideo.estimators.trees.HoeffdingTreeCR;
 import org.kramerlab.mideo.estimators.occd.OCCDEstimator;
+import org.kramerlab.mideo.estimators.occd.KernelStore;
 import org.kramerlab.mideo.exceptions.UnsupportedConfiguration;
 
 /**
@@ -126,6 +131,198 @@ public class EDO implements DensityEstimator, Configurable {
         10000,
         m -> (m > 0));
 
+    private Option<String> discretizationMethod = new Option<>(
+        "continuousBaseEstimator.discretization",
+        "specifies how the continuous variable is discretized. Possible " +
+        "choices: [width | frequency | sketch], where width and " +
+        "frequency build equal-width and equal-frequency bins from a " +
+        "fine-grained histogram, and sketch takes equal-frequency bins " +
+        "from a quantile sketch with bounded memory.",
+        "width",
+        s -> "width".equals(s) || "frequency".equals(s) || 
+             "sketch".equals(s));
+
+    private Option<Integer> sketchSize = new Option<>(
+        "continuousBaseEstimator.sketchSize",
+        "the maximal number of values of a compactor of the quantile " +
+        "sketch, which is used if continuousBaseEstimator.discretization " +
+        "is sketch. The rank error of the bin borders is inversely " +
+        "proportional to it.",
+        200,
+        s -> (s >= 8));
+
+    private Option<Float> kernelTruncation = new Option<>(
+        "continuousBaseEstimator.kernelTruncation",
+        "if positive, a density query only evaluates the kernels whose " +
+        "means are at most this number of bandwidths away from the " +
+        "queried value. Each omitted kernel contributes less than " +
+        "exp(-c^2/2) of its peak value (e.g., 1.6e-8 for c = 6). 0 " +
+        "means that all kernels are evaluated.",
+        0.f,
+        c -> (c >= 0));
+
+    private Option<Float> interpolationTolerance = new Option<>(
+        "continuousBaseEstimator.interpolationTolerance",
+        "if positive, the densities of the kernels are precomputed on an " +
+        "adaptive grid whenever the kernels change, and queries are " +
+        "answered by linear interpolation. The grid is refined until " +
+        "the interpolation error is at most this fraction of the " +
+        "highest density; intervals that do not reach it after 7 " +
+        "refinements (1/256 of a bandwidth) are evaluated exactly. " +
+        "0 means that queries are answered exactly.",
+        0.f,
+        t -> (t >= 0));
+
+    private Option<String> kernelCompression = new Option<>(
+        "continuousBaseEstimator.compression",
+        "specifies how the kernels are compressed if their maximal " +
+        "number is exceeded. Possible choices: [staged | incremental], " +
+        "where staged compresses all micro-clusters at once, and " +
+        "incremental merges the two neighbouring kernels that are " +
+        "cheapest to merge on every insertion beyond the maximum.",
+        "staged",
+        s -> "staged".equals(s) || "incremental".equals(s));
+
+    private Option<String> kernelStorage = new Option<>(
+        "continuousBaseEstimator.kernelStorage",
+        "specifies where the kernels are stored. Possible choices: " +
+        "[heap | direct | mapped], where direct stores them in direct " +
+        "buffers outside of the heap and mapped in memory-mapped files " +
+        "in continuousBaseEstimator.kernelDirectory.",
+        "heap",
+        s -> "heap".equals(s) || "direct".equals(s) || "mapped".equals(s));
+
+    private Option<String> kernelDirectory = new Option<>(
+        "continuousBaseEstimator.kernelDirectory",
+        "the directory of the memory-mapped kernel files. An empty " +
+        "string means the directory for temporary files.",
+        "",
+        d -> d.isEmpty() || new File(d).isDirectory());
+
+    private Option<Boolean> singlePrecision = new Option<>(
+        "singlePrecision",
+        "specifies whether the means and bandwidths of the kernels and " +
+        "the fine-grained discretization of the target variables are " +
+        "stored in single precision. Computations are still carried " +
+        "out with doubles. The class distributions of the Hoeffding " +
+        "trees keep double precision. The saved memory is reported in " +
+        "the model description.",
+        false);
+
+    private Option<Integer> numThreads = new Option<>(
+        "numThreads",
+        "the number of worker threads used to update the base " +
+        "estimators. The threads are shared by all estimators having " +
+        "the same number of threads. 0 means that all available cores " +
+        "are used.",
+        0,
+        t -> (t >= 0));
+
+    private Option<Boolean> prefixSharing = new Option<>(
+        "prefixSharing",
+        "specifies whether classifier chains with the same prefix share " +
+        "the base estimators of this prefix",
+        false);
+
+    private Option<Integer> sharedPrefixLength = new Option<>(
+        "sharedPrefixLength",
+        "the number of variables that a generated chain ordering takes " +
+        "over from a preceding chain. 0 means that every ordering is " +
+        "shuffled independently.",
+        0,
+        l -> (l >= 0));
+
+    private Option<Boolean> asynchronousTraining = new Option<>(
+        "asynchronousTraining",
+        "specifies whether the base estimators are trained in the " +
+        "background, so that updates do not wait for the slowest base " +
+        "estimator",
+        false);
+
+    private Option<Integer> maxStaleness = new Option<>(
+        "maxStaleness",
+        "the maximal number of instances by which the model of a base " +
+        "estimator may lag behind when it is queried. It is only " +
+        "relevant if the training is asynchronous.",
+        1000,
+        n -> (n >= 0));
+
+    private Option<Integer> maxParents = new Option<>(
+        "maxParents",
+        "the maximal number of preceding variables in a chain on which " +
+        "a base estimator is conditioned. The variables are chosen by " +
+        "their dependency with the estimated variable on the first " +
+        "instances. If the trainingPolicy is regenerate, the " +
+        "dependencies are tracked on a subsample of the stream, and a " +
+        "base estimator whose parents change is replaced every " +
+        "trainingStride batches. Otherwise, they are not changed. 0 " +
+        "means that a base estimator is conditioned on all preceding " +
+        "variables.",
+        0,
+        k -> (k >= 0));
+
+    private Option<String> trainingPolicy = new Option<>(
+        "trainingPolicy",
+        "specifies how the base estimators of chains that do not " +
+        "contribute to the density (due to their low weight) are " +
+        "trained. Possible choices: [none | subsample | freeze | " +
+        "regenerate], where none trains them as usual, subsample only " +
+        "on every trainingStride-th instance, freeze not at all, and " +
+        "regenerate replaces chains that have been inactive for " +
+        "trainingStride batches by chains with new random orderings. " +
+        "It is only relevant if uniformWeights is false.",
+        "none",
+        s -> "none".equals(s) || "subsample".equals(s) || 
+             "freeze".equals(s) || "regenerate".equals(s));
+
+    private Option<Integer> trainingStride = new Option<>(
+        "trainingStride",
+        "the subsampling rate or the number of batches used by the " +
+        "trainingPolicy",
+        10,
+        t -> (t > 0));
+
+    private Option<String> batchSizing = new Option<>(
+        "batchSizing",
+        "specifies how the number of instances that are buffered before " +
+        "the base estimators are updated is chosen. Possible choices: " +
+        "[fixed | latency | staleness], where fixed always uses " +
+        "batchSize, latency adapts the batch size such that an update " +
+        "takes at most targetLatency milliseconds, and staleness adapts " +
+        "it such that a query sees at most targetStaleness buffered " +
+        "instances",
+        "fixed",
+        s -> "fixed".equals(s) || "latency".equals(s) || 
+             "staleness".equals(s));
+
+    private Option<Integer> batchSize = new Option<>(
+        "batchSize",
+        "the (initial) number of instances that are buffered before the " +
+        "base estimators are updated",
+        MIN_NUM_INSTANCES,
+        b -> (b > 0));
+
+    private Option<Integer> maxBatchSize = new Option<>(
+        "maxBatchSize",
+        "the maximal number of instances per batch if the batch size " +
+        "is adapted",
+        1000,
+        b -> (b > 0));
+
+    private Option<Integer> targetLatency = new Option<>(
+        "targetLatency",
+        "the maximal duration of an update in milliseconds if " +
+        "batchSizing is latency",
+        10,
+        t -> (t >= 0));
+
+    private Option<Integer> targetStaleness = new Option<>(
+        "targetStaleness",
+        "the maximal number of buffered instances seen by a query if " +
+        "batchSizing is staleness",
+        100,
+        t -> (t >= 0));
+
     private Random random;
 
     private InstancesHeader header;
@@ -146,6 +343,27 @@ public class EDO implements DensityEstimator, Configurable {
         options.getStringOptions().addOption(leafClassifier);
         options.getIntegerOptions().addOption(numBins);
         options.getIntegerOptions().addOption(maxNumberOfKernels);
+        options.getStringOptions().addOption(discretizationMethod);
+        options.getIntegerOptions().addOption(sketchSize);
+        options.getFloatOptions().addOption(kernelTruncation);
+        options.getFloatOptions().addOption(interpolationTolerance);
+        options.getStringOptions().addOption(kernelCompression);
+        options.getStringOptions().addOption(kernelStorage);
+        options.getStringOptions().addOption(kernelDirectory);
+        options.getBooleanOptions().addOption(singlePrecision);
+        options.getIntegerOptions().addOption(numThreads);
+        options.getBooleanOptions().addOption(prefixSharing);
+        options.getIntegerOptions().addOption(sharedPrefixLength);
+        options.getBooleanOptions().addOption(asynchronousTraining);
+        options.getIntegerOptions().addOption(maxStaleness);
+        options.getIntegerOptions().addOption(maxParents);
+        options.getStringOptions().addOption(trainingPolicy);
+        options.getIntegerOptions().addOption(trainingStride);
+        options.getStringOptions().addOption(batchSizing);
+        options.getIntegerOptions().addOption(batchSize);
+        options.getIntegerOptions().addOption(maxBatchSize);
+        options.getIntegerOptions().addOption(targetLatency);
+        options.getIntegerOptions().addOption(targetStaleness);
 
         this.name = "";
     }
@@ -194,6 +412,18 @@ public class EDO implements DensityEstimator, Configurable {
 	    boolean weights = uniformWeights.getValue();
 	    ChainBasedEstimator est = new ChainBasedEstimator(size, weights);
 	    est.setSeed(seed.getValue());
+	    est.setWorkerPool(WorkerPool.getPool(numThreads.getValue()));
+	    est.setPrefixSharing(prefixSharing.getValue());
+	    est.setSharedPrefixLength(sharedPrefixLength.getValue());
+	    est.setAsynchronousTraining(asynchronousTraining.getValue());
+	    est.setMaxStaleness(maxStaleness.getValue());
+	    est.setBatchSizeController(createBatchSizeController());
+	    est.setMaxParents(maxParents.getValue());
+	    est.setTrainingPolicy(
+                ChainBasedEstimator.TrainingPolicy.fromName(
+                    trainingPolicy.getValue()),
+                trainingStride.getValue());
+	    est.setDependencySample(new ArrayList<>(buffer));
 	    // discrete base estimator
 	    String leafCl = leafClassifier.getValue();
 	    HoeffdingTreeCR htTemplate = new HoeffdingTreeCR(leafCl);
@@ -202,6 +432,19 @@ public class EDO implements DensityEstimator, Configurable {
 	    int bins = numBins.getValue();
 	    int maxKernels = maxNumberOfKernels.getValue();
 	    OCCDEstimator occd = new OCCDEstimator(bins, maxKernels);
+	    occd.setDiscretization(
+                DiscretizationFilter.Method.fromName(
+                    discretizationMethod.getValue()),
+                sketchSize.getValue());
+	    occd.setKernelTruncation(kernelTruncation.getValue());
+	    occd.setInterpolationTolerance(interpolationTolerance.getValue());
+	    occd.setIncrementalCompression(
+                "incremental".equals(kernelCompression.getValue()));
+	    String dir = kernelDirectory.getValue();
+	    occd.setKernelStorage(
+                KernelStore.Storage.fromName(kernelStorage.getValue()),
+                dir.isEmpty() ? null : new File(dir));
+	    occd.setSinglePrecision(singlePrecision.getValue());
 	    est.setBaseEstimator(EstimatorType.CONT_X1_I_Y1___Yl, occd);
 	    est.init(meta.getHeader(),
 		     meta.getTargetVariables(),
@@ -221,6 +464,28 @@ public class EDO implements DensityEstimator, Configurable {
 	}
     }
 
+    /**
+     * @return a new controller for the batch size of a chain-based
+     * estimator, configured according to the options
+     */
+    private BatchSizeController createBatchSizeController() {
+        BatchSizeController.Mode mode = 
+            BatchSizeController.Mode.fromName(batchSizing.getValue());
+        int size = batchSize.getValue();
+        switch (mode) {
+        case LATENCY:
+            return new BatchSizeController(mode, size, 
+                Math.max(size, maxBatchSize.getValue()),
+                targetLatency.getValue());
+        case STALENESS:
+            return new BatchSizeController(mode, size, 
+                Math.max(size, maxBatchSize.getValue()),
+                targetStaleness.getValue());
+        default:
+            return new BatchSizeController(size);
+        }
+    }
+
     public List<Module> getModules() {
 	return modules;
     }
@@ -270,6 +535,13 @@ public class EDO implements DensityEstimator, Configurable {
         }
     }
    
+    @Override
+    public void awaitQuiescence() {
+        for (Module module : modules) {
+            module.getDensityEstimator().awaitQuiescence();
+        }
+    }
+
     @Override
     public double getDensityValue(Instance inst) {
         double densityValue = 1.0;
@@ -282,6 +554,58 @@ public class EDO implements DensityEstimator, Configurable {
         return densityValue;
     }
 
+    @Override
+    public double[] getDensityValues(List<Instance> insts) {
+        double[] densityValues = new double[insts.size()];
+        if (modules.size() == 0) {
+            return densityValues;
+        }
+        Arrays.fill(densityValues, 1.0);
+        for (Module module : modules) {
+            DensityEstimator est = module.getDensityEstimator();
+            double[] moduleValues = est.getDensityValues(insts);
+            for (int i = 0; i < densityValues.length; i++) {
+                densityValues[i] *= moduleValues[i];
+            }
+        }
+        return densityValues;
+    }
+
+    /**
+     * Computes the logarithm of the density value as the sum of the
+     * log-densities of the modules, so that the product of the module
+     * densities cannot underflow.
+     */
+    @Override
+    public double getLogDensityValue(Instance inst) {
+        if (modules.size() == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double logDensityValue = 0.0;
+        for (Module module : modules) {
+            DensityEstimator est = module.getDensityEstimator();
+            logDensityValue += est.getLogDensityValue(inst);
+        }
+        return logDensityValue;
+    }
+
+    @Override
+    public double[] getLogDensityValues(List<Instance> insts) {
+        double[] logDensityValues = new double[insts.size()];
+        if (modules.size() == 0) {
+            Arrays.fill(logDensityValues, Double.NEGATIVE_INFINITY);
+            return logDensityValues;
+        }
+        for (Module module : modules) {
+            DensityEstimator est = module.getDensityEstimator();
+            double[] moduleValues = est.getLogDensityValues(insts);
+            for (int i = 0; i < logDensityValues.length; i++) {
+                logDensityValues[i] += moduleValues[i];
+            }
+        }
+        return logDensityValues;
+    }
+
     @Override
     public List<Instance> getSample() {
 	return buffer;
@@ -0,0 +1,172 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the columns of a {@link KernelStore} in arrays on the heap: the
+ * kernel with index i has the mean {@code means[i]}, the bandwidth
+ * {@code sigmas[i]}, the key {@code keys[i]}, and a factor given by
+ * {@code bins[i]} and {@code multipliers[i]} or by row {@code rows[i]}
+ * of {@code factors}.
+ *
+ * @author Michael Geilke
+ */
+public class ArrayKernelStore extends KernelStore {
+
+    private double[] means;
+    private double[] sigmas;
+    private int[] keys;
+    private int[] bins;
+    private int[] multipliers;
+    private int[] rows;
+    private int[] factors;
+
+    private static final KernelArithmetic ARITHMETIC = 
+        KernelArithmetic.getInstance();
+
+    /**
+     * @param numBins the number of bins in which the target variable is
+     * discretized
+     * @param capacity the initial number of kernels that can be stored
+     * without growing the arrays
+     */
+    public ArrayKernelStore(int numBins, int capacity) {
+        super(numBins);
+        capacity = Math.max(capacity, 16);
+        this.means = new double[capacity];
+        this.sigmas = new double[capacity];
+        this.keys = new int[capacity];
+        this.bins = new int[capacity];
+        this.multipliers = new int[capacity];
+        this.rows = new int[capacity];
+        this.factors = new int[16 * numBins];
+    }
+
+    @Override
+    public double getMean(int i) {
+        return means[i];
+    }
+
+    @Override
+    protected void setMean(int i, double mean) {
+        means[i] = mean;
+    }
+
+    @Override
+    public double getSigma(int i) {
+        return sigmas[i];
+    }
+
+    @Override
+    protected void setSigma(int i, double sigma) {
+        sigmas[i] = sigma;
+    }
+
+    @Override
+    public int getKey(int i) {
+        return keys[i];
+    }
+
+    @Override
+    public void setKey(int i, int key) {
+        keys[i] = key;
+    }
+
+    @Override
+    protected int getBin(int i) {
+        return bins[i];
+    }
+
+    @Override
+    protected void setBin(int i, int bin) {
+        bins[i] = bin;
+    }
+
+    @Override
+    protected int getMultiplier(int i) {
+        return multipliers[i];
+    }
+
+    @Override
+    protected void setMultiplier(int i, int multiplier) {
+        multipliers[i] = multiplier;
+    }
+
+    @Override
+    protected int getRow(int i) {
+        return rows[i];
+    }
+
+    @Override
+    protected void setRow(int i, int row) {
+        rows[i] = row;
+    }
+
+    @Override
+    protected int getFactor(int k) {
+        return factors[k];
+    }
+
+    @Override
+    protected void setFactor(int k, int multiplier) {
+        factors[k] = multiplier;
+    }
+
+    @Override
+    protected double dot(int row, double[] w) {
+        return ARITHMETIC.dot(w, factors, row * numBins, numBins);
+    }
+
+    @Override
+    double[] getMeans() {
+        return means;
+    }
+
+    @Override
+    protected int getPrecisionBytes() {
+        return Double.BYTES;
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (capacity > means.length) {
+            capacity = Math.max(capacity, 2 * means.length);
+            means = Arrays.copyOf(means, capacity);
+            sigmas = Arrays.copyOf(sigmas, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            bins = Arrays.copyOf(bins, capacity);
+            multipliers = Arrays.copyOf(multipliers, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+        }
+    }
+
+    @Override
+    protected void ensureRowCapacity(int capacity) {
+        if (capacity * numBins > factors.length) {
+            factors = Arrays.copyOf(factors, 2 * capacity * numBins);
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the columns of a {@link KernelStore} outside of the heap, so
+ * that large mixtures neither count against the maximal heap size nor
+ * prolong garbage collections. Every kernel is a record of {@code
+ * recordSize} bytes in the buffer {@code kernels}: the mean and the
+ * bandwidth (doubles, or floats with single precision), followed by
+ * the key, the bin, the multiplier, and the row. The packed matrix of
+ * the dense factors is the buffer {@code factors}.
+ *
+ * If a directory is given, both buffers are memory-mapped files in this
+ * directory. Hence, the operating system may write the kernels to disk
+ * instead of keeping them in memory. Every store creates its two files
+ * when the first kernel is added, so empty stores (e.g., those of
+ * templates that are only copied) have no files. It maps larger regions
+ * of them when it grows. The files are deleted when the store is
+ * released (see {@link #release}), when a store that has not been
+ * released has become unreachable (see {@link #deleteUnreachableFiles}),
+ * and, at the latest, when the JVM exits. Otherwise, the buffers are
+ * direct buffers. When the store is serialized (e.g., when an estimator
+ * is copied), the kernels are written into the stream, and the
+ * deserialized store gets new buffers.
+ *
+ * Buffers that are replaced by larger ones, and the buffers of released
+ * stores, are not freed explicitly but left to the garbage collector.
+ * Hence, a thread that still reads a replaced buffer never accesses
+ * memory that has been freed.
+ *
+ * @author Michael Geilke
+ */
+public class BufferKernelStore extends KernelStore {
+
+    // layout of a kernel record (relative to the key)
+    private static final int KEY = 0;
+    private static final int BIN = 4;
+    private static final int MULTIPLIER = 8;
+    private static final int ROW = 12;
+
+    private final boolean singlePrecision;
+    private final int precisionBytes;  // of the mean and the bandwidth
+    private final int recordSize;
+
+    // the number of kernels for which the buffers are allocated when
+    // the first kernel is added
+    private int initialCapacity;
+
+    /**
+     * Buffers are allocated for at most this number of kernels at
+     * first, since off-heap memory is reserved eagerly.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The files of the stores that have not been released yet, which
+     * are enqueued in {@code unreachable} once their store has become
+     * unreachable. The remaining files are deleted by a single shutdown
+     * hook. {@link File#deleteOnExit} is not used, since it keeps every
+     * registered file until the JVM exits, even if it has been deleted
+     * long before.
+     */
+    private static final Set<StoreFiles> openFiles = 
+        ConcurrentHashMap.newKeySet();
+    private static final ReferenceQueue<BufferKernelStore> unreachable =
+        new ReferenceQueue<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (StoreFiles files : openFiles) {
+                files.delete();
+            }
+        }));
+    }
+
+    private File directory;
+
+    private transient ByteBuffer kernels;
+    private transient ByteBuffer factors;
+    private transient StoreFiles files;
+
+    /**
+     * @param numBins the number of bins in which the target variable is
+     * discretized
+     * @param capacity the initial number of kernels that can be stored
+     * without growing the buffers
+     * @param directory the directory of the memory-mapped files or null
+     * if direct buffers are supposed to be used
+     * @param singlePrecision true if the means and bandwidths are
+     * supposed to be stored as floats
+     * @throws UncheckedIOException if the files cannot be created
+     */
+    public BufferKernelStore(int numBins, int capacity, File directory,
+                             boolean singlePrecision) 
+            throws UncheckedIOException {
+        super(numBins);
+        this.directory = directory;
+        this.singlePrecision = singlePrecision;
+        this.precisionBytes = singlePrecision ? Float.BYTES : Double.BYTES;
+        this.recordSize = 2 * precisionBytes + 4 * Integer.BYTES;
+        this.initialCapacity = Math.max(16, Math.min(capacity, 
+                                                     INITIAL_CAPACITY));
+    }
+
+    /**
+     * @return the directory of the memory-mapped files or null if
+     * direct buffers are used
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return true if the buffers (and files) of this store have been
+     * allocated, which happens when the first kernel is added
+     */
+    public boolean isAllocated() {
+        return kernels != null;
+    }
+
+    /**
+     * @return the memory-mapped files of this store (the kernels and
+     * the packed matrix) or an empty array if there are none
+     */
+    public File[] getFiles() {
+        if (files == null) {
+            return new File[0];
+        }
+        return new File[] {files.kernelFile, files.factorFile};
+    }
+
+    private void allocateBuffers(int capacity, int rowCapacity) {
+        deleteUnreachableFiles();
+        try {
+            File kernelFile = null;
+            File factorFile = null;
+            if (directory != null) {
+                kernelFile = File.createTempFile("mideo-kernels-", ".bin",
+                                                 directory);
+                try {
+                    factorFile = File.createTempFile("mideo-factors-", 
+                                                     ".bin", directory);
+                } catch (IOException ex) {
+                    kernelFile.delete();
+                    throw ex;
+                }
+                files = new StoreFiles(this, kernelFile, factorFile);
+            }
+            kernels = allocate(kernelFile, capacity * recordSize);
+            factors = allocate(factorFile, 
+                               rowCapacity * numBins * Integer.BYTES);
+        } catch (IOException ex) {
+            release();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Frees the buffers and deletes the files of this store. The store
+     * must not be used afterwards. The memory of the buffers is
+     * reclaimed by the garbage collector. If a file cannot be deleted
+     * yet, it is deleted when the JVM exits.
+     */
+    @Override
+    public void release() {
+        kernels = null;
+        factors = null;
+        if (files != null) {
+            files.delete();
+            files = null;
+        }
+    }
+
+    /**
+     * Deletes the files of the stores that have become unreachable
+     * without being released. This happens whenever a store allocates
+     * its buffers, but it can also be called explicitly (e.g., after a
+     * model has been discarded and garbage collected).
+     *
+     * @return the number of stores whose files have been deleted
+     */
+    public static int deleteUnreachableFiles() {
+        int n = 0;
+        Reference<? extends BufferKernelStore> ref;
+        while ((ref = unreachable.poll()) != null) {
+            ((StoreFiles) ref).delete();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The files of a store, which are deleted once the store has been
+     * released or has become unreachable. The reference must not refer
+     * to the store strongly.
+     */
+    private static final class StoreFiles 
+            extends PhantomReference<BufferKernelStore> {
+
+        private final File kernelFile;
+        private final File factorFile;
+
+        StoreFiles(BufferKernelStore store, File kernelFile, 
+                   File factorFile) {
+            super(store, unreachable);
+            this.kernelFile = kernelFile;
+            this.factorFile = factorFile;
+            openFiles.add(this);
+        }
+
+        /*
+         * Deletes both files. If a file cannot be deleted, it is
+         * deleted by the shutdown hook.
+         */
+        void delete() {
+            clear();
+            boolean deleted = true;
+            for (File file : new File[] {kernelFile, factorFile}) {
+                deleted &= file.delete() || !file.exists();
+            }
+            if (deleted) {
+                openFiles.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Allocates a buffer of {@code bytes} bytes, which contains the
+     * content of {@code old} (if it is not null). A memory-mapped
+     * buffer is grown by mapping a larger region of the same file, so
+     * that nothing has to be copied. The old buffer remains valid until
+     * it is garbage collected.
+     */
+    private static ByteBuffer allocate(File file, ByteBuffer old, 
+                                       long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Kernel buffer exceeds 2 GB");
+        }
+        ByteBuffer buffer;
+        if (file != null) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(bytes);
+                // the mapping stays valid after the file is closed
+                buffer = raf.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect((int) bytes);
+            if (old != null) {
+                ByteBuffer src = old.duplicate();
+                src.clear();
+                buffer.put(src);
+                buffer.clear();
+            }
+        }
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer allocate(File file, long bytes) 
+            throws IOException {
+        return allocate(file, null, bytes);
+    }
+
+    @Override
+    public double getMean(int i) {
+        return getReal(i * recordSize);
+    }
+
+    @Override
+    protected void setMean(int i, double mean) {
+        putReal(i * recordSize, mean);
+    }
+
+    @Override
+    public double getSigma(int i) {
+        return getReal(i * recordSize + precisionBytes);
+    }
+
+    @Override
+    protected void setSigma(int i, double sigma) {
+        putReal(i * recordSize + precisionBytes, sigma);
+    }
+
+    private double getReal(int position) {
+        if (singlePrecision) {
+            return kernels.getFloat(position);
+        }
+        return kernels.getDouble(position);
+    }
+
+    private void putReal(int position, double value) {
+        if (singlePrecision) {
+            kernels.putFloat(position, (float) value);
+        } else {
+            kernels.putDouble(position, value);
+        }
+    }
+
+    /**
+     * @return the position of the integer columns of kernel {@code i}
+     */
+    private int ints(int i) {
+        return i * recordSize + 2 * precisionBytes;
+    }
+
+    @Override
+    public int getKey(int i) {
+        return kernels.getInt(ints(i) + KEY);
+    }
+
+    @Override
+    public void setKey(int i, int key) {
+        kernels.putInt(ints(i) + KEY, key);
+    }
+
+    @Override
+    protected int getBin(int i) {
+        return kernels.getInt(ints(i) + BIN);
+    }
+
+    @Override
+    protected void setBin(int i, int bin) {
+        kernels.putInt(ints(i) + BIN, bin);
+    }
+
+    @Override
+    protected int getMultiplier(int i) {
+        return kernels.getInt(ints(i) + MULTIPLIER);
+    }
+
+    @Override
+    protected void setMultiplier(int i, int multiplier) {
+        kernels.putInt(ints(i) + MULTIPLIER, multiplier);
+    }
+
+    @Override
+    protected int getRow(int i) {
+        return kernels.getInt(ints(i) + ROW);
+    }
+
+    @Override
+    protected void setRow(int i, int row) {
+        kernels.putInt(ints(i) + ROW, row);
+    }
+
+    @Override
+    protected int getFactor(int k) {
+        return factors.getInt(k * Integer.BYTES);
+    }
+
+    @Override
+    protected void setFactor(int k, int multiplier) {
+        factors.putInt(k * Integer.BYTES, multiplier);
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (kernels == null) {
+            allocateBuffers(Math.max(capacity, initialCapacity), 16);
+        }
+        int current = kernels.capacity() / recordSize;
+        if (capacity > current) {
+            long bytes = (long) Math.max(capacity, 2 * current) 
+                * recordSize;
+            try {
+                kernels = allocate(kernelFile(), kernels, bytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    @Override
+    protected void ensureRowCapacity(int capacity) {
+        if (factors == null) {
+            allocateBuffers(initialCapacity, Math.max(capacity, 16));
+        }
+        int rowBytes = numBins * Integer.BYTES;
+        int current = factors.capacity() / rowBytes;
+        if (capacity > current) {
+            long bytes = (long) Math.max(capacity, 2 * current) * rowBytes;
+            try {
+                factors = allocate(factorFile(), factors, bytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private File kernelFile() {
+        return files == null ? null : files.kernelFile;
+    }
+
+    private File factorFile() {
+        return files == null ? null : files.factorFile;
+    }
+
+    @Override
+    protected int getPrecisionBytes() {
+        return precisionBytes;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int i = 0; i < size; i++) {
+            out.writeDouble(getMean(i));
+            out.writeDouble(getSigma(i));
+            out.writeInt(getKey(i));
+            out.writeInt(getBin(i));
+            out.writeInt(getMultiplier(i));
+            out.writeInt(getRow(i));
+        }
+        for (int k = 0; k < numRows * numBins; k++) {
+            out.writeInt(getFactor(k));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) 
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (size == 0 && numRows == 0) {
+            return;
+        }
+        allocateBuffers(Math.max(16, size), Math.max(16, numRows));
+        for (int i = 0; i < size; i++) {
+            setMean(i, in.readDouble());
+            setSigma(i, in.readDouble());
+            setKey(i, in.readInt());
+            setBin(i, in.readInt());
+            setMultiplier(i, in.readInt());
+            setRow(i, in.readInt());
+        }
+        for (int k = 0; k < numRows * numBins; k++) {
+            setFactor(k, in.readInt());
+        }
+    }
+}
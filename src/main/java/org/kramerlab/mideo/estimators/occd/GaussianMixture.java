@@ -23,14 +23,12 @@
  */
 package org.kramerlab.mideo.estimators.occd;
 
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.io.File;
 import java.io.Serializable;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import org.kramerlab.mideo.core.Mergeable;
 
 /**
  * GaussianMixture compresses a set of kernels to fewer kernels. First,
@@ -43,13 +41,41 @@ import org.apache.logging.log4j.Logger;
  * and Sam Roweis and has been published in the paper "Hierarchical
  * Clustering of a Mixture Model".
  *
+ * The kernels are not stored as objects, but in the primitive columns
+ * of a {@link KernelStore}, where every kernel knows the micro-cluster
+ * it belongs to. A compression writes the compressed kernels into a
+ * second store, which is then swapped with the first one, so that the
+ * memory is reused.
+ *
  * @author Michael Geilke
  */
-public class GaussianMixture implements Serializable {
+public class GaussianMixture implements Serializable, 
+                                        Mergeable<GaussianMixture> {
+
+    private KernelStore store;
+
+    /**
+     * Where the kernels are stored (see {@link #setKernelStorage}) and
+     * whether their means and bandwidths are stored as floats (see
+     * {@link #setSinglePrecision}).
+     */
+    private KernelStore.Storage storage;
+    private File directory;
+    private boolean singlePrecision;
 
-    private Logger logger = LogManager.getLogger();
+    /**
+     * The store into which kernels are compressed. It is only needed
+     * during a compression and therefore not serialized.
+     */
+    private transient KernelStore scratch;
 
-    private Map<Integer, MicroCluster> microClusters;
+    /**
+     * Buffers that are reused by the compression: the kernel indices
+     * sorted by micro-clusters (see {@link #sortByMicroCluster}) and the
+     * factor of a compressed kernel.
+     */
+    private transient long[] order;
+    private transient int[] beta;
 
     /**
      * To cluster kernels, we employ MStream and map the kernels into a
@@ -83,22 +109,93 @@ public class GaussianMixture implements Serializable {
     private int maxNumberOfKernels;
 
     /**
-     * If sigma has not been set yet, we use a default value that has
-     * been estimated from a few instances from a stream prefix.
+     * The bandwidth that is used to evaluate the kernels. It has been
+     * estimated from a few instances from a stream prefix. Kernels
+     * without bandwidth (i.e., kernels that have not been compressed
+     * yet) also use it for compressions.
      */
     private double defaultSigma;
 
+    /**
+     * If {@code truncation} is positive, only the kernels whose means
+     * are at most {@code truncation} bandwidths away from the queried
+     * value are evaluated. To find them quickly, the kernel indices are
+     * kept in an array sorted by their means ({@code sortedIndices} and
+     * {@code sortedMeans}, where only the first {@code numSorted}
+     * elements are used). Kernel i is at position {@code positions[i]}
+     * of the index. The index is rebuilt after compressions.
+     */
+    private double truncation;
+    private int[] sortedIndices;
+    private double[] sortedMeans;
+    private int[] positions;
+    private int numSorted;
+    private boolean indexValid;
+
+    /**
+     * If {@code interpolationTolerance} is positive, the per-bin
+     * densities are precomputed on a grid after the kernels changed,
+     * and queries are answered by interpolation (see {@link
+     * #setInterpolationTolerance}). The table is derived from the
+     * kernels and therefore not serialized.
+     */
+    private double interpolationTolerance;
+    private transient InterpolationTable table;
+
+    /**
+     * Kernels further away than TABLE_RADIUS bandwidths are ignored when
+     * the interpolation table is built (their contribution is below
+     * e^{-32} of their peak value). The grid starts with a spacing of
+     * half a bandwidth, which is refined at most down to 1/256 of a
+     * bandwidth (intervals that are still not accurate enough are
+     * evaluated exactly), and it has at most MAX_KNOTS knots.
+     */
+    private static final double TABLE_RADIUS = 8.0;
+    private static final int MAX_REFINEMENTS = 7;
+    private static final int MAX_KNOTS = 1 << 16;
+
+    /**
+     * The number of kernels whose weights are gathered at once by
+     * {@link #evaluate}.
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    private static final KernelArithmetic ARITHMETIC = 
+        KernelArithmetic.getInstance();
+
+    /**
+     * If {@code incremental} is true, the kernels are not compressed in
+     * stages, but the two neighbouring kernels (with respect to their
+     * means) that are cheapest to merge are merged whenever there are
+     * more than {@code maxNumberOfKernels} kernels (see {@link
+     * #setIncrementalCompression}). The pairs of neighbouring kernels
+     * are kept in the priority queue {@code candidates}, which is
+     * invalidated lazily: Every kernel gets a new version whenever it
+     * changes, and a candidate is skipped if the version of one of its
+     * kernels has changed or if the kernels are no longer adjacent in
+     * the index. Both are derived from the kernels and therefore not
+     * serialized.
+     */
+    private boolean incremental;
+    private transient PriorityQueue<MergeCandidate> candidates;
+    private transient long[] versions;
+    private transient long nextVersion;
+
     /**
      * @param maxNumberOfKernels if maxNumberOfKernels many kernels are
      * currently stored, a compression is initiated.
      * @param defaultSigma one parameter of the kernel is the bandwidth
      * sigma. If sigma has not been set yet, we use a default value that
      * has been estimated from a few instances from a stream prefix.
+     * @param numBins the number of bins in which the target variable is
+     * discretized
      */
-    public GaussianMixture(int maxNumberOfKernels, double defaultSigma) {
+    public GaussianMixture(int maxNumberOfKernels, double defaultSigma,
+                           int numBins) {
 	this.maxNumberOfKernels = maxNumberOfKernels;
         this.defaultSigma = defaultSigma;
-        this.microClusters = new HashMap<>();
+        this.storage = KernelStore.Storage.HEAP;
+        this.store = createStore(numBins, maxNumberOfKernels + 1);
 	this.partitionGranularity = 1000;
         this.numberOfKernels = 0;
         this.totalNumberOfKernels = 0;
@@ -111,18 +208,231 @@ public class GaussianMixture implements Serializable {
      */
     public void setDefaultSigma(double sigma) {
         this.defaultSigma = sigma;
+        this.table = null;
     }
 
     /**
+     * Answers queries by interpolation between precomputed per-bin
+     * densities. Let {@literal g_b(y)} be the density of the kernels
+     * for bin b, so that {@link #evaluate} is {@literal \sum_b w_b
+     * g_b(y)}. After the kernels or the bandwidth changed, {@literal
+     * g_b} is computed at the knots of a grid covering all kernels,
+     * which is refined adaptively: An interval is split as long as the
+     * linear interpolation at its midpoint deviates by more than {@code
+     * tolerance} times the highest per-bin density from the exact
+     * value. Hence, the absolute error of {@link #evaluate} is about
+     * {@code tolerance * max_{b,y} g_b(y) * \sum_b w_b} or less. An
+     * interval is split at most MAX_REFINEMENTS times; values in
+     * intervals that still exceed the tolerance, values outside of the
+     * grid, and log-densities that are not clearly larger than the
+     * error are computed exactly.
      *
+     * @param tolerance the tolerance relative to the highest per-bin
+     * density (0 means that queries are answered exactly)
+     * @throws IllegalArgumentException if {@code tolerance} is negative
      */
-    public int determineNumberOfKernels() {
-        int numberOfKernels = 0;
-        for (Integer k : microClusters.keySet()) {
-            MicroCluster microCluster = microClusters.get(k);
-            numberOfKernels += microCluster.size();
+    public void setInterpolationTolerance(double tolerance) 
+            throws IllegalArgumentException {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("negative tolerance");
+        }
+        this.interpolationTolerance = tolerance;
+        this.table = null;
+    }
+
+    /**
+     * @return the interpolation table for the current kernels or null
+     * if interpolation is disabled or the table cannot be built
+     */
+    public InterpolationTable getInterpolationTable() {
+        if (interpolationTolerance > 0 && table == null) {
+            table = buildTable();
+        }
+        return table;
+    }
+
+    /**
+     * Builds the index of the kernels and the interpolation table,
+     * which are otherwise built by the first query after an update.
+     * Afterwards, {@link #evaluate} and {@link #logEvaluate} do not
+     * change the mixture until it is updated again, so that several
+     * threads can evaluate it at the same time.
+     */
+    public void prepareEvaluation() {
+        ensureIndex();
+        getInterpolationTable();
+    }
+
+    /**
+     * Restricts the evaluation to the kernels whose means are at most
+     * {@code c} bandwidths away from the queried value, so that a query
+     * costs O(log n + m) for n kernels, m of which are within the
+     * range, instead of O(n). Every kernel that is left out
+     * contributes at most {@literal \frac{e^{-c^2/2}}{sigma
+     * \sqrt{2\pi}}} times its weight, i.e., a fraction of at most
+     * {@literal e^{-c^2/2}} of its peak value. Hence, the absolute
+     * error of {@link #evaluate} is bounded by {@literal
+     * \frac{e^{-c^2/2}}{sigma \sqrt{2\pi}} \cdot \frac{1}{n}
+     * \sum_i w_i}, where the sum ranges over the weights of the
+     * omitted kernels. For c = 6, a kernel is truncated at less than
+     * 1.6e-8 of its peak value.
+     *
+     * @param c the number of bandwidths (0 means that all kernels are
+     * evaluated)
+     * @throws IllegalArgumentException if {@code c} is negative
+     */
+    public void setTruncation(double c) throws IllegalArgumentException {
+        if (c < 0) {
+            throw new IllegalArgumentException("negative truncation");
+        }
+        this.truncation = c;
+        this.indexValid = false;
+    }
+
+    /**
+     * @return the number of bandwidths within which kernels are
+     * evaluated (0 means that all kernels are evaluated)
+     */
+    public double getTruncation() {
+        return truncation;
+    }
+
+    /**
+     * Replaces the staged compression, which compresses all
+     * micro-clusters at once whenever the maximal number of kernels is
+     * exceeded, by an incremental one: Each time a kernel is added and
+     * the maximal number of kernels is exceeded, the pair of
+     * neighbouring kernels with the smallest merge cost is merged into
+     * a single kernel, whose moments are those of the pair (see {@link
+     * #compress}). The cost of merging kernels i and j is the increase
+     * of the weighted variance of the means, {@literal \frac{\alpha_i
+     * \alpha_j}{\alpha_i + \alpha_j} (\mu_i - \mu_j)^2}. Hence, the
+     * number of kernels never exceeds the maximum, and an insertion
+     * costs O(log n) (plus moving the index entries), instead of
+     * occasional compressions that cost O(n log n).
+     *
+     * @param incremental true if the kernels are supposed to be merged
+     * incrementally
+     * @throws IllegalStateException if kernels have already been added
+     */
+    public void setIncrementalCompression(boolean incremental) 
+            throws IllegalStateException {
+        if (store.size() > 0) {
+            String msg = "Compression cannot be changed after kernels "
+                + "have been added";
+            throw new IllegalStateException(msg);
+        }
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return true if the kernels are merged incrementally
+     */
+    public boolean isIncrementalCompression() {
+        return incremental;
+    }
+
+    /**
+     * Changes where the kernels are stored. Kernels stored outside of
+     * the heap are evaluated and compressed in the same way as kernels
+     * on the heap. Only the index used for truncated evaluation and
+     * incremental compression (12 bytes per kernel) and the buffers of
+     * the staged compression remain on the heap.
+     *
+     * @param storage where the kernels are stored
+     * @param directory the directory of the files if {@code storage} is
+     * {@code MAPPED} (null means the directory for temporary files)
+     * @throws IllegalStateException if kernels have already been added
+     */
+    public void setKernelStorage(KernelStore.Storage storage, 
+                                 File directory) 
+            throws IllegalStateException {
+        checkEmpty();
+        this.storage = storage;
+        this.directory = directory;
+        replaceStore();
+    }
+
+    /**
+     * Stores the means and bandwidths of the kernels as floats instead
+     * of doubles (see {@link FloatArrayKernelStore}). The computations
+     * are still carried out with doubles.
+     *
+     * @param singlePrecision true if single precision is supposed to
+     * be used
+     * @throws IllegalStateException if kernels have already been added
+     */
+    public void setSinglePrecision(boolean singlePrecision) 
+            throws IllegalStateException {
+        checkEmpty();
+        this.singlePrecision = singlePrecision;
+        replaceStore();
+    }
+
+    /**
+     * Replaces the (empty) stores by a store of the current storage
+     * and precision. The old stores are released, so that their
+     * off-heap memory and files do not remain until the JVM exits.
+     */
+    private void replaceStore() {
+        KernelStore old = store;
+        this.store = createStore(old.getNumberOfBins(), 
+                                 maxNumberOfKernels + 1);
+        old.release();
+        if (scratch != null) {
+            scratch.release();
+            this.scratch = null;
+        }
+    }
+
+    /**
+     * @return true if the means and bandwidths are stored as floats
+     */
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * @return the number of bytes occupied by the kernels (see {@link
+     * KernelStore#getBytes})
+     */
+    public long getKernelBytes() {
+        return store.getBytes();
+    }
+
+    /**
+     * @return the number of bytes saved by the precision of the kernels
+     * (see {@link KernelStore#getSavedBytes})
+     */
+    public long getSavedKernelBytes() {
+        return store.getSavedBytes();
+    }
+
+    private void checkEmpty() throws IllegalStateException {
+        if (store.size() > 0) {
+            String msg = "Storage cannot be changed after kernels "
+                + "have been added";
+            throw new IllegalStateException(msg);
         }
-        return numberOfKernels;
+    }
+
+    /**
+     * @return where the kernels are stored
+     */
+    public KernelStore.Storage getKernelStorage() {
+        return storage;
+    }
+
+    private KernelStore createStore(int numBins, int capacity) {
+        return KernelStore.create(storage, numBins, capacity, directory,
+                                  singlePrecision);
+    }
+
+    /**
+     * @return the current number of kernels
+     */
+    public int determineNumberOfKernels() {
+        return store.size();
     }
 
     /**
@@ -130,36 +440,105 @@ public class GaussianMixture implements Serializable {
      * kernel compression if necessary.
      * @param kernel a kernel that is supposed to be added to the
      * Gaussian mixture model.
+     * @throws IllegalArgumentException if the kernel has no weight or
+     * its weight does not match the number of discretization bins
+     */
+    public void add(Kernel kernel) throws IllegalArgumentException {
+        KernelFactor weight = kernel.getWeight();
+        if (weight == null 
+                || weight.getNumberOfBins() != store.getNumberOfBins()) {
+            String msg = "Weight does not match Gaussian mixture";
+            throw new IllegalArgumentException(msg);
+        }
+        int[] factor = new int[weight.getNumberOfBins()];
+        for (int b = 0; b < factor.length; b++) {
+            factor[b] = weight.getMultiplier(b);
+        }
+        double sigma = kernel.getVariance() == null 
+            ? Double.NaN : kernel.getVariance();
+        int i = store.add(kernel.getMean(), sigma, 
+                          determinePosition(kernel.getMean()), factor);
+        added(i);
+    }
+
+    /**
+     * Adds a kernel that has been created from a single instance, i.e.,
+     * its weight is 1 for the bin of the instance and 0 for all other
+     * bins.
+     * @param mean the value of the target variable
+     * @param bin the discretization bin of the target variable
+     */
+    public void add(double mean, int bin) {
+        int i = store.addSparse(mean, Double.NaN, determinePosition(mean),
+                                bin, 1);
+        added(i);
+    }
+
+    /**
+     * Adds the kernels of {@code other} to this Gaussian mixture model,
+     * one after another, so that compressions are initiated as if they
+     * had been added by {@link #add}. Kernels that have not been
+     * compressed yet keep using the default bandwidth of this model.
+     * The total number of kernels is increased by the one of {@code
+     * other}, since a compressed kernel stands for several added
+     * kernels. {@code other} is not changed.
+     * @param other a Gaussian mixture model with the same number of
+     * bins
+     * @throws IllegalArgumentException if the numbers of bins differ or
+     * {@code other} is this model
+     */
+    @Override
+    public void merge(GaussianMixture other) throws IllegalArgumentException {
+        if (other == this 
+                || other.store.getNumberOfBins() != store.getNumberOfBins()) {
+            String msg = "Gaussian mixture cannot be merged";
+            throw new IllegalArgumentException(msg);
+        }
+        for (int j = 0; j < other.store.size(); j++) {
+            inserted(store.copy(other.store, j));
+        }
+        totalNumberOfKernels += other.totalNumberOfKernels;
+    }
+
+    /**
+     * Maps a kernel to a position in the metric space. Kernels that
+     * have the same position in this space are assumed to belong to
+     * the same micro-cluster.
      */
-    public void add(Kernel kernel) {
-        // Map the kernel to a position in the metric space and store
-        // the kernel into the corresponding micro-cluster. Kernels that
-        // have the same position in this space are assumed to belong to
-        // the same micro-cluster.
-        int position = 0;
-	if (kernel.getMean() > partitionGranularity) {
-	    position = (int) (kernel.getMean() / partitionGranularity);
+    private int determinePosition(double mean) {
+	if (mean > partitionGranularity) {
+	    return (int) (mean / partitionGranularity);
 	} else {
-	    position = (int) (kernel.getMean() * partitionGranularity);
+	    return (int) (mean * partitionGranularity);
 	}
-        if (!microClusters.containsKey(position)) {
-            MicroCluster microCluster = new MicroCluster();
-            microClusters.put(position, microCluster);
-        }
-        microClusters.get(position).add(kernel);
-        numberOfKernels++;
+    }
+
+    private void added(int i) {
 	totalNumberOfKernels++;
+        inserted(i);
+    }
+
+    /**
+     * Updates the index and initiates a compression if necessary after
+     * kernel {@code i} has been inserted into the store. The total
+     * number of kernels is not changed.
+     */
+    private void inserted(int i) {
+        table = null;
+        numberOfKernels++;
+        if (indexValid) {
+            insertIntoIndex(i);
+        }
+        if (incremental) {
+            mergeIncrementally(i);
+            return;
+        }
 
         // If the number of kernels exceeded the maximal number of
         // permitted kernels, we initiate a compression.
-        try {
-            if (numberOfKernels > maxNumberOfKernels) {
-                stage1Compression();
-                stage2Compression();
-            }
-        } catch (IllegalArgumentException ex) {
-            logger.error(ex.toString());
-            System.exit(1);
+        if (numberOfKernels > maxNumberOfKernels) {
+            stage1Compression();
+            stage2Compression();
         }
     }
     
@@ -167,33 +546,36 @@ public class GaussianMixture implements Serializable {
      * Stage 1 compression: Compresses the kernels in each micro-cluster
      * to a single kernel.  
      */
-     private void stage1Compression() throws IllegalArgumentException {
-        Map<Integer, MicroCluster> newMicroClusters = new HashMap<>();
-
-        // Compress micro clusters in microClusters.
-        for (Integer k : microClusters.keySet()) {
-            MicroCluster microCluster = microClusters.get(k);
-            // We can assume that microCluster contains at least one
-            // element (we know that because we manage the objects).
-            int numBins = microCluster.get(0).getWeight().getNumberOfBins();
+    private void stage1Compression() {
+        int n = store.size();
+        sortByMicroCluster(n);
+        if (scratch == null) {
+            scratch = createStore(store.getNumberOfBins(), n);
+        }
+        scratch.clear();
 
-            MicroCluster newMicroCluster;
-            if (microCluster.size() > 1) {
-                newMicroCluster = microCluster.compress(defaultSigma, numBins);
+        // compress every run of kernels belonging to the same
+        // micro-cluster
+        int start = 0;
+        while (start < n) {
+            int key = (int) (order[start] >> 32);
+            int end = start + 1;
+            while (end < n && (int) (order[end] >> 32) == key) {
+                end++;
+            }
+            if (end - start > 1) {
+                compress(start, end, key);
             } else {
-                newMicroCluster = new MicroCluster();
-                newMicroCluster.add(microCluster.get(0)); // cannot be empty
+                scratch.copy(store, (int) order[start]);
             }
-            newMicroClusters.put(k, newMicroCluster);
+            start = end;
         }
-        microClusters = newMicroClusters;
 
-        // Determines the current number of kernels.
-        int numberOfKernels = 0;
-        for (MicroCluster microCluster : microClusters.values()) {
-            numberOfKernels += microCluster.size();
-        }
-        this.numberOfKernels = numberOfKernels;
+        KernelStore compressed = scratch;
+        this.scratch = store;
+        this.store = compressed;
+        this.numberOfKernels = store.size();
+        this.indexValid = false;
     }
 
     /**
@@ -209,19 +591,10 @@ public class GaussianMixture implements Serializable {
         // We increase the partitionGranularity and compress the kernels
         // in the resulting micro clusters.
         while (numberOfKernels > (maxNumberOfKernels / 2)) {
-            Map<Integer, MicroCluster> newMicroClusters = new HashMap<>();
-            for (Integer k : microClusters.keySet()) {
-                MicroCluster microCluster = microClusters.get(k);
-                int position = (int) (k / (partitionGranularity * l));
-                if (!newMicroClusters.containsKey(position)) {
-                    MicroCluster newMicroCluster = new MicroCluster();
-                    newMicroClusters.put(position, newMicroCluster);
-                }
-                for (Kernel kernel : microCluster) {
-                    newMicroClusters.get(position).add(kernel);
-                }
+            for (int i = 0; i < store.size(); i++) {
+                int k = store.getKey(i);
+                store.setKey(i, (int) (k / (partitionGranularity * l)));
             }
-            this.microClusters = newMicroClusters;
             stage1Compression();
             l++;
         }
@@ -229,125 +602,724 @@ public class GaussianMixture implements Serializable {
         // If stage2 compression has been used, re-hash micro-clusters using
         // partitionGranularity.
         if (l > 2) {
-            Map<Integer, MicroCluster> newMicroClusters = new HashMap<>();
-            for (Integer k : microClusters.keySet()) {
-                int position = (int) (k / (partitionGranularity * l));
-                newMicroClusters.put(position, microClusters.get(k));
+            for (int i = 0; i < store.size(); i++) {
+                int k = store.getKey(i);
+                store.setKey(i, (int) (k / (partitionGranularity * l)));
+            }
+        }
+    }
+
+    /**
+     * Sorts the first {@code n} kernel indices by their micro-clusters
+     * and stores them in {@code order}, where the upper 32 bits of an
+     * element contain the micro-cluster and the lower 32 bits the
+     * index.
+     */
+    private void sortByMicroCluster(int n) {
+        if (order == null || order.length < n) {
+            order = new long[Math.max(n, maxNumberOfKernels + 1)];
+        }
+        for (int i = 0; i < n; i++) {
+            order[i] = ((long) store.getKey(i) << 32) | i;
+        }
+        Arrays.sort(order, 0, n);
+    }
+
+    /**
+     * Compresses the kernels {@code order[start..end-1]} of a
+     * micro-cluster to a single kernel, which is added to {@code
+     * scratch}. It is an implementation of a method proposed by
+     * Goldberger and Roweis, who presented an approach that allowed to
+     * compress a Gaussian mixture model with k d-dimensional components
+     * to a l components. For now, we only consider a Gaussian mixture
+     * with one-dimensional components, which are compressed to one
+     * component.
+     *
+     * Jacob Goldberger and Sam Roweis. "Hierarchical Clustering of a
+     * Mixture Model".
+     */
+    private void compress(int start, int end, int key) {
+        // Given is a Gaussian mixture model of the form 
+        // f(y) = \sum_{i=1}^k \alpha_i N(y; \mu_i, \sigma_i).
+        // We compress f(y) to
+        // f^\prime(y) = \sum_{j=1}^l \beta_j N(y;\mu^\prime_j,
+        // \sigma^\prime_j).  
+        // As noted above, $l$ is in our case $1$.
+        int numBins = store.getNumberOfBins();
+        if (beta == null || beta.length != numBins) {
+            beta = new int[numBins];
+        }
+
+        // beta_j = \sum_{i=1}^k \alpha_i
+        //
+        // \mu^\prime_j = \frac{1}{\beta_j} \sum_{i=1}^k \alpha_i
+        // \mu_i
+        //
+        // \alpha_i contains variables that are not known when
+        // compressing kernels. Therefore, we set these variables to
+        // 1, thereby assuming that each original kernel has the
+        // same weight. If a kernel resulted from a compression, the
+        // weight of this compressed kernel is the number of kernels
+        // from which the compression has been created.
+        Arrays.fill(beta, 0);
+        double muPrime = 0.0;
+        double normalizingFactor = 0.0;
+        for (int k = start; k < end; k++) {
+            int i = (int) order[k];
+            for (int b = 0; b < numBins; b++) {
+                beta[b] += store.getMultiplier(i, b);
+            }
+            double alpha_i = store.getAlpha(i);
+            muPrime += alpha_i * store.getMean(i);
+            normalizingFactor += alpha_i;
+        }
+        muPrime /= normalizingFactor;
+
+        // \sigma^\prime_j = \frac{1}{\beta_j} \sum_{i=1}^k \alpha_i
+        // \cdot (\sigma_i + (\mu_i - muPrime_j)^2)
+        double sigmaPrime = 0.0;
+        for (int k = start; k < end; k++) {
+            int i = (int) order[k];
+            double mu_i = store.getMean(i);
+            double alpha_i = store.getAlpha(i);
+            double sigma_i = store.getSigma(i);
+            if (Double.isNaN(sigma_i)) {
+                sigma_i = defaultSigma;
+            }
+            sigmaPrime += alpha_i * (sigma_i + (mu_i - muPrime) 
+                                               * (mu_i - muPrime));
+        }
+        sigmaPrime /= normalizingFactor;
+        sigmaPrime = Math.sqrt(sigmaPrime);
+
+        scratch.add(muPrime, sigmaPrime, key, beta);
+    }
+
+    /**
+     * Inserts the pairs of kernel {@code i} and its neighbours into the
+     * priority queue and merges the cheapest pairs until there are at
+     * most {@code maxNumberOfKernels} kernels.
+     *
+     * @param i the index of a kernel that has been added to the store
+     */
+    private void mergeIncrementally(int i) {
+        if (candidates == null) {
+            rebuildCandidates();
+        } else {
+            ensureIndex();
+            touch(i);
+            offerNeighbours(i);
+        }
+        while (store.size() > maxNumberOfKernels) {
+            MergeCandidate c = candidates.poll();
+            if (c == null) {
+                rebuildCandidates();
+            } else if (isValid(c)) {
+                merge(c.left, c.right);
+            }
+        }
+        numberOfKernels = store.size();
+
+        // Invalid candidates are only removed when they are polled, so
+        // we drop them from time to time.
+        if (candidates.size() > 4 * (store.size() + 4)) {
+            rebuildCandidates();
+        }
+    }
+
+    /**
+     * Merges kernel {@code right} into its left neighbour {@code left}
+     * and removes it. The merged kernel has the same moments as the
+     * pair (see {@link #compress}).
+     */
+    private void merge(int left, int right) {
+        double alphaL = store.getAlpha(left);
+        double alphaR = store.getAlpha(right);
+        double alpha = alphaL + alphaR;
+        double meanL = store.getMean(left);
+        double meanR = store.getMean(right);
+        double mean = (meanL + meanR) / 2;
+        double sigma = defaultSigma;
+        if (alpha > 0) {
+            // Rounding must not move the mean past a neighbour.
+            mean = (alphaL * meanL + alphaR * meanR) / alpha;
+            mean = Math.min(Math.max(mean, meanL), meanR);
+            double sigmaL = store.getSigma(left);
+            double sigmaR = store.getSigma(right);
+            if (Double.isNaN(sigmaL)) {
+                sigmaL = defaultSigma;
+            }
+            if (Double.isNaN(sigmaR)) {
+                sigmaR = defaultSigma;
             }
-            this.microClusters = newMicroClusters;
+            sigma = alphaL * (sigmaL + (meanL - mean) * (meanL - mean))
+                + alphaR * (sigmaR + (meanR - mean) * (meanR - mean));
+            sigma = Math.sqrt(sigma / alpha);
+        }
+
+        // The kernels are adjacent in the index, and the merged kernel
+        // takes the position of the left one. The index must contain
+        // the mean as it has been stored (e.g., rounded to a float).
+        int pos = positionOf(left);
+        store.merge(left, right, mean, sigma);
+        sortedMeans[pos] = store.getMean(left);
+        System.arraycopy(sortedIndices, pos + 2, sortedIndices, pos + 1,
+                         numSorted - pos - 2);
+        System.arraycopy(sortedMeans, pos + 2, sortedMeans, pos + 1,
+                         numSorted - pos - 2);
+        numSorted--;
+        updatePositions(pos + 1);
+
+        // The last kernel is moved to the index of the removed one.
+        int moved = store.remove(right);
+        int merged = left;
+        if (moved == left) {
+            merged = right;
+        }
+        if (moved >= 0) {
+            int movedPos = positionOf(moved);
+            sortedIndices[movedPos] = right;
+            positions[right] = movedPos;
+            touch(right);
+            offerNeighbours(right);
+        }
+        if (merged != right) {
+            touch(merged);
+            offerNeighbours(merged);
+        }
+    }
+
+    /**
+     * Assigns a new version to kernel {@code i}, which invalidates all
+     * candidates that contain it.
+     */
+    private void touch(int i) {
+        if (versions == null || versions.length <= i) {
+            int capacity = Math.max(i + 1, maxNumberOfKernels + 1);
+            versions = versions == null ? new long[capacity]
+                : Arrays.copyOf(versions, Math.max(capacity, 
+                                                   2 * versions.length));
+        }
+        versions[i] = ++nextVersion;
+    }
+
+    /**
+     * Inserts the pairs of kernel {@code i} and its left and right
+     * neighbour into the priority queue.
+     */
+    private void offerNeighbours(int i) {
+        int pos = positionOf(i);
+        if (pos > 0) {
+            offer(sortedIndices[pos - 1], i);
+        }
+        if (pos + 1 < numSorted) {
+            offer(i, sortedIndices[pos + 1]);
+        }
+    }
+
+    private void offer(int left, int right) {
+        double alphaL = store.getAlpha(left);
+        double alphaR = store.getAlpha(right);
+        double cost = 0.0;
+        if (alphaL + alphaR > 0) {
+            double d = store.getMean(left) - store.getMean(right);
+            cost = alphaL * alphaR / (alphaL + alphaR) * d * d;
+        }
+        candidates.add(new MergeCandidate(cost, left, versions[left], 
+                                          right, versions[right]));
+    }
+
+    /**
+     * @return true if the kernels of {@code c} have not changed since
+     * it has been created and are still adjacent
+     */
+    private boolean isValid(MergeCandidate c) {
+        int n = store.size();
+        if (c.left >= n || c.right >= n 
+                || versions[c.left] != c.leftVersion
+                || versions[c.right] != c.rightVersion) {
+            return false;
+        }
+        int pos = positionOf(c.left);
+        return pos + 1 < numSorted && sortedIndices[pos + 1] == c.right;
+    }
+
+    /**
+     * Rebuilds the priority queue from the pairs of kernels that are
+     * adjacent in the index.
+     */
+    private void rebuildCandidates() {
+        ensureIndex();
+        int n = store.size();
+        if (versions == null || versions.length < n) {
+            long[] v = new long[Math.max(n, maxNumberOfKernels + 1)];
+            if (versions != null) {
+                System.arraycopy(versions, 0, v, 0, versions.length);
+            }
+            versions = v;
+        }
+        candidates = new PriorityQueue<>(Math.max(1, 2 * n));
+        for (int k = 0; k + 1 < numSorted; k++) {
+            offer(sortedIndices[k], sortedIndices[k + 1]);
+        }
+    }
+
+    /**
+     * A pair of neighbouring kernels and the cost of merging them.
+     */
+    private static final class MergeCandidate 
+            implements Comparable<MergeCandidate> {
+
+        final double cost;
+        final int left;
+        final long leftVersion;
+        final int right;
+        final long rightVersion;
+
+        MergeCandidate(double cost, int left, long leftVersion, 
+                       int right, long rightVersion) {
+            this.cost = cost;
+            this.left = left;
+            this.leftVersion = leftVersion;
+            this.right = right;
+            this.rightVersion = rightVersion;
+        }
+
+        @Override
+        public int compareTo(MergeCandidate other) {
+            return Double.compare(cost, other.cost);
         }
     }
 
     /**
      * Computes {@literal f_{kernel} (y | X) = \frac{1}{n} \sum_{i=0}^n
      * w(y_i | X) \cdot N(y; y_i, sigma_kernel^2)} where {@literal
-     * sigma_kernel = \frac{sigma_x}{n^{\frac{1}{4}}}}.
+     * sigma_kernel = \frac{sigma_x}{n^{\frac{1}{4}}}}. All kernels are
+     * evaluated with the default bandwidth.
      * @param y target variable
      * @param w weights of the bins of the target variable
+     * @throws IllegalArgumentException if the weight vector does not
+     * match the number of discretization bins.
      */
     public double evaluate(double y, double[] w) 
             throws IllegalArgumentException {
+        checkWeights(w);
+        InterpolationTable t = getInterpolationTable();
+        if (t != null) {
+            double p = t.evaluate(y, w);
+            if (!Double.isNaN(p)) {
+                return p;
+            }
+        }
+        double sigma = defaultSigma;
+        double scale = 1.0 / (2 * sigma * sigma);
+
+        // The kernels are evaluated in blocks: the weights of a block
+        // are gathered into an array, so that the sum of the Gaussians
+        // is a loop over primitive arrays (see KernelArithmetic).
+        int from = 0;
+        int to = store.size();
+        int[] indices = null;
+        double[] means = store.getMeans();
+        if (truncation > 0) {
+            from = lowerBound(y - truncation * sigma);
+            to = upperBound(y + truncation * sigma);
+            indices = sortedIndices;
+            means = sortedMeans;
+        }
+        double[] weights = new double[Math.min(BLOCK_SIZE, to - from)];
+        // If the means are not stored in an array, they are gathered as
+        // well.
+        double[] block = means == null ? new double[weights.length] : null;
         double p = 0.0;
-        for (MicroCluster microCluster : microClusters.values()) {
-            for (Kernel kernel : microCluster) {
-		kernel.setVariance(defaultSigma); // TODO always possible?
-                double value = kernel.evaluate(y, w);
-                p += kernel.evaluate(y, w);
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - start);
+            store.getWeights(indices, start, length, w, weights);
+            if (block != null) {
+                store.getMeans(start, length, block);
+                p += ARITHMETIC.sumGaussians(block, 0, weights, length, 
+                                             y, scale);
+            } else {
+                p += ARITHMETIC.sumGaussians(means, start, weights, length,
+                                             y, scale);
             }
         }
+        p /= sigma * Math.sqrt(2 * Math.PI);
 
         return p / totalNumberOfKernels;
     }
-    
-    public class MicroCluster extends ArrayList<Kernel> {
+
+    /**
+     * Computes the logarithm of {@link #evaluate}. The kernels are
+     * summed up in log space (log-sum-exp), where the sum is shifted
+     * by the largest term seen so far. Hence, the result is finite
+     * even if every single kernel underflows in linear space.
+     * @param y target variable
+     * @param w weights of the bins of the target variable
+     * @throws IllegalArgumentException if the weight vector does not
+     * match the number of discretization bins.
+     */
+    public double logEvaluate(double y, double[] w) 
+            throws IllegalArgumentException {
+        checkWeights(w);
+        InterpolationTable t = getInterpolationTable();
+        if (t != null) {
+            // The relative error of small densities may be large, so
+            // we only take the interpolation if the density clearly
+            // exceeds the (absolute) error.
+            double p = t.evaluate(y, w);
+            if (p > 100 * t.getErrorScale()) {
+                return Math.log(p);
+            }
+        }
+        double sigma = defaultSigma;
+        double scale = 1.0 / (2 * sigma * sigma);
+
+        int from = 0;
+        int to = store.size();
+        boolean sorted = false;
+        if (truncation > 0) {
+            from = lowerBound(y - truncation * sigma);
+            to = upperBound(y + truncation * sigma);
+            sorted = true;
+            // If there is no kernel in the range, the density is below
+            // the error bound, but its logarithm is still needed (e.g.,
+            // for the log-likelihood). Hence, we evaluate all kernels.
+            if (from == to) {
+                from = 0;
+                to = store.size();
+                sorted = false;
+            }
+        }
+
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        for (int k = from; k < to; k++) {
+            int i = sorted ? sortedIndices[k] : k;
+            double weight = store.getWeight(i, w);
+            if (weight <= 0.0) {
+                continue;
+            }
+            double d = y - store.getMean(i);
+            double value = Math.log(weight) - d * d * scale;
+            if (value > max) {
+                sum = sum * Math.exp(max - value) + 1.0;
+                max = value;
+            } else {
+                sum += Math.exp(value - max);
+            }
+        }
+
+        double logNorm = Math.log(sigma * Math.sqrt(2 * Math.PI));
+        return max + Math.log(sum) - logNorm 
+            - Math.log(totalNumberOfKernels);
+    }
+
+    /**
+     * Computes the per-bin densities {@literal g_b(x)} for all bins.
+     *
+     * @param x a value of the target variable
+     * @param out the array receiving the densities
+     */
+    private void evaluateBins(double x, double[] out) {
+        Arrays.fill(out, 0.0);
+        double sigma = defaultSigma;
+        double scale = 1.0 / (2 * sigma * sigma);
+        int to = upperBound(x + TABLE_RADIUS * sigma);
+        for (int k = lowerBound(x - TABLE_RADIUS * sigma); k < to; k++) {
+            int i = sortedIndices[k];
+            double d = x - store.getMean(i);
+            store.addFactor(i, Math.exp(-d * d * scale), out);
+        }
+        double norm = sigma * Math.sqrt(2 * Math.PI) * totalNumberOfKernels;
+        for (int b = 0; b < out.length; b++) {
+            out[b] /= norm;
+        }
+    }
+
+    /**
+     * Builds the interpolation table for the current kernels (see
+     * {@link #setInterpolationTolerance}).
+     *
+     * @return the table or null if there are no kernels or the grid
+     * would need too many knots
+     */
+    private InterpolationTable buildTable() {
+        int numBins = store.getNumberOfBins();
+        double sigma = defaultSigma;
+        if (store.size() == 0 || !(sigma > 0)) {
+            return null;
+        }
+        ensureIndex();
+        double lo = sortedMeans[0] - TABLE_RADIUS * sigma;
+        double hi = sortedMeans[numSorted - 1] + TABLE_RADIUS * sigma;
+        double step = sigma / 2;
+        long numInitial = (long) Math.ceil((hi - lo) / step) + 1;
+        if (numInitial > MAX_KNOTS) {
+            return null;
+        }
+
+        // initial grid
+        int n = (int) numInitial;
+        double[] knots = new double[n];
+        double[] values = new double[n * numBins];
+        double[] g = new double[numBins];
+        double peak = 0.0;
+        for (int k = 0; k < n; k++) {
+            knots[k] = Math.min(lo + k * step, hi);
+            evaluateBins(knots[k], g);
+            System.arraycopy(g, 0, values, k * numBins, numBins);
+            for (int b = 0; b < numBins; b++) {
+                peak = Math.max(peak, g[b]);
+            }
+        }
+
+        // refine the intervals of the initial grid
+        double maxError = interpolationTolerance * peak;
+        TableBuilder builder = new TableBuilder(numBins, 2 * n);
+        for (int k = 0; k + 1 < n; k++) {
+            builder.add(knots[k], values, k * numBins);
+            if (!builder.refine(knots[k], values, k * numBins, 
+                                knots[k + 1], values, (k + 1) * numBins,
+                                maxError, MAX_REFINEMENTS)) {
+                return null;
+            }
+        }
+        builder.add(knots[n - 1], values, (n - 1) * numBins);
+        return builder.build(maxError);
+    }
+
+    /**
+     * Collects the knots of an interpolation table in ascending order.
+     */
+    private class TableBuilder {
+
+        private int numBins;
+        private double[] knots;
+        private double[] values;
+        private boolean[] exact;
+        private int numKnots;
+
+        TableBuilder(int numBins, int capacity) {
+            this.numBins = numBins;
+            this.knots = new double[capacity];
+            this.values = new double[capacity * numBins];
+            this.exact = new boolean[capacity];
+        }
+
+        void add(double x, double[] g, int offset) {
+            if (numKnots == knots.length) {
+                knots = Arrays.copyOf(knots, 2 * knots.length);
+                values = Arrays.copyOf(values, 2 * values.length);
+                exact = Arrays.copyOf(exact, 2 * exact.length);
+            }
+            knots[numKnots] = x;
+            System.arraycopy(g, offset, values, numKnots * numBins, 
+                             numBins);
+            numKnots++;
+        }
 
         /**
-         * Compresses the kernel in the micro cluster to a micro cluster
-         * with only one component. It is an implementation of a method
-         * proposed by Goldberger and Roweis, who presented an approach
-         * that allowed to compress a Gaussian mixture model with k
-         * d-dimensional components to a l components. For now, we only
-         * consider a Gaussian mixture with one-dimensional components,
-         * which are compressed to one component.
-         *
-         * Jacob Goldberger and Sam Roweis. "Hierarchical Clustering of a
-         * Mixture Model".
+         * Adds the knots needed in the open interval (a, b), where
+         * {@code ga} and {@code gb} contain the per-bin densities at a
+         * and b, and where a is the last knot that has been added. If
+         * the interpolation error still exceeds {@code maxError} after
+         * {@code depth} refinements, the interval is marked, so that
+         * queries within it are answered exactly.
          *
-         * @param defaultSigma the default bandwidth of the compression
-         * kernel, in case some kernels do not have a bandwidth yet.
-         * @param numBins number of bins used to discretize the
-         * continuous variable
-         * @return a micro cluster containing the compression kernel,
-         * which is the kernel compression of this micro cluster.
+         * @return false if the maximal number of knots is exceeded
          */
-        public MicroCluster compress(double defaultSigma, int numBins) 
-                throws IllegalArgumentException {
-
-            // Given is a Gaussian mixture model of the form 
-            // f(y) = \sum_{i=1}^k \alpha_i N(y; \mu_i, \sigma_i).
-            // We compress f(y) to
-            // f^\prime(y) = \sum_{j=1}^l \beta_j N(y;\mu^\prime_j,
-            // \sigma^\prime_j).  
-            // As noted above, $l$ is in our case $1$.
-
-            // beta_j = \sum_{i=1}^k \alpha_i
-            KernelFactor beta = new KernelFactor(numBins);
-            for (Kernel kernel : this) {
-                beta.add(kernel.getWeight());
+        boolean refine(double a, double[] ga, int offA, 
+                       double b, double[] gb, int offB,
+                       double maxError, int depth) {
+            double m = (a + b) / 2;
+            double[] gm = new double[numBins];
+            evaluateBins(m, gm);
+            double error = 0.0;
+            for (int k = 0; k < numBins; k++) {
+                double linear = (ga[offA + k] + gb[offB + k]) / 2;
+                error = Math.max(error, Math.abs(gm[k] - linear));
             }
+            if (error <= maxError) {
+                return true;
+            }
+            if (depth == 0) {
+                exact[numKnots - 1] = true;
+                return true;
+            }
+            if (numKnots >= MAX_KNOTS) {
+                return false;
+            }
+            if (!refine(a, ga, offA, m, gm, 0, maxError, depth - 1)) {
+                return false;
+            }
+            add(m, gm, 0);
+            return refine(m, gm, 0, b, gb, offB, maxError, depth - 1);
+        }
 
-            // \mu^\prime_j = \frac{1}{\beta_j} \sum_{i=1}^k \alpha_i
-            // \mu_i
-            //
-            // \alpha_i contains variables that are not known when
-            // compressing kernels. Therefore, we set these variables to
-            // 1, thereby assuming that each original kernel has the
-            // same weight. If a kernel resulted from a compression, the
-            // weight of this compressed kernel is the number of kernels
-            // from which the compression has been created.
-            double muPrime = 0.0;
-            double normalizingFactor = 0.0;
-            for (Kernel kernel : this) {
-                double mu_i = kernel.getMean();
-                double alpha_i = determineAlphaI(kernel.getWeight());
-                muPrime += alpha_i * mu_i;
-                normalizingFactor += alpha_i;
+        InterpolationTable build(double maxError) {
+            return new InterpolationTable(numBins, knots, values, exact,
+                                          numKnots, maxError);
+        }
+    }
+
+    private void checkWeights(double[] w) throws IllegalArgumentException {
+        if (store.size() > 0 && w.length != store.getNumberOfBins()) {
+            String msg = "Weight vector does not match kernel";
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    /**
+     * @param value a value of the target variable
+     * @return the position of the first kernel in the index whose mean
+     * is greater than or equal to {@code value}
+     */
+    private int lowerBound(double value) {
+        ensureIndex();
+        int low = 0;
+        int high = numSorted;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedMeans[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-            muPrime /= normalizingFactor;
-
-            // \sigma^\prime_j = \frac{1}{\beta_j} \sum_{i=1}^k \alpha_i
-            // \cdot (\sigma_i + (\mu_i - muPrime_j)^2)
-            double sigmaPrime = 0.0;
-            for (Kernel kernel : this) {
-                double mu_i = kernel.getMean();
-                double alpha_i = determineAlphaI(kernel.getWeight());
-                double sigma_i;
-                if (kernel.getVariance() == null) {
-                    sigma_i = defaultSigma;
-                } else {
-                    sigma_i = kernel.getVariance();
+        }
+        return low;
+    }
+
+    /**
+     * @param value a value of the target variable
+     * @return the position of the first kernel in the index whose mean
+     * is greater than {@code value}
+     */
+    private int upperBound(double value) {
+        ensureIndex();
+        int low = 0;
+        int high = numSorted;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedMeans[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Rebuilds the index of kernels sorted by their means if it is not
+     * up to date.
+     */
+    private void ensureIndex() {
+        if (indexValid) {
+            return;
+        }
+        int n = store.size();
+        if (sortedIndices == null || sortedIndices.length < n) {
+            int capacity = Math.max(16, 2 * n);
+            this.sortedIndices = new int[capacity];
+            this.sortedMeans = new double[capacity];
+            this.positions = new int[capacity];
+        }
+        for (int i = 0; i < n; i++) {
+            sortedIndices[i] = i;
+            sortedMeans[i] = store.getMean(i);
+        }
+        sortIndex(0, n - 1);
+        this.numSorted = n;
+        updatePositions(0);
+        this.indexValid = true;
+    }
+
+    /**
+     * @param i the index of a kernel
+     * @return the position of kernel {@code i} in the index
+     * @throws IllegalStateException if the kernel is not in the index
+     */
+    private int positionOf(int i) throws IllegalStateException {
+        int pos = (i < positions.length) ? positions[i] : -1;
+        if (pos < 0 || pos >= numSorted || sortedIndices[pos] != i) {
+            throw new IllegalStateException("kernel " + i 
+                                            + " is not indexed");
+        }
+        return pos;
+    }
+
+    /**
+     * Updates {@code positions} for the kernels at the positions
+     * {@code from, ..., numSorted - 1} of the index.
+     */
+    private void updatePositions(int from) {
+        for (int k = from; k < numSorted; k++) {
+            positions[sortedIndices[k]] = k;
+        }
+    }
+
+    /**
+     * Sorts {@code sortedMeans[low..high]} in ascending order (by
+     * quicksort), where {@code sortedIndices} is permuted accordingly.
+     */
+    private void sortIndex(int low, int high) {
+        while (low < high) {
+            double pivot = sortedMeans[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (sortedMeans[i] < pivot) {
+                    i++;
+                }
+                while (sortedMeans[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swapIndex(i++, j--);
                 }
-                sigmaPrime += alpha_i * (sigma_i + Math.pow(mu_i-muPrime, 2));
             }
-            sigmaPrime /= normalizingFactor;
-            sigmaPrime = Math.sqrt(sigmaPrime);
-
-            // Create compressed Gaussian mixture model.
-            Kernel kernel = new Kernel(muPrime);
-            kernel.setWeight(beta);
-            kernel.setVariance(sigmaPrime);
-            MicroCluster compressed = new MicroCluster();
-            compressed.add(kernel);
-	
-            return compressed;
-        }
-
-        private double determineAlphaI(KernelFactor factor) {
-            double alpha_i = 0.0;
-            for (int j = 0; j < factor.getNumberOfBins(); j++) {
-                alpha_i += factor.getMultiplier(j);
+            // recurse into the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sortIndex(low, j);
+                low = i;
+            } else {
+                sortIndex(i, high);
+                high = j;
             }
-            return alpha_i;
         }
     }
+
+    private void swapIndex(int i, int j) {
+        double mean = sortedMeans[i];
+        sortedMeans[i] = sortedMeans[j];
+        sortedMeans[j] = mean;
+        int index = sortedIndices[i];
+        sortedIndices[i] = sortedIndices[j];
+        sortedIndices[j] = index;
+    }
+
+    /**
+     * Inserts a kernel into the index, keeping it sorted.
+     *
+     * @param i the index of a kernel that has been added to the store
+     */
+    private void insertIntoIndex(int i) {
+        if (numSorted == sortedIndices.length) {
+            int capacity = 2 * sortedIndices.length;
+            sortedIndices = Arrays.copyOf(sortedIndices, capacity);
+            sortedMeans = Arrays.copyOf(sortedMeans, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        double mean = store.getMean(i);
+        int pos = upperBound(mean);
+        System.arraycopy(sortedIndices, pos, sortedIndices, pos + 1, 
+                         numSorted - pos);
+        System.arraycopy(sortedMeans, pos, sortedMeans, pos + 1, 
+                         numSorted - pos);
+        sortedIndices[pos] = i;
+        sortedMeans[pos] = mean;
+        numSorted++;
+        updatePositions(pos);
+    }
 }
@@ -0,0 +1,137 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.io.Serializable;
+
+/**
+ * {@code InterpolationTable} stores the per-bin densities {@literal
+ * g_b(y)} of a {@link GaussianMixture} at the knots of a grid, so that
+ * the density {@literal \sum_b w_b g_b(y)} can be computed by a linear
+ * interpolation and a dot product with the weight vector instead of
+ * evaluating all kernels. The knots do not need to be equidistant.
+ * Intervals in which the interpolation does not meet the accuracy are
+ * marked, and queries within them have to be answered exactly.
+ *
+ * @author Michael Geilke
+ */
+public class InterpolationTable implements Serializable {
+
+    private int numBins;
+    private double[] knots;
+    private double[] values;
+    private boolean[] exact;
+    private int numKnots;
+    private double errorScale;
+
+    /**
+     * @param numBins the number of bins in which the target variable is
+     * discretized
+     * @param knots the positions of the knots in ascending order
+     * @param values the per-bin densities at the knots, where the
+     * density of bin b at knot k is {@code values[k * numBins + b]}
+     * @param exact {@code exact[k]} is true if the interval between
+     * knot k and knot k + 1 is not interpolated
+     * @param numKnots the number of knots (the arrays may be longer)
+     * @param errorScale the maximal absolute interpolation error per
+     * bin that has been accepted when the grid was built
+     */
+    public InterpolationTable(int numBins, double[] knots, double[] values,
+                              boolean[] exact, int numKnots, 
+                              double errorScale) {
+        this.numBins = numBins;
+        this.knots = knots;
+        this.values = values;
+        this.exact = exact;
+        this.numKnots = numKnots;
+        this.errorScale = errorScale;
+    }
+
+    /**
+     * @return the maximal absolute interpolation error per bin that has
+     * been accepted when the grid was built
+     */
+    public double getErrorScale() {
+        return errorScale;
+    }
+
+    /**
+     * @return the number of knots of the grid
+     */
+    public int getNumberOfKnots() {
+        return numKnots;
+    }
+
+    /**
+     * @return the number of intervals between adjacent knots that are
+     * not interpolated
+     */
+    public int getNumberOfExactIntervals() {
+        int n = 0;
+        for (int k = 0; k + 1 < numKnots; k++) {
+            n += exact[k] ? 1 : 0;
+        }
+        return n;
+    }
+
+    /**
+     * Interpolates the density {@literal \sum_b w_b g_b(y)} linearly
+     * between the two adjacent knots.
+     *
+     * @param y the value of the target variable
+     * @param w the weights of the bins
+     * @return the interpolated density or NaN if {@code y} is not
+     * covered by the grid or lies in an interval that is not
+     * interpolated
+     */
+    public double evaluate(double y, double[] w) {
+        if (numKnots < 2 || !(y >= knots[0]) || y > knots[numKnots - 1]) {
+            return Double.NaN;
+        }
+
+        // find the interval [knots[k], knots[k+1]] containing y
+        int low = 0;
+        int high = numKnots - 1;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (knots[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        if (exact[low]) {
+            return Double.NaN;
+        }
+        double t = (y - knots[low]) / (knots[high] - knots[low]);
+        int left = low * numBins;
+        int right = high * numBins;
+        double p = 0.0;
+        for (int b = 0; b < numBins; b++) {
+            double g = (1 - t) * values[left + b] + t * values[right + b];
+            p += w[b] * g;
+        }
+        return p;
+    }
+}
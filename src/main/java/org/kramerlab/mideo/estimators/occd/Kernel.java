@@ -98,4 +98,31 @@ public class Kernel implements Serializable {
         value *= Math.exp((-Math.pow(y - mu, 2)) / (2 * Math.pow(sigma, 2)));
         return value;
     }
+
+    /**
+     * Evaluates the logarithm of the kernel with respect to the given
+     * value of the target variable and the weight vector. Unlike
+     * {@code Math.log(evaluate(y, w))}, it does not underflow for
+     * values of {@code y} that are far away from the mean.
+     * @param y the value of the target variable
+     * @param w the weight vector
+     * @return the logarithm of the kernel value, which is {@literal
+     * -Infinity} if the weight of the kernel is 0
+     * @throws IllegalArgumentException if the weight vector does not
+     * match the number of discretization bins.
+     */
+    public double logEvaluate(double y, double[] w) 
+            throws IllegalArgumentException {
+        if (getWeight() != null && w.length != getWeight().getNumberOfBins()) {
+            String msg = "Weight vector does not match kernel";
+            throw new IllegalArgumentException(msg);
+        }
+        double mu = getMean();
+        double sigma = getVariance();
+        double weight = getWeight() != null ? getWeight().evaluate(w) : 1;
+        double value = Math.log(weight);
+        value -= Math.log(sigma * Math.sqrt(2 * Math.PI));
+        value -= Math.pow(y - mu, 2) / (2 * Math.pow(sigma, 2));
+        return value;
+    }
 }
@@ -0,0 +1,106 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+/**
+ * {@code KernelArithmetic} contains the inner loops of the kernel
+ * evaluation: the sum of weighted Gaussians at a point and the product
+ * of a weight vector with a kernel factor. Two implementations exist:
+ * {@link ScalarKernelArithmetic}, which runs on every JVM, and {@code
+ * VectorKernelArithmetic}, which uses the vector API of {@code
+ * jdk.incubator.vector}. The latter is only compiled by the {@code
+ * jdk17} profile and only used if the JVM has been started with {@code
+ * --add-modules jdk.incubator.vector}. Setting the system property
+ * {@code mideo.vectorization} to false enforces the scalar version.
+ *
+ * @author Michael Geilke
+ */
+interface KernelArithmetic {
+
+    /**
+     * Computes {@literal \sum_{k=0}^{length-1} weights[k] \cdot
+     * exp(-(y - means[offset + k])^2 \cdot scale)}.
+     *
+     * @param means the means of the kernels
+     * @param offset the position of the first mean
+     * @param weights the weights of the kernels
+     * @param length the number of kernels
+     * @param y the queried value
+     * @param scale the inverse of twice the squared bandwidth
+     */
+    double sumGaussians(double[] means, int offset, double[] weights,
+                        int length, double y, double scale);
+
+    /**
+     * Computes {@literal \sum_{b=0}^{length-1} w[b] \cdot factors[offset
+     * + b]}.
+     */
+    double dot(double[] w, int[] factors, int offset, int length);
+
+    /**
+     * @return the vectorized implementation if it is available, and
+     * the scalar one otherwise
+     */
+    static KernelArithmetic getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return the scalar implementation
+     */
+    static KernelArithmetic scalar() {
+        return ScalarKernelArithmetic.INSTANCE;
+    }
+
+    /**
+     * Selects the implementation when it is requested for the first
+     * time.
+     */
+    final class Holder {
+
+        static final String VECTOR_CLASS = 
+            "org.kramerlab.mideo.estimators.occd.VectorKernelArithmetic";
+
+        static final KernelArithmetic INSTANCE = load();
+
+        private Holder() {
+        }
+
+        private static KernelArithmetic load() {
+            String enabled = System.getProperty("mideo.vectorization");
+            if ("false".equalsIgnoreCase(enabled)) {
+                return scalar();
+            }
+            try {
+                // Without the incubator module, loading the class fails
+                // with a LinkageError (e.g., NoClassDefFoundError).
+                Class<?> cl = Class.forName(VECTOR_CLASS);
+                return (KernelArithmetic) cl.getDeclaredConstructor()
+                    .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return scalar();
+            }
+        }
+    }
+}
@@ -104,11 +104,7 @@ public class KernelFactor implements Serializable {
      * @param w the weight vector
      */
     public double evaluate(double[] w) {
-        double weight = 0.0;
-        for (int i = 0; i < oneDimFactor.length; i++) {
-            int multiplier = oneDimFactor[i];
-            weight += w[i] * multiplier;
-        }
-        return weight;
+        return KernelArithmetic.getInstance()
+            .dot(w, oneDimFactor, 0, oneDimFactor.length);
     }
 }
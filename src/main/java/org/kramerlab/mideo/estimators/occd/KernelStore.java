@@ -0,0 +1,501 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * {@code KernelStore} keeps the kernels of a {@link GaussianMixture} in
+ * parallel primitive columns instead of individual {@link Kernel}
+ * objects. The kernel with index i has a mean, a bandwidth (NaN if it
+ * has not been set yet), and belongs to a micro-cluster (its key).
+ *
+ * The weight of a kernel is a {@link KernelFactor}, i.e., a multiplier
+ * for every discretization bin. Most kernels are raw kernels created
+ * from a single instance, whose factor is 1 for one bin and 0 for all
+ * others. Such factors are stored sparsely as a bin and a multiplier.
+ * All other factors are stored as rows of a packed matrix, where the
+ * kernel knows its row and its bin is {@code DENSE}.
+ *
+ * The columns are provided by the subclasses: {@link ArrayKernelStore}
+ * keeps them in arrays on the heap, and {@link BufferKernelStore} in
+ * direct or memory-mapped buffers outside of it (see {@link Storage}).
+ * With single precision, the means and bandwidths are stored as floats
+ * (see {@link FloatArrayKernelStore}).
+ *
+ * @author Michael Geilke
+ */
+public abstract class KernelStore implements Serializable {
+
+    /**
+     * Where the kernels are stored.
+     */
+    public enum Storage {
+        /** in arrays on the heap */
+        HEAP,
+        /** in direct buffers, i.e., outside of the heap */
+        DIRECT,
+        /** in memory-mapped files */
+        MAPPED;
+
+        /**
+         * @param name heap, direct, or mapped
+         * @return the storage with the given name (ignoring the case)
+         * @throws IllegalArgumentException if there is no such storage
+         */
+        public static Storage fromName(String name) 
+                throws IllegalArgumentException {
+            for (Storage s : values()) {
+                if (s.name().equalsIgnoreCase(name)) {
+                    return s;
+                }
+            }
+            throw new IllegalArgumentException("Unknown storage: " + name);
+        }
+    }
+
+    /**
+     * marks a kernel whose factor is stored in the packed matrix
+     */
+    protected static final int DENSE = -1;
+
+    protected final int numBins;
+    protected int size;
+    protected int numRows;
+
+    // rows of the packed matrix that belonged to removed kernels and
+    // can be reused
+    private int[] freeRows;
+    private int numFreeRows;
+
+    /**
+     * @param numBins the number of bins in which the target variable is
+     * discretized
+     */
+    protected KernelStore(int numBins) {
+        this.numBins = numBins;
+        this.freeRows = new int[16];
+        this.size = 0;
+        this.numRows = 0;
+    }
+
+    /**
+     * Creates an empty store.
+     *
+     * @param storage where the kernels are stored
+     * @param numBins the number of bins in which the target variable is
+     * discretized
+     * @param capacity the initial number of kernels that can be stored
+     * without growing the columns
+     * @param directory the directory of the files if {@code storage} is
+     * {@code MAPPED} (null means the directory for temporary files)
+     * @param singlePrecision true if the means and bandwidths are
+     * supposed to be stored as floats
+     */
+    public static KernelStore create(Storage storage, int numBins, 
+                                     int capacity, File directory,
+                                     boolean singlePrecision) {
+        switch (storage) {
+        case DIRECT:
+            return new BufferKernelStore(numBins, capacity, null, 
+                                         singlePrecision);
+        case MAPPED:
+            if (directory == null) {
+                directory = new File(System.getProperty("java.io.tmpdir"));
+            }
+            return new BufferKernelStore(numBins, capacity, directory,
+                                         singlePrecision);
+        default:
+            if (singlePrecision) {
+                return new FloatArrayKernelStore(numBins, capacity);
+            }
+            return new ArrayKernelStore(numBins, capacity);
+        }
+    }
+
+    // The columns. The factor with index k is the multiplier of bin k %
+    // numBins in row k / numBins.
+
+    public abstract double getMean(int i);
+
+    protected abstract void setMean(int i, double mean);
+
+    /**
+     * @return the bandwidth of kernel {@code i} or NaN if it has not
+     * been set yet
+     */
+    public abstract double getSigma(int i);
+
+    protected abstract void setSigma(int i, double sigma);
+
+    public abstract int getKey(int i);
+
+    public abstract void setKey(int i, int key);
+
+    protected abstract int getBin(int i);
+
+    protected abstract void setBin(int i, int bin);
+
+    protected abstract int getMultiplier(int i);
+
+    protected abstract void setMultiplier(int i, int multiplier);
+
+    protected abstract int getRow(int i);
+
+    protected abstract void setRow(int i, int row);
+
+    protected abstract int getFactor(int k);
+
+    protected abstract void setFactor(int k, int multiplier);
+
+    /**
+     * @return the number of bytes used to store a mean or a bandwidth
+     */
+    protected abstract int getPrecisionBytes();
+
+    /**
+     * @return the number of bytes occupied by the kernels (without the
+     * memory that has been reserved for further kernels)
+     */
+    public long getBytes() {
+        long kernelBytes = 2 * getPrecisionBytes() + 4 * Integer.BYTES;
+        return size * kernelBytes + (long) numRows * numBins * Integer.BYTES;
+    }
+
+    /**
+     * @return the number of bytes that are saved by storing the means
+     * and bandwidths with the current precision instead of doubles
+     */
+    public long getSavedBytes() {
+        return size * 2L * (Double.BYTES - getPrecisionBytes());
+    }
+
+    /**
+     * Grows the columns of the kernels such that at least {@code
+     * capacity} kernels can be stored.
+     */
+    protected abstract void ensureCapacity(int capacity);
+
+    /**
+     * Grows the packed matrix such that at least {@code capacity} rows
+     * can be stored.
+     */
+    protected abstract void ensureRowCapacity(int capacity);
+
+    /**
+     * @return the number of bins in which the target variable is
+     * discretized
+     */
+    public int getNumberOfBins() {
+        return numBins;
+    }
+
+    /**
+     * @return the number of kernels
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all kernels, but keeps the allocated memory.
+     */
+    public void clear() {
+        size = 0;
+        numRows = 0;
+        numFreeRows = 0;
+    }
+
+    /**
+     * Releases the memory and files that are held outside of the heap
+     * (see {@link BufferKernelStore}). The store must not be used
+     * afterwards. Stores on the heap have nothing to release.
+     */
+    public void release() {
+    }
+
+    /**
+     * @return the multiplier of kernel {@code i} for bin {@code b}
+     */
+    public int getMultiplier(int i, int b) {
+        int bin = getBin(i);
+        if (bin == DENSE) {
+            return getFactor(getRow(i) * numBins + b);
+        }
+        return bin == b ? getMultiplier(i) : 0;
+    }
+
+    /**
+     * @return the sum of the multipliers of kernel {@code i}, i.e., the
+     * number of instances the kernel represents
+     */
+    public double getAlpha(int i) {
+        if (getBin(i) != DENSE) {
+            return getMultiplier(i);
+        }
+        double alpha = 0.0;
+        int offset = getRow(i) * numBins;
+        for (int b = 0; b < numBins; b++) {
+            alpha += getFactor(offset + b);
+        }
+        return alpha;
+    }
+
+    /**
+     * Evaluates the factor of kernel {@code i} (see {@link
+     * KernelFactor#evaluate}).
+     *
+     * @param i the index of the kernel
+     * @param w the weights of the bins
+     * @return the weight of the kernel
+     */
+    public double getWeight(int i, double[] w) {
+        int bin = getBin(i);
+        if (bin != DENSE) {
+            return w[bin] * getMultiplier(i);
+        }
+        return dot(getRow(i), w);
+    }
+
+    /**
+     * Computes the weights of {@code length} kernels (see {@link
+     * #getWeight}), i.e., {@code out[k] = getWeight(indices[from + k],
+     * w)}. If {@code indices} is null, the kernels {@code from, ...,
+     * from + length - 1} are used.
+     */
+    public void getWeights(int[] indices, int from, int length, 
+                           double[] w, double[] out) {
+        for (int k = 0; k < length; k++) {
+            int i = indices == null ? from + k : indices[from + k];
+            out[k] = getWeight(i, w);
+        }
+    }
+
+    /**
+     * @return the product of {@code w} with row {@code row} of the
+     * packed matrix
+     */
+    protected double dot(int row, double[] w) {
+        double weight = 0.0;
+        int offset = row * numBins;
+        for (int b = 0; b < numBins; b++) {
+            weight += w[b] * getFactor(offset + b);
+        }
+        return weight;
+    }
+
+    /**
+     * @return the array containing the means, where only the first
+     * {@link #size} elements are used, or null if the means are not
+     * stored in an array. It must not be modified.
+     */
+    double[] getMeans() {
+        return null;
+    }
+
+    /**
+     * Copies the means of the kernels {@code from, ..., from + length
+     * - 1} into {@code out}.
+     */
+    void getMeans(int from, int length, double[] out) {
+        for (int k = 0; k < length; k++) {
+            out[k] = getMean(from + k);
+        }
+    }
+
+    /**
+     * Adds {@code value} times the factor of kernel {@code i} to {@code
+     * out}, i.e., {@code out[b] += value * getMultiplier(i, b)} for
+     * every bin b.
+     */
+    public void addFactor(int i, double value, double[] out) {
+        int bin = getBin(i);
+        if (bin != DENSE) {
+            out[bin] += value * getMultiplier(i);
+            return;
+        }
+        int offset = getRow(i) * numBins;
+        for (int b = 0; b < numBins; b++) {
+            out[b] += value * getFactor(offset + b);
+        }
+    }
+
+    /**
+     * Adds a kernel whose factor is {@code multiplier} for bin {@code
+     * bin} and 0 for all other bins.
+     *
+     * @return the index of the new kernel
+     */
+    public int addSparse(double mean, double sigma, int key, int bin, 
+                         int multiplier) {
+        int i = allocate();
+        setMean(i, mean);
+        setSigma(i, sigma);
+        setKey(i, key);
+        setBin(i, bin);
+        setMultiplier(i, multiplier);
+        return i;
+    }
+
+    /**
+     * Adds a kernel with the given factor. If at most one bin has a
+     * multiplier different from 0, the factor is stored sparsely.
+     *
+     * @param factor the multipliers of the bins
+     * @return the index of the new kernel
+     */
+    public int add(double mean, double sigma, int key, int[] factor) {
+        int nonZero = -1;
+        for (int b = 0; b < numBins; b++) {
+            if (factor[b] != 0) {
+                if (nonZero >= 0) {
+                    return addDense(mean, sigma, key, factor);
+                }
+                nonZero = b;
+            }
+        }
+        if (nonZero < 0) {
+            return addSparse(mean, sigma, key, 0, 0);
+        }
+        return addSparse(mean, sigma, key, nonZero, factor[nonZero]);
+    }
+
+    /**
+     * Copies kernel {@code i} of {@code other} into this store.
+     *
+     * @return the index of the new kernel
+     */
+    public int copy(KernelStore other, int i) {
+        if (other.getBin(i) != DENSE) {
+            return addSparse(other.getMean(i), other.getSigma(i), 
+                             other.getKey(i), other.getBin(i), 
+                             other.getMultiplier(i));
+        }
+        int j = addDenseRow(other.getMean(i), other.getSigma(i), 
+                            other.getKey(i));
+        int from = other.getRow(i) * numBins;
+        int to = getRow(j) * numBins;
+        for (int b = 0; b < numBins; b++) {
+            setFactor(to + b, other.getFactor(from + b));
+        }
+        return j;
+    }
+
+    private int addDense(double mean, double sigma, int key, int[] factor) {
+        int i = addDenseRow(mean, sigma, key);
+        int offset = getRow(i) * numBins;
+        for (int b = 0; b < numBins; b++) {
+            setFactor(offset + b, factor[b]);
+        }
+        return i;
+    }
+
+    private int addDenseRow(double mean, double sigma, int key) {
+        int i = allocate();
+        setMean(i, mean);
+        setSigma(i, sigma);
+        setKey(i, key);
+        setBin(i, DENSE);
+        setRow(i, allocateRow());
+        return i;
+    }
+
+    private int allocateRow() {
+        if (numFreeRows > 0) {
+            return freeRows[--numFreeRows];
+        }
+        ensureRowCapacity(numRows + 1);
+        return numRows++;
+    }
+
+    private void releaseRow(int row) {
+        if (numFreeRows == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, 2 * freeRows.length);
+        }
+        freeRows[numFreeRows++] = row;
+    }
+
+    /**
+     * Merges kernel {@code j} into kernel {@code i}: The factors are
+     * added, and kernel i gets the given mean and bandwidth. Kernel j
+     * is not removed.
+     */
+    public void merge(int i, int j, double mean, double sigma) {
+        setMean(i, mean);
+        setSigma(i, sigma);
+        int binI = getBin(i);
+        int binJ = getBin(j);
+        if (binI != DENSE && binJ != DENSE 
+                && (binI == binJ || getMultiplier(j) == 0)) {
+            setMultiplier(i, getMultiplier(i) + getMultiplier(j));
+            return;
+        }
+        if (binI != DENSE) {
+            // convert the sparse factor of kernel i into a dense one
+            int row = allocateRow();
+            int offset = row * numBins;
+            for (int b = 0; b < numBins; b++) {
+                setFactor(offset + b, b == binI ? getMultiplier(i) : 0);
+            }
+            setBin(i, DENSE);
+            setRow(i, row);
+        }
+        int offset = getRow(i) * numBins;
+        for (int b = 0; b < numBins; b++) {
+            setFactor(offset + b, getFactor(offset + b) 
+                      + getMultiplier(j, b));
+        }
+    }
+
+    /**
+     * Removes kernel {@code i}. To keep the columns contiguous, the last
+     * kernel is moved to index {@code i}.
+     *
+     * @return the former index of the kernel that has been moved to
+     * {@code i} or -1 if {@code i} was the last kernel
+     */
+    public int remove(int i) {
+        if (getBin(i) == DENSE) {
+            releaseRow(getRow(i));
+        }
+        int last = --size;
+        if (i == last) {
+            return -1;
+        }
+        setMean(i, getMean(last));
+        setSigma(i, getSigma(last));
+        setKey(i, getKey(last));
+        setBin(i, getBin(last));
+        setMultiplier(i, getMultiplier(last));
+        setRow(i, getRow(last));
+        return last;
+    }
+
+    private int allocate() {
+        ensureCapacity(size + 1);
+        return size++;
+    }
+}
@@ -23,20 +23,26 @@
  */
 package org.kramerlab.mideo.estimators.occd;
 
+import java.io.File;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 
 import org.kramerlab.mideo.core.Utils;
+import org.kramerlab.mideo.core.WorkerPool;
+import org.kramerlab.mideo.core.Mergeable;
 import org.kramerlab.mideo.core.RandomVariable;
 import org.kramerlab.mideo.data.filters.DiscretizationFilter;
+import org.kramerlab.mideo.data.instances.DiscretizedInstance;
 import org.kramerlab.mideo.estimators.EstimatorType;
 import org.kramerlab.mideo.estimators.DensityEstimator;
 import org.kramerlab.mideo.estimators.trees.HoeffdingTreeCR;
@@ -53,11 +59,19 @@ import org.kramerlab.mideo.exceptions.UnsupportedConfiguration;
  * 
  * @author Michael Geilke
  */
-public class OCCDEstimator implements DensityEstimator {
+public class OCCDEstimator implements DensityEstimator, 
+                                      Mergeable<DensityEstimator> {
+
+    /**
+     * the number of instances that are processed by one task when
+     * several density values are computed at once
+     */
+    private static final int QUERY_BLOCK_SIZE = 256;
 
     private Logger logger = LogManager.getLogger();
 
     private HoeffdingTreeCR discreteEstimator;
+    private transient ForkJoinPool workerPool;
     private List<EstimatorType> supportedTypes;
     private List<RandomVariable> targetVariables;    
     private List<RandomVariable> conditionedVariables;
@@ -68,6 +82,8 @@ public class OCCDEstimator implements DensityEstimator {
      * target variable will be discretized into numBins many bins.
      */
     private DiscretizationFilter discretization;
+    private DiscretizationFilter.Method discretizationMethod;
+    private int sketchSize;
     private int numBins;
 
     /**
@@ -75,6 +91,8 @@ public class OCCDEstimator implements DensityEstimator {
      * re-computing estimateMu and estimateSigma.
      */
     private List<BufferedInstance> buffer;
+    // re-used entries of the buffer (see nextBufferSlot)
+    private transient BufferedInstance[] bufferSlots;
     private double estimateMu;
     private double estimateSigma;
     private int maxBufferSize = 200;
@@ -95,11 +113,14 @@ public class OCCDEstimator implements DensityEstimator {
         // kernels
         this.maxKernels = maxKernels;
         double defaultSigma = 1.0;
-        this.kernels = new GaussianMixture(maxKernels, defaultSigma);
+        this.kernels = new GaussianMixture(maxKernels, defaultSigma, 
+                                           numBins);
 
         // initialize n (with laplace correction)
         this.numberOfInstances = 0;
 	this.numBins = numBins;
+        this.discretizationMethod = DiscretizationFilter.Method.WIDTH;
+        this.sketchSize = 200;
         this.n = new long[numBins];
         for (int i = 0; i < n.length; i++) {
             this.n[i] = 1;
@@ -118,6 +139,160 @@ public class OCCDEstimator implements DensityEstimator {
         this.estimateSigma = 0.0;
     }
 
+    /**
+     * Restricts density queries to the kernels whose means are at most
+     * {@code c} bandwidths away from the queried value (see {@link
+     * GaussianMixture#setTruncation} for the error bound).
+     *
+     * @param c the number of bandwidths (0 means that all kernels are
+     * evaluated)
+     * @throws IllegalArgumentException if {@code c} is negative
+     */
+    public void setKernelTruncation(double c) 
+            throws IllegalArgumentException {
+        kernels.setTruncation(c);
+    }
+
+    /**
+     * Answers density queries by interpolation between per-bin
+     * densities that are precomputed after every call of {@link
+     * #processInstances} (see {@link
+     * GaussianMixture#setInterpolationTolerance} for the accuracy).
+     *
+     * @param tolerance the tolerance relative to the highest per-bin
+     * density (0 means that queries are answered exactly)
+     * @throws IllegalArgumentException if {@code tolerance} is negative
+     */
+    public void setInterpolationTolerance(double tolerance) 
+            throws IllegalArgumentException {
+        kernels.setInterpolationTolerance(tolerance);
+    }
+
+    /**
+     * Merges the two neighbouring kernels that are cheapest to merge
+     * whenever the maximal number of kernels is exceeded, instead of
+     * compressing all kernels at once (see {@link
+     * GaussianMixture#setIncrementalCompression}).
+     *
+     * @param incremental true if the kernels are supposed to be merged
+     * incrementally
+     * @throws IllegalStateException if instances have already been
+     * processed
+     */
+    public void setIncrementalCompression(boolean incremental) 
+            throws IllegalStateException {
+        kernels.setIncrementalCompression(incremental);
+    }
+
+    /**
+     * Changes the online discretization of the target variable (see
+     * {@link DiscretizationFilter#setDiscretization}).
+     *
+     * @param method the online discretization
+     * @param sketchSize the maximal number of values of a compactor if
+     * {@code method} is {@code SKETCH}
+     * @throws IllegalArgumentException if {@code method} is {@code
+     * SKETCH} and {@code sketchSize} is smaller than 8
+     * @throws IllegalStateException if the estimator has already been
+     * initialized
+     */
+    public void setDiscretization(DiscretizationFilter.Method method,
+                                  int sketchSize) 
+            throws IllegalArgumentException, IllegalStateException {
+        if (discretization != null) {
+            String msg = "Discretization cannot be changed after the "
+                + "initialization";
+            throw new IllegalStateException(msg);
+        }
+        if (method == DiscretizationFilter.Method.SKETCH && sketchSize < 8) {
+            String msg = "The size of the sketch has to be at least 8.";
+            throw new IllegalArgumentException(msg);
+        }
+        this.discretizationMethod = method;
+        this.sketchSize = sketchSize;
+    }
+
+    /**
+     * Changes where the kernels are stored (see {@link
+     * GaussianMixture#setKernelStorage}).
+     *
+     * @param storage where the kernels are stored
+     * @param directory the directory of the files if {@code storage} is
+     * {@code MAPPED} (null means the directory for temporary files)
+     * @throws IllegalStateException if instances have already been
+     * processed
+     */
+    public void setKernelStorage(KernelStore.Storage storage, 
+                                 File directory) 
+            throws IllegalStateException {
+        kernels.setKernelStorage(storage, directory);
+    }
+
+    /**
+     * Stores the means and bandwidths of the kernels as floats (see
+     * {@link GaussianMixture#setSinglePrecision}) and the fine-grained
+     * discretization of the target variable in single precision (see
+     * {@link DiscretizationFilter#setSinglePrecision}). It has to be
+     * called before {@link #init}. The class distributions of the
+     * Hoeffding tree keep double precision: they are sums of instance
+     * weights, which a float can no longer increase by 1 beyond 2^24.
+     *
+     * @param singlePrecision true if single precision is supposed to
+     * be used
+     * @throws IllegalStateException if instances have already been
+     * processed
+     */
+    public void setSinglePrecision(boolean singlePrecision) 
+            throws IllegalStateException {
+        kernels.setSinglePrecision(singlePrecision);
+    }
+
+    /**
+     * Specifies the executor for computing several density values at
+     * once. It is passed to the Hoeffding tree of the discretized
+     * target variable as well.
+     */
+    @Override
+    public void setWorkerPool(ForkJoinPool pool) {
+        this.workerPool = pool;
+        discreteEstimator.setWorkerPool(pool);
+    }
+
+    /* Returns the executor for parallel computations, which is the
+     * shared pool if none has been specified. */
+    private ForkJoinPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = WorkerPool.getSharedPool();
+        }
+        return workerPool;
+    }
+
+    /**
+     * @return the number of bytes occupied by the kernels
+     */
+    public long getKernelBytes() {
+        return kernels.getKernelBytes();
+    }
+
+    /**
+     * @return the number of bytes saved by single precision
+     */
+    public long getSavedKernelBytes() {
+        return kernels.getSavedKernelBytes();
+    }
+
+    /**
+     * @return the number of bytes saved by single precision in the
+     * kernels and the discretization of the target variable
+     */
+    public long getSavedBytes() {
+        long saved = getSavedKernelBytes();
+        if (discretization != null) {
+            saved += discretization.getSavedBytes();
+        }
+        return saved;
+    }
+
     /**
      * @return number of discretization bins
      */
@@ -155,6 +330,9 @@ public class OCCDEstimator implements DensityEstimator {
         // configure discretization filter
         RandomVariable target = targetVars.get(0);
         this.discretization = new DiscretizationFilter();
+        this.discretization.setDiscretization(discretizationMethod, 
+                                              sketchSize);
+        this.discretization.setSinglePrecision(kernels.isSinglePrecision());
         this.discretization.init(header, target, getNumberOfBins());
         
         // prepare underlying discrete density estimator
@@ -187,11 +365,13 @@ public class OCCDEstimator implements DensityEstimator {
             discretization.addObservation(inst);
             numberOfDiscardedInstances++;
         } else {
-            // discretize instance
+            // discretize instance into the next entry of the buffer
             discretization.addObservation(inst);
-            Instance discInst = discretization.apply(inst);
-            buffer.add(new BufferedInstance(inst, discInst));
+            BufferedInstance slot = nextBufferSlot();
+            discretization.apply(inst, slot.getDiscretizedInstance());
+            slot.setTargetValue(inst.value(targetAttribute));
             // add instance to buffer
+            buffer.add(slot);
             if (buffer.size() >= maxBufferSize) {
                 processInstances();
                 buffer.clear();
@@ -199,6 +379,25 @@ public class OCCDEstimator implements DensityEstimator {
         }
     }
 
+    /* Returns the entry that is added next to the buffer. The entries
+     * and their discretized instances are created only once and
+     * overwritten after the buffer has been cleared, so that buffering
+     * an instance does not allocate anything.
+     */
+    private BufferedInstance nextBufferSlot() {
+        if (bufferSlots == null) {
+            bufferSlots = new BufferedInstance[maxBufferSize];
+        }
+        int i = buffer.size();
+        if (bufferSlots[i] == null) {
+            InstancesHeader header = discretization.getTargetHeader();
+            Instance discInst = new DenseInstance(header.numAttributes());
+            discInst.setDataset(header);
+            bufferSlots[i] = new BufferedInstance(0.0, discInst);
+        }
+        return bufferSlots[i];
+    }
+
     /**
      * Re-computing the bandwidth using the instances from the buffer
      * and clear the buffer afterwards.
@@ -208,7 +407,6 @@ public class OCCDEstimator implements DensityEstimator {
 
         // update model
         for (BufferedInstance inst : buffer) {
-            Instance orig = inst.getOriginalInstance();
             Instance disc = inst.getDiscretizedInstance();
             discreteEstimator.update(disc);
 
@@ -217,13 +415,9 @@ public class OCCDEstimator implements DensityEstimator {
             n[v]++;
 
             // Add target value to list of kernels. Notice that the
-            // variance is set when required. We actually want to use
-            // the best possible value.
-            KernelFactor weight = new KernelFactor(numBins);
-            weight.setMultiplier(v, 1);
-            Kernel kernel = new Kernel(orig.value(targetAttribute));
-            kernel.setWeight(weight);
-            kernels.add(kernel);
+            // bandwidth is chosen when the kernels are evaluated. We
+            // actually want to use the best possible value.
+            kernels.add(inst.getTargetValue(), v);
             numberOfInstances++;
         }
 
@@ -260,9 +454,8 @@ public class OCCDEstimator implements DensityEstimator {
         // the buffered instances
         List<KernelSetting> yi_and_w = new ArrayList<>();
         for (BufferedInstance buffInst : buffer) {
-            Instance orig = buffInst.getOriginalInstance();
             Instance disc = buffInst.getDiscretizedInstance();
-            double yi = orig.value(targetAttribute);
+            double yi = buffInst.getTargetValue();
             int bin = (int) disc.value(targetAttribute);
             double pr = discreteEstimator.getDensityValue(disc);
             double weight = instancesForEstimate * (pr / n[bin]);
@@ -306,6 +499,96 @@ public class OCCDEstimator implements DensityEstimator {
 
     @Override
     public double getDensityValue(Instance inst) {
+        double[] w = new double[getNumberOfBins()];
+        double density = computeDensityValue(inst, w);
+	
+        String att = getTargetVariables().get(0).getAttribute().name();        
+        logger.info("Attribute {}, density value {}", att, density);
+
+        return density;
+    }
+
+    /**
+     * Computes the density values of several instances. The Gaussian
+     * mixture builds its index and interpolation table lazily, so they
+     * are built first (see {@link GaussianMixture#prepareEvaluation}).
+     * Then, blocks of instances are processed on the worker pool (see
+     * {@link #setWorkerPool} and {@link WorkerPool#forEachBlock}),
+     * where every block has its own weight vector and discretized
+     * view.
+     */
+    @Override
+    public double[] getDensityValues(List<Instance> insts) {
+        double[] densities = new double[insts.size()];
+        kernels.prepareEvaluation();
+        WorkerPool.forEachBlock(getWorkerPool(), insts.size(), 
+                                QUERY_BLOCK_SIZE, (from, to) -> {
+            double[] w = new double[getNumberOfBins()];
+            DiscretizedInstance view = discretization.createView();
+            for (int i = from; i < to; i++) {
+                Instance inst = insts.get(i);
+                computeWeights(discretization.view(inst, view), w);
+                densities[i] = kernels.evaluate(inst.classValue(), w);
+            }
+        });
+
+        String att = getTargetVariables().get(0).getAttribute().name();        
+        logger.info("Attribute {}, {} density values", att, densities.length);
+
+        return densities;
+    }
+
+    @Override
+    public double getLogDensityValue(Instance inst) {
+        double[] w = new double[getNumberOfBins()];
+        computeWeights(discretization.view(inst), w);
+        return kernels.logEvaluate(inst.classValue(), w);
+    }
+
+    /**
+     * Computes the log density values of several instances in parallel
+     * (see {@link #getDensityValues}).
+     */
+    @Override
+    public double[] getLogDensityValues(List<Instance> insts) {
+        double[] logDensities = new double[insts.size()];
+        kernels.prepareEvaluation();
+        WorkerPool.forEachBlock(getWorkerPool(), insts.size(), 
+                                QUERY_BLOCK_SIZE, (from, to) -> {
+            double[] w = new double[getNumberOfBins()];
+            DiscretizedInstance view = discretization.createView();
+            for (int i = from; i < to; i++) {
+                Instance inst = insts.get(i);
+                computeWeights(discretization.view(inst, view), w);
+                logDensities[i] = kernels.logEvaluate(inst.classValue(), w);
+            }
+        });
+        return logDensities;
+    }
+
+    /**
+     * Computes the density value of {@code inst}.
+     *
+     * @param inst the instance of which the density value is supposed
+     * to be computed
+     * @param w array of length {@code numBins} that is used for the
+     * weights of the bins. It is overwritten.
+     * @return the density value of {@code inst}
+     */
+    private double computeDensityValue(Instance inst, double[] w) {
+        computeWeights(discretization.view(inst), w);
+        return kernels.evaluate(inst.classValue(), w);
+    }
+
+    /**
+     * Computes the weights of the bins for an instance.
+     *
+     * @param discInstance the discretized instance providing the values
+     * of the conditioned variables
+     * @param w array of length {@code numBins} to which the weights are
+     * written
+     */
+    private void computeWeights(Instance discInstance, double[] w) {
         // c_{y_i} is the bin (i.e., class) containing the target value
         // y_i, prob_y[i] := p(c_{y_i} | X) is the predicted probability
         // of c_{y_i} given X, numberOfInstances is the total number of
@@ -313,14 +596,11 @@ public class OCCDEstimator implements DensityEstimator {
         // c_{y_i}
         
         // w(y_i | X) = n \cdot \frac{p(c_{y_i} | X)}{n_{c_{y_i}}}
-        Instance discInstance = discretization.apply(inst);
         double[] prob_y = discreteEstimator.getObservationCounts(discInstance);
-	double[] w = new double[getNumberOfBins()];
 	if (w.length > prob_y.length) {
             // If some values have not been observed yet, perform
             // laplace correction.
-            double[] ps = discreteEstimator.getObservationCounts(discInstance);
-            String out = "";
+            double[] ps = prob_y;
 	    prob_y = new double[w.length];
 	    for (int i = 0; i < prob_y.length; i++) {
                 if (i < ps.length) {
@@ -332,39 +612,110 @@ public class OCCDEstimator implements DensityEstimator {
         }
 		
 	// compute weight vector
-        prob_y = Utils.normalize(prob_y);
+        double sum = 0.0;
+        for (int i = 0; i < w.length; i++) {
+            sum += prob_y[i];
+        }
         for (int i = 0; i < w.length; i++) {
-            w[i] = numberOfInstances * (prob_y[i] / n[i]);
+            w[i] = numberOfInstances * ((prob_y[i] / sum) / n[i]);
         }
+    }
 
-        double density = kernels.evaluate(inst.classValue(), w);
-	
-        String att = getTargetVariables().get(0).getAttribute().name();        
-        logger.info("Attribute {}, density value {}", att, density);
+    /**
+     * Merges an OCCD estimator that has been trained on another part of
+     * the stream: The discretizations (see {@link
+     * DiscretizationFilter#merge}), the Hoeffding trees (see {@link
+     * HoeffdingTreeCR#merge}), and the kernels (see {@link
+     * GaussianMixture#merge}) are merged, and the bin counts {@code n}
+     * are added. As for the kernels of this estimator, the kernels of
+     * {@code other} keep the bins they were assigned to when they were
+     * created. The instances buffered by {@code other} are added to the
+     * buffer, and the bandwidth estimate of this estimator is kept.
+     *
+     * @throws IllegalArgumentException if {@code other} is not an
+     * initialized OCCDEstimator for the same target variable with the
+     * same number of bins
+     * @throws IllegalStateException if this estimator has not been
+     * initialized
+     */
+    @Override
+    public void merge(DensityEstimator other) 
+        throws IllegalArgumentException, IllegalStateException {
+        if (discretization == null) {
+            throw new IllegalStateException("Estimator not initialized.");
+        }
+        if (!(other instanceof OCCDEstimator) || other == this) {
+            String msg = "Only another OCCDEstimator can be merged.";
+            throw new IllegalArgumentException(msg);
+        }
+        OCCDEstimator o = (OCCDEstimator) other;
+        if (o.discretization == null || o.numBins != numBins
+                || o.targetAttribute != targetAttribute) {
+            String msg = "The estimators estimate different densities.";
+            throw new IllegalArgumentException(msg);
+        }
+        discretization.merge(o.discretization);
+        discreteEstimator.merge(o.discreteEstimator);
+        kernels.merge(o.kernels);
 
-        return density;
+        // both counts include the laplace correction
+        for (int i = 0; i < n.length; i++) {
+            n[i] += o.n[i] - 1;
+        }
+        numberOfInstances += o.numberOfInstances - numBins;
+        numberOfDiscardedInstances += o.numberOfDiscardedInstances;
+
+        for (BufferedInstance buffInst : o.buffer) {
+            Instance disc = buffInst.getDiscretizedInstance();
+            BufferedInstance slot = nextBufferSlot();
+            Instance target = slot.getDiscretizedInstance();
+            for (int i = 0; i < target.numAttributes(); i++) {
+                target.setValue(i, disc.value(i));
+            }
+            target.setWeight(disc.weight());
+            slot.setTargetValue(buffInst.getTargetValue());
+            buffer.add(slot);
+            if (buffer.size() >= maxBufferSize) {
+                processInstances();
+                buffer.clear();
+            }
+        }
     }
 
     @Override
     public JsonObject getModelCharacteristics() {
         JsonObjectBuilder o = Json.createObjectBuilder();
         o.add("kernels", determineNumberOfKernels());
+        o.add("kernelBytes", getKernelBytes());
+        o.add("savedBytes", getSavedBytes());
         o.add("discardedInstances", getNumberOfDiscardedInstances());
         return o.build();
     }
 
+    /**
+     * Keeps the discretized instance and the original value of the
+     * target variable. The original instance itself is not kept, since
+     * it might only be a view (see {@link
+     * org.kramerlab.mideo.data.instances.ProjectedInstance}) that is
+     * re-used for other instances. The buffered instances themselves
+     * are re-used once the buffer has been processed.
+     */
     public class BufferedInstance {
 
-        private Instance origInstance;
+        private double targetValue;
         private Instance discInstance;
 
-        public BufferedInstance(Instance origInstance, Instance discInstance) {
-            this.origInstance = origInstance;
+        public BufferedInstance(double targetValue, Instance discInstance) {
+            this.targetValue = targetValue;
             this.discInstance = discInstance;
         }
         
-        public Instance getOriginalInstance() {
-            return origInstance;
+        public double getTargetValue() {
+            return targetValue;
+        }
+
+        public void setTargetValue(double targetValue) {
+            this.targetValue = targetValue;
         }
 
         public Instance getDiscretizedInstance() {
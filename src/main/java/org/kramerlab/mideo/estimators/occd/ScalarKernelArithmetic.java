@@ -0,0 +1,61 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+/**
+ * Evaluates the inner loops of {@link KernelArithmetic} element by
+ * element. The terms are added in the same order as in the loops it
+ * replaces, so the results do not change.
+ *
+ * @author Michael Geilke
+ */
+final class ScalarKernelArithmetic implements KernelArithmetic {
+
+    static final ScalarKernelArithmetic INSTANCE = 
+        new ScalarKernelArithmetic();
+
+    private ScalarKernelArithmetic() {
+    }
+
+    @Override
+    public double sumGaussians(double[] means, int offset, 
+                               double[] weights, int length, double y,
+                               double scale) {
+        double p = 0.0;
+        for (int k = 0; k < length; k++) {
+            double d = y - means[offset + k];
+            p += weights[k] * Math.exp(-d * d * scale);
+        }
+        return p;
+    }
+
+    @Override
+    public double dot(double[] w, int[] factors, int offset, int length) {
+        double weight = 0.0;
+        for (int b = 0; b < length; b++) {
+            weight += w[b] * factors[offset + b];
+        }
+        return weight;
+    }
+}
@@ -46,6 +46,15 @@ import org.kramerlab.mideo.exceptions.UnsupportedConfiguration;
  * @author Michael Geilke
  */
 public class Layer {
+
+    // options of RED that are passed on to the density estimators of
+    // the representatives
+    private static final String[] FORWARDED_STRING_OPTIONS = {
+        "batchSizing"
+    };
+    private static final String[] FORWARDED_INTEGER_OPTIONS = {
+        "batchSize", "maxBatchSize", "targetLatency", "targetStaleness"
+    };
     
     protected Options options;
     protected InstancesHeader header;
@@ -313,6 +322,7 @@ public class Layer {
     private Representative convertToRepresentative(final Candidate c) {
         // create density estimator
         EDO edo = new EDO();
+        forwardOptions(edo.getOptions());
         try {    
             edo.init(header, targetVars, condVars);
         } catch (UnsupportedConfiguration ex) {
@@ -330,4 +340,26 @@ public class Layer {
 
 	return r;
     }
+
+    /**
+     * Passes the options that configure the density estimators of the
+     * representatives on to {@code edoOptions}.
+     *
+     * @param edoOptions the options of the density estimator of a
+     * representative
+     */
+    private void forwardOptions(Options edoOptions) {
+        for (String name : FORWARDED_STRING_OPTIONS) {
+            if (options.getStringOptions().hasOption(name)) {
+                edoOptions.getStringOptions().getOption(name).setValue(
+                    options.getStringOptions().getOption(name).getValue());
+            }
+        }
+        for (String name : FORWARDED_INTEGER_OPTIONS) {
+            if (options.getIntegerOptions().hasOption(name)) {
+                edoOptions.getIntegerOptions().getOption(name).setValue(
+                    options.getIntegerOptions().getOption(name).getValue());
+            }
+        }
+    }
 }
@@ -128,6 +128,43 @@ public class RED implements DensityEstimator, Configurable {
         10000,
         t -> (t > 0));
 
+    private Option<String> batchSizing = new Option<>(
+        "batchSizing",
+        "specifies how the batch size of the density estimators of the " +
+        "representatives is chosen. Possible choices: [fixed | latency " +
+        "| staleness] (see EDO)",
+        "fixed",
+        s -> "fixed".equals(s) || "latency".equals(s) || 
+             "staleness".equals(s));
+
+    private Option<Integer> batchSize = new Option<>(
+        "batchSize",
+        "the (initial) number of instances that are buffered before the " +
+        "density estimator of a representative is updated",
+        EDO.MIN_NUM_INSTANCES,
+        b -> (b > 0));
+
+    private Option<Integer> maxBatchSize = new Option<>(
+        "maxBatchSize",
+        "the maximal number of instances per batch if the batch size " +
+        "is adapted",
+        1000,
+        b -> (b > 0));
+
+    private Option<Integer> targetLatency = new Option<>(
+        "targetLatency",
+        "the maximal duration of an update in milliseconds if " +
+        "batchSizing is latency",
+        10,
+        t -> (t >= 0));
+
+    private Option<Integer> targetStaleness = new Option<>(
+        "targetStaleness",
+        "the maximal number of buffered instances seen by a query if " +
+        "batchSizing is staleness",
+        100,
+        t -> (t >= 0));
+
     private Random random;
     
     private InstancesHeader sourceHeader;
@@ -169,6 +206,11 @@ public class RED implements DensityEstimator, Configurable {
         options.getIntegerOptions().addOption(tresholdGarbageCollection);
         options.getIntegerOptions().addOption(maxTimeBeingUnused);
         options.getFloatOptions().addOption(mahalonobisDistance);
+        options.getStringOptions().addOption(batchSizing);
+        options.getIntegerOptions().addOption(batchSize);
+        options.getIntegerOptions().addOption(maxBatchSize);
+        options.getIntegerOptions().addOption(targetLatency);
+        options.getIntegerOptions().addOption(targetStaleness);
     }
 
     @Override
@@ -25,6 +25,7 @@ package org.kramerlab.mideo.estimators.trees;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -37,6 +38,8 @@ import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.SerializeUtils;
 
 import org.kramerlab.mideo.core.Utils;
+import org.kramerlab.mideo.core.WorkerPool;
+import org.kramerlab.mideo.core.Mergeable;
 import org.kramerlab.mideo.core.Option;
 import org.kramerlab.mideo.core.Options;
 import org.kramerlab.mideo.core.Configurable;
@@ -59,9 +62,21 @@ import org.kramerlab.mideo.estimators.DensityEstimator;
  * Please notice that the implementation of the inference operations is
  * still missing.
  *
+ * Queries are answered by the compiled version of the Hoeffding tree
+ * (see {@link HoeffdingTree#getCompiledTree}), which is not changed by
+ * them. Hence, the density values can be computed by several threads,
+ * also while the estimator is updated by another thread.
+ *
  * @author Michael Geilke
  */ 
-public class HoeffdingTreeCR implements DensityEstimator {
+public class HoeffdingTreeCR implements DensityEstimator, 
+                                        Mergeable<DensityEstimator> {
+
+    /**
+     * the number of instances that are processed by one task when
+     * several density values are computed at once
+     */
+    private static final int QUERY_BLOCK_SIZE = 1024;
 
     private Logger logger;
 
@@ -72,6 +87,7 @@ public class HoeffdingTreeCR implements DensityEstimator {
     private List<RandomVariable> conditionedVariables;
     private HoeffdingTree ht;
     private int targetAttribute;
+    private transient ForkJoinPool workerPool;
 
     public HoeffdingTreeCR() {
         this.logger = LogManager.getLogger();
@@ -154,7 +170,7 @@ public class HoeffdingTreeCR implements DensityEstimator {
      */
     public double[] getObservationCounts(Instance inst) {
         int classValue = (int) inst.value(targetAttribute);
-        double[] dist = ht.getVotesForInstance(inst);
+        double[] dist = ht.getCompiledTree().getClassVotes(inst);
         if (classValue >= dist.length) {
             double laplaceCorrection = DoubleVector.getLaplaceCorrection();
             double[] laplaceDist = new double[classValue + 1];
@@ -167,6 +183,20 @@ public class HoeffdingTreeCR implements DensityEstimator {
         return dist;
     }
 
+    @Override
+    public void setWorkerPool(ForkJoinPool pool) {
+        this.workerPool = pool;
+    }
+
+    /* Returns the executor for parallel computations, which is the
+     * shared pool if none has been specified. */
+    private ForkJoinPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = WorkerPool.getSharedPool();
+        }
+        return workerPool;
+    }
+
     @Override
     public double getDensityValue(Instance inst) {
         int classValue = (int) inst.value(targetAttribute);
@@ -174,6 +204,60 @@ public class HoeffdingTreeCR implements DensityEstimator {
         return dist[classValue];
     }
 
+    /**
+     * Computes the density values of several instances, where the class
+     * distributions do not need to be normalized as a whole. The tree
+     * is compiled first, and then blocks of instances are processed on
+     * the worker pool (see {@link #setWorkerPool} and {@link
+     * WorkerPool#forEachBlock}).
+     */
+    @Override
+    public double[] getDensityValues(List<Instance> insts) {
+        double[] densities = new double[insts.size()];
+        ht.getCompiledTree();
+        WorkerPool.forEachBlock(getWorkerPool(), insts.size(), 
+                                QUERY_BLOCK_SIZE, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Instance inst = insts.get(i);
+                int classValue = (int) inst.value(targetAttribute);
+                double[] counts = getObservationCounts(inst);
+                double sum = 0.0;
+                for (int j = 0; j < counts.length; j++) {
+                    sum += counts[j];
+                }
+                densities[i] = counts[classValue] / sum;
+            }
+        });
+        return densities;
+    }
+
+    /**
+     * Merges the Hoeffding tree of {@code other} into the one of this
+     * estimator (see {@link HoeffdingTree#merge} for how differently
+     * grown trees are handled).
+     *
+     * @throws IllegalArgumentException if {@code other} is not an
+     * initialized HoeffdingTreeCR for the same target variable
+     * @throws IllegalStateException if this estimator has not been
+     * initialized
+     */
+    @Override
+    public void merge(DensityEstimator other) 
+        throws IllegalArgumentException, IllegalStateException {
+        if (ht == null) {
+            throw new IllegalStateException("Estimator not initialized.");
+        }
+        if (!(other instanceof HoeffdingTreeCR) 
+                || ((HoeffdingTreeCR) other).ht == null
+                || ((HoeffdingTreeCR) other).targetAttribute 
+                   != targetAttribute) {
+            String msg = "Only an initialized HoeffdingTreeCR for the " 
+                + "same target variable can be merged.";
+            throw new IllegalArgumentException(msg);
+        }
+        ht.merge(((HoeffdingTreeCR) other).ht);
+    }
+
     @Override
     public JsonObject getModelCharacteristics() {
         JsonObjectBuilder o = Json.createObjectBuilder();
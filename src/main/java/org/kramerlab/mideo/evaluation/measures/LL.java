@@ -23,6 +23,9 @@
  */
 package org.kramerlab.mideo.evaluation.measures;
 
+import java.util.List;
+import java.util.ArrayList;
+
 import com.yahoo.labs.samoa.instances.Instance;
 
 import org.kramerlab.mideo.estimators.DensityEstimator;
@@ -36,6 +39,9 @@ import org.kramerlab.mideo.data.streams.Stream;
  */
 public class LL implements PerformanceMeasure {
 
+    // number of test instances that are scored at once
+    private static final int BATCH_SIZE = 1000;
+
     private Stream stream;
     private DensityEstimator estimator;
 
@@ -70,17 +76,39 @@ public class LL implements PerformanceMeasure {
             estimator.update(stream.nextInstance());
             trainInsts++;
         }
+        estimator.awaitQuiescence();
         
-        // evaluate
+        // evaluate: The test instances are scored in batches, which
+        // allows the estimator to distribute the work among several
+        // cores.
         long testInsts = 0;
+        List<Instance> batch = new ArrayList<>();
         while (stream.hasMoreInstances() && testInsts < numTestInsts) {
-            Instance inst = stream.nextInstance();
-            ll += Math.log(estimator.getDensityValue(inst));
+            batch.add(stream.nextInstance());
             testInsts++;
+            if (batch.size() >= BATCH_SIZE) {
+                ll += computeLL(batch);
+                batch.clear();
+            }
 	}
+        ll += computeLL(batch);
         ll = ll / testInsts;
     }
 
+    /**
+     * @param insts the instances to be scored
+     * @return the log-likelihood of {@code insts}
+     */
+    private double computeLL(List<Instance> insts) {
+        double batchLL = 0.0;
+        if (insts.size() > 0) {
+            for (double logDensity : estimator.getLogDensityValues(insts)) {
+                batchLL += logDensity;
+            }
+        }
+        return batchLL;
+    }
+
     @Override
     public double getResult() {
         return ll;
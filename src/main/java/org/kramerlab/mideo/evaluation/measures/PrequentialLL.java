@@ -93,9 +93,8 @@ public class PrequentialLL implements PerformanceMeasure {
         while (stream.hasMoreInstances()) {
             Instance inst = stream.nextInstance();
             if (instCounter > PREFIX_SIZE) {
-		double densityValue = estimator.getDensityValue(inst);
-                double currentLL = Math.log(densityValue);
-		if (densityValue == 0.0) {
+                double currentLL = estimator.getLogDensityValue(inst);
+		if (currentLL == Double.NEGATIVE_INFINITY) {
 		    // Handle instances having a density value of 0.0:
 		    // In rare cases (e.g., in cause of outliers),
 		    // density estimates could return a density value
@@ -0,0 +1,97 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed 
+ * representations
+ * Copyright (C) 2015 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ * 
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ * 
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ *
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Evaluates the inner loops of {@link KernelArithmetic} with the vector
+ * API, using the widest vectors the CPU supports. The remaining
+ * elements are processed one by one. Since the terms are added lane by
+ * lane, the results may differ from {@link ScalarKernelArithmetic} in
+ * the last bits.
+ *
+ * This class needs Java 17 and the module {@code jdk.incubator.vector};
+ * it is only compiled by the {@code jdk17} profile and loaded by
+ * {@link KernelArithmetic#getInstance}.
+ *
+ * @author Michael Geilke
+ */
+final class VectorKernelArithmetic implements KernelArithmetic {
+
+    private static final VectorSpecies<Double> DOUBLES = 
+        DoubleVector.SPECIES_PREFERRED;
+
+    // integers with as many lanes as DOUBLES
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(
+        int.class, VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+
+    VectorKernelArithmetic() {
+    }
+
+    @Override
+    public double sumGaussians(double[] means, int offset, 
+                               double[] weights, int length, double y,
+                               double scale) {
+        DoubleVector yv = DoubleVector.broadcast(DOUBLES, y);
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int upper = DOUBLES.loopBound(length);
+        int k = 0;
+        for (; k < upper; k += DOUBLES.length()) {
+            DoubleVector d = 
+                yv.sub(DoubleVector.fromArray(DOUBLES, means, offset + k));
+            DoubleVector g = d.mul(d).mul(-scale)
+                .lanewise(VectorOperators.EXP);
+            sum = g.fma(DoubleVector.fromArray(DOUBLES, weights, k), sum);
+        }
+        double p = sum.reduceLanes(VectorOperators.ADD);
+        for (; k < length; k++) {
+            double d = y - means[offset + k];
+            p += weights[k] * Math.exp(-d * d * scale);
+        }
+        return p;
+    }
+
+    @Override
+    public double dot(double[] w, int[] factors, int offset, int length) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int upper = DOUBLES.loopBound(length);
+        int b = 0;
+        for (; b < upper; b += DOUBLES.length()) {
+            DoubleVector f = (DoubleVector) IntVector
+                .fromArray(INTS, factors, offset + b)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+            sum = f.fma(DoubleVector.fromArray(DOUBLES, w, b), sum);
+        }
+        double weight = sum.reduceLanes(VectorOperators.ADD);
+        for (; b < length; b++) {
+            weight += w[b] * factors[offset + b];
+        }
+        return weight;
+    }
+}
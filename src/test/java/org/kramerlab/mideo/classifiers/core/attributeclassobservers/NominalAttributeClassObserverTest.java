@@ -0,0 +1,182 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.classifiers.core.attributeclassobservers;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import moa.core.AutoExpandVector;
+
+import org.kramerlab.mideo.classifiers.core.DoubleVector;
+
+/**
+ * @author Michael Geilke
+ */
+public class NominalAttributeClassObserverTest {
+
+    private final int n = 2000;
+    private final int numValues = 5;
+    private final int numClasses = 4;
+    private double laplaceCorrection;
+
+    @Before
+    public void setUp() {
+        // as set by the Hoeffding tree
+        this.laplaceCorrection = DoubleVector.getLaplaceCorrection();
+        DoubleVector.setLaplaceCorrection(1);
+    }
+
+    @After
+    public void tearDown() {
+        DoubleVector.setLaplaceCorrection(laplaceCorrection);
+    }
+
+    /**
+     * Checks whether the flat table yields the same probabilities and
+     * split distributions as one vector of values per class, both if
+     * the table is sized in advance and if it grows with the
+     * observations.
+     */
+    @Test
+    public void testTable01() {
+        for (NominalAttributeClassObserver obs 
+                 : new NominalAttributeClassObserver[] {
+                     new NominalAttributeClassObserver(numValues, numClasses),
+                     new NominalAttributeClassObserver()}) {
+            AutoExpandVector<DoubleVector> expected = 
+                new AutoExpandVector<DoubleVector>();
+            Random random = new Random(1);
+            for (int i = 0; i < n; i++) {
+                // class 3 only occurs with the largest value
+                int c = random.nextInt(numClasses);
+                double v = (c == 3) ? numValues - 1 
+                    : random.nextInt(numValues - 1);
+                if (random.nextDouble() < 0.05) {
+                    v = Double.NaN;
+                }
+                double weight = 0.5 + random.nextDouble();
+                obs.observeAttributeClass(v, c, weight);
+                observe(expected, v, c, weight);
+            }
+            check(expected, obs);
+        }
+    }
+
+    /**
+     * Checks whether a sized table of which only the first classes and
+     * values have been observed equals the vectors, which only cover
+     * the observed ones.
+     */
+    @Test
+    public void testTable02() {
+        NominalAttributeClassObserver obs = 
+            new NominalAttributeClassObserver(numValues, numClasses);
+        AutoExpandVector<DoubleVector> expected = 
+            new AutoExpandVector<DoubleVector>();
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            int c = random.nextInt(2);
+            double v = random.nextInt(2);
+            obs.observeAttributeClass(v, c, 1.0);
+            observe(expected, v, c, 1.0);
+        }
+        check(expected, obs);
+    }
+
+    /* Compares the observer with the vectors per class. */
+    private void check(AutoExpandVector<DoubleVector> expected,
+                       NominalAttributeClassObserver obs) {
+        int maxAttValsObserved = 0;
+        for (DoubleVector dist : expected) {
+            if (dist != null) {
+                maxAttValsObserved = Math.max(maxAttValsObserved, 
+                                              dist.numValues());
+            }
+        }
+        assertEquals(maxAttValsObserved, obs.getMaxAttValsObserved());
+
+        for (int c = 0; c <= numClasses; c++) {
+            DoubleVector dist = expected.get(c);
+            for (int v = 0; v <= numValues; v++) {
+                double p = (dist == null) ? 0.0 
+                    : (dist.getValue(v) + 1.0) 
+                    / (dist.sumOfValues() + dist.numValues());
+                assertEquals(p, obs.probabilityOfAttributeValueGivenClass(
+                    v, c), 1e-12);
+            }
+        }
+
+        double[][] multiway = new double[maxAttValsObserved][];
+        for (int v = 0; v < maxAttValsObserved; v++) {
+            DoubleVector branch = new DoubleVector();
+            for (int c = 0; c < expected.size(); c++) {
+                DoubleVector dist = expected.get(c);
+                if (dist != null && v < dist.numValues()) {
+                    branch.addToValue(c, dist.getValue(v));
+                }
+            }
+            multiway[v] = branch.getArrayRef();
+        }
+        double[][] actual = obs.getClassDistsResultingFromMultiwaySplit(
+            maxAttValsObserved);
+        assertEquals(multiway.length, actual.length);
+        for (int v = 0; v < maxAttValsObserved; v++) {
+            assertArrayEquals(multiway[v], actual[v], 1e-9);
+        }
+
+        for (int v = 0; v < maxAttValsObserved; v++) {
+            DoubleVector equal = new DoubleVector();
+            DoubleVector notEqual = new DoubleVector();
+            for (int c = 0; c < expected.size(); c++) {
+                DoubleVector dist = expected.get(c);
+                if (dist != null) {
+                    for (int j = 0; j < dist.numValues(); j++) {
+                        DoubleVector branch = (j == v) ? equal : notEqual;
+                        branch.addToValue(c, dist.getValue(j));
+                    }
+                }
+            }
+            double[][] binary = obs.getClassDistsResultingFromBinarySplit(v);
+            assertArrayEquals(equal.getArrayRef(), binary[0], 1e-9);
+            assertArrayEquals(notEqual.getArrayRef(), binary[1], 1e-9);
+        }
+    }
+
+    /* Adds an observation to the vector of the class, as the observer
+     * did before it used a flat table. */
+    private void observe(AutoExpandVector<DoubleVector> expected, double v,
+                         int c, double weight) {
+        if (Double.isNaN(v)) {
+            return;
+        }
+        DoubleVector dist = expected.get(c);
+        if (dist == null) {
+            dist = new DoubleVector();
+            expected.set(c, dist);
+        }
+        dist.addToValue((int) v, weight);
+    }
+}
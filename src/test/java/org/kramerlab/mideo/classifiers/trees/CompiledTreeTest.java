@@ -0,0 +1,188 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.classifiers.trees;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.classifiers.core.conditionaltests.InstanceConditionalTest;
+import moa.classifiers.core.conditionaltests.NominalAttributeBinaryTest;
+import moa.classifiers.core.conditionaltests.NominalAttributeMultiwayTest;
+import moa.classifiers.core.conditionaltests.NumericAttributeBinaryTest;
+
+/**
+ * @author Michael Geilke
+ */
+public class CompiledTreeTest {
+
+    private final int n = 3000;
+    private InstancesHeader header;
+    private List<Instance> stream;
+
+    @Before
+    public void setUp() {
+        List<String> values = Arrays.asList("a", "b", "c");
+        List<Attribute> atts = new ArrayList<>();
+        atts.add(new Attribute("numeric"));
+        atts.add(new Attribute("nominal", values));
+        atts.add(new Attribute("class", values));
+        this.header = new InstancesHeader(new Instances("stream", atts, 0));
+        header.setClassIndex(2);
+
+        // the class depends on both attributes, and some values are
+        // missing
+        Random random = new Random(1);
+        this.stream = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double x = random.nextGaussian();
+            int v = random.nextInt(3);
+            int c = (random.nextDouble() < 0.9) ? (v + (x > 0 ? 1 : 0)) % 3
+                : random.nextInt(3);
+            double[] attValues = {x, v, c};
+            if (random.nextDouble() < 0.05) {
+                attValues[random.nextInt(2)] = Double.NaN;
+            }
+            Instance inst = new DenseInstance(1.0, attValues);
+            inst.setDataset(header);
+            stream.add(inst);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        header = null;
+        stream = null;
+    }
+
+    /**
+     * Checks whether the compiled tree predicts the same votes as the
+     * Hoeffding tree with numeric and nominal multiway splits, for
+     * majority class and naive Bayes leaves, while the tree is trained.
+     */
+    @Test
+    public void testClassVotes01() {
+        for (String leafPrediction : new String[] {"MC", "NB", "NBAdaptive"}) {
+            HoeffdingTree tree = createTree(leafPrediction, false);
+            checkClassVotes(tree);
+            assertTrue(containsTest(tree.getRoot(),
+                                    NumericAttributeBinaryTest.class));
+            assertTrue(containsTest(tree.getRoot(),
+                                    NominalAttributeMultiwayTest.class));
+        }
+    }
+
+    /**
+     * Checks whether the compiled tree predicts the same votes as the
+     * Hoeffding tree with binary nominal splits, which are delegated to
+     * the split tests.
+     */
+    @Test
+    public void testClassVotes02() {
+        for (String leafPrediction : new String[] {"MC", "NB"}) {
+            HoeffdingTree tree = createTree(leafPrediction, true);
+            checkClassVotes(tree);
+            assertTrue(containsTest(tree.getRoot(),
+                                    NominalAttributeBinaryTest.class));
+        }
+    }
+
+    /**
+     * Checks whether a compiled tree is kept as long as the structure
+     * of the tree does not change and whether it follows the updates of
+     * the leaves.
+     */
+    @Test
+    public void testCompile01() {
+        HoeffdingTree tree = createTree("MC", false);
+        tree.gracePeriodOption.setValue(Integer.MAX_VALUE);
+        tree.resetLearning();
+        CompiledTree compiled = tree.getCompiledTree();
+        assertTrue(compiled.getNumberOfNodes() == 0);
+        tree.trainOnInstance(stream.get(0));
+        compiled = tree.getCompiledTree();
+        assertTrue(compiled.getNumberOfNodes() == 1);
+
+        for (Instance inst : stream) {
+            tree.trainOnInstance(inst);
+            assertTrue(tree.getCompiledTree() == compiled);
+            assertArrayEquals(tree.getVotesForInstance(inst),
+                              compiled.getClassVotes(inst), 0.0);
+        }
+    }
+
+    /* Trains the tree and compares the votes of both representations
+     * after every 100 instances. */
+    private void checkClassVotes(HoeffdingTree tree) {
+        for (int i = 0; i < stream.size(); i++) {
+            tree.trainOnInstance(stream.get(i));
+            if (i % 100 == 0) {
+                CompiledTree compiled = tree.getCompiledTree();
+                for (Instance inst : stream) {
+                    assertArrayEquals(tree.getVotesForInstance(inst),
+                                      compiled.getClassVotes(inst), 0.0);
+                }
+            }
+        }
+        assertTrue(tree.getCompiledTree().getNumberOfNodes() > 5);
+    }
+
+    private HoeffdingTree createTree(String leafPrediction,
+                                     boolean binarySplits) {
+        HoeffdingTree tree = new HoeffdingTree();
+        tree.leafpredictionOption.setChosenLabel(leafPrediction);
+        tree.gracePeriodOption.setValue(50);
+        tree.binarySplitsOption.setValue(binarySplits);
+        tree.setModelContext(header);
+        tree.prepareForUse();
+        return tree;
+    }
+
+    /* Checks whether the subtree contains a split test of the type. */
+    private boolean containsTest(HoeffdingTree.Node node,
+            Class<? extends InstanceConditionalTest> type) {
+        if (!(node instanceof HoeffdingTree.SplitNode)) {
+            return false;
+        }
+        HoeffdingTree.SplitNode split = (HoeffdingTree.SplitNode) node;
+        if (split.splitTest.getClass() == type) {
+            return true;
+        }
+        for (int i = 0; i < split.numChildren(); i++) {
+            if (containsTest(split.getChild(i), type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
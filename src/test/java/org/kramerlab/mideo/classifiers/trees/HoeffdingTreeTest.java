@@ -0,0 +1,407 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.classifiers.trees;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import org.kramerlab.mideo.classifiers.bayes.NaiveBayes;
+import org.kramerlab.mideo.classifiers.core.DoubleVector;
+import org.kramerlab.mideo.classifiers.core.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import org.kramerlab.mideo.classifiers.core.attributeclassobservers.NominalAttributeClassObserver;
+
+/**
+ * @author Michael Geilke
+ */
+public class HoeffdingTreeTest {
+
+    private final int n = 1000;
+    private InstancesHeader header;
+    private List<Instance> shard1;
+    private List<Instance> shard2;
+
+    @Before
+    public void setUp() {
+        List<String> values = Arrays.asList("a", "b", "c");
+        List<Attribute> atts = new ArrayList<>();
+        atts.add(new Attribute("nominal", values));
+        atts.add(new Attribute("numeric"));
+        atts.add(new Attribute("class", values));
+        this.header = new InstancesHeader(new Instances("stream", atts, 0));
+        header.setClassIndex(2);
+
+        // the first shard only contains the first two values of the
+        // nominal attribute and of the class
+        Random random = new Random(1);
+        this.shard1 = createShard(random, 2);
+        this.shard2 = createShard(random, 3);
+    }
+
+    @After
+    public void tearDown() {
+        header = null;
+        shard1 = null;
+        shard2 = null;
+    }
+
+    /**
+     * Merges two trees that consist of a single leaf and checks whether
+     * the class distribution, the nominal attribute observer, and the
+     * naive Bayes predictions equal the ones of a single tree trained
+     * on both shards.
+     */
+    @Test
+    public void testMerge01() {
+        HoeffdingTree merged = train(Integer.MAX_VALUE, shard1);
+        merged.merge(train(Integer.MAX_VALUE, shard2));
+        HoeffdingTree single = train(Integer.MAX_VALUE, shard1, shard2);
+
+        HoeffdingTree.Node root = merged.getRoot();
+        HoeffdingTree.Node expectedRoot = single.getRoot();
+        assertTrue(root.isLeaf());
+        assertArrayEquals(expectedRoot.getObservedClassDistribution(),
+                          root.getObservedClassDistribution(), 1e-9);
+        assertEquals(expectedRoot.getInstanceCount(),
+                     root.getInstanceCount());
+
+        NominalAttributeClassObserver obs = getNominalObserver(root);
+        NominalAttributeClassObserver expectedObs =
+            getNominalObserver(expectedRoot);
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 4; v++) {
+                assertEquals(
+                    expectedObs.probabilityOfAttributeValueGivenClass(v, c),
+                    obs.probabilityOfAttributeValueGivenClass(v, c), 1e-12);
+            }
+        }
+
+        for (Instance inst : shard2) {
+            assertArrayEquals(single.getVotesForInstance(inst),
+                              merged.getVotesForInstance(inst), 1e-9);
+        }
+    }
+
+    /**
+     * Merges a tree that has been split with a copy of itself and
+     * checks whether every node has observed every instance twice,
+     * i.e., whether the laplace correction is contained only once.
+     */
+    @Test
+    public void testMerge02() {
+        HoeffdingTree tree = train(50, shard1, shard2);
+        HoeffdingTree merged = (HoeffdingTree) tree.copy();
+        merged.merge(tree);
+        assertTrue(!merged.getRoot().isLeaf());
+        checkDoubled(tree.getRoot(), merged.getRoot());
+    }
+
+    /**
+     * Checks whether predictions neither change the instance counts nor
+     * the description of the tree.
+     */
+    @Test
+    public void testVotes01() {
+        HoeffdingTree tree = train(50, shard1, shard2);
+        long count = tree.getRoot().getInstanceCount();
+        StringBuilder description = new StringBuilder();
+        tree.getModelDescription(description, 0);
+
+        for (Instance inst : shard2) {
+            tree.getVotesForInstance(inst);
+            tree.getCompiledTree().getClassVotes(inst);
+        }
+        StringBuilder after = new StringBuilder();
+        tree.getModelDescription(after, 0);
+        assertEquals(count, tree.getRoot().getInstanceCount());
+        assertEquals(description.toString(), after.toString());
+    }
+
+    /**
+     * Trains a tree while two other threads make predictions and checks
+     * whether every prediction is a complete distribution and whether
+     * the tree equals one that has been trained without predictions,
+     * for every kind of leaf.
+     */
+    @Test(timeout=60000)
+    public void testVotes02() throws Exception {
+        for (String leafPrediction : new String[] {"MC", "NB", "NBAdaptive"}) {
+            HoeffdingTree expected = train(leafPrediction, 50, shard1,
+                                           shard2);
+            HoeffdingTree tree = train(leafPrediction, 50);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread[] readers = new Thread[2];
+            for (int t = 0; t < readers.length; t++) {
+                boolean compiled = (t == 0);
+                readers[t] = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            for (Instance inst : shard2) {
+                                checkVotes(leafPrediction, compiled
+                                    ? tree.getCompiledTree().getClassVotes(inst)
+                                    : tree.getVotesForInstance(inst));
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    }
+                });
+                readers[t].start();
+            }
+            for (List<Instance> shard : Arrays.asList(shard1, shard2)) {
+                for (Instance inst : shard) {
+                    tree.trainOnInstance(inst);
+                    Thread.yield();
+                }
+            }
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+
+            assertTrue(error.get() == null);
+            for (Instance inst : shard2) {
+                assertArrayEquals(expected.getVotesForInstance(inst),
+                                  tree.getVotesForInstance(inst), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the votes of naive Bayes leaves are computed from
+     * the current statistics of the leaf, although the predictions use
+     * copies of the attribute observers.
+     */
+    @Test
+    public void testSnapshot01() {
+        for (String leafPrediction : new String[] {"NB", "NBAdaptive"}) {
+            HoeffdingTree tree = train(leafPrediction, Integer.MAX_VALUE,
+                                       shard1);
+            HoeffdingTree.LearningNodeNB leaf =
+                (HoeffdingTree.LearningNodeNB) tree.getRoot();
+            for (Instance inst : shard2) {
+                tree.trainOnInstance(inst);
+                double[] votes = tree.getVotesForInstance(inst);
+                double[] expected = leaf.prefersMajorityClass()
+                    ? leaf.getObservedClassDistribution()
+                    : NaiveBayes.doNaiveBayesPrediction(inst,
+                          leaf.getObservedClassDistribution(),
+                          leaf.attributeObservers);
+                assertArrayEquals(expected, votes, 0.0);
+                assertTrue(leaf.snapshot.attributeObservers.get(0)
+                           != leaf.attributeObservers.get(0));
+            }
+        }
+    }
+
+    /**
+     * Checks whether copies of the attribute observers have the same
+     * probabilities as the originals and are not changed by further
+     * observations of the originals.
+     */
+    @Test
+    public void testSnapshot02() {
+        NominalAttributeClassObserver nominal =
+            new NominalAttributeClassObserver(3, 3);
+        GaussianNumericAttributeClassObserver numeric =
+            new GaussianNumericAttributeClassObserver();
+        for (Instance inst : shard1) {
+            nominal.observeAttributeClass(inst.value(0),
+                                          (int) inst.classValue(), 1.0);
+            numeric.observeAttributeClass(inst.value(1),
+                                          (int) inst.classValue(), 1.0);
+        }
+        NominalAttributeClassObserver nominalCopy =
+            new NominalAttributeClassObserver(nominal);
+        GaussianNumericAttributeClassObserver numericCopy =
+            new GaussianNumericAttributeClassObserver(numeric);
+        double[][] expected = new double[3][4];
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 3; v++) {
+                expected[c][v] =
+                    nominal.probabilityOfAttributeValueGivenClass(v, c);
+            }
+            expected[c][3] =
+                numeric.probabilityOfAttributeValueGivenClass(0.5, c);
+        }
+        assertArrayEquals(numeric.getSplitPointSuggestions(),
+                          numericCopy.getSplitPointSuggestions(), 0.0);
+
+        for (Instance inst : shard2) {
+            nominal.observeAttributeClass(inst.value(0),
+                                          (int) inst.classValue(), 1.0);
+            numeric.observeAttributeClass(inst.value(1),
+                                          (int) inst.classValue(), 1.0);
+        }
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 3; v++) {
+                assertEquals(expected[c][v],
+                    nominalCopy.probabilityOfAttributeValueGivenClass(v, c),
+                    0.0);
+            }
+            assertEquals(expected[c][3],
+                numericCopy.probabilityOfAttributeValueGivenClass(0.5, c),
+                1e-12);
+        }
+    }
+
+    /**
+     * Checks whether the parents of every node are the attributes of
+     * the split nodes on the path from the root.
+     */
+    @Test
+    public void testParents01() {
+        HoeffdingTree tree = train(50, shard1, shard2);
+        assertTrue(tree.getRoot().getParents().isEmpty());
+        assertTrue(tree.measureTreeDepth() > 1);
+        checkParents(tree.getRoot(), new ArrayList<Integer>());
+    }
+
+    /* Checks the parents of the subtree, where path contains the
+     * indices of the split suggestions above node. The children of a
+     * split node share the path of the split node extended by one
+     * index. */
+    private void checkParents(HoeffdingTree.Node node, List<Integer> path) {
+        assertEquals(path, node.getParents());
+        for (int index = 0; index < 3; index++) {
+            int count = 0;
+            for (int parent : path) {
+                count += (parent == index) ? 1 : 0;
+            }
+            assertEquals(count, node.countParents(index));
+        }
+        if (node instanceof HoeffdingTree.SplitNode) {
+            HoeffdingTree.SplitNode split = (HoeffdingTree.SplitNode) node;
+            List<Integer> childPath = null;
+            for (int i = 0; i < split.numChildren(); i++) {
+                HoeffdingTree.Node child = split.getChild(i);
+                if (child != null) {
+                    List<Integer> parents = child.getParents();
+                    assertEquals(path.size() + 1, parents.size());
+                    assertEquals(path, parents.subList(0, path.size()));
+                    if (childPath == null) {
+                        childPath = new ArrayList<>(parents);
+                    }
+                    checkParents(child, childPath);
+                }
+            }
+        }
+    }
+
+    /* Checks whether the votes are a complete distribution over the
+     * observed classes. */
+    private void checkVotes(String leafPrediction, double[] votes) {
+        assertTrue(votes.length <= 3);
+        for (double vote : votes) {
+            assertTrue(vote >= 0.0 && !Double.isInfinite(vote));
+            if (leafPrediction.equals("MC")) {
+                assertTrue(vote >= DoubleVector.getLaplaceCorrection());
+            }
+        }
+    }
+
+    /* Checks whether the counts of node are the doubled counts of
+     * original for the whole subtree. */
+    private void checkDoubled(HoeffdingTree.Node original,
+                              HoeffdingTree.Node node) {
+        double laplace = DoubleVector.getLaplaceCorrection();
+        double[] dist = original.getObservedClassDistribution();
+        for (int i = 0; i < dist.length; i++) {
+            dist[i] = 2 * (dist[i] - laplace) + laplace;
+        }
+        assertArrayEquals(dist, node.getObservedClassDistribution(), 1e-9);
+        if (original instanceof HoeffdingTree.SplitNode) {
+            HoeffdingTree.SplitNode split = (HoeffdingTree.SplitNode) node;
+            HoeffdingTree.SplitNode originalSplit =
+                (HoeffdingTree.SplitNode) original;
+            for (int i = 0; i < originalSplit.numChildren(); i++) {
+                assertEquals(
+                    2 * (originalSplit.childrenDistribution.getValue(i)
+                         - laplace) + laplace,
+                    split.childrenDistribution.getValue(i), 1e-9);
+                if (originalSplit.getChild(i) != null) {
+                    checkDoubled(originalSplit.getChild(i),
+                                 split.getChild(i));
+                }
+            }
+        }
+    }
+
+    /* Trains a tree with naive Bayes leaves on the shards. */
+    private HoeffdingTree train(int gracePeriod,
+                                List<Instance>... shards) {
+        return train("NB", gracePeriod, shards);
+    }
+
+    private HoeffdingTree train(String leafPrediction, int gracePeriod,
+                                List<Instance>... shards) {
+        HoeffdingTree tree = new HoeffdingTree();
+        tree.leafpredictionOption.setChosenLabel(leafPrediction);
+        tree.gracePeriodOption.setValue(gracePeriod);
+        tree.setModelContext(header);
+        tree.prepareForUse();
+        for (List<Instance> shard : shards) {
+            for (Instance inst : shard) {
+                tree.trainOnInstance(inst);
+            }
+        }
+        return tree;
+    }
+
+    /* Creates instances whose class mostly equals the nominal
+     * attribute, which takes the first numValues values. */
+    private List<Instance> createShard(Random random, int numValues) {
+        List<Instance> shard = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int v = random.nextInt(numValues);
+            int c = (random.nextDouble() < 0.8) ? v
+                : random.nextInt(numValues);
+            double x = c + random.nextGaussian();
+            Instance inst = new DenseInstance(1.0, new double[] {v, x, c});
+            inst.setDataset(header);
+            shard.add(inst);
+        }
+        return shard;
+    }
+
+    private NominalAttributeClassObserver getNominalObserver(
+            HoeffdingTree.Node node) {
+        return (NominalAttributeClassObserver)
+            ((HoeffdingTree.ActiveLearningNode) node).attributeObservers.get(0);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Michael Geilke
+ */
+public class WorkerPoolTest {
+
+    private final int n = 1000;
+    private final int blockSize = 64;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        this.pool = new ForkJoinPool(1);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        pool = null;
+    }
+
+    /**
+     * Checks whether every element is processed exactly once and
+     * whether the blocks are processed on the specified pool instead of
+     * the shared one.
+     */
+    @Test
+    public void testForEachBlock01() {
+        int[] visits = new int[n];
+        AtomicInteger foreign = new AtomicInteger();
+        WorkerPool.forEachBlock(pool, n, blockSize, (from, to) -> {
+            if (ForkJoinTask.getPool() != pool) {
+                foreign.incrementAndGet();
+            }
+            assertTrue(to - from <= blockSize);
+            for (int i = from; i < to; i++) {
+                visits[i]++;
+            }
+        });
+        assertEquals(0, foreign.get());
+        for (int i = 0; i < n; i++) {
+            assertEquals(1, visits[i]);
+        }
+    }
+
+    /**
+     * Checks whether blocks can be processed by a task of a pool with a
+     * single worker thread, which is occupied by the calling task.
+     */
+    @Test(timeout=10000)
+    public void testForEachBlock02() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        pool.submit(() -> {
+            WorkerPool.forEachBlock(pool, n, blockSize, (from, to) -> {
+                count.addAndGet(to - from);
+            });
+        }).get();
+        assertEquals(n, count.get());
+    }
+
+    /**
+     * Checks whether an exception of a block is passed to the caller.
+     */
+    @Test(expected=IllegalStateException.class)
+    public void testForEachBlock03() {
+        WorkerPool.forEachBlock(pool, n, blockSize, (from, to) -> {
+            if (from > 0) {
+                throw new IllegalStateException();
+            }
+        });
+    }
+
+    /**
+     * Checks whether a block size that is not positive is rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testForEachBlock04() {
+        WorkerPool.forEachBlock(pool, n, 0, (from, to) -> { });
+    }
+}
@@ -198,6 +198,48 @@ public class PartitionIncrementalTest {
         assertEquals(expected, ewDisc.apply(obs), 0);
     }
 
+    /**
+     * Checks whether the binary search over the borders finds the same
+     * bin as a linear scan, also for an equal-frequency discretization
+     * whose observations are mostly equal to the largest one, so that
+     * some of its bins are not reached and share their borders.
+     */
+    @Test
+    public void testApply04() {
+        PartitionIncremental skewed = new PartitionIncremental(k, 
+            DiscretizationType.EQUAL_FREQUENCY, 0, 1);
+        // without splits, the largest observation stays in one bin
+        skewed.setSplitThreshold(Integer.MAX_VALUE);
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            skewed.addObservation((i % 10 == 0) ? random.nextDouble() : 1.0);
+        }
+        ewDisc.processBuffer();
+        efDisc.processBuffer();
+        skewed.processBuffer();
+        assertEquals(skewed.getBorder(k - 1), skewed.getBorder(k - 2), 0);
+
+        for (PartitionIncremental disc 
+                 : new PartitionIncremental[] {ewDisc, efDisc, skewed}) {
+            for (int i = 1; i < k - 1; i++) {
+                assertTrue(disc.getBorder(i) <= disc.getBorder(i + 1));
+            }
+            for (int i = 0; i < 1000; i++) {
+                double obs = (i < 3 * k) ? disc.getBorder(i / 3 + 1) 
+                    + (i % 3 - 1) * 1e-9 : 1.4 * random.nextDouble() - 0.2;
+                // smallest i with obs <= bi (or k if there is none)
+                int expected = k - 1;
+                for (int j = 1; j < k; j++) {
+                    if (obs <= disc.getBorder(j)) {
+                        expected = j - 1;
+                        break;
+                    }
+                }
+                assertEquals(expected, disc.apply(obs), 0);
+            }
+        }
+    }
+
     /**
      * Adds a count of 10 to bin k/2 and checks whether it has been
      * added correctly to the equal-width discretization.
@@ -215,4 +257,187 @@ public class PartitionIncrementalTest {
         ewDisc.addCountToBin(bin, count);
         assertEquals(current + count, ewDisc.getBinCount(bin), 2);
     }
+
+    /**
+     * Merges an equal-frequency discretization of n random numbers
+     * between 1 and 2 into the one of efDisc and checks whether all
+     * observations are counted and the median is the border of bin k/2.
+     */
+    @Test
+    public void testMerge01() {
+        PartitionIncremental other = new PartitionIncremental(k, 
+            DiscretizationType.EQUAL_FREQUENCY, 1, 2);
+        Random random = new Random();
+        for (int i = 0; i < n; i++) {
+            other.addObservation(1 + random.nextDouble());
+        }
+        efDisc.processBuffer();
+        other.processBuffer();
+        efDisc.merge(other);
+
+        long sum = 0;
+        for (int i = 0; i < k; i++) {
+            sum += efDisc.getBinCount(i);
+        }
+        assertEquals(2 * n, sum);
+        assertEquals(1.0, efDisc.getBorder(k / 2), 0.1);
+    }
+
+    /**
+     * Checks whether discretizations of different types cannot be
+     * merged.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testMerge02() {
+        efDisc.merge(ewDisc);
+    }
+
+    /**
+     * Limits Layer1 to 150 bins (initially, it has k * k = 100 bins)
+     * of at most 10 values and adds n observations whose range grows
+     * over time, which require about 200 bins. Checks whether the
+     * limit is reached but never exceeded and whether no observation
+     * is lost by the equal-frequency discretization.
+     */
+    @Test
+    public void testMaxNumberOfLayer1Bins01() {
+        int max = 150;
+        for (DiscretizationType type : DiscretizationType.values()) {
+            PartitionIncremental disc = createLimited(type, max);
+            Random random = new Random(1);
+            boolean reached = false;
+            for (int i = 0; i < n; i++) {
+                disc.addObservation(nextObservation(random, i));
+                assertTrue(disc.getNumberOfLayer1Bins() <= max);
+                reached |= disc.getNumberOfLayer1Bins() == max;
+            }
+            disc.processBuffer();
+            assertTrue(disc.getNumberOfLayer1Bins() <= max);
+            assertTrue(reached);
+            if (type == DiscretizationType.EQUAL_FREQUENCY) {
+                long sum = 0;
+                for (int i = 0; i < k; i++) {
+                    sum += disc.getBinCount(i);
+                }
+                assertEquals(n, sum);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a limit below 4 is rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testMaxNumberOfLayer1Bins02() {
+        ewDisc.setMaxNumberOfLayer1Bins(3);
+    }
+
+    /**
+     * Checks whether the incrementally maintained borders and bin
+     * counts of Layer2 equal the ones of a recomputation from scratch,
+     * while Layer1 bins are split and merged at the limit.
+     */
+    @Test
+    public void testIncrementalLayer2() {
+        for (DiscretizationType type : DiscretizationType.values()) {
+            checkIncrementalLayer2(createLimited(type, 150));
+        }
+    }
+
+    /**
+     * Checks whether Layer2 is maintained incrementally as well if
+     * Layer1 is stored in single precision, and whether memory is
+     * saved only in that case.
+     */
+    @Test
+    public void testSinglePrecision01() {
+        for (DiscretizationType type : DiscretizationType.values()) {
+            PartitionIncremental disc = createLimited(type, 150);
+            assertEquals(0, disc.getSavedBytes());
+            disc.setSinglePrecision(true);
+            assertTrue(disc.isSinglePrecision());
+            checkIncrementalLayer2(disc);
+            // at least 150 borders and counts with 4 bytes each
+            assertTrue(disc.getSavedBytes() >= 150 * 8);
+        }
+    }
+
+    /**
+     * Checks whether the discretization in single precision is close
+     * to the one in double precision, where Layer1 is converted after
+     * half of the observations.
+     */
+    @Test
+    public void testSinglePrecision02() {
+        for (DiscretizationType type : DiscretizationType.values()) {
+            PartitionIncremental single = createLimited(type, 150);
+            PartitionIncremental full = createLimited(type, 150);
+            Random random = new Random(3);
+            for (int i = 0; i < n; i++) {
+                double obs = nextObservation(random, i);
+                single.addObservation(obs);
+                full.addObservation(obs);
+                if (i == n / 2) {
+                    single.setSinglePrecision(true);
+                }
+            }
+            single.processBuffer();
+            full.processBuffer();
+
+            long sum = 0;
+            for (int j = 0; j <= k; j++) {
+                assertEquals(full.getBorder(j), single.getBorder(j), 1e-6);
+            }
+            for (int j = 0; j < k; j++) {
+                assertEquals(full.getBinCount(j), single.getBinCount(j), 
+                             0.01 * n);
+                sum += single.getBinCount(j);
+            }
+            if (type == DiscretizationType.EQUAL_FREQUENCY) {
+                assertEquals(n, sum);
+            }
+        }
+    }
+
+    /* Adds n observations to the discretization and checks every 100
+     * observations whether the borders and bin counts of Layer2 equal
+     * the ones of a recomputation from scratch. */
+    private void checkIncrementalLayer2(PartitionIncremental disc) {
+        Random random = new Random(2);
+        for (int i = 0; i < n; i++) {
+            disc.addObservation(nextObservation(random, i));
+            if (i % 100 == 99) {
+                disc.processBuffer();
+                double[] borders = new double[k + 1];
+                long[] counts = new long[k];
+                for (int j = 0; j < k; j++) {
+                    borders[j] = disc.getBorder(j);
+                    counts[j] = disc.getBinCount(j);
+                }
+                borders[k] = disc.getBorder(k);
+
+                disc.recomputeLayer2();
+                for (int j = 0; j < k; j++) {
+                    assertEquals(borders[j], disc.getBorder(j), 0);
+                    assertEquals(counts[j], disc.getBinCount(j));
+                }
+                assertEquals(borders[k], disc.getBorder(k), 0);
+            }
+        }
+    }
+
+    private PartitionIncremental createLimited(DiscretizationType type, 
+                                               int max) {
+        PartitionIncremental disc = new PartitionIncremental(k, type, 0, 1);
+        disc.setSplitThreshold(10);
+        disc.setMaxNumberOfLayer1Bins(max);
+        return disc;
+    }
+
+    /* Returns a skewed observation whose range grows with i, so that
+     * the smallest and largest observation change over time. */
+    private double nextObservation(Random random, int i) {
+        double scale = 1.0 + i / (double) n;
+        return scale * Math.pow(random.nextDouble(), 3) - 0.1 * scale;
+    }
 }
@@ -0,0 +1,219 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.core.discretization;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Michael Geilke
+ */
+public class QuantileSketchTest {
+
+    private final int n = 20000;
+    private final int k = 10;
+    private final int sketchSize = 200;
+    private QuantileSketch sketch;
+    private double[] observations;
+
+    @Before
+    public void setUp() {
+        this.sketch = new QuantileSketch(k, sketchSize, 0, 1);
+
+        // add n normally distributed numbers
+        Random random = new Random();
+        this.observations = new double[n];
+        for (int i = 0; i < n; i++) {
+            observations[i] = random.nextGaussian();
+            sketch.addObservation(observations[i]);
+        }
+        Arrays.sort(observations);
+    }
+
+    @After
+    public void tearDown() {
+        sketch = null;
+        observations = null;
+    }
+
+    /**
+     * Checks whether the sketch performs equal-frequency
+     * discretization.
+     */
+    @Test
+    public void testDiscretizationType01() {
+        DiscretizationType type = sketch.getDiscretizationType();
+        assertTrue(type == DiscretizationType.EQUAL_FREQUENCY);
+    }
+
+    /**
+     * Checks whether a sketch size below 8 is rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testSketchSize01() {
+        new QuantileSketch(k, 7, 0, 1);
+    }
+
+    /**
+     * Checks whether the sketch retains far fewer values than it has
+     * observed.
+     */
+    @Test
+    public void testSketchSize02() {
+        assertTrue(sketch.getNumberOfRetainedValues() < 4 * sketchSize);
+    }
+
+    /**
+     * Requests border {@literal b{-1}}, which does not exists.
+     */
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testBorders01() {
+        sketch.getBorder(-1);
+    }
+
+    /**
+     * Requests border {@literal b{k+1}}, which does not exists.
+     */
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testBorders02() {
+        sketch.getBorder(k + 1);
+    }
+
+    /**
+     * Checks whether b0 is negative infinity and bk is positive
+     * infinity.
+     */
+    @Test
+    public void testBorders03() {
+        assertTrue(sketch.getBorder(0) == Double.NEGATIVE_INFINITY);
+        assertTrue(sketch.getBorder(k) == Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Checks whether the borders are sorted and lie within the range
+     * of the observations.
+     */
+    @Test
+    public void testBorders04() {
+        for (int i = 1; i < k; i++) {
+            assertTrue(sketch.getBorder(i) <= sketch.getBorder(i + 1));
+            assertTrue(sketch.getBorder(i) >= observations[0]);
+            assertTrue(sketch.getBorder(i) <= observations[n - 1]);
+        }
+    }
+
+    /**
+     * Checks whether the exact rank of every border deviates from the
+     * rank of its quantile by less than 1% of the observations.
+     */
+    @Test
+    public void testRankError01() {
+        for (int i = 1; i < k; i++) {
+            double expected = i * n / (double) k;
+            assertEquals(expected, rank(sketch.getBorder(i)), 0.01 * n);
+        }
+    }
+
+    /**
+     * Checks whether every observation is counted and every bin
+     * contains about n / k observations (+- 2% of the observations).
+     */
+    @Test
+    public void testBinCount01() {
+        long sum = 0;
+        for (int i = 0; i < k; i++) {
+            sum += sketch.getBinCount(i);
+        }
+        assertEquals(n, sum);
+        double expected = (double) n / k;
+        for (int i = 0; i < k; i++) {
+            assertEquals(expected, sketch.getBinCount(i), 0.02 * n);
+        }
+    }
+
+    /**
+     * Merges a sketch of n normally distributed numbers with mean 4 and
+     * checks whether all observations are counted and the median lies
+     * between both distributions.
+     */
+    @Test
+    public void testMerge01() {
+        QuantileSketch other = new QuantileSketch(k, sketchSize, 0, 1);
+        Random random = new Random();
+        for (int i = 0; i < n; i++) {
+            other.addObservation(4 + random.nextGaussian());
+        }
+        sketch.merge(other);
+
+        long sum = 0;
+        for (int i = 0; i < k; i++) {
+            sum += sketch.getBinCount(i);
+        }
+        assertEquals(2 * n, sum);
+        assertEquals(2.0, sketch.getBorder(k / 2), 1.0);
+    }
+
+    /**
+     * Checks whether sketches with different numbers of bins cannot be
+     * merged.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testMerge02() {
+        sketch.merge(new QuantileSketch(k + 1, sketchSize, 0, 1));
+    }
+
+    /**
+     * Checks whether values drawn from a bin lie within its borders.
+     */
+    @Test
+    public void testDrawRandomValueFromBin01() {
+        for (int i = 1; i < k - 1; i++) {
+            double value = sketch.drawRandomValueFromBin(i);
+            assertTrue(value >= sketch.getBorder(i));
+            assertTrue(value <= sketch.getBorder(i + 1));
+        }
+    }
+
+    /**
+     * Requests a value from bin k, which does not exist.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testDrawRandomValueFromBin02() {
+        sketch.drawRandomValueFromBin(k);
+    }
+
+    /* Returns the number of observations that are not larger than
+     * value. */
+    private int rank(double value) {
+        int rank = 0;
+        while (rank < n && observations[rank] <= value) {
+            rank++;
+        }
+        return rank;
+    }
+}
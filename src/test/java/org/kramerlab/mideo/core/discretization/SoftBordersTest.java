@@ -0,0 +1,194 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.core.discretization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static org.kramerlab.mideo.core.ChernoffBounds.findLambdaForLowerBound;
+import static org.kramerlab.mideo.core.ChernoffBounds.findLambdaForUpperBound;
+
+/**
+ * @author Michael Geilke
+ */
+public class SoftBordersTest {
+
+    private final int n = 2000;
+    private final int k = 10;
+    private final double precision = 0.000001;
+    private final double delta = 0.90;
+    private List<OnlineDiscretization> discretizations;
+
+    @Before
+    public void setUp() {
+        this.discretizations = new ArrayList<>();
+        for (DiscretizationType type : DiscretizationType.values()) {
+            discretizations.add(new PartitionIncremental(k, type, 0, 1));
+        }
+        discretizations.add(new QuantileSketch(k, 64, 0, 1));
+        addObservations(new Random(1), 0.0);
+    }
+
+    @After
+    public void tearDown() {
+        discretizations = null;
+    }
+
+    /**
+     * Checks whether the table of safe-to-use regions gives the same
+     * result as computing the Chernoff bounds of the bins containing
+     * the observation per call, both for observations close to the
+     * borders and for random ones.
+     */
+    @Test
+    public void testContains01() {
+        for (OnlineDiscretization disc : discretizations) {
+            int softBorders = 0;
+            int queries = 0;
+            for (double obs : createQueries(disc, new Random(2))) {
+                boolean expected = belongsToSoftBorder(disc, obs);
+                assertEquals(expected, disc.belongsToSoftBorder(obs));
+                assertEquals(expected, new SoftBorders(disc).contains(obs));
+                softBorders += expected ? 1 : 0;
+                queries++;
+            }
+            // both results occur
+            assertTrue(softBorders > 0 && softBorders < queries);
+        }
+    }
+
+    /**
+     * Checks whether the cached table is recomputed after Layer2 has
+     * been updated, where the observations are shifted, so that the
+     * borders and bin counts change.
+     */
+    @Test
+    public void testContains02() {
+        // the discretizations of setUp are not updated
+        List<OnlineDiscretization> stale = discretizations;
+        setUp();
+        for (OnlineDiscretization disc : discretizations) {
+            // fill the cache
+            for (double obs : createQueries(disc, new Random(2))) {
+                disc.belongsToSoftBorder(obs);
+            }
+        }
+        addObservations(new Random(3), 0.5);
+
+        for (int i = 0; i < discretizations.size(); i++) {
+            OnlineDiscretization disc = discretizations.get(i);
+            int changed = 0;
+            for (double obs : createQueries(disc, new Random(4))) {
+                boolean expected = belongsToSoftBorder(disc, obs);
+                assertEquals(expected, disc.belongsToSoftBorder(obs));
+                if (expected != stale.get(i).belongsToSoftBorder(obs)) {
+                    changed++;
+                }
+            }
+            assertTrue(changed > 0);
+        }
+    }
+
+    /* Adds n uniformly distributed observations from [offset; offset +
+     * 1) to all discretizations. */
+    private void addObservations(Random random, double offset) {
+        for (int i = 0; i < n; i++) {
+            double obs = offset + random.nextDouble();
+            for (OnlineDiscretization disc : discretizations) {
+                disc.addObservation(obs);
+            }
+        }
+        for (OnlineDiscretization disc : discretizations) {
+            if (disc instanceof PartitionIncremental) {
+                ((PartitionIncremental) disc).processBuffer();
+            }
+        }
+    }
+
+    /* Returns the borders b1 to b{k-1}, observations at several
+     * distances from them, and random observations. */
+    private List<Double> createQueries(OnlineDiscretization disc, 
+                                       Random random) {
+        double range = disc.getBorder(k - 1) - disc.getBorder(1);
+        List<Double> queries = new ArrayList<>();
+        for (int i = 1; i < k; i++) {
+            double border = disc.getBorder(i);
+            queries.add(border);
+            for (double d = 1e-9; d < 1e-2; d *= 3) {
+                queries.add(border - d * range);
+                queries.add(border + d * range);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            queries.add(disc.getBorder(1) - 0.1 + (range + 0.2) 
+                        * random.nextDouble());
+        }
+        return queries;
+    }
+
+    /* Checks whether obs belongs to a soft border by computing the
+     * Chernoff bounds of every bin that contains obs, as the default
+     * method of OnlineDiscretization did before the table was
+     * introduced. */
+    private boolean belongsToSoftBorder(OnlineDiscretization disc, 
+                                        double obs) {
+        long total = 0;
+        for (int i = 0; i < k; i++) {
+            total += disc.getBinCount(i);
+        }
+        boolean isInSomeBin = false;
+        double range = disc.getBorder(k - 1) - disc.getBorder(1);
+        for (int i = 1; i < k - 1; i++) {
+            if (obs >= disc.getBorder(i) && obs <= disc.getBorder(i + 1)) {
+                isInSomeBin = true;
+                double p = 0.0;
+                for (int j = 0; j <= i; j++) {
+                    p += disc.getBinCount(j);
+                }
+                p /= total;
+                double l = findLambdaForLowerBound(total * p, precision, 
+                                                   delta);
+                p = 0.0;
+                for (int j = 0; j <= i - 1; j++) {
+                    p += disc.getBinCount(j);
+                }
+                p /= total;
+                double u = findLambdaForUpperBound(total * p, precision,
+                                                   delta);
+                l = (l / total) * range;
+                u = (u / total) * range;
+                if (obs > disc.getBorder(i) + u 
+                        && obs < disc.getBorder(i + 1) - l) {
+                    return false;
+                }
+            }
+        }
+        return isInSomeBin;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.data.filters;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import org.kramerlab.mideo.core.ContinuousRandomVariable;
+import org.kramerlab.mideo.data.instances.DiscretizedInstance;
+
+/**
+ * @author Michael Geilke
+ */
+public class DiscretizationFilterTest {
+
+    private final int n = 500;
+    private final int k = 5;
+    // the index of the discretized attribute
+    private final int attIndex = 1;
+    private InstancesHeader header;
+    private List<DiscretizationFilter> filters;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        List<Attribute> atts = new ArrayList<>();
+        atts.add(new Attribute("a"));
+        atts.add(new Attribute("x"));
+        atts.add(new Attribute("c", Arrays.asList("u", "v")));
+        this.header = new InstancesHeader(new Instances("data", atts, 0));
+        header.setClassIndex(2);
+
+        this.random = new Random(1);
+        this.filters = new ArrayList<>();
+        for (DiscretizationFilter.Method method 
+                 : DiscretizationFilter.Method.values()) {
+            DiscretizationFilter filter = new DiscretizationFilter();
+            filter.setDiscretization(method, 16);
+            filter.init(header, createVariable("x"), k);
+            for (int i = 0; i < n; i++) {
+                filter.addObservation(createInstance());
+            }
+            filters.add(filter);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        header = null;
+        filters = null;
+        random = null;
+    }
+
+    /**
+     * Checks whether a new discretized instance, an overwritten
+     * instance of the target header and both kinds of views show the
+     * same values, where only the discretized attribute differs from
+     * the source.
+     */
+    @Test
+    public void testApply01() {
+        for (DiscretizationFilter filter : filters) {
+            InstancesHeader target = filter.getTargetHeader();
+            Instance overwritten = new DenseInstance(target.numAttributes());
+            overwritten.setDataset(target);
+            DiscretizedInstance view = filter.createView();
+            for (int i = 0; i < 200; i++) {
+                Instance inst = createInstance();
+                Instance created = filter.apply(inst);
+                double[] expected = created.toDoubleArray();
+                double bin = expected[attIndex];
+                assertTrue(bin >= 0 && bin < k && bin == Math.floor(bin));
+                for (int j = 0; j < expected.length; j++) {
+                    if (j != attIndex) {
+                        assertEquals(inst.value(j), expected[j], 0.0);
+                    }
+                }
+                assertTrue(created.dataset() == target);
+
+                for (Instance result 
+                         : new Instance[] {filter.apply(inst, overwritten),
+                                           filter.view(inst),
+                                           filter.view(inst, view)}) {
+                    assertArrayEquals(expected, result.toDoubleArray(), 0.0);
+                    assertEquals(inst.weight(), result.weight(), 0.0);
+                    assertTrue(result.dataset() == target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the view of the filter is re-used, whereas views
+     * created for other threads keep showing their own instances.
+     */
+    @Test
+    public void testView01() {
+        DiscretizationFilter filter = filters.get(0);
+        Instance first = createInstance();
+        Instance second = createInstance();
+        DiscretizedInstance own = filter.createView();
+        filter.view(first, own);
+
+        Instance view = filter.view(first);
+        assertTrue(filter.view(second) == view);
+        assertTrue(own != view);
+        assertArrayEquals(filter.apply(second).toDoubleArray(),
+                          view.toDoubleArray(), 0.0);
+        assertArrayEquals(filter.apply(first).toDoubleArray(),
+                          own.toDoubleArray(), 0.0);
+    }
+
+    /**
+     * Checks whether a variable that is not part of the header is
+     * rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testInit01() {
+        new DiscretizationFilter().init(header, createVariable("y"), k);
+    }
+
+    /* Creates a continuous variable for a new attribute with the given
+     * name. */
+    private ContinuousRandomVariable createVariable(String name) {
+        return new ContinuousRandomVariable(name, new Attribute(name));
+    }
+
+    /* Creates an instance with a random weight, where attribute x is
+     * drawn from a mixture of two Gaussians. */
+    private Instance createInstance() {
+        double x = (random.nextBoolean() ? 0 : 4) + random.nextGaussian();
+        Instance inst = new DenseInstance(0.5 + random.nextDouble(), 
+            new double[] {random.nextDouble(), x, random.nextInt(2)});
+        inst.setDataset(header);
+        return inst;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.data.instances;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * @author Michael Geilke
+ */
+public class DiscretizedInstanceTest {
+
+    // the attribute whose value is replaced by a bin
+    private final int attIndex = 1;
+    private InstancesHeader sourceHeader;
+    private InstancesHeader header;
+    private Instance source;
+    private DiscretizedInstance view;
+
+    @Before
+    public void setUp() {
+        List<String> bins = Arrays.asList("bin0", "bin1", "bin2");
+        List<Attribute> atts = new ArrayList<>();
+        List<Attribute> discAtts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Attribute att = new Attribute("att" + i);
+            atts.add(att);
+            discAtts.add((i == attIndex) ? new Attribute("att" + i, bins) 
+                         : att);
+        }
+        this.sourceHeader = new InstancesHeader(
+            new Instances("source", atts, 0));
+        this.header = new InstancesHeader(
+            new Instances("discretized", discAtts, 0));
+
+        this.source = createInstance(0.5, 1.5, 0.25, -2.0);
+        this.view = new DiscretizedInstance(header, attIndex);
+        view.wrap(source, 2.0);
+    }
+
+    @After
+    public void tearDown() {
+        sourceHeader = null;
+        header = null;
+        source = null;
+        view = null;
+    }
+
+    /**
+     * Checks whether the view shows the same values as a copy of the
+     * source in which the value of the discretized attribute has been
+     * replaced.
+     */
+    @Test
+    public void testValues01() {
+        Instance copied = new DenseInstance(source);
+        copied.setDataset(header);
+        copied.setValue(attIndex, 2.0);
+
+        assertEquals(copied.numAttributes(), view.numAttributes());
+        for (int i = 0; i < copied.numAttributes(); i++) {
+            assertEquals(copied.value(i), view.value(i), 0.0);
+        }
+        assertArrayEquals(copied.toDoubleArray(), view.toDoubleArray(), 0.0);
+        assertEquals(copied.weight(), view.weight(), 0.0);
+        assertTrue(view.dataset() == header);
+    }
+
+    /**
+     * Checks whether missing values are taken from the source, except
+     * for the discretized attribute, whose value is missing if the
+     * replaced value is NaN.
+     */
+    @Test
+    public void testValues02() {
+        Instance other = createInstance(1.0, Double.NaN, 1.0, 3.0);
+        view.wrap(other, 0.0);
+        assertTrue(view.isMissing(0));
+        assertTrue(!view.isMissing(attIndex));
+        view.wrap(source, Double.NaN);
+        assertTrue(!view.isMissing(0));
+        assertTrue(view.isMissing(attIndex));
+    }
+
+    /**
+     * Checks whether the view shows the values of the instance that has
+     * been wrapped most recently.
+     */
+    @Test
+    public void testWrap01() {
+        Instance other = createInstance(2.0, 4.0, 5.0, 6.0);
+        assertTrue(view.wrap(other, 1.0) == view);
+        assertTrue(view.getSource() == other);
+        assertArrayEquals(new double[] {4.0, 1.0, 6.0},
+                          view.toDoubleArray(), 0.0);
+        assertEquals(2.0, view.weight(), 0.0);
+    }
+
+    /**
+     * Checks whether a copy of the view keeps its values after the view
+     * has been re-used for another instance and whether the copy can
+     * be modified without changing the source.
+     */
+    @Test
+    public void testCopy01() {
+        Instance copy = view.copy();
+        view.wrap(createInstance(1.0, 0.0, 0.0, 0.0), 0.0);
+
+        assertTrue(copy instanceof DenseInstance);
+        assertTrue(copy.dataset() == header);
+        assertArrayEquals(new double[] {1.5, 2.0, -2.0},
+                          copy.toDoubleArray(), 0.0);
+        assertEquals(0.5, copy.weight(), 0.0);
+
+        copy.setValue(0, 7.0);
+        assertEquals(1.5, source.value(0), 0.0);
+    }
+
+    /**
+     * Checks whether the view cannot be modified.
+     */
+    @Test(expected=UnsupportedOperationException.class)
+    public void testSetValue01() {
+        view.setValue(0, 2.0);
+    }
+
+    /* Creates an instance of the source header with the given weight
+     * and attribute values. */
+    private Instance createInstance(double weight, double... values) {
+        Instance inst = new DenseInstance(weight, values);
+        inst.setDataset(sourceHeader);
+        return inst;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.data.instances;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * @author Michael Geilke
+ */
+public class ProjectedInstanceTest {
+
+    // the attribute i of the view is the attribute indices[i] of the
+    // source
+    private final int[] indices = {4, 0, 2};
+    private InstancesHeader sourceHeader;
+    private InstancesHeader header;
+    private Instance source;
+    private ProjectedInstance view;
+
+    @Before
+    public void setUp() {
+        List<String> values = Arrays.asList("a", "b", "c");
+        List<Attribute> atts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            if (i % 2 == 0) {
+                atts.add(new Attribute("att" + i, values));
+            } else {
+                atts.add(new Attribute("att" + i));
+            }
+        }
+        this.sourceHeader = new InstancesHeader(
+            new Instances("source", atts, 0));
+        sourceHeader.setClassIndex(4);
+
+        List<Attribute> projAtts = new ArrayList<>();
+        for (int i = 0; i < indices.length; i++) {
+            projAtts.add(atts.get(indices[i]));
+        }
+        this.header = new InstancesHeader(
+            new Instances("projection", projAtts, 0));
+        header.setClassIndex(indices.length - 1);
+
+        this.source = createInstance(0.5, 1.0, 0.25, 2.0, -3.5, 1.0);
+        this.view = new ProjectedInstance(header, indices);
+        view.wrap(source);
+    }
+
+    @After
+    public void tearDown() {
+        sourceHeader = null;
+        header = null;
+        source = null;
+        view = null;
+    }
+
+    /**
+     * Checks whether the view shows the same values as an instance that
+     * has been copied attribute by attribute.
+     */
+    @Test
+    public void testValues01() {
+        Instance copied = new DenseInstance(header.numAttributes());
+        copied.setDataset(header);
+        for (int i = 0; i < indices.length; i++) {
+            copied.setValue(i, source.value(indices[i]));
+        }
+        copied.setWeight(source.weight());
+
+        assertEquals(copied.numAttributes(), view.numAttributes());
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals(copied.value(i), view.value(i), 0.0);
+        }
+        assertArrayEquals(copied.toDoubleArray(), view.toDoubleArray(), 0.0);
+        assertEquals(copied.classValue(), view.classValue(), 0.0);
+        assertEquals(copied.weight(), view.weight(), 0.0);
+        assertTrue(view.dataset() == header);
+    }
+
+    /**
+     * Checks whether a missing value of the source is missing in the
+     * view.
+     */
+    @Test
+    public void testValues02() {
+        Instance other = createInstance(1.0, 2.0, 0.0, 2.0, 1.5,
+                                        Double.NaN);
+        view.wrap(other);
+        assertTrue(view.isMissing(0));
+        assertTrue(!view.isMissing(1));
+        assertTrue(!view.isMissing(2));
+    }
+
+    /**
+     * Checks whether the view shows the values of the instance that has
+     * been wrapped most recently.
+     */
+    @Test
+    public void testWrap01() {
+        Instance other = createInstance(2.0, 0.0, 1.0, 1.0, 7.0, 2.0);
+        assertTrue(view.wrap(other) == view);
+        assertTrue(view.getSource() == other);
+        assertArrayEquals(new double[] {2.0, 0.0, 1.0},
+                          view.toDoubleArray(), 0.0);
+        assertEquals(2.0, view.weight(), 0.0);
+    }
+
+    /**
+     * Checks whether a copy of the view keeps its values after the view
+     * has been re-used for another instance.
+     */
+    @Test
+    public void testCopy01() {
+        Instance copy = view.copy();
+        view.wrap(createInstance(1.0, 2.0, 0.0, 0.0, 0.0, 0.0));
+
+        assertTrue(copy instanceof DenseInstance);
+        assertTrue(copy.dataset() == header);
+        assertArrayEquals(new double[] {1.0, 1.0, 2.0},
+                          copy.toDoubleArray(), 0.0);
+        assertEquals(0.5, copy.weight(), 0.0);
+    }
+
+    /**
+     * Checks whether a copy of the view can be modified without
+     * changing the source.
+     */
+    @Test
+    public void testCopy02() {
+        Instance copy = view.copy();
+        copy.setValue(0, 0.0);
+        assertEquals(0.0, copy.value(0), 0.0);
+        assertEquals(1.0, source.value(4), 0.0);
+        assertEquals(1.0, view.value(0), 0.0);
+    }
+
+    /**
+     * Checks whether the view cannot be modified.
+     */
+    @Test(expected=UnsupportedOperationException.class)
+    public void testSetValue01() {
+        view.setValue(0, 2.0);
+    }
+
+    /* Creates an instance of the source header with the given weight
+     * and attribute values. */
+    private Instance createInstance(double weight, double... values) {
+        Instance inst = new DenseInstance(weight, values);
+        inst.setDataset(sourceHeader);
+        return inst;
+    }
+}
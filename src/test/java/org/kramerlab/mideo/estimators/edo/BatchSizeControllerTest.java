@@ -0,0 +1,191 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.estimators.edo;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.kramerlab.mideo.estimators.edo.BatchSizeController.Mode;
+
+/**
+ * @author Michael Geilke
+ */
+public class BatchSizeControllerTest {
+
+    // simulated duration of a flush: overhead + cost * batch size
+    private final long overhead = 1000000L;
+    private final long cost = 10000L;
+
+    /**
+     * Checks whether a fixed batch size is not changed by flushes and
+     * queries.
+     */
+    @Test
+    public void testFixed01() {
+        BatchSizeController c = new BatchSizeController(40);
+        for (int i = 0; i < 100; i++) {
+            c.recordQuery(1000);
+            c.recordFlush(c.getBatchSize(), 1000000000L);
+        }
+        assertEquals(Mode.FIXED, c.getMode());
+        assertEquals(40, c.getBatchSize());
+    }
+
+    /**
+     * Checks whether the batch size grows from a small initial value
+     * until the overhead does not dominate the flush anymore (at 100
+     * instances) and whether the simulated latency never exceeds the
+     * target.
+     */
+    @Test
+    public void testLatency01() {
+        BatchSizeController c = 
+            new BatchSizeController(Mode.LATENCY, 8, 1000, 3);
+        for (int i = 0; i < 200; i++) {
+            long nanos = simulateFlush(c.getBatchSize());
+            assertTrue(nanos <= 3000000L);
+            c.recordFlush(c.getBatchSize(), nanos);
+        }
+        // After a while of constant batch sizes, the controller cannot
+        // separate the overhead from the cost anymore and probes a
+        // slightly larger batch size.
+        assertTrue(c.getBatchSize() > 50);
+        assertTrue(c.getBatchSize() <= 120);
+    }
+
+    /**
+     * Checks whether the batch size is halved if a flush exceeds the
+     * target latency.
+     */
+    @Test
+    public void testLatency02() {
+        BatchSizeController c = 
+            new BatchSizeController(Mode.LATENCY, 64, 1000, 1);
+        c.recordFlush(64, 2000000L);
+        assertEquals(32, c.getBatchSize());
+        c.recordFlush(32, 2000000L);
+        assertEquals(16, c.getBatchSize());
+    }
+
+    /**
+     * Checks whether the batch size is bounded by the maximal batch
+     * size if the overhead always dominates.
+     */
+    @Test
+    public void testLatency03() {
+        BatchSizeController c = 
+            new BatchSizeController(Mode.LATENCY, 8, 50, 1000);
+        for (int i = 0; i < 100; i++) {
+            c.recordFlush(c.getBatchSize(), overhead);
+        }
+        assertEquals(50, c.getBatchSize());
+    }
+
+    /**
+     * Checks whether the batch size does not exceed the target
+     * staleness if the model is queried, and grows up to the maximal
+     * batch size if it is not queried.
+     */
+    @Test
+    public void testStaleness01() {
+        BatchSizeController c = 
+            new BatchSizeController(Mode.STALENESS, 8, 1000, 30);
+        for (int i = 0; i < 100; i++) {
+            c.recordQuery(c.getBatchSize() - 1);
+            c.recordFlush(c.getBatchSize(), overhead);
+            assertTrue(c.getBatchSize() <= 30);
+        }
+        assertTrue(c.getBatchSize() > 30 - 8);
+
+        for (int i = 0; i < 1000; i++) {
+            c.recordFlush(c.getBatchSize(), overhead);
+        }
+        assertEquals(1000, c.getBatchSize());
+    }
+
+    /**
+     * Checks whether the batch size is halved if a query has seen more
+     * buffered instances than the target staleness.
+     */
+    @Test
+    public void testStaleness02() {
+        BatchSizeController c = 
+            new BatchSizeController(Mode.STALENESS, 64, 1000, 10);
+        c.recordQuery(5);
+        c.recordQuery(63);
+        c.recordFlush(64, overhead);
+        assertEquals(32, c.getBatchSize());
+    }
+
+    /**
+     * Checks whether the regression separates the overhead per flush
+     * from the cost per instance if the batch sizes vary.
+     */
+    @Test
+    public void testRegression01() {
+        BatchSizeController c = new BatchSizeController(40);
+        for (int i = 0; i < 50; i++) {
+            int size = 10 + (i % 5) * 20;
+            c.recordFlush(size, simulateFlush(size));
+        }
+        assertEquals(cost, c.getCostPerInstance(), 1e-6 * cost);
+        assertEquals(overhead, c.getOverheadPerFlush(), 1e-6 * overhead);
+    }
+
+    /**
+     * Checks whether everything is attributed to the overhead if all
+     * batches have the same size.
+     */
+    @Test
+    public void testRegression02() {
+        BatchSizeController c = new BatchSizeController(40);
+        for (int i = 0; i < 10; i++) {
+            c.recordFlush(40, simulateFlush(40));
+        }
+        assertEquals(0.0, c.getCostPerInstance(), 0.0);
+        assertEquals(simulateFlush(40), c.getOverheadPerFlush(), 1e-3);
+    }
+
+    /**
+     * Checks whether a maximal batch size below the initial batch size
+     * is rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructor01() {
+        new BatchSizeController(Mode.LATENCY, 64, 32, 10);
+    }
+
+    /**
+     * Checks whether a batch size that is not positive is rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructor02() {
+        new BatchSizeController(0);
+    }
+
+    /* Returns the simulated duration of a flush in nanoseconds. */
+    private long simulateFlush(int size) {
+        return overhead + cost * size;
+    }
+}
@@ -0,0 +1,564 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.estimators.edo;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.json.JsonObject;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import org.kramerlab.mideo.core.RandomVariable;
+import org.kramerlab.mideo.core.DiscreteRandomVariable;
+import org.kramerlab.mideo.core.ContinuousRandomVariable;
+import org.kramerlab.mideo.data.streams.FileStream;
+import org.kramerlab.mideo.exceptions.UnsupportedConfiguration;
+
+/**
+ * @author Michael Geilke
+ */
+public class ChainBasedEstimatorTest {
+
+    private final int numTrainInsts = 600;
+    private final int numTestInsts = 50;
+    private final int ensembleSize = 4;
+    private InstancesHeader header;
+    private List<RandomVariable> targetVars;
+    private List<RandomVariable> condVars;
+    private List<Instance> trainInsts;
+    private List<Instance> testInsts;
+
+    @Before
+    public void setUp() throws Exception {
+        String ds = getClass().getResource("/electricity.arff").getPath();
+        FileStream stream = new FileStream(ds, -1,
+            numTrainInsts + numTestInsts);
+        stream.init();
+        this.header = stream.getHeader();
+
+        // the last two variables are conditioned variables
+        this.targetVars = new ArrayList<>();
+        this.condVars = new ArrayList<>();
+        List<RandomVariable> vars = stream.getRandomVariables();
+        for (int i = 0; i < vars.size(); i++) {
+            if (i < vars.size() - 2) {
+                targetVars.add(vars.get(i));
+            } else {
+                condVars.add(vars.get(i));
+            }
+        }
+
+        this.trainInsts = new ArrayList<>();
+        this.testInsts = new ArrayList<>();
+        while (stream.hasMoreInstances()) {
+            Instance inst = stream.nextInstance();
+            if (trainInsts.size() < numTrainInsts) {
+                trainInsts.add(inst);
+            } else {
+                testInsts.add(inst);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        header = null;
+        targetVars = null;
+        condVars = null;
+        trainInsts = null;
+        testInsts = null;
+    }
+
+    /**
+     * Checks whether chains sharing the base estimators of their common
+     * prefixes give the same density values as chains with the same
+     * orderings that do not share any base estimators.
+     */
+    @Test
+    public void testPrefixSharing01() throws UnsupportedConfiguration {
+        ChainBasedEstimator shared = createEstimator(true);
+        shared.setPrefixSharing(true);
+        shared.setSharedPrefixLength(3);
+        ChainBasedEstimator unshared = createEstimator(true);
+        unshared.setSharedPrefixLength(3);
+        shared.init(header, targetVars, condVars);
+        unshared.init(header, targetVars, condVars);
+
+        for (int i = 0; i < ensembleSize; i++) {
+            assertEquals(unshared.getChainOrdering(i),
+                         shared.getChainOrdering(i));
+        }
+        int numVars = targetVars.size();
+        assertEquals(ensembleSize * numVars,
+                     unshared.getNumberOfBaseEstimators());
+        assertTrue(shared.getNumberOfBaseEstimators()
+                   <= ensembleSize * numVars - 3 * (ensembleSize - 1));
+
+        train(shared);
+        train(unshared);
+        for (Instance inst : testInsts) {
+            double expected = unshared.getDensityValue(inst);
+            assertEquals(expected, shared.getDensityValue(inst),
+                         1e-12 * expected);
+        }
+    }
+
+    /**
+     * Trains the base estimators asynchronously on a pool with a
+     * single worker thread, which is also occupied by the task that
+     * updates the estimator and queries the density values of a batch
+     * of instances after every 20 updates. Hence, the queries have to
+     * wait for consumers on their own pool. Checks whether no query
+     * sees a model that lags behind by more than the maximal staleness
+     * of 0 and whether, after quiescence, the density values are the
+     * same as those of a synchronously trained estimator.
+     */
+    @Test(timeout=60000)
+    public void testAsynchronousTraining01() throws Exception {
+        int maxStaleness = 0;
+        ForkJoinPool pool = new ForkJoinPool(1);
+        ChainBasedEstimator async = createEstimator(true);
+        async.setWorkerPool(pool);
+        async.setAsynchronousTraining(true);
+        async.setMaxStaleness(maxStaleness);
+        ChainBasedEstimator sync = createEstimator(true);
+        async.init(header, targetVars, condVars);
+        sync.init(header, targetVars, condVars);
+
+        // the estimator is used by a task of its own pool
+        pool.submit(() -> {
+            for (int n = 0; n < trainInsts.size(); n++) {
+                async.update(trainInsts.get(n));
+                if (n % 20 == 19) {
+                    async.getDensityValues(testInsts);
+                }
+            }
+        }).get();
+        train(sync);
+        async.awaitQuiescence();
+
+        JsonObject model = (JsonObject) async.getModelCharacteristics();
+        JsonObject staleness = model.getJsonObject("staleness");
+        assertTrue(staleness.getInt("maxObservedStaleness")
+                   <= maxStaleness);
+        for (Instance inst : testInsts) {
+            double expected = sync.getDensityValue(inst);
+            assertEquals(expected, async.getDensityValue(inst),
+                         1e-12 * expected);
+        }
+    }
+
+    /**
+     * Checks whether the logarithms of the density values equal the
+     * logarithms of {@link ChainBasedEstimator#getDensityValue} and
+     * {@link ChainBasedEstimator#getDensityValues}, both for uniform
+     * and for adapted chain weights.
+     */
+    @Test
+    public void testLogDensityValues01() throws UnsupportedConfiguration {
+        for (boolean uniformWeights : new boolean[] {true, false}) {
+            if (!uniformWeights) {
+                useDiscreteTargetVariables();
+            }
+            ChainBasedEstimator est = createEstimator(uniformWeights);
+            est.init(header, targetVars, condVars);
+            train(est);
+
+            double[] densities = est.getDensityValues(testInsts);
+            double[] logDensities = est.getLogDensityValues(testInsts);
+            for (int n = 0; n < testInsts.size(); n++) {
+                Instance inst = testInsts.get(n);
+                double expected = Math.log(est.getDensityValue(inst));
+                assertTrue(densities[n] > 0.0);
+                assertEquals(expected, est.getLogDensityValue(inst),
+                             1e-9 * Math.abs(expected));
+                assertEquals(Math.log(densities[n]), logDensities[n],
+                             1e-9 * Math.abs(expected));
+                assertEquals(Math.exp(expected), densities[n],
+                             1e-9 * Math.exp(expected));
+            }
+        }
+    }
+
+    /**
+     * Checks whether the exponentiated gradient update of the chain
+     * weights gives the same weights if the log-densities of the
+     * chains are taken from the scoring step (prequential evaluation)
+     * as if they are computed by the update itself. Since the trees
+     * need to split on the preceding variables of the chain, so that
+     * the orderings give different densities and weights, the instances
+     * are drawn from a distribution with strongly dependent variables
+     * (see {@link #createDependentInstances}).
+     */
+    @Test
+    public void testChainWeights01() throws UnsupportedConfiguration {
+        useDependentVariables();
+        List<Instance> insts = createDependentInstances(2000, false,
+                                                        new Random(1));
+        List<Instance> train = insts.subList(0, 1900);
+        List<Instance> test = insts.subList(1900, insts.size());
+        ChainBasedEstimator scored = createEstimator(false);
+        ChainBasedEstimator logScored = createEstimator(false);
+        ChainBasedEstimator unscored = createEstimator(false);
+        ChainBasedEstimator uniform = createEstimator(true);
+        for (ChainBasedEstimator est :
+                 Arrays.asList(scored, logScored, unscored, uniform)) {
+            est.init(header, targetVars, condVars);
+        }
+
+        for (Instance inst : train) {
+            scored.getDensityValue(inst);
+            scored.update(inst);
+            logScored.getLogDensityValue(inst);
+            logScored.update(inst);
+            unscored.update(inst);
+            uniform.update(inst);
+        }
+
+        boolean adapted = false;
+        for (int i = 0; i < ensembleSize; i++) {
+            double expected = unscored.getChainWeight(i);
+            assertEquals(expected, scored.getChainWeight(i), 1e-12);
+            assertEquals(expected, logScored.getChainWeight(i), 1e-12);
+            adapted |= Math.abs(expected - uniform.getChainWeight(i))
+                > 1e-3;
+        }
+        assertTrue(adapted);
+        for (Instance inst : test) {
+            double expected = unscored.getDensityValue(inst);
+            assertTrue(expected > 0.0);
+            assertEquals(expected, scored.getDensityValue(inst),
+                         1e-12 * expected);
+            assertEquals(expected, logScored.getDensityValue(inst),
+                         1e-12 * expected);
+        }
+    }
+
+    /**
+     * Checks whether every base estimator is conditioned on at most k
+     * preceding variables of its chain and whether maintaining the
+     * dependency scores online costs at most as many pair updates per
+     * instance as there are distinct base estimators.
+     */
+    @Test
+    public void testMaxParents01() throws UnsupportedConfiguration {
+        int k = 2;
+        ChainBasedEstimator est = createEstimator(true);
+        est.setMaxParents(k);
+        est.setDependencySample(trainInsts.subList(0, 50));
+        est.setTrainingPolicy(
+            ChainBasedEstimator.TrainingPolicy.REGENERATE, 2);
+        est.init(header, targetVars, condVars);
+        train(est);
+
+        int d = targetVars.size();
+        for (int i = 0; i < ensembleSize; i++) {
+            List<RandomVariable> ordering = est.getChainOrdering(i);
+            for (int j = 0; j < d; j++) {
+                List<RandomVariable> parents = est.getParents(i, j);
+                assertEquals(Math.min(j, k), parents.size());
+                for (RandomVariable parent : parents) {
+                    int position = ordering.indexOf(parent);
+                    assertTrue(position >= 0 && position < j);
+                }
+            }
+        }
+
+        JsonObject model = (JsonObject) est.getModelCharacteristics();
+        JsonObject training = model.getJsonObject("training");
+        long scored = training.getJsonNumber("dependencyInstances")
+            .longValue();
+        long pairs = d * (d - 1) / 2;
+        assertTrue(scored > 0);
+        assertTrue(scored * pairs
+                   <= trainInsts.size() * est.getNumberOfBaseEstimators()
+                   + pairs);
+    }
+
+    /**
+     * Checks whether the parents are re-selected if the dependencies
+     * change: All chains have the ordering a, b, c, and c may only
+     * have a single parent. At first, c depends on b (and only
+     * indirectly on a), later it depends directly on a.
+     */
+    @Test
+    public void testMaxParents02() throws UnsupportedConfiguration {
+        useDependentVariables();
+        Random random = new Random(1);
+        List<Instance> before = createDependentInstances(1000, false,
+                                                         random);
+        List<Instance> after = createDependentInstances(1000, true,
+                                                        random);
+        ChainBasedEstimator est = createEstimator(true);
+        for (int i = 0; i < ensembleSize; i++) {
+            est.setChainOrdering(i, targetVars);
+        }
+        est.setMaxParents(1);
+        est.setDependencySample(before.subList(0, 50));
+        est.setTrainingPolicy(
+            ChainBasedEstimator.TrainingPolicy.REGENERATE, 2);
+        est.init(header, targetVars, condVars);
+
+        for (Instance inst : before) {
+            est.update(inst);
+        }
+        for (int i = 0; i < ensembleSize; i++) {
+            assertEquals("b", est.getParents(i, 2).get(0).getName());
+        }
+        for (Instance inst : after) {
+            est.update(inst);
+        }
+        for (int i = 0; i < ensembleSize; i++) {
+            assertEquals("a", est.getParents(i, 2).get(0).getName());
+            assertEquals("a", est.getParents(i, 1).get(0).getName());
+        }
+    }
+
+    /**
+     * Checks whether the training policies have no effect if all
+     * chains contribute to the density, which is the case for uniform
+     * chain weights.
+     */
+    @Test
+    public void testTrainingPolicy01() throws UnsupportedConfiguration {
+        ChainBasedEstimator reference = createEstimator(true);
+        reference.init(header, targetVars, condVars);
+        train(reference);
+
+        for (ChainBasedEstimator.TrainingPolicy policy 
+                 : ChainBasedEstimator.TrainingPolicy.values()) {
+            ChainBasedEstimator est = createEstimator(true);
+            est.setTrainingPolicy(policy, 3);
+            est.init(header, targetVars, condVars);
+            train(est);
+
+            for (int i = 0; i < ensembleSize; i++) {
+                for (int j = 0; j < targetVars.size(); j++) {
+                    assertEquals(trainInsts.size(),
+                                 est.getNumberOfTrainingInstances(i, j));
+                }
+            }
+            for (Instance inst : testInsts) {
+                double expected = reference.getDensityValue(inst);
+                assertEquals(expected, est.getDensityValue(inst),
+                             1e-12 * expected);
+            }
+        }
+    }
+
+    /**
+     * Trains adaptively weighted chains, such that some chains do not
+     * contribute to the density, and checks for the policies NONE,
+     * SUBSAMPLE, and FREEZE on which instances of the next batch the
+     * base estimators are trained: the base estimators of contributing
+     * chains on all of them, the others on every third instance
+     * (SUBSAMPLE) or on none (FREEZE).
+     */
+    @Test
+    public void testTrainingPolicy02() throws UnsupportedConfiguration {
+        int stride = 3;
+        int batchSize = EDO.MIN_NUM_INSTANCES;
+        useDependentVariables();
+        List<ChainBasedEstimator.TrainingPolicy> policies = Arrays.asList(
+            ChainBasedEstimator.TrainingPolicy.NONE,
+            ChainBasedEstimator.TrainingPolicy.SUBSAMPLE,
+            ChainBasedEstimator.TrainingPolicy.FREEZE);
+        for (ChainBasedEstimator.TrainingPolicy policy : policies) {
+            Random random = new Random(1);
+            ChainBasedEstimator est = createEstimator(false);
+            est.setTrainingPolicy(policy, stride);
+            est.init(header, targetVars, condVars);
+            for (Instance inst : createDependentInstances(2000, false,
+                                                          random)) {
+                est.update(inst);
+            }
+            long[][] before = getNumbersOfTrainingInstances(est);
+            long first = 2000;
+            for (Instance inst : createDependentInstances(batchSize, false,
+                                                          random)) {
+                est.update(inst);
+            }
+            long[][] after = getNumbersOfTrainingInstances(est);
+
+            // the weights do not change after the schedule has been
+            // created
+            double maxWeight = 0.0;
+            for (int i = 0; i < ensembleSize; i++) {
+                maxWeight = Math.max(maxWeight, est.getChainWeight(i));
+            }
+            long subsampled = 0;
+            for (long n = first; n < first + batchSize; n++) {
+                subsampled += (n % stride == 0) ? 1 : 0;
+            }
+            int numInactive = 0;
+            for (int i = 0; i < ensembleSize; i++) {
+                boolean active = maxWeight - est.getChainWeight(i) <= 0.3;
+                numInactive += active ? 0 : 1;
+                long expected = batchSize;
+                if (!active 
+                        && policy == ChainBasedEstimator.TrainingPolicy
+                           .SUBSAMPLE) {
+                    expected = subsampled;
+                } else if (!active 
+                        && policy == ChainBasedEstimator.TrainingPolicy
+                           .FREEZE) {
+                    expected = 0;
+                }
+                for (int j = 0; j < targetVars.size(); j++) {
+                    assertEquals(expected, after[i][j] - before[i][j]);
+                }
+            }
+            assertTrue(numInactive > 0);
+        }
+    }
+
+    /**
+     * Checks whether chains without weight are regenerated with new
+     * base estimators under the policy REGENERATE.
+     */
+    @Test
+    public void testTrainingPolicy03() throws UnsupportedConfiguration {
+        useDependentVariables();
+        ChainBasedEstimator est = createEstimator(false);
+        est.setTrainingPolicy(
+            ChainBasedEstimator.TrainingPolicy.REGENERATE, 3);
+        est.init(header, targetVars, condVars);
+        List<Instance> insts = createDependentInstances(2000, false,
+                                                        new Random(1));
+        for (Instance inst : insts) {
+            est.update(inst);
+        }
+
+        JsonObject model = (JsonObject) est.getModelCharacteristics();
+        JsonObject training = model.getJsonObject("training");
+        assertTrue(training.getInt("regenerations") > 0);
+        double sum = 0.0;
+        int numRegenerated = 0;
+        for (int i = 0; i < ensembleSize; i++) {
+            sum += est.getChainWeight(i);
+            if (est.getNumberOfTrainingInstances(i, 0) < insts.size()) {
+                numRegenerated++;
+            }
+        }
+        assertEquals(1.0, sum, 1e-9);
+        assertTrue(numRegenerated > 0);
+    }
+
+    /* Uses the nominal variables as target variables and conditions
+     * them on the numeric ones. The weights of the chains are already
+     * updated before the first batch is used for training, and only
+     * the base estimators of discrete variables can be queried before
+     * they have seen any instances. */
+    private void useDiscreteTargetVariables() {
+        List<RandomVariable> vars = new ArrayList<>(targetVars);
+        vars.addAll(condVars);
+        targetVars.clear();
+        condVars.clear();
+        for (RandomVariable var : vars) {
+            if (var instanceof DiscreteRandomVariable) {
+                targetVars.add(var);
+            } else {
+                condVars.add(var);
+            }
+        }
+    }
+
+    /* Replaces the header and the variables by three nominal target
+     * variables a, b, and c with the values {0, 1, 2}, which are
+     * conditioned on a numeric variable x. */
+    private void useDependentVariables() {
+        List<String> values = Arrays.asList("0", "1", "2");
+        List<Attribute> atts = new ArrayList<>();
+        this.targetVars = new ArrayList<>();
+        this.condVars = new ArrayList<>();
+        for (String name : Arrays.asList("a", "b", "c")) {
+            Attribute att = new Attribute(name, values);
+            atts.add(att);
+            targetVars.add(new DiscreteRandomVariable(name, att));
+        }
+        Attribute x = new Attribute("x");
+        atts.add(x);
+        condVars.add(new ContinuousRandomVariable("x", x));
+        this.header = new InstancesHeader(
+            new Instances("dependent", atts, 0));
+    }
+
+    /* Returns n instances of the variables of useDependentVariables: a
+     * is uniformly distributed, b equals a with probability 0.8, c
+     * equals b (or a if swapped) with probability 0.8, and x is a
+     * Gaussian around a. */
+    private List<Instance> createDependentInstances(int n, boolean swapped,
+                                                    Random random) {
+        List<Instance> insts = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double a = random.nextInt(3);
+            double b = (random.nextDouble() < 0.8) ? a : random.nextInt(3);
+            double source = swapped ? a : b;
+            double c = (random.nextDouble() < 0.8)
+                ? source : random.nextInt(3);
+            double[] vals = {a, b, c, a + random.nextGaussian()};
+            Instance inst = new DenseInstance(1.0, vals);
+            inst.setDataset(header);
+            insts.add(inst);
+        }
+        return insts;
+    }
+
+    /* Returns the number of training instances of every base
+     * estimator, indexed by chain and position. */
+    private long[][] getNumbersOfTrainingInstances(ChainBasedEstimator est) {
+        long[][] n = new long[ensembleSize][targetVars.size()];
+        for (int i = 0; i < ensembleSize; i++) {
+            for (int j = 0; j < targetVars.size(); j++) {
+                n[i][j] = est.getNumberOfTrainingInstances(i, j);
+            }
+        }
+        return n;
+    }
+
+    /* Creates a chain-based estimator with a fixed batch size. */
+    private ChainBasedEstimator createEstimator(boolean uniformWeights) {
+        ChainBasedEstimator est =
+            new ChainBasedEstimator(ensembleSize, uniformWeights);
+        est.setSeed(1);
+        return est;
+    }
+
+    /* Trains the estimator on the training instances. */
+    private void train(ChainBasedEstimator est) {
+        for (Instance inst : trainInsts) {
+            est.update(inst);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Michael Geilke
+ */
+public class GaussianMixtureTest {
+
+    private final int n = 1000;
+    private final int numBins = 4;
+    private final double sigma = 0.2;
+    private final double[] w = {1.0, 1.0, 1.0, 1.0};
+    private double[] shard1;
+    private double[] shard2;
+
+    @Before
+    public void setUp() {
+        // two shards with different distributions
+        Random random = new Random(1);
+        this.shard1 = new double[n];
+        this.shard2 = new double[n];
+        for (int i = 0; i < n; i++) {
+            shard1[i] = random.nextGaussian();
+            shard2[i] = 3 + 0.5 * random.nextGaussian();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        shard1 = null;
+        shard2 = null;
+    }
+
+    /**
+     * Checks whether the density of a mixture without compressions is
+     * the weighted average of Gaussians with the default bandwidth
+     * around the added values.
+     */
+    @Test
+    public void testEvaluate01() {
+        double[] v = {0.5, 2.0, 1.0, 0.25};
+        GaussianMixture mixture = train(4 * n, shard1, shard2);
+        for (double y = -3; y <= 6; y += 0.25) {
+            double expected = 0.0;
+            for (double[] shard : new double[][] {shard1, shard2}) {
+                for (double x : shard) {
+                    double d = (y - x) / sigma;
+                    expected += v[bin(x)] * Math.exp(-d * d / 2);
+                }
+            }
+            expected /= 2 * n * sigma * Math.sqrt(2 * Math.PI);
+            assertEquals(expected, mixture.evaluate(y, v), 
+                         1e-12 * expected);
+        }
+    }
+
+    /**
+     * Merges two mixtures without compressions and checks whether the
+     * density equals the one of a single mixture trained on both
+     * shards.
+     */
+    @Test
+    public void testMerge01() {
+        GaussianMixture merged = train(4 * n, shard1);
+        merged.merge(train(4 * n, shard2));
+        GaussianMixture single = train(4 * n, shard1, shard2);
+
+        for (double y = -3; y <= 6; y += 0.25) {
+            double expected = single.evaluate(y, w);
+            assertEquals(expected, merged.evaluate(y, w), 1e-9 * expected);
+        }
+    }
+
+    /**
+     * Merges two mixtures whose kernels have been compressed (at most
+     * 50 kernels for 1000 instances per shard) and checks whether the
+     * merged density is normalized as the one of a single mixture
+     * trained on both shards.
+     */
+    @Test
+    public void testMerge02() {
+        GaussianMixture merged = train(50, shard1);
+        merged.merge(train(50, shard2));
+        GaussianMixture single = train(50, shard1, shard2);
+
+        assertEquals(1.0, integrate(single), 1e-3);
+        assertEquals(integrate(single), integrate(merged), 1e-3);
+    }
+
+    /**
+     * Checks whether a mixture with a different number of bins cannot
+     * be merged.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testMerge03() {
+        GaussianMixture mixture = train(50, shard1);
+        mixture.merge(new GaussianMixture(50, sigma, numBins + 1));
+    }
+
+    /**
+     * Checks whether the density is underestimated by at most the
+     * documented error bound if only kernels within c bandwidths are
+     * evaluated, both for uncompressed and compressed kernels.
+     */
+    @Test
+    public void testTruncation01() {
+        double[] v = {0.5, 2.0, 1.0, 0.25};
+        for (int maxKernels : new int[] {4 * n, 50}) {
+            GaussianMixture exact = train(maxKernels, shard1, shard2);
+            for (double c : new double[] {1.0, 2.0, 3.0, 6.0}) {
+                // the index is built after and during training
+                GaussianMixture truncated = train(maxKernels, shard1, 
+                                                  shard2);
+                truncated.setTruncation(c);
+                GaussianMixture incremental = new GaussianMixture(
+                    maxKernels, sigma, numBins);
+                incremental.setTruncation(c);
+                add(incremental, shard1, shard2);
+
+                // the weights of the omitted kernels sum up to at most
+                // n times the largest weight
+                double bound = Math.exp(-c * c / 2) 
+                    / (sigma * Math.sqrt(2 * Math.PI)) * 2.0;
+                for (double y = -4; y <= 7; y += 0.05) {
+                    double expected = exact.evaluate(y, v);
+                    for (GaussianMixture mixture 
+                             : new GaussianMixture[] {truncated, 
+                                                      incremental}) {
+                        double p = mixture.evaluate(y, v);
+                        assertTrue(p <= expected * (1 + 1e-12));
+                        assertTrue(expected - p <= bound);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the logarithm of the truncated density equals
+     * {@link GaussianMixture#logEvaluate} with the same truncation and
+     * whether the log-density is finite even if no kernel is within
+     * the range.
+     */
+    @Test
+    public void testTruncation02() {
+        GaussianMixture mixture = train(4 * n, shard1, shard2);
+        mixture.setTruncation(3.0);
+        for (double y = -2; y <= 5; y += 0.25) {
+            double p = mixture.evaluate(y, w);
+            assertTrue(p > 0.0);
+            assertEquals(Math.log(p), mixture.logEvaluate(y, w), 1e-9);
+        }
+        assertEquals(0.0, mixture.evaluate(100.0, w), 0.0);
+        assertTrue(Double.isFinite(mixture.logEvaluate(100.0, w)));
+    }
+
+    /**
+     * Checks whether a negative truncation is rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testTruncation03() {
+        new GaussianMixture(50, sigma, numBins).setTruncation(-1.0);
+    }
+
+    /**
+     * Checks whether the interpolated density deviates from the exact
+     * one by at most the documented error bound, where the smallest
+     * tolerance cannot be reached within the maximal number of
+     * refinements, so that these intervals are evaluated exactly.
+     */
+    @Test
+    public void testInterpolation01() {
+        double[] v = {0.5, 2.0, 1.0, 0.25};
+        double sum = 0.5 + 2.0 + 1.0 + 0.25;
+        GaussianMixture exact = train(4 * n, shard1, shard2);
+        double peak = 0.0;
+        for (double y = -5; y <= 8; y += 0.001) {
+            for (int b = 0; b < numBins; b++) {
+                double[] e = new double[numBins];
+                e[b] = 1.0;
+                peak = Math.max(peak, exact.evaluate(y, e));
+            }
+        }
+
+        for (double tolerance : new double[] {1e-2, 1e-3, 1e-4, 1e-12}) {
+            GaussianMixture mixture = new GaussianMixture(4 * n, sigma,
+                                                          numBins);
+            mixture.setInterpolationTolerance(tolerance);
+            add(mixture, shard1, shard2);
+            InterpolationTable table = mixture.getInterpolationTable();
+            assertTrue(table != null);
+            assertEquals(tolerance < 1e-6, 
+                         table.getNumberOfExactIntervals() > 0);
+
+            double bound = tolerance * peak * sum;
+            for (double y = -5; y <= 8; y += 0.0007) {
+                double expected = exact.evaluate(y, v);
+                assertEquals(expected, mixture.evaluate(y, v), bound);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the incremental compression keeps at most the
+     * maximal number of kernels after every update, whether it
+     * preserves the mean of the mixture, and whether the density is
+     * close to the one of a mixture without compressions.
+     */
+    @Test
+    public void testIncrementalCompression02() {
+        int maxKernels = 50;
+        GaussianMixture exact = train(4 * n, shard1, shard2);
+        GaussianMixture mixture = new GaussianMixture(maxKernels, sigma,
+                                                      numBins);
+        mixture.setIncrementalCompression(true);
+        assertTrue(mixture.isIncrementalCompression());
+        double sampleMean = 0.0;
+        for (double[] shard : new double[][] {shard1, shard2}) {
+            for (double y : shard) {
+                mixture.add(y, bin(y));
+                assertTrue(mixture.determineNumberOfKernels() 
+                           <= maxKernels);
+                sampleMean += y / (2 * n);
+            }
+        }
+
+        double step = sigma / 20;
+        double mean = 0.0;
+        double distance = 0.0;
+        for (double y = -10; y <= 10; y += step) {
+            double p = mixture.evaluate(y, w);
+            mean += y * p * step;
+            distance += Math.abs(p - exact.evaluate(y, w)) * step;
+        }
+        assertEquals(1.0, integrate(mixture), 1e-3);
+        assertEquals(sampleMean, mean, 1e-3);
+        assertTrue(distance < 0.05);
+    }
+
+    /**
+     * Checks whether kernels with equal means are found in the index,
+     * which is maintained by the incremental compression, and whether
+     * the density remains normalized.
+     */
+    @Test
+    public void testIncrementalCompression01() {
+        GaussianMixture mixture = new GaussianMixture(50, sigma, numBins);
+        mixture.setIncrementalCompression(true);
+        mixture.setTruncation(6.0);
+        Random random = new Random(1);
+        for (int i = 0; i < 2 * n; i++) {
+            double y = random.nextInt(5);
+            mixture.add(y, bin(y));
+        }
+        assertTrue(mixture.determineNumberOfKernels() <= 50);
+        assertEquals(1.0, integrate(mixture), 1e-3);
+    }
+
+    private GaussianMixture train(int maxKernels, double[]... shards) {
+        GaussianMixture mixture = new GaussianMixture(maxKernels, sigma,
+                                                      numBins);
+        add(mixture, shards);
+        return mixture;
+    }
+
+    private void add(GaussianMixture mixture, double[]... shards) {
+        for (double[] shard : shards) {
+            for (double y : shard) {
+                mixture.add(y, bin(y));
+            }
+        }
+    }
+
+    /* Assigns the values to the bins (-inf; 0), [0; 1.5), [1.5; 3),
+     * and [3; inf). */
+    private int bin(double y) {
+        return (y < 0) ? 0 : (y < 1.5) ? 1 : (y < 3) ? 2 : 3;
+    }
+
+    /* Integrates the density with the trapezoidal rule. */
+    private double integrate(GaussianMixture mixture) {
+        double step = sigma / 20;
+        double lo = -10;
+        double hi = 10;
+        double sum = 0.0;
+        double previous = mixture.evaluate(lo, w);
+        for (double y = lo + step; y <= hi; y += step) {
+            double current = mixture.evaluate(y, w);
+            sum += (previous + current) / 2 * step;
+            previous = current;
+        }
+        return sum;
+    }
+}
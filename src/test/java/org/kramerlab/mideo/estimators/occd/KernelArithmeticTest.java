@@ -0,0 +1,133 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the implementation of {@link KernelArithmetic} that is
+ * selected at runtime (the vectorized one if the JVM has been started
+ * with {@code --add-modules jdk.incubator.vector}, as the {@code
+ * jdk17} profile does) with the scalar one.
+ *
+ * @author Michael Geilke
+ */
+public class KernelArithmeticTest {
+
+    private final int maxLength = 70;
+    private KernelArithmetic arithmetic;
+    private KernelArithmetic scalar;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        this.arithmetic = KernelArithmetic.getInstance();
+        this.scalar = KernelArithmetic.scalar();
+        this.random = new Random(1);
+    }
+
+    @After
+    public void tearDown() {
+        arithmetic = null;
+        scalar = null;
+        random = null;
+    }
+
+    /**
+     * Checks whether the sums of weighted Gaussians are the same for
+     * all lengths up to a few vectors and for arbitrary offsets, so
+     * that the remainders of the vector loops are covered.
+     */
+    @Test
+    public void testSumGaussians01() {
+        double[] means = new double[2 * maxLength];
+        for (int k = 0; k < means.length; k++) {
+            means[k] = random.nextGaussian();
+        }
+        for (int length = 0; length <= maxLength; length++) {
+            double[] weights = new double[length];
+            for (int k = 0; k < length; k++) {
+                weights[k] = random.nextDouble() * 10;
+            }
+            int offset = random.nextInt(maxLength);
+            double y = 2 * random.nextGaussian();
+            double scale = 1.0 / (2 * 0.3 * 0.3);
+            double expected = scalar.sumGaussians(means, offset, weights,
+                                                  length, y, scale);
+            double actual = arithmetic.sumGaussians(means, offset, weights,
+                                                    length, y, scale);
+            assertEquals(expected, actual, 1e-12 * Math.abs(expected));
+        }
+    }
+
+    /**
+     * Checks whether the sum of weighted Gaussians is the sum of the
+     * terms, where Gaussians that underflow contribute 0, and whether
+     * the means are taken from the offset.
+     */
+    @Test
+    public void testSumGaussians02() {
+        double[] means = {-1.0, 0.0, 0.5, 1000.0};
+        double[] weights = {1.0, 2.0, 0.5, 100.0};
+        double scale = 0.5;
+        double expected = Math.exp(-0.5) + 2.0 + 0.5 * Math.exp(-0.125);
+        assertEquals(expected, 
+                     scalar.sumGaussians(means, 0, weights, 4, 0.0, scale),
+                     1e-15);
+        assertEquals(expected, 
+                     arithmetic.sumGaussians(means, 0, weights, 4, 0.0, 
+                                             scale),
+                     1e-12);
+        // the weights start at 0, the means at the offset
+        assertEquals(Math.exp(-0.5), 
+                     arithmetic.sumGaussians(means, 3, weights, 1, 999.0,
+                                             scale),
+                     1e-12);
+    }
+
+    /**
+     * Checks whether the products of weight vectors with kernel factors
+     * are the same.
+     */
+    @Test
+    public void testDot01() {
+        int[] factors = new int[2 * maxLength];
+        for (int k = 0; k < factors.length; k++) {
+            factors[k] = random.nextInt(1000);
+        }
+        for (int length = 0; length <= maxLength; length++) {
+            double[] w = new double[length];
+            for (int b = 0; b < length; b++) {
+                w[b] = random.nextDouble();
+            }
+            int offset = random.nextInt(maxLength);
+            double expected = scalar.dot(w, factors, offset, length);
+            double actual = arithmetic.dot(w, factors, offset, length);
+            assertEquals(expected, actual, 1e-12 * Math.abs(expected));
+        }
+    }
+}
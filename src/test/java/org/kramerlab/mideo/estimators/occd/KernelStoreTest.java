@@ -0,0 +1,333 @@
+/**
+ * MiDEO: a framework to perform data mining on probabilistic condensed
+ * representations
+ * Copyright (C) 2016 Michael Geilke
+ *
+ * This file is part of MiDEO.
+ *
+ * MiDEO is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * MiDEO is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package org.kramerlab.mideo.estimators.occd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Michael Geilke
+ */
+public class KernelStoreTest {
+
+    private final int numBins = 4;
+    private File directory;
+    private KernelStore store;
+
+    // reference of the stored kernels: the i-th kernel of the store
+    // has mean means.get(i), bandwidth sigmas.get(i), key keys.get(i),
+    // and factor factors.get(i)
+    private List<Double> means;
+    private List<Double> sigmas;
+    private List<Integer> keys;
+    private List<int[]> factors;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("mideo-test-").toFile();
+        use(KernelStore.Storage.HEAP);
+    }
+
+    @After
+    public void tearDown() {
+        store.release();
+        store = null;
+        means = null;
+        sigmas = null;
+        keys = null;
+        factors = null;
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        directory = null;
+    }
+
+    /**
+     * Adds, merges, copies, and removes kernels with sparse and dense
+     * factors in random order and checks after every operation whether
+     * the store contains the same kernels as a list of kernels, for
+     * every kind of storage.
+     */
+    @Test
+    public void testOperations01() {
+        for (KernelStore.Storage storage : KernelStore.Storage.values()) {
+            use(storage);
+            applyRandomOperations(2000);
+        }
+    }
+
+    /**
+     * Adds so many kernels with dense factors to memory-mapped stores
+     * that their buffers have to grow several times and checks whether
+     * the kernels are kept and whether the files grow accordingly.
+     */
+    @Test
+    public void testGrow01() {
+        use(KernelStore.Storage.MAPPED);
+        for (int n = 0; n < 5000; n++) {
+            add(n, 0.1, n, new int[] {n, 1, n % 3, 2});
+        }
+        check();
+
+        File[] files = ((BufferKernelStore) store).getFiles();
+        assertEquals(2, files.length);
+        assertTrue(files[0].length() >= 5000 * (2 * Double.BYTES 
+                                                + 4 * Integer.BYTES));
+        assertTrue(files[1].length() >= 5000 * numBins * Integer.BYTES);
+    }
+
+    /**
+     * Checks whether the files of a memory-mapped store are deleted
+     * when it is released.
+     */
+    @Test
+    public void testRelease01() {
+        use(KernelStore.Storage.MAPPED);
+        applyRandomOperations(100);
+        File[] files = ((BufferKernelStore) store).getFiles();
+        assertEquals(2, directory.listFiles().length);
+        store.release();
+        for (File file : files) {
+            assertTrue(!file.exists());
+        }
+        assertEquals(0, ((BufferKernelStore) store).getFiles().length);
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    /**
+     * Checks whether empty stores (e.g., of templates) and their copies
+     * do not create files and whether the files of a store that has
+     * become unreachable without being released are deleted.
+     */
+    @Test
+    public void testCleanup01() throws Exception {
+        use(KernelStore.Storage.MAPPED);
+        BufferKernelStore template = (BufferKernelStore) store;
+        BufferKernelStore copy = copy(template);
+        assertTrue(!template.isAllocated());
+        assertTrue(!copy.isAllocated());
+        assertEquals(0, directory.listFiles().length);
+
+        add(0.0, 0.1, 0, new int[] {1, 1, 0, 0});
+        copy = copy(template);
+        assertTrue(copy.isAllocated());
+        assertEquals(4, directory.listFiles().length);
+        copy = null;
+        for (int n = 0; n < 100 && directory.listFiles().length > 2; n++) {
+            System.gc();
+            Thread.sleep(10);
+            BufferKernelStore.deleteUnreachableFiles();
+        }
+        assertEquals(2, directory.listFiles().length);
+        check();
+    }
+
+    /* Replaces the store by an empty one with the given storage. */
+    private void use(KernelStore.Storage storage) {
+        if (store != null) {
+            store.release();
+        }
+        this.store = KernelStore.create(storage, numBins, 2, directory,
+                                        false);
+        this.means = new ArrayList<>();
+        this.sigmas = new ArrayList<>();
+        this.keys = new ArrayList<>();
+        this.factors = new ArrayList<>();
+    }
+
+    /* Copies a store by serialization. */
+    private BufferKernelStore copy(BufferKernelStore original) 
+            throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(original);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                 new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (BufferKernelStore) in.readObject();
+        }
+    }
+
+    /* Applies n random operations to the store and checks it after
+     * each of them. */
+    private void applyRandomOperations(int numOperations) {
+        Random random = new Random(1);
+        KernelStore other = KernelStore.create(KernelStore.Storage.HEAP,
+                                               numBins, 2, null, false);
+        other.add(-1.5, 0.5, 7, new int[] {1, 0, 2, 3});
+        for (int n = 0; n < numOperations; n++) {
+            int op = random.nextInt(5);
+            if (op == 0 || store.size() < 2) {
+                int[] factor = new int[numBins];
+                factor[random.nextInt(numBins)] = 1 + random.nextInt(3);
+                if (random.nextBoolean()) {
+                    factor[random.nextInt(numBins)] += 1;
+                }
+                add(random.nextGaussian(), random.nextDouble(), 
+                    random.nextInt(100), factor);
+            } else if (op == 1) {
+                add(random.nextGaussian(), 0.1, 3, random.nextInt(numBins),
+                    1 + random.nextInt(3));
+            } else if (op == 2) {
+                int i = random.nextInt(store.size());
+                int j = random.nextInt(store.size());
+                if (i != j) {
+                    merge(i, j, random.nextGaussian(), random.nextDouble());
+                }
+            } else if (op == 3) {
+                remove(random.nextInt(store.size()));
+            } else {
+                assertEquals(means.size(), store.copy(other, 0));
+                means.add(-1.5);
+                sigmas.add(0.5);
+                keys.add(7);
+                factors.add(new int[] {1, 0, 2, 3});
+            }
+            check();
+        }
+    }
+
+    /**
+     * Checks whether kernels with at most one non-zero multiplier do
+     * not occupy a row of the packed matrix and whether the rows of
+     * removed kernels are reused.
+     */
+    @Test
+    public void testBytes01() {
+        long sparseBytes = 2 * Double.BYTES + 4 * Integer.BYTES;
+        long rowBytes = numBins * Integer.BYTES;
+        for (int n = 0; n < 10; n++) {
+            add(n, 0.1, 0, n % numBins, 1);
+        }
+        add(0.0, 0.1, 0, new int[] {0, 0, 0, 0});
+        assertEquals(11 * sparseBytes, store.getBytes());
+        assertEquals(0, store.getSavedBytes());
+
+        add(0.0, 0.1, 0, new int[] {1, 1, 0, 0});
+        assertEquals(12 * sparseBytes + rowBytes, store.getBytes());
+        for (int n = 0; n < 5; n++) {
+            remove(means.size() - 1);
+            add(1.0, 0.1, 0, new int[] {0, 2, 0, 1});
+            check();
+        }
+        assertEquals(12 * sparseBytes + rowBytes, store.getBytes());
+    }
+
+    /* Adds a kernel to the store and to the reference. */
+    private void add(double mean, double sigma, int key, int[] factor) {
+        assertEquals(means.size(), store.add(mean, sigma, key, factor));
+        means.add(mean);
+        sigmas.add(sigma);
+        keys.add(key);
+        factors.add(factor.clone());
+    }
+
+    /* Adds a kernel with a sparse factor to the store and to the
+     * reference. */
+    private void add(double mean, double sigma, int key, int bin, 
+                     int multiplier) {
+        assertEquals(means.size(), 
+                     store.addSparse(mean, sigma, key, bin, multiplier));
+        int[] factor = new int[numBins];
+        factor[bin] = multiplier;
+        means.add(mean);
+        sigmas.add(sigma);
+        keys.add(key);
+        factors.add(factor);
+    }
+
+    /* Merges kernel j into kernel i in the store and in the
+     * reference. */
+    private void merge(int i, int j, double mean, double sigma) {
+        store.merge(i, j, mean, sigma);
+        int[] factor = factors.get(i).clone();
+        for (int b = 0; b < numBins; b++) {
+            factor[b] += factors.get(j)[b];
+        }
+        means.set(i, mean);
+        sigmas.set(i, sigma);
+        factors.set(i, factor);
+    }
+
+    /* Removes kernel i from the store and from the reference, where
+     * the last kernel takes its place. */
+    private void remove(int i) {
+        int last = means.size() - 1;
+        assertEquals((i == last) ? -1 : last, store.remove(i));
+        means.set(i, means.get(last));
+        sigmas.set(i, sigmas.get(last));
+        keys.set(i, keys.get(last));
+        factors.set(i, factors.get(last));
+        means.remove(last);
+        sigmas.remove(last);
+        keys.remove(last);
+        factors.remove(last);
+    }
+
+    /* Checks whether the store contains the kernels of the
+     * reference. */
+    private void check() {
+        double[] w = {0.5, 2.0, 1.0, 0.25};
+        int n = means.size();
+        assertEquals(n, store.size());
+        double[] weights = new double[n];
+        store.getWeights(null, 0, n, w, weights);
+        for (int i = 0; i < n; i++) {
+            assertEquals(means.get(i), store.getMean(i), 0.0);
+            assertEquals(sigmas.get(i), store.getSigma(i), 0.0);
+            assertEquals((int) keys.get(i), store.getKey(i));
+            double alpha = 0.0;
+            double weight = 0.0;
+            double[] expected = new double[numBins];
+            for (int b = 0; b < numBins; b++) {
+                int m = factors.get(i)[b];
+                assertEquals(m, store.getMultiplier(i, b));
+                alpha += m;
+                weight += w[b] * m;
+                expected[b] = 3.0 * m;
+            }
+            assertEquals(alpha, store.getAlpha(i), 0.0);
+            assertEquals(weight, store.getWeight(i, w), 1e-12);
+            assertEquals(weight, weights[i], 1e-12);
+            double[] out = new double[numBins];
+            store.addFactor(i, 3.0, out);
+            for (int b = 0; b < numBins; b++) {
+                assertEquals(expected[b], out[b], 0.0);
+            }
+        }
+    }
+}